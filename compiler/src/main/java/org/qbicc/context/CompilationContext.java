@@ -103,6 +103,13 @@ public interface CompilationContext extends DiagnosticContext {
      */
     void registerEntryPoint(ExecutableElement method);
 
+    /**
+     * Get the methods which were registered as entry points.
+     *
+     * @return the entry points (not {@code null})
+     */
+    Iterable<ExecutableElement> getEntryPoints();
+
     Path getOutputDirectory();
 
     Path getOutputFile(DefinedTypeDefinition type, String suffix);
@@ -267,6 +267,28 @@ public final class Facts {
         return fact1.getElementType().isInstance(item) && fact2.getElementType().isInstance(item) && fact3.getElementType().isInstance(item) && hadAnyFactBits(item, 1L << getFactIndex(fact1) | 1L << getFactIndex(fact2) | 1L << getFactIndex(fact3));
     }
 
+    /**
+     * Visit each item which had the given fact in the previous phase.
+     *
+     * @param fact the fact (must not be {@code null})
+     * @param consumer the item consumer (must not be {@code null})
+     * @param <E> the item type
+     */
+    public <E> void visitPreviousFacts(Fact<E> fact, Consumer<? super E> consumer) {
+        PerPhase previous = getPreviousPerPhase();
+        if (previous == null) {
+            return;
+        }
+        long factBits = 1L << getFactIndex(fact);
+        Class<E> elementType = fact.getElementType();
+        for (Map.Entry<Object, long[]> entry : previous.facts.entrySet()) {
+            Object item = entry.getKey();
+            if ((entry.getValue()[0] & factBits) == factBits && elementType.isInstance(item)) {
+                consumer.accept(elementType.cast(item));
+            }
+        }
+    }
+
     public <E> void registerInlineAction(Condition<? extends Fact<? super E>> condition, BiConsumer<E, Facts> action) {
         condition.getRegisterFunction((facts, bits) -> facts.registerAction(bits, action)).accept(this, 0);
     }
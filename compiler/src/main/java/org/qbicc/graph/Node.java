@@ -116,6 +116,15 @@ public interface Node {
             return new Copier(entryBlock, builder, param, nodeVisitorFactory).copyProgram();
         }
 
+        /**
+         * Get the entry block of the original subprogram being copied.
+         *
+         * @return the original entry block (not {@code null})
+         */
+        public BasicBlock getEntryBlock() {
+            return entryBlock;
+        }
+
         public BasicBlockBuilder getBlockBuilder() {
             return blockBuilder;
         }
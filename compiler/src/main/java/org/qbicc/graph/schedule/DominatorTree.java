@@ -0,0 +1,102 @@
+package org.qbicc.graph.schedule;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import io.smallrye.common.constraint.Assert;
+import org.qbicc.graph.BasicBlock;
+
+/**
+ * The dominator tree of a method body, for use by analyses which run outside of scheduling.
+ * Unlike the scheduler, building the tree does not modify the blocks of the method body.
+ */
+public final class DominatorTree {
+    private final BlockInfo[] allBlocks;
+    private final Map<BasicBlock, BlockInfo> blockInfos;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param entryBlock the entry block (must not be {@code null})
+     */
+    public DominatorTree(BasicBlock entryBlock) {
+        Assert.checkNotNullParam("entryBlock", entryBlock);
+        int[] indexHolder = new int[] { 2 };
+        Map<BasicBlock, BlockInfo> blockInfos = new HashMap<>();
+        BlockInfo root = new BlockInfo(entryBlock, 1);
+        root.computeIndices(blockInfos, indexHolder);
+        BlockInfo[] allBlocks = new BlockInfo[indexHolder[0] - 1];
+        for (BlockInfo blockInfo : blockInfos.values()) {
+            allBlocks[blockInfo.index - 1] = blockInfo;
+        }
+        new DominatorFinder(allBlocks).main();
+        this.allBlocks = allBlocks;
+        this.blockInfos = blockInfos;
+    }
+
+    /**
+     * Determine whether the first block dominates the second block.  Every block dominates itself.
+     *
+     * @param dominator the possible dominator (must not be {@code null})
+     * @param block the possibly dominated block (must not be {@code null})
+     * @return {@code true} if both blocks are reachable and {@code dominator} dominates {@code block}
+     */
+    public boolean dominates(BasicBlock dominator, BasicBlock block) {
+        BlockInfo dominatorInfo = blockInfos.get(dominator);
+        BlockInfo blockInfo = blockInfos.get(block);
+        return dominatorInfo != null && blockInfo != null && dominatorInfo.dominates(allBlocks, blockInfo);
+    }
+
+    /**
+     * Get the immediate dominator of a block.
+     *
+     * @param block the block (must not be {@code null})
+     * @return the immediate dominator, or {@code null} if the block is the entry block or is not reachable
+     */
+    public BasicBlock getImmediateDominator(BasicBlock block) {
+        BlockInfo blockInfo = blockInfos.get(block);
+        if (blockInfo == null || blockInfo.dominator == 0) {
+            return null;
+        }
+        return allBlocks[blockInfo.dominator - 1].block;
+    }
+
+    /**
+     * Get the blocks of the natural loop with the given header, which consists of the header and every block that
+     * reaches a back edge to the header without passing through the header.
+     *
+     * @param header the loop header (must not be {@code null})
+     * @return the loop blocks, starting with the header, or an empty set if the block is not a loop header
+     */
+    public Set<BasicBlock> getNaturalLoop(BasicBlock header) {
+        if (! blockInfos.containsKey(header)) {
+            return Set.of();
+        }
+        LinkedHashSet<BasicBlock> loop = new LinkedHashSet<>();
+        ArrayDeque<BasicBlock> queue = new ArrayDeque<>();
+        for (BasicBlock incoming : header.getIncoming()) {
+            if (dominates(header, incoming)) {
+                // back edge
+                queue.add(incoming);
+            }
+        }
+        if (queue.isEmpty()) {
+            return Set.of();
+        }
+        loop.add(header);
+        BasicBlock block;
+        while ((block = queue.poll()) != null) {
+            if (loop.add(block)) {
+                for (BasicBlock incoming : block.getIncoming()) {
+                    if (blockInfos.containsKey(incoming)) {
+                        queue.add(incoming);
+                    }
+                }
+            }
+        }
+        return loop;
+    }
+}
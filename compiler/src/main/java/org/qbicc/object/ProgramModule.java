@@ -377,6 +377,17 @@ public final class ProgramModule {
         };
     }
 
+    /**
+     * Get all of the functions defined in this module, in the order in which they were added.
+     *
+     * @return the list of functions (not {@code null})
+     */
+    public List<Function> functions() {
+        synchronized (this) {
+            return List.copyOf(functions);
+        }
+    }
+
     public Function getFunction(final int fnIndex) {
         synchronized (this) {
             return functions.get(fnIndex);
@@ -119,6 +119,10 @@ public class TestClassContext implements ClassContext {
 
         }
 
+        public Iterable<ExecutableElement> getEntryPoints() {
+            return List.of();
+        }
+
         public Path getOutputDirectory() {
             return null;
         }
@@ -0,0 +1,229 @@
+package org.qbicc.driver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+import org.jboss.logging.Logger;
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.type.definition.element.ExecutableElement;
+
+/**
+ * Change tracking for the iterated {@code ANALYZE} phase.  Each copied method body is rendered to a canonical text
+ * which captures its scheduled instructions, their types, their operands, and their own properties which are not
+ * operands (such as the field of a field pointer, the type of a type check, the initializer of an initialization check,
+ * or the access mode of a memory operation).  Literal operands (including invocation targets) are rendered by value
+ * and other operands by their position in the schedule.  Only the SHA-256 digest of the text is kept.
+ * At the end of each iteration the digests are compared to those of the previous iteration; when the set of
+ * copied methods and all of their digests are unchanged, another iteration would reproduce the same program, so
+ * the phase has reached a fixed point.
+ * <p>
+ * This stops the phase for the whole program at once.  Methods are not tracked individually, so as long as any body
+ * changes, every reachable method is copied again.  Skipping the copy of an unchanged method is not possible, because
+ * the copy is what registers the reachability, facts, and entry points contributed by that method for the next phase.
+ * The time spent computing digests is logged with each iteration so that its overhead can be compared with the
+ * duration of the phase.
+ * <p>
+ * The inputs of an {@code ANALYZE} copy are the previous body of the method, the bodies of its inlinees, and the facts
+ * and reachability information discovered while copying the previous iteration's bodies.  All of these are derived from
+ * method bodies, so an iteration in which no body changed is a fixed point for all of them.
+ */
+final class AnalyzeFixpoint {
+    private static final Logger log = Logger.getLogger("org.qbicc.driver");
+    private static final AttachmentKey<AnalyzeFixpoint> KEY = new AttachmentKey<>();
+
+    private Map<Object, ByteBuffer> previous = Map.of();
+    private volatile Map<Object, ByteBuffer> current = new ConcurrentHashMap<>();
+    private final LongAdder digestNanos = new LongAdder();
+    private int changed;
+    private long iterationDigestNanos;
+
+    AnalyzeFixpoint() {}
+
+    static AnalyzeFixpoint install(CompilationContext ctxt) {
+        AnalyzeFixpoint fixpoint = new AnalyzeFixpoint();
+        AnalyzeFixpoint appearing = ctxt.putAttachmentIfAbsent(KEY, fixpoint);
+        return appearing != null ? appearing : fixpoint;
+    }
+
+    /**
+     * Run the iterations of the phase.  With a change tracker, the iterations stop early once one of them reaches a
+     * fixed point; the first iteration has nothing to compare against, so at least two are run (if allowed).
+     *
+     * @param maxIterations the number of iterations to run if no fixed point is reached
+     * @param fixpoint the change tracker, or {@code null} to run every iteration
+     * @param iteration runs one iteration, returning {@code false} if the phase must stop because of errors
+     * @return the number of iterations run, or {@code -1} if an iteration failed
+     */
+    static int iterate(int maxIterations, AnalyzeFixpoint fixpoint, BooleanSupplier iteration) {
+        for (int i = 0; i < maxIterations; i ++) {
+            if (! iteration.getAsBoolean()) {
+                return -1;
+            }
+            if (fixpoint != null) {
+                boolean done = fixpoint.completeIteration();
+                log.debugf("Analysis iteration %d changed %d of %d method bodies (%d ms computing digests)", Integer.valueOf(i + 1), Integer.valueOf(fixpoint.getChangedCount()), Integer.valueOf(fixpoint.getCopiedCount()), Long.valueOf(TimeUnit.NANOSECONDS.toMillis(fixpoint.getDigestNanos())));
+                if (done) {
+                    // another iteration would produce the same program
+                    return i + 1;
+                }
+            }
+        }
+        return maxIterations;
+    }
+
+    /**
+     * Get the installed change tracker, if any.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the change tracker, or {@code null} if fixed point detection is not enabled
+     */
+    static AnalyzeFixpoint getIfInstalled(CompilationContext ctxt) {
+        return ctxt.getAttachment(KEY);
+    }
+
+    /**
+     * Record the newly copied body of the given element for this iteration.
+     *
+     * @param element the element (must not be {@code null})
+     * @param entryBlock the scheduled entry block of the new body (must not be {@code null})
+     */
+    void recordBody(ExecutableElement element, BasicBlock entryBlock) {
+        long start = System.nanoTime();
+        ByteBuffer digest = digestOf(entryBlock);
+        digestNanos.add(System.nanoTime() - start);
+        recordDigest(element, digest);
+    }
+
+    /**
+     * Record the digest of the newly copied body of the given element for this iteration.
+     *
+     * @param element the element, or another key which identifies the body (must not be {@code null})
+     * @param digest the digest of the body (must not be {@code null})
+     */
+    void recordDigest(Object element, ByteBuffer digest) {
+        current.put(element, digest);
+    }
+
+    /**
+     * Finish an iteration of the phase.  Must not be called concurrently with {@link #recordBody}.
+     *
+     * @return {@code true} if the iteration reached a fixed point, or {@code false} if something changed
+     */
+    boolean completeIteration() {
+        Map<Object, ByteBuffer> current = this.current;
+        Map<Object, ByteBuffer> previous = this.previous;
+        int changed = 0;
+        for (Map.Entry<Object, ByteBuffer> entry : current.entrySet()) {
+            if (! entry.getValue().equals(previous.get(entry.getKey()))) {
+                changed ++;
+            }
+        }
+        for (Object element : previous.keySet()) {
+            if (! current.containsKey(element)) {
+                changed ++;
+            }
+        }
+        this.changed = changed;
+        this.iterationDigestNanos = digestNanos.sumThenReset();
+        this.previous = current;
+        this.current = new ConcurrentHashMap<>(current.size());
+        // the first iteration has nothing to compare against
+        return changed == 0 && ! previous.isEmpty();
+    }
+
+    /**
+     * Get the number of methods which were added, removed, or changed in the most recently completed iteration.
+     *
+     * @return the number of changed methods
+     */
+    int getChangedCount() {
+        return changed;
+    }
+
+    /**
+     * Get the number of method bodies copied in the most recently completed iteration.
+     *
+     * @return the number of copied methods
+     */
+    int getCopiedCount() {
+        return previous.size();
+    }
+
+    /**
+     * Get the total time spent computing digests in the most recently completed iteration, summed over all threads.
+     *
+     * @return the time in nanoseconds
+     */
+    long getDigestNanos() {
+        return iterationDigestNanos;
+    }
+
+    private static ByteBuffer digestOf(BasicBlock entryBlock) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder b = new StringBuilder();
+        Set<BasicBlock> visited = new HashSet<>();
+        ArrayDeque<BasicBlock> work = new ArrayDeque<>();
+        visited.add(entryBlock);
+        work.add(entryBlock);
+        BasicBlock block;
+        while ((block = work.poll()) != null) {
+            b.append("block ").append(block.getIndex()).append('\n');
+            for (Node node : block.getInstructions()) {
+                render(node, b);
+            }
+            Terminator terminator = block.getTerminator();
+            int cnt = terminator.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                BasicBlock successor = terminator.getSuccessor(i);
+                b.append("-> ").append(successor.getIndex()).append('\n');
+                if (visited.add(successor)) {
+                    work.add(successor);
+                }
+            }
+            digest.update(b.toString().getBytes(StandardCharsets.UTF_8));
+            b.setLength(0);
+        }
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    private static void render(Node node, StringBuilder b) {
+        // the structural hash code of a node depends on the identity of block parameters, which are new in every
+        // iteration; the rendered node instead refers to other nodes by schedule position, and includes every property
+        b.append(node.getClass().getName()).append(' ').append(node);
+        if (node instanceof Value value) {
+            b.append(" : ").append(value.getType());
+        }
+        int cnt = node.getValueDependencyCount();
+        for (int i = 0; i < cnt; i ++) {
+            Value dep = node.getValueDependency(i);
+            if (dep instanceof Literal) {
+                // literals are rendered by value
+                b.append(" (").append(dep).append(" : ").append(dep.getType()).append(')');
+            } else {
+                b.append(" #").append(dep.getScheduleIndex());
+            }
+        }
+        b.append('\n');
+    }
+}
@@ -2,11 +2,9 @@ package org.qbicc.driver;
 
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
-import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -39,6 +37,7 @@ import org.qbicc.object.ModuleSection;
 import org.qbicc.object.ProgramModule;
 import org.qbicc.object.Section;
 import org.qbicc.object.Segment;
+import org.qbicc.plugin.metrics.Metrics;
 import org.qbicc.type.StructType;
 import org.qbicc.type.FunctionType;
 import org.qbicc.type.InstanceMethodType;
@@ -73,7 +72,7 @@ final class CompilationContextImpl implements CompilationContext {
     private final LiteralFactory literalFactory;
     private final BaseDiagnosticContext baseDiagnosticContext;
     private final ConcurrentMap<VmClassLoader, ClassContext> classLoaderContexts = new ConcurrentHashMap<>();
-    final Queue<Object> queue = new ArrayDeque<>();
+    final TaskQueue queue;
     final Set<ExecutableElement> entryPoints = ConcurrentHashMap.newKeySet();
     final ClassContext bootstrapClassContext;
     final Function<VmClassLoader, ClassContext> platformClassContextFactory;
@@ -111,6 +110,7 @@ final class CompilationContextImpl implements CompilationContext {
         this.blockFactory = builder.initialBlockFactory;
         this.typeBuilderFactories = builder.typeBuilderFactories;
         this.nativeMethodConfigurator = builder.nativeMethodConfigurator;
+        queue = new TaskQueue(Metrics.get(this).getOrCreateRootCountMetric("compiler tasks"));
         implicitSection = Section.defineSection(this, 0, IMPLICIT_SECTION_NAME, Segment.DATA);
         handleNewClassContext(bootstrapClassContext);
         // last!
@@ -312,11 +312,7 @@ final class CompilationContextImpl implements CompilationContext {
 
     @Override
     public <T> void submitTask(T item, Consumer<T> itemConsumer) {
-        synchronized (queue) {
-            queue.add(item);
-            queue.add(itemConsumer);
-            queue.notify();
-        }
+        queue.submit(item, itemConsumer);
     }
 
     @Override
@@ -634,6 +630,7 @@ final class CompilationContextImpl implements CompilationContext {
     private final Runnable threadTask = new Runnable() {
         public void run() {
             CompilationContextImpl lock = CompilationContextImpl.this;
+            queue.registerWorker();
             synchronized (lock) {
                 activeThreads ++;
             }
@@ -684,6 +681,7 @@ final class CompilationContextImpl implements CompilationContext {
                                 continue inner;
                             }
                             case ST_EXIT: {
+                                queue.unregisterWorker();
                                 if (--activeThreads == 0) {
                                     lock.notifyAll();
                                 }
@@ -775,57 +773,23 @@ final class CompilationContextImpl implements CompilationContext {
         return copier;
     }
 
-    int waiting;
-
     void processQueue() {
-        synchronized (this) {
-            waiting = 0;
-        }
-        runParallelTask(ctxt -> {
-            Object item;
-            Consumer<?> consumer;
-            for (;;) {
-                synchronized (queue) {
-                    item = queue.poll();
-                    if (item == null) {
-                        waiting++;
-                        if (waiting == activeThreads) {
-                            // no elements left! let everyone know
-                            queue.notifyAll();
-                            return;
-                        }
-                        for (;;) {
-                            try {
-                                queue.wait();
-                            } catch (InterruptedException ignored) {
-                                // safe to ignore
-                            }
-                            item = queue.poll();
-                            if (item != null) {
-                                break;
-                            }
-                            if (waiting == activeThreads) {
-                                // awoken from sleep to exit
-                                return;
-                            }
-                        }
-                        waiting--;
-                    }
-                    consumer = (Consumer<?>) queue.poll();
-                }
-                assert consumer != null;
-                try {
-                    safeAccept(consumer, item);
-                } catch (Throwable e) {
-                    log.error("An exception was thrown from a queue processing task", e);
-                    if (item instanceof Locatable loc) {
-                        error(loc.getLocation(), "Exception while processing queue task %s for %s: %s", consumer, item, e);
-                    } else {
-                        error("Exception while processing queue task %s for %s: %s", consumer, item, e);
-                    }
-                }
+        runParallelTask(ctxt -> queue.process(this::runQueueTask));
+    }
+
+    private void runQueueTask(TaskQueue.Task task) {
+        Object item = task.item();
+        Consumer<?> consumer = task.consumer();
+        try {
+            safeAccept(consumer, item);
+        } catch (Throwable e) {
+            log.error("An exception was thrown from a queue processing task", e);
+            if (item instanceof Locatable loc) {
+                error(loc.getLocation(), "Exception while processing queue task %s for %s: %s", consumer, item, e);
+            } else {
+                error("Exception while processing queue task %s for %s: %s", consumer, item, e);
             }
-        });
+        }
     }
 
     static <T> void safeAccept(Consumer<T> consumer, Object item) {
@@ -86,6 +86,7 @@ public class Driver implements Closeable {
     final long stackSize;
     final Consumer<ClassContext> classContextListener;
     final int optLevel;
+    final boolean analyzeFixpoint;
 
     Driver(final Builder builder) {
         initialContext = Assert.checkNotNullParam("builder.initialContext", builder.initialContext);
@@ -180,6 +181,7 @@ public class Driver implements Closeable {
         threadsPerCpu = builder.threadsPerCpu;
         stackSize = builder.stackSize;
         optLevel = builder.optLevel;
+        analyzeFixpoint = builder.analyzeFixpoint;
         compilationContext.putAttachment(KEY, this);
     }
 
@@ -493,54 +495,10 @@ public class Driver implements Closeable {
 
         // ANALYZE phase
 
-        for (int i = 0; i < 1 << optLevel; i ++) {
-            Phase.ANALYZE.setCurrent(compilationContext);
-
-            compilationContext.setBlockFactory(analyzeBuilderFactory);
-            compilationContext.setCopier(addToAnalyzeCopiers);
-
-            compilationContext.setTaskRunner(Consumer::accept);
-
-            for (Consumer<? super CompilationContext> hook : preAnalyzeHooks) {
-                try {
-                    hook.accept(compilationContext);
-                } catch (Exception e) {
-                    log.error("An exception was thrown in a pre-analyze hook", e);
-                    compilationContext.error("Pre-analyze hook failed: %s", e);
-                }
-                if (compilationContext.errors() > 0) {
-                    // bail out
-                    return false;
-                }
-            }
-
-            // In this phase we start from the entry points again, and then copy (and filter) all of the nodes to a smaller reachable set
-
-            for (ExecutableElement entryPoint : compilationContext.getEntryPoints()) {
-                compilationContext.enqueue(entryPoint);
-            }
-
-            compilationContext.processQueue();
-
-            if (compilationContext.errors() > 0) {
-                // bail out
-                return false;
-            }
-
-            for (Consumer<? super CompilationContext> hook : postAnalyzeHooks) {
-                try {
-                    hook.accept(compilationContext);
-                } catch (Exception e) {
-                    log.error("An exception was thrown in a post-analyze hook", e);
-                    compilationContext.error("Post-analyze hook failed: %s", e);
-                }
-                if (compilationContext.errors() > 0) {
-                    // bail out
-                    return false;
-                }
-            }
-
-            compilationContext.cyclePhaseAttachments();
+        AnalyzeFixpoint fixpoint = analyzeFixpoint ? AnalyzeFixpoint.install(compilationContext) : null;
+        if (AnalyzeFixpoint.iterate(1 << optLevel, fixpoint, this::analyze) == -1) {
+            // bail out
+            return false;
         }
 
         // LOWER phase
@@ -630,6 +588,57 @@ public class Driver implements Closeable {
         return compilationContext.errors() == 0;
     }
 
+    private boolean analyze() {
+        Phase.ANALYZE.setCurrent(compilationContext);
+
+        compilationContext.setBlockFactory(analyzeBuilderFactory);
+        compilationContext.setCopier(addToAnalyzeCopiers);
+
+        compilationContext.setTaskRunner(Consumer::accept);
+
+        for (Consumer<? super CompilationContext> hook : preAnalyzeHooks) {
+            try {
+                hook.accept(compilationContext);
+            } catch (Exception e) {
+                log.error("An exception was thrown in a pre-analyze hook", e);
+                compilationContext.error("Pre-analyze hook failed: %s", e);
+            }
+            if (compilationContext.errors() > 0) {
+                // bail out
+                return false;
+            }
+        }
+
+        // In this phase we start from the entry points again, and then copy (and filter) all of the nodes to a smaller reachable set
+
+        for (ExecutableElement entryPoint : compilationContext.getEntryPoints()) {
+            compilationContext.enqueue(entryPoint);
+        }
+
+        compilationContext.processQueue();
+
+        if (compilationContext.errors() > 0) {
+            // bail out
+            return false;
+        }
+
+        for (Consumer<? super CompilationContext> hook : postAnalyzeHooks) {
+            try {
+                hook.accept(compilationContext);
+            } catch (Exception e) {
+                log.error("An exception was thrown in a post-analyze hook", e);
+                compilationContext.error("Post-analyze hook failed: %s", e);
+            }
+            if (compilationContext.errors() > 0) {
+                // bail out
+                return false;
+            }
+        }
+
+        compilationContext.cyclePhaseAttachments();
+        return true;
+    }
+
     public void close() {
         for (ClassPathItem item : bootClassPath) {
             item.close();
@@ -678,6 +687,7 @@ public class Driver implements Closeable {
         String mainClass;
         Consumer<ClassContext> classContextListener = Functions.discardingConsumer();
         int optLevel = 1;
+        boolean analyzeFixpoint;
 
         Builder() {}
 
@@ -875,6 +885,19 @@ public class Driver implements Closeable {
             return this;
         }
 
+        /**
+         * Establish whether the {@code ANALYZE} phase should stop iterating as soon as an iteration does not
+         * change any method body.  The optimization level still establishes the maximum number of iterations.
+         *
+         * @param analyzeFixpoint {@code true} to stop iterating at a fixed point, or {@code false} to always run
+         *      every iteration
+         * @return this builder
+         */
+        public Builder setAnalyzeFixpoint(boolean analyzeFixpoint) {
+            this.analyzeFixpoint = analyzeFixpoint;
+            return this;
+        }
+
         public Driver build() {
             return new Driver(this);
         }
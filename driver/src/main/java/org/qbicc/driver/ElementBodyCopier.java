@@ -36,6 +36,10 @@ public final class ElementBodyCopier implements Consumer<ExecutableElement> {
             BasicBlock copyBlock = Node.Copier.execute(entryBlock, builder, compilationContext, copier);
             builder.finish();
             element.replaceMethodBody(MethodBody.of(copyBlock, original.getParameterSlots()));
+            AnalyzeFixpoint fixpoint = AnalyzeFixpoint.getIfInstalled(compilationContext);
+            if (fixpoint != null) {
+                fixpoint.recordBody(element, copyBlock);
+            }
         }
     }
 }
@@ -0,0 +1,226 @@
+package org.qbicc.driver;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import io.smallrye.common.constraint.Assert;
+import org.qbicc.plugin.metrics.CountMetric;
+
+/**
+ * The compiler task queue.  Each compiler thread owns a deque of tasks; tasks submitted from a compiler thread are
+ * pushed on to that thread's deque, and tasks submitted from any other thread go to a shared injection queue.
+ * A thread which runs out of work first drains the injection queue and then steals from the tail of the other threads'
+ * deques.
+ * <p>
+ * Unlike the single FIFO queue that this replaces, tasks are not run in submission order.  A thread takes its own
+ * tasks newest first (LIFO), so that the work a task spawns is processed depth-first while its inputs are still
+ * warm in the cache, and only the injection queue and steals (which take the oldest task of the victim) are FIFO.
+ * No task may depend on being run before or after any other task.
+ * <p>
+ * Quiescence is detected using a single counter of submitted-but-not-completed tasks.  Because a task is only
+ * counted as complete after it has run (and thus after any tasks it submitted have been counted), the counter can
+ * only reach zero when no task is queued or running anywhere, at which point every thread stops processing.
+ */
+final class TaskQueue {
+    private static final Worker[] NO_WORKERS = new Worker[0];
+    private static final int SPINS = 64;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ConcurrentLinkedQueue<Task> injectQueue = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Worker> currentWorker = new ThreadLocal<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final CountMetric executedMetric;
+    private final CountMetric stealsMetric;
+    private final CountMetric idleMetric;
+    private volatile Worker[] workers = NO_WORKERS;
+
+    TaskQueue(CountMetric rootMetric) {
+        executedMetric = rootMetric.getOrAddChild("executed");
+        stealsMetric = rootMetric.getOrAddChild("steals");
+        idleMetric = rootMetric.getOrAddChild("idle");
+    }
+
+    /**
+     * Register the current thread as a compiler thread which owns a task deque.
+     */
+    void registerWorker() {
+        Worker worker = new Worker(Thread.currentThread());
+        synchronized (this) {
+            Worker[] oldWorkers = workers;
+            Worker[] newWorkers = Arrays.copyOf(oldWorkers, oldWorkers.length + 1);
+            newWorkers[oldWorkers.length] = worker;
+            workers = newWorkers;
+        }
+        currentWorker.set(worker);
+    }
+
+    /**
+     * Remove the current thread from the set of compiler threads.  Any tasks remaining on the thread's deque are
+     * moved to the injection queue.
+     */
+    void unregisterWorker() {
+        Worker worker = currentWorker.get();
+        if (worker == null) {
+            return;
+        }
+        currentWorker.remove();
+        synchronized (this) {
+            Worker[] oldWorkers = workers;
+            Worker[] newWorkers = new Worker[oldWorkers.length - 1];
+            int j = 0;
+            for (Worker oldWorker : oldWorkers) {
+                if (oldWorker != worker) {
+                    newWorkers[j++] = oldWorker;
+                }
+            }
+            workers = newWorkers;
+        }
+        Task task;
+        while ((task = worker.deque.pollFirst()) != null) {
+            injectQueue.add(task);
+        }
+    }
+
+    /**
+     * Submit a task.  A task submitted by a compiler thread is the next task that thread runs, unless it is stolen
+     * first.
+     *
+     * @param item the item to pass to the consumer
+     * @param consumer the task consumer (must not be {@code null})
+     */
+    void submit(Object item, Consumer<?> consumer) {
+        Task task = new Task(item, consumer);
+        // count first so that the task is never observed before it is counted
+        pending.getAndIncrement();
+        Worker worker = currentWorker.get();
+        if (worker == null) {
+            injectQueue.add(task);
+        } else {
+            worker.deque.addFirst(task);
+        }
+        wakeOne(worker);
+    }
+
+    /**
+     * Process tasks until the queue is quiescent.  This method is called concurrently by every compiler thread.
+     *
+     * @param runner the task runner (must not be {@code null})
+     */
+    void process(Consumer<Task> runner) {
+        Assert.checkNotNullParam("runner", runner);
+        Worker worker = currentWorker.get();
+        if (worker == null) {
+            throw new IllegalStateException("Tasks may only be processed by compiler threads");
+        }
+        long executed = 0;
+        long steals = 0;
+        long idle = 0;
+        try {
+            int spins = 0;
+            long parkNanos = 0;
+            for (;;) {
+                Task task = worker.deque.pollFirst();
+                if (task == null) {
+                    task = injectQueue.poll();
+                }
+                if (task == null) {
+                    task = steal(worker);
+                    if (task != null) {
+                        steals++;
+                    }
+                }
+                if (task != null) {
+                    spins = 0;
+                    parkNanos = 0;
+                    try {
+                        runner.accept(task);
+                    } finally {
+                        executed++;
+                        if (pending.decrementAndGet() == 0) {
+                            // no elements left! let everyone know
+                            wakeAll();
+                        }
+                    }
+                    continue;
+                }
+                if (pending.get() == 0) {
+                    return;
+                }
+                // some other thread is still running a task which might produce more work
+                if (spins < SPINS) {
+                    if (spins++ == 0) {
+                        idle++;
+                    }
+                    Thread.onSpinWait();
+                    continue;
+                }
+                parkNanos = parkNanos == 0 ? 1000 : Math.min(parkNanos << 1, MAX_PARK_NANOS);
+                worker.parked = true;
+                try {
+                    if (pending.get() != 0 && worker.deque.isEmpty() && injectQueue.isEmpty()) {
+                        LockSupport.parkNanos(this, parkNanos);
+                    }
+                } finally {
+                    worker.parked = false;
+                }
+            }
+        } finally {
+            executedMetric.add(executed);
+            stealsMetric.add(steals);
+            idleMetric.add(idle);
+        }
+    }
+
+    private Task steal(Worker thief) {
+        Worker[] workers = this.workers;
+        int cnt = workers.length;
+        if (cnt > 1) {
+            int start = ThreadLocalRandom.current().nextInt(cnt);
+            for (int i = 0; i < cnt; i ++) {
+                Worker victim = workers[(start + i) % cnt];
+                if (victim != thief) {
+                    Task task = victim.deque.pollLast();
+                    if (task != null) {
+                        return task;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private void wakeOne(Worker submitter) {
+        for (Worker worker : workers) {
+            if (worker != submitter && worker.parked) {
+                LockSupport.unpark(worker.thread);
+                return;
+            }
+        }
+    }
+
+    private void wakeAll() {
+        for (Worker worker : workers) {
+            if (worker.parked) {
+                LockSupport.unpark(worker.thread);
+            }
+        }
+    }
+
+    record Task(Object item, Consumer<?> consumer) {}
+
+    static final class Worker {
+        final Thread thread;
+        final ConcurrentLinkedDeque<Task> deque = new ConcurrentLinkedDeque<>();
+        volatile boolean parked;
+
+        Worker(Thread thread) {
+            this.thread = thread;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.qbicc.driver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the number of {@code ANALYZE} iterations run with and without fixed point detection.
+ */
+public class TestAnalyzeFixpoint {
+    private static final int MAX_ITERATIONS = 8;
+
+    @Test
+    public void testStableProgramStopsAfterTwoIterations() {
+        AtomicInteger runs = new AtomicInteger();
+        // the first iteration has nothing to compare against, so the second one is needed to see the fixed point
+        AnalyzeFixpoint fixpoint = new AnalyzeFixpoint();
+        assertEquals(2, AnalyzeFixpoint.iterate(MAX_ITERATIONS, fixpoint, program(fixpoint, runs, 0)));
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void testConvergingProgramStopsAtFixedPoint() {
+        AtomicInteger runs = new AtomicInteger();
+        AnalyzeFixpoint fixpoint = new AnalyzeFixpoint();
+        // bodies change in iterations 2 and 3, and the 4th reproduces the 3rd
+        assertEquals(4, AnalyzeFixpoint.iterate(MAX_ITERATIONS, fixpoint, program(fixpoint, runs, 3)));
+        assertEquals(4, runs.get());
+        assertEquals(0, fixpoint.getChangedCount());
+        assertEquals(2, fixpoint.getCopiedCount());
+    }
+
+    @Test
+    public void testChangingProgramRunsEveryIteration() {
+        AtomicInteger runs = new AtomicInteger();
+        AnalyzeFixpoint fixpoint = new AnalyzeFixpoint();
+        assertEquals(MAX_ITERATIONS, AnalyzeFixpoint.iterate(MAX_ITERATIONS, fixpoint, program(fixpoint, runs, Integer.MAX_VALUE)));
+        assertEquals(MAX_ITERATIONS, runs.get());
+        assertEquals(1, fixpoint.getChangedCount());
+    }
+
+    @Test
+    public void testChangedMethodSetIsNotFixedPoint() {
+        AtomicInteger runs = new AtomicInteger();
+        AnalyzeFixpoint fixpoint = new AnalyzeFixpoint();
+        // every body is the same, but a method becomes unreachable in the second iteration
+        assertEquals(3, AnalyzeFixpoint.iterate(MAX_ITERATIONS, fixpoint, () -> {
+            int run = runs.incrementAndGet();
+            fixpoint.recordDigest("a", digest(0));
+            if (run == 1) {
+                fixpoint.recordDigest("b", digest(0));
+            }
+            return true;
+        }));
+        assertEquals(3, runs.get());
+    }
+
+    @Test
+    public void testWithoutTrackerRunsEveryIteration() {
+        AtomicInteger runs = new AtomicInteger();
+        assertEquals(MAX_ITERATIONS, AnalyzeFixpoint.iterate(MAX_ITERATIONS, null, () -> {
+            runs.incrementAndGet();
+            return true;
+        }));
+        assertEquals(MAX_ITERATIONS, runs.get());
+    }
+
+    @Test
+    public void testSingleIterationIsAlwaysRun() {
+        AtomicInteger runs = new AtomicInteger();
+        // at -O0 there is one iteration, which is run even though it cannot be compared to anything
+        AnalyzeFixpoint fixpoint = new AnalyzeFixpoint();
+        assertEquals(1, AnalyzeFixpoint.iterate(1, fixpoint, program(fixpoint, runs, 0)));
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testFailedIterationStops() {
+        AtomicInteger runs = new AtomicInteger();
+        assertEquals(-1, AnalyzeFixpoint.iterate(MAX_ITERATIONS, new AnalyzeFixpoint(), () -> runs.incrementAndGet() < 2));
+        assertEquals(2, runs.get());
+    }
+
+    /**
+     * A program of two methods, of which the second has a new body in every iteration up to the given one.
+     */
+    private static BooleanSupplier program(AnalyzeFixpoint fixpoint, AtomicInteger runs, int changesUntil) {
+        return () -> {
+            int run = runs.incrementAndGet();
+            fixpoint.recordDigest("a", digest(0));
+            fixpoint.recordDigest("b", digest(Math.min(run, changesUntil)));
+            return true;
+        };
+    }
+
+    private static ByteBuffer digest(int value) {
+        return ByteBuffer.allocate(4).putInt(0, value);
+    }
+}
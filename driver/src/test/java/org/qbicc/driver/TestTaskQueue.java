@@ -0,0 +1,142 @@
+package org.qbicc.driver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.machine.arch.Platform;
+import org.qbicc.plugin.metrics.Metrics;
+import org.qbicc.type.TypeSystem;
+
+/**
+ * Tests of the work-stealing compiler task queue.
+ */
+public class TestTaskQueue {
+    private static final int THREADS = 4;
+
+    @Test
+    @Timeout(60)
+    public void testTerminationWithNestedTasks() throws Exception {
+        TaskQueue queue = new TaskQueue(Metrics.get(newContext()).getOrCreateRootCountMetric("test"));
+        AtomicInteger executed = new AtomicInteger();
+        // a tree of depth 6 with a fan-out of 4, where each task submits its children before returning
+        int depth = 6;
+        int fanOut = 4;
+        Consumer<Integer> spawner = new Consumer<>() {
+            public void accept(Integer level) {
+                executed.incrementAndGet();
+                if (level.intValue() < depth) {
+                    for (int i = 0; i < fanOut; i ++) {
+                        queue.submit(Integer.valueOf(level.intValue() + 1), this);
+                    }
+                }
+            }
+        };
+        // submitted from a thread which is not a compiler thread, so it goes to the injection queue
+        queue.submit(Integer.valueOf(0), spawner);
+        runWorkers(queue, THREADS);
+        int expected = 0;
+        for (int i = 0, n = 1; i <= depth; i ++, n *= fanOut) {
+            expected += n;
+        }
+        assertEquals(expected, executed.get());
+        // the queue is quiescent, so processing again returns immediately
+        runWorkers(queue, 1);
+        assertEquals(expected, executed.get());
+    }
+
+    @Test
+    @Timeout(60)
+    public void testStealingUnderContention() throws Exception {
+        TaskQueue queue = new TaskQueue(Metrics.get(newContext()).getOrCreateRootCountMetric("test"));
+        int count = 10_000;
+        AtomicIntegerArray runs = new AtomicIntegerArray(count);
+        Map<Thread, Boolean> stealers = new ConcurrentHashMap<>();
+        CountDownLatch stolen = new CountDownLatch(1);
+        Thread[] producer = new Thread[1];
+        Consumer<Integer> leaf = idx -> {
+            runs.incrementAndGet(idx.intValue());
+            if (Thread.currentThread() != producer[0]) {
+                stealers.put(Thread.currentThread(), Boolean.TRUE);
+                stolen.countDown();
+            }
+        };
+        Consumer<Integer> root = ignored -> {
+            producer[0] = Thread.currentThread();
+            for (int i = 0; i < count; i ++) {
+                queue.submit(Integer.valueOf(i), leaf);
+            }
+            // every task is on this thread's deque; the others can only get work by stealing it
+            try {
+                assertTrue(stolen.await(30, TimeUnit.SECONDS), "No task was stolen");
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        queue.submit(Integer.valueOf(0), root);
+        runWorkers(queue, THREADS);
+        for (int i = 0; i < count; i ++) {
+            assertEquals(1, runs.get(i), "Task " + i + " was not run exactly once");
+        }
+        assertFalse(stealers.isEmpty());
+    }
+
+    private static void runWorkers(TaskQueue queue, int threadCnt) throws InterruptedException {
+        Throwable[] problems = new Throwable[threadCnt];
+        Thread[] threads = new Thread[threadCnt];
+        // register every worker before any of them starts, so that no worker finds the queue quiescent early
+        CountDownLatch registered = new CountDownLatch(threadCnt);
+        for (int i = 0; i < threadCnt; i ++) {
+            int idx = i;
+            threads[i] = new Thread(() -> {
+                queue.registerWorker();
+                try {
+                    registered.countDown();
+                    registered.await();
+                    queue.process(task -> CompilationContextImpl.safeAccept(task.consumer(), task.item()));
+                } catch (Throwable t) {
+                    problems[idx] = t;
+                } finally {
+                    queue.unregisterWorker();
+                }
+            }, "worker " + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Throwable problem : problems) {
+            if (problem != null) {
+                fail(problem);
+            }
+        }
+    }
+
+    /**
+     * Create a compilation context with no classes and no VM, which is only used to hold the metrics.
+     */
+    private static CompilationContext newContext() {
+        TypeSystem ts = TypeSystem.builder().build();
+        return CompilationContextImpl.builder()
+            .setBaseDiagnosticContext(new BaseDiagnosticContext())
+            .setPlatform(Platform.HOST_PLATFORM)
+            .setTypeSystem(ts)
+            .setLiteralFactory(LiteralFactory.create(ts))
+            .setResolverFactories(List.of())
+            .setTypeBuilderFactories(List.of())
+            .setClassContextListener(classContext -> {})
+            .setVmFactory(ctxt -> null)
+            .build();
+    }
+}
@@ -18,6 +18,7 @@ import org.qbicc.tests.snippets.RuntimeChecks;
 import org.qbicc.tests.snippets.SelectorTest;
 import org.qbicc.tests.snippets.ServiceLoading;
 import org.qbicc.tests.snippets.Synchronized;
+import org.qbicc.tests.snippets.ThinLocks;
 import org.qbicc.tests.snippets.TryCatch;
 
 /**
@@ -54,6 +55,7 @@ public final class TestRunner {
             case "snippet-TryCatch" -> TryCatch.main(testArgs);
             case "snippet-ClassLiteralTests" -> ClassLiteralTests.main(testArgs);
             case "snippet-Synchronized" -> Synchronized.main(testArgs);
+            case "snippet-ThinLocks" -> ThinLocks.main(testArgs);
             default -> {
                 System.err.printf("Unknown test name \"%s\"%n", test);
                 System.exit(1);
@@ -0,0 +1,135 @@
+package org.qbicc.tests.snippets;
+
+import static org.qbicc.runtime.CNative.*;
+
+/**
+ * Exercises the slow paths of thin locks: recursion count overflow, exit with a contended lock, inflation by
+ * {@code wait} and {@code notify}, and threads which start after the thin lock IDs are exhausted.
+ */
+public class ThinLocks {
+    @extern
+    public static native int putchar(int arg);
+
+    public static void putbool(boolean val) {
+        putchar(val ? 'T' : 'F');
+    }
+
+    // more levels than the recursion count of the lock word holds
+    static final int DEPTH = 40;
+    // more threads than there are thin lock IDs
+    static final int THREADS = 66000;
+
+    static int counter;
+    static boolean ready;
+    static boolean woken;
+
+    public static void main(String[] args) throws InterruptedException {
+        recursionOverflow();
+        contendedExit();
+        waitAndNotify();
+        idExhaustion();
+    }
+
+    static void recursionOverflow() throws InterruptedException {
+        Object o = new Object();
+        putbool(enter(o, DEPTH));
+        putbool(! Thread.holdsLock(o));
+        // the inflated monitor was exited as many times as it was entered
+        putbool(lockInOtherThread(o));
+    }
+
+    static boolean enter(Object o, int depth) {
+        synchronized (o) {
+            boolean held = Thread.holdsLock(o);
+            return depth == 0 ? held : enter(o, depth - 1) && held && Thread.holdsLock(o);
+        }
+    }
+
+    static void contendedExit() throws InterruptedException {
+        Object o = new Object();
+        Thread t;
+        synchronized (o) {
+            t = new Thread(() -> {
+                synchronized (o) {
+                    counter ++;
+                }
+            });
+            t.start();
+            // give the other thread time to stop spinning and park on the monitor
+            Thread.sleep(200);
+            putbool(counter == 0);
+        }
+        t.join();
+        putbool(counter == 1);
+        putbool(! Thread.holdsLock(o));
+        synchronized (o) {
+            putbool(Thread.holdsLock(o));
+        }
+    }
+
+    static void waitAndNotify() throws InterruptedException {
+        Object o = new Object();
+        synchronized (o) {
+            synchronized (o) {
+                // waiting inflates the recursively held thin lock, which is held again afterwards
+                o.wait(10);
+                putbool(Thread.holdsLock(o));
+            }
+            putbool(Thread.holdsLock(o));
+        }
+        putbool(! Thread.holdsLock(o));
+        Object p = new Object();
+        Thread t = new Thread(() -> {
+            synchronized (p) {
+                while (! ready) {
+                    try {
+                        p.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                woken = true;
+            }
+        });
+        t.start();
+        synchronized (p) {
+            ready = true;
+            p.notifyAll();
+        }
+        t.join();
+        putbool(woken);
+    }
+
+    static void idExhaustion() throws InterruptedException {
+        Object o = new Object();
+        // each thread takes a thin lock ID the first time it locks an object, and IDs are never reused
+        for (int i = 0; i < THREADS; i ++) {
+            Thread t = new Thread(() -> {
+                synchronized (o) {
+                    counter ++;
+                }
+            });
+            t.start();
+            t.join();
+        }
+        // so a new thread has none, and locks by inflation
+        Object q = new Object();
+        putbool(lockInOtherThread(q));
+        // threads with an ID use the inflated monitor too
+        synchronized (q) {
+            putbool(Thread.holdsLock(q));
+        }
+        putbool(! Thread.holdsLock(q));
+    }
+
+    static boolean lockInOtherThread(Object o) throws InterruptedException {
+        boolean[] locked = new boolean[2];
+        Thread t = new Thread(() -> {
+            locked[0] = enter(o, DEPTH);
+            locked[1] = ! Thread.holdsLock(o);
+        });
+        t.start();
+        t.join();
+        return locked[0] && locked[1];
+    }
+}
@@ -12,5 +12,20 @@ public interface OptInvoker extends LlvmInvoker {
 
     void addOptimizationPass(OptPass level);
 
+    /**
+     * Add a pass to the pipeline by its LLVM pass name (for example, {@code gvn} or {@code licm}).  Passes are run
+     * in the order they were added, after any {@link OptPass} passes.
+     *
+     * @param passName the LLVM pass name (must not be {@code null})
+     */
+    void addOptimizationPass(String passName);
+
+    /**
+     * Get the optimization passes that will be run, in order.
+     *
+     * @return the pass names (not {@code null})
+     */
+    List<String> getOptimizationPasses();
+
     void setOptions(List<String> cmd);
 }
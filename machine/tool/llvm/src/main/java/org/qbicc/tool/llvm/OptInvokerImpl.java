@@ -14,6 +14,7 @@ import org.qbicc.machine.arch.Platform;
 final class OptInvokerImpl extends AbstractLlvmInvoker implements OptInvoker {
     private boolean opaquePointers;
     private List<OptPass> passes = new ArrayList<>();
+    private List<String> namedPasses = new ArrayList<>();
     private List<String> options = List.of();
 
     OptInvokerImpl(final LlvmToolChainImpl tool, final Path path) {
@@ -50,8 +51,29 @@ final class OptInvokerImpl extends AbstractLlvmInvoker implements OptInvoker {
         }
         Platform platform = getTool().getPlatform();
         cmd.add("-mtriple=" + platform.getCpu().toString() + "-" + platform.getOs().toString() + "-" + platform.getAbi().toString());
-        for (OptPass pass : passes) {
-            cmd.add("-" + pass.name);
+        if (namedPasses.isEmpty()) {
+            for (OptPass pass : passes) {
+                cmd.add("-" + pass.name);
+            }
+        } else {
+            // named passes need a new pass manager pipeline, where presets are spelled differently
+            StringBuilder b = new StringBuilder("-passes=");
+            boolean first = true;
+            for (OptPass pass : passes) {
+                if (! first) {
+                    b.append(',');
+                }
+                first = false;
+                b.append(pass.isLevel() ? "default<" + pass.name + ">" : pass.name);
+            }
+            for (String passName : namedPasses) {
+                if (! first) {
+                    b.append(',');
+                }
+                first = false;
+                b.append(passName);
+            }
+            cmd.add(b.toString());
         }
         cmd.addAll(options);
     }
@@ -63,4 +85,17 @@ final class OptInvokerImpl extends AbstractLlvmInvoker implements OptInvoker {
     public void addOptimizationPass(final OptPass pass) {
         passes.add(Assert.checkNotNullParam("pass", pass));
     }
+
+    public void addOptimizationPass(final String passName) {
+        namedPasses.add(Assert.checkNotNullParam("passName", passName));
+    }
+
+    public List<String> getOptimizationPasses() {
+        List<String> list = new ArrayList<>(passes.size() + namedPasses.size());
+        for (OptPass pass : passes) {
+            list.add(pass.name);
+        }
+        list.addAll(namedPasses);
+        return list;
+    }
 }
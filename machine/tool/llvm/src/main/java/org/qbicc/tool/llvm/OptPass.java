@@ -18,4 +18,16 @@ public enum OptPass {
     OptPass(String name) {
         this.name = name;
     }
+
+    /**
+     * Determine whether this pass is an optimization level preset rather than a single pass.
+     *
+     * @return {@code true} if this is an optimization level preset
+     */
+    public boolean isLevel() {
+        return switch (this) {
+            case O0, O1, O2, O3, Os, Oz -> true;
+            default -> false;
+        };
+    }
 }
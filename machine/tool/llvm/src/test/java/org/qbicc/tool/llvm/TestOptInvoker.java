@@ -0,0 +1,82 @@
+package org.qbicc.tool.llvm;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.machine.arch.Platform;
+
+/**
+ * Tests of the command line arguments built for {@code opt}.
+ */
+public class TestOptInvoker {
+    private static final Platform PLATFORM = Platform.parse("x86_64-linux-gnu");
+    private static final String TRIPLE = "-mtriple=x86_64-linux-gnu";
+
+    @Test
+    public void testLegacyPresetAndPasses() {
+        OptInvokerImpl invoker = newInvoker("14");
+        invoker.setOpaquePointers(false);
+        invoker.addOptimizationPass(OptPass.RewriteStatepointsForGc);
+        invoker.addOptimizationPass(OptPass.O2);
+        // without named passes, every pass is a legacy flag, in order
+        assertEquals(List.of(TRIPLE, "-rewrite-statepoints-for-gc", "-O2"), argumentsOf(invoker));
+        assertEquals(List.of("rewrite-statepoints-for-gc", "O2"), invoker.getOptimizationPasses());
+    }
+
+    @Test
+    public void testPipelineWithNamedPasses() {
+        OptInvokerImpl invoker = newInvoker("14");
+        invoker.setOpaquePointers(false);
+        invoker.addOptimizationPass(OptPass.O3);
+        invoker.addOptimizationPass(OptPass.AlwaysInline);
+        invoker.addOptimizationPass("mem2reg");
+        invoker.addOptimizationPass("instcombine");
+        // presets become default<On> pipelines, followed by the other passes and then the named passes
+        assertEquals(List.of(TRIPLE, "-passes=default<O3>,always-inline,mem2reg,instcombine"), argumentsOf(invoker));
+        assertEquals(List.of("O3", "always-inline", "mem2reg", "instcombine"), invoker.getOptimizationPasses());
+    }
+
+    @Test
+    public void testNamedPassesOnly() {
+        OptInvokerImpl invoker = newInvoker("14");
+        invoker.setOpaquePointers(false);
+        invoker.addOptimizationPass("gvn");
+        invoker.setOptions(List.of("-debug-pass-manager"));
+        assertEquals(List.of(TRIPLE, "-passes=gvn", "-debug-pass-manager"), argumentsOf(invoker));
+    }
+
+    @Test
+    public void testOpaquePointerFlags() {
+        OptInvokerImpl invoker = newInvoker("13");
+        invoker.setOpaquePointers(true);
+        assertEquals(List.of("--force-opaque-pointers", TRIPLE), argumentsOf(invoker));
+        invoker = newInvoker("14");
+        invoker.setOpaquePointers(true);
+        assertEquals(List.of("--opaque-pointers", TRIPLE), argumentsOf(invoker));
+        invoker = newInvoker("15");
+        invoker.setOpaquePointers(false);
+        assertEquals(List.of("--opaque-pointers=0", TRIPLE), argumentsOf(invoker));
+        invoker = newInvoker("16");
+        invoker.setOpaquePointers(true);
+        assertEquals(List.of(TRIPLE), argumentsOf(invoker));
+        OptInvokerImpl typed = newInvoker("16");
+        typed.setOpaquePointers(false);
+        assertThrows(IllegalArgumentException.class, () -> argumentsOf(typed));
+    }
+
+    private static OptInvokerImpl newInvoker(String version) {
+        Path opt = Path.of("opt");
+        LlvmToolChainImpl tool = new LlvmToolChainImpl(Path.of("llc"), opt, Path.of("llvm-objcopy"), PLATFORM, version);
+        return new OptInvokerImpl(tool, opt);
+    }
+
+    private static List<String> argumentsOf(OptInvokerImpl invoker) {
+        List<String> cmd = new ArrayList<>();
+        invoker.addArguments(cmd);
+        return cmd;
+    }
+}
@@ -91,8 +91,10 @@ import org.qbicc.plugin.dispatch.DispatchTableEmitter;
 import org.qbicc.plugin.dot.DotGenerator;
 import org.qbicc.plugin.gc.common.GcCommon;
 import org.qbicc.plugin.gc.common.MultiNewArrayExpansionBasicBlockBuilder;
+import org.qbicc.plugin.gc.common.safepoint.LoopSafePointPlacementVisitor;
 import org.qbicc.plugin.gc.common.safepoint.SafePointPlacementBasicBlockBuilder;
 import org.qbicc.plugin.gc.common.safepoint.SafePoints;
+import org.qbicc.plugin.gc.nogc.NoGc;
 import org.qbicc.plugin.gc.nogc.NoGcBasicBlockBuilder;
 import org.qbicc.plugin.gc.nogc.NoGcSetupHook;
 import org.qbicc.plugin.initializationcontrol.QbiccFeatureProcessor;
@@ -101,6 +103,8 @@ import org.qbicc.plugin.instanceofcheckcast.SupersDisplayBuilder;
 import org.qbicc.plugin.instanceofcheckcast.SupersDisplayEmitter;
 import org.qbicc.plugin.intrinsics.IntrinsicBasicBlockBuilder;
 import org.qbicc.plugin.intrinsics.core.CoreIntrinsics;
+import org.qbicc.plugin.layout.FieldAccessProfile;
+import org.qbicc.plugin.layout.FieldAccessProfiler;
 import org.qbicc.plugin.layout.ObjectAccessLoweringBuilder;
 import org.qbicc.plugin.linker.LinkStage;
 import org.qbicc.plugin.llvm.LLVMCompatibleBasicBlockBuilder;
@@ -131,13 +135,20 @@ import org.qbicc.plugin.native_.PointerBasicBlockBuilder;
 import org.qbicc.plugin.native_.PointerTypeResolver;
 import org.qbicc.plugin.native_.StructMemberAccessBasicBlockBuilder;
 import org.qbicc.plugin.initializationcontrol.InitAtRuntimeTypeBuilder;
+import org.qbicc.plugin.objectmonitor.ObjectMonitor;
 import org.qbicc.plugin.objectmonitor.ObjectMonitorBasicBlockBuilder;
 import org.qbicc.plugin.opt.BlockParameterOptimizingVisitor;
+import org.qbicc.plugin.opt.BoundsCheckEliminatingVisitor;
 import org.qbicc.plugin.opt.FinalFieldLoadOptimizer;
 import org.qbicc.plugin.opt.GotoRemovingVisitor;
+import org.qbicc.plugin.opt.ImmutableLoadOptimizingVisitor;
+import org.qbicc.plugin.opt.InitCheckEliminatingVisitor;
+import org.qbicc.plugin.opt.InitCheckPlan;
 import org.qbicc.plugin.opt.InliningBasicBlockBuilder;
+import org.qbicc.plugin.opt.InliningPlan;
 import org.qbicc.plugin.opt.LocalMemoryTrackingBasicBlockBuilder;
 import org.qbicc.plugin.opt.LocalOptBasicBlockBuilder;
+import org.qbicc.plugin.opt.NullCheckEliminatingVisitor;
 import org.qbicc.plugin.opt.ea.EscapeAnalysisDotGenerator;
 import org.qbicc.plugin.opt.ea.EscapeAnalysisDotVisitor;
 import org.qbicc.plugin.opt.ea.EscapeAnalysisInterMethodAnalysis;
@@ -178,6 +189,7 @@ import org.qbicc.plugin.verification.MemberResolvingBasicBlockBuilder;
 import org.qbicc.plugin.vfs.VFS;
 import org.qbicc.plugin.vio.VIO;
 import org.qbicc.tool.llvm.LlvmToolChain;
+import org.qbicc.tool.llvm.OptPass;
 import org.qbicc.type.TypeSystem;
 import org.qbicc.type.definition.classfile.BciRangeExceptionHandlerBasicBlockBuilder;
 import org.qbicc.type.definition.classfile.IndyResolvingBasicBlockBuilder;
@@ -206,10 +218,23 @@ public class Main implements Callable<DiagnosticContext> {
     private final boolean optMemoryTracking;
     private final boolean optPhis;
     private final boolean optGotos;
+    private final boolean optBoundsChecks;
+    private final boolean optNullChecks;
+    private final boolean optGvn;
+    private final boolean optInitChecks;
+    private final boolean optSafePoints;
+    private final boolean optTlab;
+    private final boolean optGuardedDevirt;
+    private final boolean optFieldProfile;
+    private final Path optFieldLayout;
     private final boolean optInlining;
     private final boolean optEscapeAnalysis;
     private final Platform platform;
     private final boolean smallTypeIds;
+    private final boolean optColoredITables;
+    private final boolean optThinLocks;
+    private final boolean optHeapByteStrings;
+    private final boolean compressedRefs;
     private final List<Path> librarySearchPaths;
     private final List<URL> qbiccYamlFeatures;
     private final List<QbiccFeature> qbiccFeatures;
@@ -217,6 +242,7 @@ public class Main implements Callable<DiagnosticContext> {
     private final Backend backend;
     private final LLVMConfiguration.Builder llvmConfigurationBuilder;
     private final int optLevel;
+    private final boolean optAnalyzeFixpoint;
 
     Main(Builder builder) {
         outputPath = builder.outputPath;
@@ -235,10 +261,24 @@ public class Main implements Callable<DiagnosticContext> {
         optInlining = builder.optInlining;
         optPhis = builder.optPhis;
         optGotos = builder.optGotos;
-        optEscapeAnalysis = false && builder.optEscapeAnalysis;
+        optBoundsChecks = builder.optBoundsChecks;
+        optNullChecks = builder.optNullChecks;
+        optGvn = builder.optGvn;
+        optInitChecks = builder.optInitChecks;
+        optSafePoints = builder.optSafePoints;
+        optTlab = builder.optTlab;
+        optGuardedDevirt = builder.optGuardedDevirt;
+        optFieldProfile = builder.optFieldProfile;
+        optFieldLayout = builder.optFieldLayout;
+        optEscapeAnalysis = builder.optEscapeAnalysis;
         optLevel = builder.optLevel;
+        optAnalyzeFixpoint = builder.optAnalyzeFixpoint;
         platform = builder.platform;
         smallTypeIds = builder.smallTypeIds;
+        optColoredITables = builder.optColoredITables;
+        optThinLocks = builder.optThinLocks;
+        optHeapByteStrings = builder.optHeapByteStrings;
+        compressedRefs = builder.compressedRefs;
         backend = builder.backend;
         ArrayList<ClassPathEntry> bootPaths = new ArrayList<>(builder.bootPathsPrepend.size() + 6 + builder.bootPathsAppend.size());
         bootPaths.addAll(builder.bootPathsPrepend);
@@ -298,6 +338,7 @@ public class Main implements Callable<DiagnosticContext> {
         final Driver.Builder builder = Driver.builder();
         builder.setInitialContext(initialContext);
         builder.setOptLevel(optLevel);
+        builder.setAnalyzeFixpoint(optAnalyzeFixpoint);
         boolean nogc = gc.equals("none");
         boolean llvm = backend.equals(Backend.llvm);
         int errors = initialContext.errors();
@@ -337,17 +378,31 @@ public class Main implements Callable<DiagnosticContext> {
                     try {
                         PlatformTypeSystemLoader platformTypeSystemLoader = new PlatformTypeSystemLoader(
                             platform, toolChain, objectFileProvider, initialContext,
-                            PlatformTypeSystemLoader.ReferenceType.POINTER,
+                            compressedRefs ? PlatformTypeSystemLoader.ReferenceType.INT32 : PlatformTypeSystemLoader.ReferenceType.POINTER,
                             smallTypeIds, nogc);
                         TypeSystem typeSystem = platformTypeSystemLoader.load();
 
                         builder.setTypeSystem(typeSystem);
                         // add additional manual initializers by chaining `.andThen(...)`
                         builder.setVmFactory(cc -> {
+                            if (optFieldLayout != null) {
+                                // the VM lays out String, Thread, Class and the arrays as it is created
+                                FieldAccessProfile.install(cc, optFieldLayout);
+                            }
                             GcCommon.reserveMarkBit(cc);
                             GcCommon.reserveMovedBit(cc);
+                            if (optThinLocks) {
+                                ObjectMonitor.enableThinLocks(cc);
+                            }
                             QbiccFeatureProcessor.process(cc, qbiccYamlFeatures, qbiccFeatures);
                             CoreClasses.init(cc);
+                            // inject the thread-local fields of these runtime classes before the VM lays out Thread
+                            if (optThinLocks) {
+                                ObjectMonitor.get(cc);
+                            }
+                            if (nogc) {
+                                NoGc.get(cc);
+                            }
                             ExceptionOnThreadStrategy.initialize(cc);
                             UnwindExceptionStrategy.init(cc);
                             return VmImpl.create(cc,
@@ -432,10 +487,14 @@ public class Main implements Callable<DiagnosticContext> {
                             }
                             builder.addPreHook(Phase.ADD, CoreIntrinsics::register);
                             builder.addPreHook(Phase.ADD, CoreClasses::get);
+                            if (optHeapByteStrings) {
+                                builder.addPreHook(Phase.ADD, BuildtimeHeap::enableRawData);
+                            }
                             builder.addPreHook(Phase.ADD, ReflectionIntrinsics::register);
                             builder.addPreHook(Phase.ADD, Reflection::get);
                             builder.addPreHook(Phase.ADD, UnwindExceptionStrategy::get);
                             builder.addPreHook(Phase.ADD, GcCommon::registerIntrinsics);
+                            builder.addPreHook(Phase.ADD, ObjectMonitor::registerIntrinsics);
                             builder.addPreHook(Phase.ADD, compilationContext -> compilationContext.getVm().initialize());
                             builder.addPreHook(Phase.ADD, VIO::get);
                             builder.addPreHook(Phase.ADD, VFS::initialize);
@@ -487,7 +546,11 @@ public class Main implements Callable<DiagnosticContext> {
                             builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, ConstantDefiningBasicBlockBuilder::createIfNeeded);
                             builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, ConstantBasicBlockBuilder::new);
                             builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, CoreClassesBasicBlockBuilder::new);
-                            builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, DevirtualizingBasicBlockBuilder::new);
+                            if (optGuardedDevirt) {
+                                builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, DevirtualizingBasicBlockBuilder::createWithGuards);
+                            } else {
+                                builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, DevirtualizingBasicBlockBuilder::new);
+                            }
                             builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, BciRangeExceptionHandlerBasicBlockBuilder::createIfNeeded);
                             builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, IndyResolvingBasicBlockBuilder::new);
                             builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, SynchronizedMethodBasicBlockBuilder::createIfNeeded);
@@ -525,6 +588,12 @@ public class Main implements Callable<DiagnosticContext> {
                             builder.addPreHook(Phase.ANALYZE, new VMHelpersSetupHook());
                             builder.addPreHook(Phase.ANALYZE, ReachabilityInfo::forceCoreClassesReachable);
                             builder.addPreHook(Phase.ANALYZE, ReachabilityRoots::processRootsForAnalyze);
+                            if (optInlining) {
+                                builder.addPreHook(Phase.ANALYZE, InliningPlan::compute);
+                            }
+                            if (optInitChecks) {
+                                builder.addPreHook(Phase.ANALYZE, InitCheckPlan::compute);
+                            }
                             builder.addPreHook(Phase.ANALYZE, new ElementReachableAdapter(ReachabilityInfo::processReachableElement));
                             builder.addPreHook(Phase.ANALYZE, new ElementReachableAdapter(new ElementBodyCopier()));
                             if (optEscapeAnalysis) {
@@ -541,10 +610,26 @@ public class Main implements Callable<DiagnosticContext> {
                             if (optPhis) {
                                 builder.addCopyFactory(Phase.ANALYZE, BlockParameterOptimizingVisitor::new);
                             }
+                            if (optBoundsChecks) {
+                                builder.addCopyFactory(Phase.ANALYZE, BoundsCheckEliminatingVisitor::new);
+                            }
+                            if (optNullChecks) {
+                                builder.addCopyFactory(Phase.ANALYZE, NullCheckEliminatingVisitor::new);
+                            }
+                            if (optGvn) {
+                                builder.addCopyFactory(Phase.ANALYZE, ImmutableLoadOptimizingVisitor::new);
+                            }
+                            if (optInitChecks) {
+                                builder.addCopyFactory(Phase.ANALYZE, InitCheckEliminatingVisitor::new);
+                            }
                             builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, IntrinsicBasicBlockBuilder::createForAnalyzePhase);
                             builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, FinalFieldLoadOptimizer::new);
                             builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, ThreadLocalBasicBlockBuilder::new);
-                            builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, DevirtualizingBasicBlockBuilder::new);
+                            if (optGuardedDevirt) {
+                                builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, DevirtualizingBasicBlockBuilder::createWithGuards);
+                            } else {
+                                builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, DevirtualizingBasicBlockBuilder::new);
+                            }
                             if (optMemoryTracking) {
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, LocalMemoryTrackingBasicBlockBuilder::new);
                             }
@@ -563,7 +648,10 @@ public class Main implements Callable<DiagnosticContext> {
                             }
 
                             builder.addPreHook(Phase.LOWER, ReachabilityInfo::reportStats);
-                            builder.addPreHook(Phase.LOWER, new DispatchTableBuilder());
+                            if (optFieldProfile) {
+                                builder.addPreHook(Phase.LOWER, FieldAccessProfiler::writeProfile);
+                            }
+                            builder.addPreHook(Phase.LOWER, new DispatchTableBuilder(optColoredITables));
                             builder.addPreHook(Phase.LOWER, new SupersDisplayBuilder());
                             builder.addPreHook(Phase.LOWER, ReachabilityFactsSetup::setupLower);
                             builder.addPreHook(Phase.LOWER, ReachabilityRoots::processRootsForLower);
@@ -587,17 +675,32 @@ public class Main implements Callable<DiagnosticContext> {
                             builder.addCopyFactory(Phase.LOWER, BooleanAccessCopier::new);
                             builder.addCopyFactory(Phase.LOWER, InitialHeapLiteralSerializingVisitor::new);
                             builder.addCopyFactory(Phase.LOWER, MemberPointerCopier::new);
+                            if (optSafePoints) {
+                                builder.addCopyFactory(Phase.LOWER, LoopSafePointPlacementVisitor::new);
+                            }
 
-                            builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, SafePointPlacementBasicBlockBuilder::createIfNeeded);
+                            if (optSafePoints) {
+                                builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, SafePointPlacementBasicBlockBuilder::createIfNeededExceptLeaves);
+                            } else {
+                                builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, SafePointPlacementBasicBlockBuilder::createIfNeeded);
+                            }
                             if (platform.isWasm()) {
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, AbortingThrowLoweringBasicBlockBuilder::new);
                             } else {
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, ExceptionOnThreadStrategy::loweringBuilder);
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, UnwindThrowBasicBlockBuilder::new);
                             }
-                            builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, DevirtualizingBasicBlockBuilder::new);
+                            if (optGuardedDevirt) {
+                                builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, DevirtualizingBasicBlockBuilder::createWithGuards);
+                            } else {
+                                builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, DevirtualizingBasicBlockBuilder::new);
+                            }
                             if (nogc) {
-                                builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, NoGcBasicBlockBuilder::new);
+                                if (optTlab) {
+                                    builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, NoGcBasicBlockBuilder::createWithLocalAllocation);
+                                } else {
+                                    builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, NoGcBasicBlockBuilder::new);
+                                }
                             }
                             builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, IntrinsicBasicBlockBuilder::createForLowerPhase);
                             builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, InvocationLoweringBasicBlockBuilder::new);
@@ -611,7 +714,11 @@ public class Main implements Callable<DiagnosticContext> {
                             if (optMemoryTracking) {
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, LocalMemoryTrackingBasicBlockBuilder::new);
                             }
-                            builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, SafePoints::createBasicBlockBuilder);
+                            if (optSafePoints) {
+                                builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, SafePoints::createInlineBasicBlockBuilder);
+                            } else {
+                                builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, SafePoints::createBasicBlockBuilder);
+                            }
                             // To avoid serializing Strings we won't need, MethodDataStringsSerializer should be the last "real" BBB
                             builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, MethodDataStringsSerializer::new);
                             builder.addBuilderFactory(Phase.LOWER, BuilderStage.OPTIMIZE, LocalOptBasicBlockBuilder::new);
@@ -845,9 +952,22 @@ public class Main implements Callable<DiagnosticContext> {
             .setOptInlining(optionsProcessor.optArgs.optInlining)
             .setOptGotos(optionsProcessor.optArgs.optGotos)
             .setOptPhis(optionsProcessor.optArgs.optPhis)
+            .setOptBoundsChecks(optionsProcessor.optArgs.optBoundsChecks)
+            .setOptNullChecks(optionsProcessor.optArgs.optNullChecks)
+            .setOptGvn(optionsProcessor.optArgs.optGvn)
+            .setOptInitChecks(optionsProcessor.optArgs.optInitChecks)
+            .setOptSafePoints(optionsProcessor.optArgs.optSafePoints)
+            .setOptTlab(optionsProcessor.optArgs.optTlab)
+            .setOptGuardedDevirt(optionsProcessor.optArgs.optGuardedDevirt)
+            .setOptFieldProfile(optionsProcessor.optArgs.optFieldProfile)
             .setOptEscapeAnalysis(optionsProcessor.optArgs.optEscapeAnalysis)
             .setOptLevel(optionsProcessor.optArgs.optLevel)
+            .setOptAnalyzeFixpoint(optionsProcessor.optArgs.optAnalyzeFixpoint)
             .setSmallTypeIds(optionsProcessor.smallTypeIds)
+            .setOptColoredITables(optionsProcessor.optArgs.optColoredITables)
+            .setOptThinLocks(optionsProcessor.optArgs.optThinLocks)
+            .setOptHeapByteStrings(optionsProcessor.optArgs.optHeapByteStrings)
+            .setCompressedRefs(optionsProcessor.compressedRefs && ! platform.isWasm())
             .setBackend(optionsProcessor.backend)
             .setGraphGenConfig(optionsProcessor.graphGenConfig)
             .setLlvmConfigurationBuilder(LLVMConfiguration.builder()
@@ -856,16 +976,24 @@ public class Main implements Callable<DiagnosticContext> {
                 .setCompileOutput(optionsProcessor.compileOutput)
                 .setPie(optionsProcessor.isPie)
                 .setPlatform(platform)
-                .setReferenceStrategy(platform.isWasm() ? ReferenceStrategy.POINTER : ReferenceStrategy.POINTER_AS1)
+                .setReferenceStrategy(platform.isWasm() ? ReferenceStrategy.POINTER : optionsProcessor.compressedRefs ? ReferenceStrategy.COMPRESSED : ReferenceStrategy.POINTER_AS1)
                 .addLlcOptions(optionsProcessor.llvmArgs.llcOptions)
-                .setStatepointEnabled(! platform.isWasm())
-                .setOpaquePointers(optionsProcessor.llvmArgs.opaquePointers))
+                .setStatepointEnabled(! platform.isWasm() && ! optionsProcessor.compressedRefs)
+                .setOpaquePointers(optionsProcessor.llvmArgs.opaquePointers)
+                .setObjectCacheDirectory(optionsProcessor.llvmArgs.objectCacheDirectory)
+                .setObjectCacheMaxSize(optionsProcessor.llvmArgs.objectCacheMaxSize)
+                .setModuleUnits(optionsProcessor.llvmArgs.moduleUnits)
+                .setOptLevel(optionsProcessor.llvmArgs.optLevel)
+                .addOptPasses(optionsProcessor.llvmArgs.optPasses))
             .setPlatform(platform)
             .addLibrarySearchPaths(splitPathString(System.getenv("LIBRARY_PATH")))
             .addLibrarySearchPaths(optionsProcessor.libSearchPaths);
         if (optionsProcessor.sourceOutputPath != null) {
             mainBuilder.setSourceOutputPath(optionsProcessor.sourceOutputPath);
         }
+        if (optionsProcessor.optArgs.optFieldLayout != null) {
+            mainBuilder.setOptFieldLayout(optionsProcessor.optArgs.optFieldLayout);
+        }
 
         Main main = mainBuilder.build();
         DiagnosticContext context = main.call();
@@ -976,6 +1104,8 @@ public class Main implements Callable<DiagnosticContext> {
         private boolean debugInterpreter;
         @CommandLine.Option(names = "--debug-initialization")
         private boolean debugInit;
+        @CommandLine.Option(names = "--compressed-refs", negatable = true, defaultValue = "false", description = "[Disable|Enable] 32-bit object references (requires a position dependent executable and no GC)")
+        private boolean compressedRefs;
         @CommandLine.Option(names = "--emit-asm", negatable = true, defaultValue = "false", description = "Enable emitting assembly for each class")
         private boolean emitAssembly;
         @CommandLine.Option(names = "--gc", defaultValue = "none", description = "Type of GC to use. Valid values: ${COMPLETION-CANDIDATES}")
@@ -1039,10 +1169,36 @@ public class Main implements Callable<DiagnosticContext> {
             boolean optPhis;
             @CommandLine.Option(names = "--no-opt-gotos", negatable = true, defaultValue = "true", description = "Enable/disable `goto` elimination")
             boolean optGotos;
+            @CommandLine.Option(names = "--opt-bounds-checks", negatable = true, defaultValue = "false", description = "Enable/disable redundant array bounds check elimination")
+            boolean optBoundsChecks;
+            @CommandLine.Option(names = "--opt-null-checks", negatable = true, defaultValue = "false", description = "Enable/disable redundant null check elimination")
+            boolean optNullChecks;
+            @CommandLine.Option(names = "--opt-gvn", negatable = true, defaultValue = "false", description = "Enable/disable value numbering and loop hoisting of immutable header loads")
+            boolean optGvn;
+            @CommandLine.Option(names = "--opt-init-checks", negatable = true, defaultValue = "false", description = "Enable/disable redundant class initialization check elimination")
+            boolean optInitChecks;
+            @CommandLine.Option(names = "--opt-safepoints", negatable = true, defaultValue = "false", description = "Enable/disable inline safepoint polls on loop back edges, omitted in small counted loops and leaf methods")
+            boolean optSafePoints;
+            @CommandLine.Option(names = "--opt-tlab", negatable = true, defaultValue = "false", description = "Enable/disable the inline thread-local allocation buffer fast path of the no-GC allocator")
+            boolean optTlab;
+            @CommandLine.Option(names = "--opt-guarded-devirt", negatable = true, defaultValue = "false", description = "Enable/disable guarded direct calls for dispatched calls with few receiver classes")
+            boolean optGuardedDevirt;
+            @CommandLine.Option(names = "--opt-field-profile", negatable = true, defaultValue = "false", description = "Enable/disable writing the loop-weighted instance field access frequencies to field-access-profile.txt")
+            boolean optFieldProfile;
+            @CommandLine.Option(names = "--opt-colored-itables", negatable = true, defaultValue = "false", description = "Enable/disable constant-time interface dispatch through itable dictionaries indexed by interface color")
+            boolean optColoredITables;
+            @CommandLine.Option(names = "--opt-heap-byte-strings", negatable = true, defaultValue = "false", description = "Enable/disable emitting the contents of initial heap primitive arrays as byte strings")
+            boolean optHeapByteStrings;
+            @CommandLine.Option(names = "--opt-thin-locks", negatable = true, defaultValue = "false", description = "Enable/disable locking uncontended object monitors through a lock word in the object header")
+            boolean optThinLocks;
+            @CommandLine.Option(names = "--opt-field-layout", paramLabel = "<profile>", description = "Order instance fields by the access frequencies of the given field access profile")
+            Path optFieldLayout;
             @CommandLine.Option(names = "--escape-analysis", negatable = true, defaultValue = "false", description = "Enable/disable escape analysis")
             boolean optEscapeAnalysis;
             @CommandLine.Option(names = { "-O", "--opt-level" }, defaultValue = "1", description = "Optimization level, between 0 and 3 (inclusive)")
             int optLevel;
+            @CommandLine.Option(names = "--opt-analyze-fixpoint", negatable = true, defaultValue = "false", description = "Enable/disable stopping analysis iterations early once no method changes")
+            boolean optAnalyzeFixpoint;
         }
 
         static class LLVMArgs {
@@ -1052,6 +1208,16 @@ public class Main implements Callable<DiagnosticContext> {
             private List<String> llcOptions = new ArrayList<String>();
             @CommandLine.Option(names = "--llvm-opaque-pointers", negatable = true, defaultValue = "false", description = "Enable LLVM opaque pointers")
             boolean opaquePointers;
+            @CommandLine.Option(names = "--llvm-object-cache", description = "Reuse object files for unchanged modules from the given cache directory")
+            Path objectCacheDirectory;
+            @CommandLine.Option(names = "--llvm-object-cache-max-size", defaultValue = "1073741824", description = "Maximum size of the object file cache in bytes. Default: ${DEFAULT-VALUE}")
+            long objectCacheMaxSize;
+            @CommandLine.Option(names = "--llvm-module-units", defaultValue = "0", description = "Partition the program into the given number of LLVM modules (0 for one module per class). Default: ${DEFAULT-VALUE}")
+            int moduleUnits;
+            @CommandLine.Option(names = "--llvm-opt-level", description = "Run `opt` on each module with the given preset (O1, O2, O3, Os, or Oz) before `llc`")
+            OptPass optLevel;
+            @CommandLine.Option(names = "--llvm-opt-pass", split = ",", description = "Run the given LLVM passes on each module with `opt` before `llc`")
+            List<String> optPasses = new ArrayList<>();
         }
 
         public CmdResult process(String[] args) {
@@ -1061,6 +1227,19 @@ public class Main implements Callable<DiagnosticContext> {
                 if (CommandLine.printHelpIfRequested(parseResult)) {
                     return CmdResult.CMD_RESULT_HELP;
                 }
+                if (llvmArgs.optLevel != null && ! llvmArgs.optLevel.isLevel()) {
+                    throw new ParameterException(commandLine, "Invalid value for option '--llvm-opt-level': " + llvmArgs.optLevel + " is not an optimization level");
+                }
+                if (compressedRefs && isPie) {
+                    throw new ParameterException(commandLine, "Option '--compressed-refs' cannot be used with '--pie'");
+                }
+                if (compressedRefs && gc != GCType.NONE) {
+                    throw new ParameterException(commandLine, "Option '--compressed-refs' requires '--gc=none'");
+                }
+                if (compressedRefs && optArgs.optEscapeAnalysis) {
+                    // stack allocated objects are above the 32-bit range of a compressed reference
+                    throw new ParameterException(commandLine, "Option '--compressed-refs' cannot be used with '--escape-analysis'");
+                }
             } catch (ParameterException ex) { // command line arguments could not be parsed
                 System.err.println(ex.getMessage());
                 ex.getCommandLine().usage(System.err);
@@ -1131,6 +1310,7 @@ public class Main implements Callable<DiagnosticContext> {
         private final List<ClassPathEntry> bootPathsAppend = new ArrayList<>();
         private final List<ClassPathEntry> appPaths = new ArrayList<>();
         private int optLevel;
+        private boolean optAnalyzeFixpoint = false;
         private String classLibVersion = Version.CLASSLIB_DEFAULT_VERSION;
         private Path outputPath;
         private String outputName = "a.out";
@@ -1148,9 +1328,22 @@ public class Main implements Callable<DiagnosticContext> {
         private boolean optInlining = false;
         private boolean optPhis = true;
         private boolean optGotos = true;
+        private boolean optBoundsChecks = false;
+        private boolean optNullChecks = false;
+        private boolean optGvn = false;
+        private boolean optInitChecks = false;
+        private boolean optSafePoints = false;
+        private boolean optTlab = false;
+        private boolean optGuardedDevirt = false;
+        private boolean optFieldProfile = false;
+        private boolean optColoredITables = false;
+        private boolean optHeapByteStrings = false;
+        private boolean optThinLocks = false;
+        private Path optFieldLayout;
         private boolean optEscapeAnalysis = false;
         private GraphGenConfig graphGenConfig;
         private boolean smallTypeIds = false;
+        private boolean compressedRefs = false;
         private Backend backend = Backend.llvm;
         private List<Path> librarySearchPaths = List.of();
         private List<URL> qbiccYamlFeatures = new ArrayList<>();
@@ -1230,6 +1423,11 @@ public class Main implements Callable<DiagnosticContext> {
             return this;
         }
 
+        public Builder setOptAnalyzeFixpoint(boolean optAnalyzeFixpoint) {
+            this.optAnalyzeFixpoint = optAnalyzeFixpoint;
+            return this;
+        }
+
         public Builder setOutputPath(Path path) {
             Assert.checkNotNullParam("path", path);
             this.outputPath = path;
@@ -1333,6 +1531,67 @@ public class Main implements Callable<DiagnosticContext> {
             return this;
         }
 
+        public Builder setOptBoundsChecks(boolean optBoundsChecks) {
+            this.optBoundsChecks = optBoundsChecks;
+            return this;
+        }
+
+        public Builder setOptNullChecks(boolean optNullChecks) {
+            this.optNullChecks = optNullChecks;
+            return this;
+        }
+
+        public Builder setOptGvn(boolean optGvn) {
+            this.optGvn = optGvn;
+            return this;
+        }
+
+        public Builder setOptInitChecks(boolean optInitChecks) {
+            this.optInitChecks = optInitChecks;
+            return this;
+        }
+
+        public Builder setOptSafePoints(boolean optSafePoints) {
+            this.optSafePoints = optSafePoints;
+            return this;
+        }
+
+        public Builder setOptTlab(boolean optTlab) {
+            this.optTlab = optTlab;
+            return this;
+        }
+
+        public Builder setOptGuardedDevirt(boolean optGuardedDevirt) {
+            this.optGuardedDevirt = optGuardedDevirt;
+            return this;
+        }
+
+        public Builder setOptFieldProfile(boolean optFieldProfile) {
+            this.optFieldProfile = optFieldProfile;
+            return this;
+        }
+
+        public Builder setOptColoredITables(boolean optColoredITables) {
+            this.optColoredITables = optColoredITables;
+            return this;
+        }
+
+        public Builder setOptHeapByteStrings(boolean optHeapByteStrings) {
+            this.optHeapByteStrings = optHeapByteStrings;
+            return this;
+        }
+
+        public Builder setOptThinLocks(boolean optThinLocks) {
+            this.optThinLocks = optThinLocks;
+            return this;
+        }
+
+        public Builder setOptFieldLayout(Path path) {
+            Assert.checkNotNullParam("path", path);
+            this.optFieldLayout = path;
+            return this;
+        }
+
         public Builder setOptEscapeAnalysis(boolean optEscapeAnalysis) {
             this.optEscapeAnalysis = optEscapeAnalysis;
             return this;
@@ -1348,6 +1607,11 @@ public class Main implements Callable<DiagnosticContext> {
             return this;
         }
 
+        public Builder setCompressedRefs(boolean compressedRefs) {
+            this.compressedRefs = compressedRefs;
+            return this;
+        }
+
         public Builder addLibrarySearchPaths(List<Path> librarySearchPaths) {
             if (librarySearchPaths != null && !librarySearchPaths.isEmpty()) {
                 if (this.librarySearchPaths.isEmpty()) {
@@ -53,7 +53,7 @@ public class QbiccCompileMojo extends AbstractMojo {
     @Parameter(defaultValue = "true")
     private boolean smallTypeIds;
 
-    @Parameter(defaultValue = "true")
+    @Parameter(defaultValue = "false")
     private boolean optEscapeAnalysis;
 
     @Parameter(defaultValue = "true")
@@ -68,6 +68,12 @@ public class QbiccCompileMojo extends AbstractMojo {
     @Parameter(defaultValue = "1")
     private int optLevel;
 
+    @Parameter(defaultValue = "false")
+    private boolean optAnalyzeFixpoint;
+
+    @Parameter(defaultValue = "false")
+    private boolean optThinLocks;
+
     @Parameter(defaultValue = "false", property = "qbicc.emit-asm")
     private boolean emitAsm;
 
@@ -136,6 +142,8 @@ public class QbiccCompileMojo extends AbstractMojo {
         builder.setOptInlining(optInlining);
         builder.setOptPhis(optPhis);
         builder.setOptLevel(optLevel);
+        builder.setOptAnalyzeFixpoint(optAnalyzeFixpoint);
+        builder.setOptThinLocks(optThinLocks);
         builder.setClassPathResolver(this::resolveClassPath);
         List<File> librarySearchPaths = this.librarySearchPaths;
         if (librarySearchPaths != null && ! librarySearchPaths.isEmpty()) {
@@ -14,6 +14,7 @@ import org.qbicc.graph.DelegatingBasicBlockBuilder;
 import org.qbicc.graph.Dereference;
 import org.qbicc.graph.ElementOf;
 import org.qbicc.graph.MultiNewArray;
+import org.qbicc.graph.NewArray;
 import org.qbicc.graph.NewReferenceArray;
 import org.qbicc.graph.Node;
 import org.qbicc.graph.Slot;
@@ -293,7 +294,8 @@ public class RuntimeChecksBasicBlockBuilder extends DelegatingBasicBlockBuilder
             return;
         }
         if (index.isDefGe(getLiteralFactory().zeroInitializerLiteralOfType(index.getType()))) {
-            if (dr.getInput() instanceof NewReferenceArray nra && index.isDefLt(nra.getSize())) {
+            if (dr.getInput() instanceof NewReferenceArray nra && index.isDefLt(nra.getSize())
+                || dr.getInput() instanceof NewArray na && index.isDefLt(na.getSize())) {
                 // no check needed; statically OK
                 return;
             } else if (dr.getInput() instanceof MultiNewArray mna) {
@@ -0,0 +1,49 @@
+package org.qbicc.plugin.correctness;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.ElementOf;
+import org.qbicc.graph.If;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.Return;
+import org.qbicc.graph.Value;
+import org.qbicc.test.AbstractGraphTestCase;
+import org.qbicc.type.PrimitiveArrayObjectType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Tests of the run time checks which are statically known to be unnecessary.
+ */
+public class TestRuntimeChecksBasicBlockBuilder extends AbstractGraphTestCase {
+
+    @Test
+    public void testConstantIndexIntoNewArray() {
+        DefinedTypeDefinition def = defineClass("correctness/NewArray", null);
+        MethodElement method = defineMethod(def, "run", ClassFile.ACC_STATIC);
+        BasicBlockBuilder simple = newBuilder(method);
+        BasicBlockBuilder bbb = new RuntimeChecksBasicBlockBuilder(BasicBlockBuilder.FactoryContext.EMPTY, simple);
+        bbb.setFirstBuilder(bbb);
+        PrimitiveArrayObjectType byteArray = ts.getSignedInteger8Type().getPrimitiveArrayObjectType();
+        bbb.begin(new BlockLabel());
+        // new byte[4], without the size check which needs the run time class library
+        Value array = simple.newArray(byteArray, lf.literalOf(4));
+        bbb.load(bbb.elementOf(bbb.decodeReference(array), lf.literalOf(3)));
+        bbb.return_();
+        BasicBlock entryBlock = finish(simple);
+
+        // a constant index within the constant size is not checked
+        assertEquals(List.of(), findNodes(entryBlock, If.class));
+        assertInstanceOf(Return.class, entryBlock.getTerminator());
+        List<Load> loads = findNodes(entryBlock, Load.class);
+        assertEquals(1, loads.size());
+        assertInstanceOf(ElementOf.class, loads.get(0).getPointer());
+    }
+}
@@ -1,22 +1,149 @@
 package org.qbicc.plugin.dispatch;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
 import org.jboss.logging.Logger;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.context.PhaseAttachmentKey;
+import org.qbicc.graph.AbstractMethodLookup;
+import org.qbicc.graph.BasicBlock;
 import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
 import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.InterfaceMethodLookup;
+import org.qbicc.graph.Slot;
 import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.reachability.ReachabilityInfo;
 import org.qbicc.type.ClassObjectType;
 import org.qbicc.type.PhysicalObjectType;
 import org.qbicc.type.ReferenceType;
 import org.qbicc.type.ValueType;
+import org.qbicc.type.VoidType;
 import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.ExecutableElement;
 import org.qbicc.type.definition.element.InstanceMethodElement;
 import org.qbicc.type.definition.element.MethodElement;
 
+/**
+ * A graph factory which binds virtual and interface calls to their targets where possible.
+ * <p>
+ * Calls which can only have a single target are bound statically.  If guarding is enabled, calls whose receiver was
+ * found to be an instance of only a few classes in the previous phase are guarded instead: the type ID of the receiver
+ * is compared against each of these classes in turn, with a direct (and thus inlinable) call to the resolved target
+ * for each, and the dispatched call is kept as a fallback for any other receiver class.
+ * <p>
+ * Guards are emitted for plain calls, tail calls, and calls which do not return, with or without an exception
+ * handler.  Calls which return to a resume block with an exception handler ({@code invoke}) are not guarded, because
+ * the result of such a call is pinned to the resume block given by the caller, which cannot merge the results of
+ * several calls.
+ */
 public class DevirtualizingBasicBlockBuilder extends DelegatingBasicBlockBuilder {
     private static final Logger log = Logger.getLogger("org.qbicc.plugin.dispatch.devirt");
+    private static final PhaseAttachmentKey<Set<GuardedSite>> GUARDED_SITES = new PhaseAttachmentKey<>();
+
+    /**
+     * The maximum number of receiver classes for which a guarded direct call is emitted.
+     */
+    private static final int MAX_GUARDED_CLASSES = 3;
+
+    private final CompilationContext ctxt;
+    private final boolean guards;
 
     public DevirtualizingBasicBlockBuilder(final FactoryContext ctxt, final BasicBlockBuilder delegate) {
+        this(delegate, false);
+    }
+
+    DevirtualizingBasicBlockBuilder(final BasicBlockBuilder delegate, final boolean guards) {
         super(delegate);
+        this.ctxt = getContext();
+        this.guards = guards;
+    }
+
+    /**
+     * Create a builder which also guards dispatched calls with few receiver classes.
+     *
+     * @param fc the factory context (must not be {@code null})
+     * @param delegate the delegate basic block builder (must not be {@code null})
+     * @return the basic block builder (not {@code null})
+     */
+    public static BasicBlockBuilder createWithGuards(final FactoryContext fc, final BasicBlockBuilder delegate) {
+        return new DevirtualizingBasicBlockBuilder(delegate, true);
+    }
+
+    @Override
+    public Value call(Value targetPtr, Value receiver, List<Value> arguments) {
+        List<InstanceMethodElement> targets = new ArrayList<>();
+        List<LoadedTypeDefinition> classes = getGuardCandidates(targetPtr, receiver, targets);
+        if (classes != null) {
+            AbstractMethodLookup lookup = (AbstractMethodLookup) targetPtr;
+            BasicBlockBuilder fb = getFirstBuilder();
+            BlockLabel resume = new BlockLabel();
+            ValueType returnType = lookup.getMethod().getType().getReturnType();
+            if (returnType instanceof VoidType) {
+                // there is no result to pass to the resume block
+                guard(lookup, receiver, classes, targets, (target, exactReceiver) -> {
+                    fb.call(target, exactReceiver, arguments);
+                    fb.goto_(resume, Map.of());
+                });
+                super.call(getFallbackTarget(lookup), receiver, arguments);
+                fb.goto_(resume, Map.of());
+                fb.begin(resume);
+                return fb.emptyVoid();
+            }
+            guard(lookup, receiver, classes, targets, (target, exactReceiver) -> fb.goto_(resume, Slot.result(), fb.call(target, exactReceiver, arguments)));
+            fb.goto_(resume, Slot.result(), super.call(getFallbackTarget(lookup), receiver, arguments));
+            fb.begin(resume);
+            return fb.addParam(resume, Slot.result(), returnType);
+        }
+        return super.call(targetPtr, receiver, arguments);
+    }
+
+    @Override
+    public BasicBlock callNoReturn(Value targetPtr, Value receiver, List<Value> arguments) {
+        List<InstanceMethodElement> targets = new ArrayList<>();
+        List<LoadedTypeDefinition> classes = getGuardCandidates(targetPtr, receiver, targets);
+        if (classes != null) {
+            AbstractMethodLookup lookup = (AbstractMethodLookup) targetPtr;
+            BasicBlockBuilder fb = getFirstBuilder();
+            guard(lookup, receiver, classes, targets, (target, exactReceiver) -> fb.callNoReturn(target, exactReceiver, arguments));
+            return super.callNoReturn(getFallbackTarget(lookup), receiver, arguments);
+        }
+        return super.callNoReturn(targetPtr, receiver, arguments);
+    }
+
+    @Override
+    public BasicBlock invokeNoReturn(Value targetPtr, Value receiver, List<Value> arguments, BlockLabel catchLabel, Map<Slot, Value> targetArguments) {
+        List<InstanceMethodElement> targets = new ArrayList<>();
+        List<LoadedTypeDefinition> classes = getGuardCandidates(targetPtr, receiver, targets);
+        if (classes != null) {
+            AbstractMethodLookup lookup = (AbstractMethodLookup) targetPtr;
+            BasicBlockBuilder fb = getFirstBuilder();
+            guard(lookup, receiver, classes, targets, (target, exactReceiver) -> fb.invokeNoReturn(target, exactReceiver, arguments, catchLabel, targetArguments));
+            return super.invokeNoReturn(getFallbackTarget(lookup), receiver, arguments, catchLabel, targetArguments);
+        }
+        return super.invokeNoReturn(targetPtr, receiver, arguments, catchLabel, targetArguments);
+    }
+
+    @Override
+    public BasicBlock tailCall(Value targetPtr, Value receiver, List<Value> arguments) {
+        List<InstanceMethodElement> targets = new ArrayList<>();
+        List<LoadedTypeDefinition> classes = getGuardCandidates(targetPtr, receiver, targets);
+        if (classes != null) {
+            AbstractMethodLookup lookup = (AbstractMethodLookup) targetPtr;
+            BasicBlockBuilder fb = getFirstBuilder();
+            guard(lookup, receiver, classes, targets, (target, exactReceiver) -> fb.tailCall(target, exactReceiver, arguments));
+            return super.tailCall(getFallbackTarget(lookup), receiver, arguments);
+        }
+        return super.tailCall(targetPtr, receiver, arguments);
     }
 
     @Override
@@ -38,6 +165,130 @@ public class DevirtualizingBasicBlockBuilder extends DelegatingBasicBlockBuilder
         return exactTarget != null ? getLiteralFactory().literalOf(exactTarget) : super.lookupVirtualMethod(reference, method);
     }
 
+    /*
+     * Emit the receiver type ID tests of a guarded call site.  The direct call to the target of each receiver class is
+     * emitted by the given function in the block where that class matched; the block which is current afterwards is
+     * reached by any other receiver class, and the caller must emit the dispatched call there.
+     */
+    private void guard(AbstractMethodLookup lookup, Value receiver, List<LoadedTypeDefinition> classes, List<InstanceMethodElement> targets, BiConsumer<Value, Value> directCall) {
+        BasicBlockBuilder fb = getFirstBuilder();
+        LiteralFactory lf = getLiteralFactory();
+        InstanceMethodElement method = lookup.getMethod();
+        getGuardedSites().add(new GuardedSite(getCurrentElement(), getBytecodeIndex()));
+        log.debugf("Guarding call to %s::%s for %d receiver classes", method.getEnclosingType().getDescriptor(), method.getName(), Integer.valueOf(classes.size()));
+        Value typeId = loadReceiverTypeId(lookup.getReference());
+        for (int i = 0; i < classes.size(); i ++) {
+            ClassObjectType classType = classes.get(i).getClassType();
+            BlockLabel match = new BlockLabel();
+            BlockLabel next = new BlockLabel();
+            fb.if_(fb.isEq(typeId, lf.literalOfType(classType)), match, next, Map.of());
+            fb.begin(match);
+            directCall.accept(lf.literalOf(targets.get(i)), fb.bitCast(receiver, ((ReferenceType) receiver.getType()).narrow(classType)));
+            fb.begin(next);
+        }
+    }
+
+    /*
+     * Get the target of the dispatched call of a guarded call site.  The dispatched lookup must be repeated after the
+     * guards so that it is only done for the other receiver classes.
+     */
+    private Value getFallbackTarget(AbstractMethodLookup lookup) {
+        Value reference = lookup.getReference();
+        InstanceMethodElement method = lookup.getMethod();
+        return lookup instanceof InterfaceMethodLookup ? super.lookupInterfaceMethod(reference, method) : super.lookupVirtualMethod(reference, method);
+    }
+
+    /*
+     * Determine the receiver classes to guard a call with, and their targets.  Returns null if the call should not be
+     * guarded.
+     */
+    private List<LoadedTypeDefinition> getGuardCandidates(Value targetPtr, Value receiver, List<InstanceMethodElement> targets) {
+        if (guards && targetPtr instanceof AbstractMethodLookup lookup && receiver.getType() instanceof ReferenceType referenceType && ! isGuardedSite()) {
+            return getGuardCandidates(lookup.getMethod(), referenceType, targets);
+        }
+        return null;
+    }
+
+    /*
+     * Determine the receiver classes to guard a dispatched call with, and their targets.  Returns null if the call
+     * should not be guarded.
+     */
+    private List<LoadedTypeDefinition> getGuardCandidates(InstanceMethodElement method, ReferenceType receiverType, List<InstanceMethodElement> targets) {
+        List<LoadedTypeDefinition> classes = new ArrayList<>();
+        visitReceiverClasses(getReceiverType(method, receiverType), classes::add);
+        if (classes.isEmpty() || classes.size() > MAX_GUARDED_CLASSES) {
+            return null;
+        }
+        // no profile data is available, so use a stable order
+        classes.sort(Comparator.comparing(LoadedTypeDefinition::getInternalName));
+        for (LoadedTypeDefinition cls : classes) {
+            if (! (cls.getObjectType() instanceof ClassObjectType)
+                || ! (cls.resolveMethodElementVirtual(getCurrentClassContext(), method.getName(), method.getDescriptor()) instanceof InstanceMethodElement target)
+                || target.isAbstract()
+                || ! target.getType().getReturnType().equals(method.getType().getReturnType())) {
+                return null;
+            }
+            targets.add(target);
+        }
+        return classes;
+    }
+
+    /*
+     * Get the most specific type known for the receiver of a call to the given method: the upper bound of the static
+     * type of the receiver if it is a subtype of the method's enclosing type, or else the enclosing type itself.
+     */
+    private static LoadedTypeDefinition getReceiverType(InstanceMethodElement method, ReferenceType receiverType) {
+        LoadedTypeDefinition enclosing = method.getEnclosingType().load();
+        PhysicalObjectType upperBound = receiverType.getUpperBound();
+        if (upperBound instanceof ClassObjectType && upperBound.isSubtypeOf(enclosing.getObjectType())) {
+            return upperBound.getDefinition().load();
+        }
+        return enclosing;
+    }
+
+    /*
+     * Visit the classes which may be the receiver of a call to a method of the given type.
+     */
+    void visitReceiverClasses(LoadedTypeDefinition type, Consumer<LoadedTypeDefinition> function) {
+        ReachabilityInfo.get(ctxt).visitPreviouslyInstantiatedSubclasses(type, function);
+    }
+
+    /*
+     * Load the type ID of the object which the given reference refers to.
+     */
+    Value loadReceiverTypeId(Value reference) {
+        BasicBlockBuilder fb = getFirstBuilder();
+        return fb.load(fb.instanceFieldOf(fb.decodeReference(reference), CoreClasses.get(ctxt).getObjectTypeIdField()));
+    }
+
+    /*
+     * Determine whether the current call site was already guarded, which is the case for the fallback call of a
+     * guard emitted in the previous phase.
+     */
+    private boolean isGuardedSite() {
+        GuardedSite site = new GuardedSite(getCurrentElement(), getBytecodeIndex());
+        Set<GuardedSite> previous = ctxt.getPreviousPhaseAttachment(GUARDED_SITES);
+        if (previous != null && previous.contains(site)) {
+            getGuardedSites().add(site);
+            return true;
+        }
+        return false;
+    }
+
+    private Set<GuardedSite> getGuardedSites() {
+        Set<GuardedSite> set = ctxt.getAttachment(GUARDED_SITES);
+        if (set == null) {
+            set = ConcurrentHashMap.newKeySet();
+            Set<GuardedSite> appearing = ctxt.putAttachmentIfAbsent(GUARDED_SITES, set);
+            if (appearing != null) {
+                set = appearing;
+            }
+        }
+        return set;
+    }
+
+    record GuardedSite(ExecutableElement element, int bci) {}
+
     /*
      * Determine if an interface call be converted to a virtual call based on the static
      * type of the receiver.
@@ -9,6 +9,21 @@ import org.qbicc.type.definition.LoadedTypeDefinition;
 import java.util.function.Consumer;
 
 public class DispatchTableBuilder implements Consumer<CompilationContext>  {
+    private final boolean coloredITables;
+
+    public DispatchTableBuilder() {
+        this(false);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param coloredITables {@code true} to index itable dictionaries by interface color, or {@code false} to search them
+     */
+    public DispatchTableBuilder(boolean coloredITables) {
+        this.coloredITables = coloredITables;
+    }
+
     @Override
     public void accept(CompilationContext ctxt) {
         ReachabilityInfo info = ReachabilityInfo.get(ctxt);
@@ -41,5 +56,8 @@ public class DispatchTableBuilder implements Consumer<CompilationContext>  {
 
         // Now build the interface dispatching structures for the dispatchable methods
         info.visitReachableInterfaces(tables::buildFilteredITableForInterface);
+        if (coloredITables) {
+            tables.buildITableColors(jlo);
+        }
     }
 }
@@ -3,12 +3,16 @@ package org.qbicc.plugin.dispatch;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 import io.smallrye.common.constraint.Assert;
 import org.jboss.logging.Logger;
@@ -56,6 +60,9 @@ public class DispatchTables {
     private GlobalVariableElement itablesGlobal;
     private GlobalVariableElement rtinitsGlobal;
     private StructType itableDictType;
+    // Interface colors for constant-time interface dispatch; null when using searched itables
+    private volatile Map<LoadedTypeDefinition, Integer> itableColors;
+    private int itableColorCount;
 
     // Used to accumulate statistics
     private int emittedVTableCount;
@@ -203,6 +210,98 @@ public class DispatchTables {
         itables.put(cls, new ITableInfo(itable, itableType, cls));
     }
 
+    /**
+     * Assign a color to each interface with a non-empty itable so that no two interfaces implemented by the same
+     * class share a color.  Once colored, the itable dictionary of each class is indexed by interface color instead
+     * of being searched for the interface type ID, making interface dispatch a constant-time operation.
+     */
+    void buildITableColors(LoadedTypeDefinition jlo) {
+        ReachabilityInfo info = ReachabilityInfo.get(ctxt);
+        Map<LoadedTypeDefinition, List<LoadedTypeDefinition>> implemented = new HashMap<>();
+        Consumer<LoadedTypeDefinition> collector = cls -> {
+            // same classes as emitITables
+            if (cls.isAbstract() && ! cls.isFinal()) {
+                return;
+            }
+            List<LoadedTypeDefinition> interfaces = new ArrayList<>();
+            cls.forEachInterfaceFullImplementedSet(i -> {
+                ITableInfo iti = itables.get(i);
+                if (iti != null && iti.getItable().length > 0) {
+                    interfaces.add(i);
+                }
+            });
+            if (! interfaces.isEmpty()) {
+                implemented.put(cls, interfaces);
+            }
+        };
+        collector.accept(jlo);
+        info.visitReachableSubclassesPreOrder(jlo, collector);
+
+        Map<LoadedTypeDefinition, Integer> colors = colorInterfaces(implemented);
+        int colorCount = 0;
+        for (Integer color : colors.values()) {
+            colorCount = Math.max(colorCount, color.intValue() + 1);
+        }
+        itableColorCount = colorCount;
+        itableColors = colors;
+        slog.debugf("Colored %d interfaces with %d colors", colors.size(), colorCount);
+    }
+
+    /**
+     * Color the given interfaces so that no class implements two interfaces of the same color.
+     *
+     * @param implemented the interfaces with a non-empty itable of each class (must not be {@code null})
+     * @return the color of each interface, counting up from zero
+     */
+    static Map<LoadedTypeDefinition, Integer> colorInterfaces(Map<LoadedTypeDefinition, List<LoadedTypeDefinition>> implemented) {
+        Map<LoadedTypeDefinition, Set<LoadedTypeDefinition>> implementors = new HashMap<>();
+        implemented.forEach((cls, interfaces) -> {
+            for (LoadedTypeDefinition i : interfaces) {
+                implementors.computeIfAbsent(i, k -> new HashSet<>()).add(cls);
+            }
+        });
+        // greedy coloring, most widely implemented interfaces first
+        List<LoadedTypeDefinition> order = new ArrayList<>(implementors.keySet());
+        order.sort(Comparator.comparingInt((LoadedTypeDefinition i) -> implementors.get(i).size()).reversed().thenComparing(LoadedTypeDefinition::getInternalName));
+        Map<LoadedTypeDefinition, Integer> colors = new HashMap<>();
+        BitSet used = new BitSet();
+        for (LoadedTypeDefinition i : order) {
+            used.clear();
+            for (LoadedTypeDefinition cls : implementors.get(i)) {
+                for (LoadedTypeDefinition other : implemented.get(cls)) {
+                    Integer color = colors.get(other);
+                    if (color != null) {
+                        used.set(color.intValue());
+                    }
+                }
+            }
+            int color = used.nextClearBit(0);
+            colors.put(i, Integer.valueOf(color));
+        }
+        return colors;
+    }
+
+    /**
+     * Determine whether interface dispatch uses colored itable dictionaries.
+     *
+     * @return {@code true} if the dictionaries are indexed by interface color, or {@code false} if they are searched
+     */
+    public boolean isColoredITables() {
+        return itableColors != null;
+    }
+
+    /**
+     * Get the color of the given interface, which is its index in the colored itable dictionary of every class
+     * implementing it.
+     *
+     * @param iface the interface (must not be {@code null})
+     * @return the color, or -1 if no reachable class has an itable for the interface
+     */
+    public int getITableColor(LoadedTypeDefinition iface) {
+        Integer color = itableColors.get(iface);
+        return color == null ? -1 : color.intValue();
+    }
+
     public void registerRuntimeInitializer(InitializerElement init) {
         runtimeInitializers.add(init);
     }
@@ -333,7 +432,7 @@ public class DispatchTables {
         ModuleSection cSection = ctxt.getImplicitSection(cls);
         ProgramModule programModule = cSection.getProgramModule();
 
-        ArrayList<Literal> itableLiterals = new ArrayList<>(myITables.size() + 1);
+        Map<LoadedTypeDefinition, Literal> dictEntries = new LinkedHashMap<>();
         RuntimeMethodFinder methodFinder = RuntimeMethodFinder.get(ctxt);
         ReachabilityInfo reachabilityInfo = ReachabilityInfo.get(ctxt);
         for (ITableInfo itableInfo : myITables) {
@@ -380,23 +479,37 @@ public class DispatchTables {
             String functionsName = "qbicc_itable_funcs_for_"+currentInterface.getInterfaceType().toFriendlyString();
             Data data = cSection.addData(null, functionsName, lf.literalOf(itableInfo.getType(), valueMap));
             data.setLinkage(Linkage.PRIVATE);
-            itableLiterals.add(lf.literalOf(itableDictType, Map.of(itableDictType.getMember("typeId"), lf.literalOf(currentInterface.getTypeId()),
+            dictEntries.put(currentInterface, lf.literalOf(itableDictType, Map.of(itableDictType.getMember("typeId"), lf.literalOf(currentInterface.getTypeId()),
                 itableDictType.getMember("itable"), lf.bitcastLiteral(lf.literalOf(data), ts.getVoidType().getPointer()))));
             emittedClassITableCount += 1;
             emittedClassITableBytes += itable.length * ctxt.getTypeSystem().getPointerSize();
         }
 
-        // zero-initialized sentinel to detect IncompatibleClassChangeErrors in dispatching search loop
-        itableLiterals.add(lf.zeroInitializerLiteralOfType(itableDictType));
+        List<Literal> itableLiterals;
+        if (itableColors == null) {
+            itableLiterals = new ArrayList<>(dictEntries.values());
+            // zero-initialized sentinel to detect IncompatibleClassChangeErrors in dispatching search loop
+            itableLiterals.add(lf.zeroInitializerLiteralOfType(itableDictType));
+        } else {
+            // zero-initialized entries of unused colors detect IncompatibleClassChangeErrors
+            Literal[] coloredLiterals = new Literal[itableColorCount];
+            Arrays.fill(coloredLiterals, lf.zeroInitializerLiteralOfType(itableDictType));
+            for (Map.Entry<LoadedTypeDefinition, Literal> entry : dictEntries.entrySet()) {
+                Integer color = itableColors.get(entry.getKey());
+                Assert.assertNotNull(color);
+                coloredLiterals[color.intValue()] = entry.getValue();
+            }
+            itableLiterals = List.of(coloredLiterals);
+        }
 
         String dictName = "qbicc_itable_dictionary_for_" + cls.getInternalName().replace('/', '.');
         if (cls.isHidden()) {
             dictName += "~" + ENCODER.encodeToString(cls.getDigest()) + '.' + cls.getHiddenClassIndex();
         }
         cSection.addData(null, dictName,
-            lf.literalOf(ts.getArrayType(itableDictType, myITables.size() + 1), itableLiterals));
+            lf.literalOf(ts.getArrayType(itableDictType, itableLiterals.size()), itableLiterals));
         emittedClassITableDictCount += 1;
-        emittedClassITableDictBytes += (myITables.size() + 1) * itableDictType.getSize();
+        emittedClassITableDictBytes += itableLiterals.size() * itableDictType.getSize();
     }
 
     void emitITableTable(LoadedTypeDefinition jlo) {
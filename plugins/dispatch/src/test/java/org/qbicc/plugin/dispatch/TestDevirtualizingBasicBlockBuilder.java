@@ -0,0 +1,264 @@
+package org.qbicc.plugin.dispatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.BlockParameter;
+import org.qbicc.graph.Call;
+import org.qbicc.graph.CallNoReturn;
+import org.qbicc.graph.Goto;
+import org.qbicc.graph.If;
+import org.qbicc.graph.Invoke;
+import org.qbicc.graph.InvokeNoReturn;
+import org.qbicc.graph.IsEq;
+import org.qbicc.graph.Slot;
+import org.qbicc.graph.TailCall;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.VirtualMethodLookup;
+import org.qbicc.graph.literal.ExecutableLiteral;
+import org.qbicc.graph.literal.TypeIdLiteral;
+import org.qbicc.test.AbstractGraphTestCase;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.InstanceFieldElement;
+import org.qbicc.type.definition.element.InstanceMethodElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Tests of the guarded direct calls emitted by {@link DevirtualizingBasicBlockBuilder}.
+ */
+public class TestDevirtualizingBasicBlockBuilder extends AbstractGraphTestCase {
+    private static LoadedTypeDefinition base;
+    private static LoadedTypeDefinition a;
+    private static LoadedTypeDefinition b;
+    private static LoadedTypeDefinition c;
+    private static LoadedTypeDefinition d;
+    // a stand-in for the type ID field of the object header, so that no class library is needed
+    private static InstanceFieldElement typeIdField;
+    private static InstanceMethodElement run;
+
+    @BeforeAll
+    static void defineClasses() {
+        base = defineClass("devirt/Base", null, List.of("run"), "typeId").load();
+        a = defineClass("devirt/A", base, List.of("run")).load();
+        b = defineClass("devirt/B", base, List.of("run")).load();
+        c = defineClass("devirt/C", base, List.of("run")).load();
+        d = defineClass("devirt/D", base, List.of("run")).load();
+        typeIdField = (InstanceFieldElement) base.getField(0);
+        run = (InstanceMethodElement) base.getMethod(0);
+    }
+
+    @Test
+    public void testGuardedCall() {
+        MethodElement caller = defineMethod(base, "guarded", ClassFile.ACC_STATIC);
+        BasicBlock entryBlock = buildCall(caller, 3, List.of(b, a), true);
+
+        List<If> guards = findNodes(entryBlock, If.class);
+        assertEquals(2, guards.size());
+        // each receiver class is tested in turn, in a stable order
+        assertEquals(List.of(a.getClassType(), b.getClassType()), guards.stream().map(TestDevirtualizingBasicBlockBuilder::guardedType).toList());
+        List<Call> calls = findNodes(entryBlock, Call.class);
+        assertEquals(3, calls.size());
+        assertEquals(a.getMethod(0), assertInstanceOf(ExecutableLiteral.class, calls.get(0).getTarget()).getExecutable());
+        assertEquals(b.getMethod(0), assertInstanceOf(ExecutableLiteral.class, calls.get(1).getTarget()).getExecutable());
+        // any other receiver class takes the dispatched call
+        assertEquals(run, assertInstanceOf(VirtualMethodLookup.class, calls.get(2).getTarget()).getMethod());
+        assertSame(guards.get(1).getFalseBranch(), calls.get(2).getScheduledBlock());
+    }
+
+    @Test
+    public void testGuardedVoidCall() {
+        MethodElement caller = defineMethod(base, "guardedVoid", ClassFile.ACC_STATIC);
+        BasicBlock entryBlock = buildCall(caller, 3, List.of(a, b), true);
+
+        // the guarded calls and the dispatched call all resume in the same block, without passing a result
+        List<Goto> gotos = findNodes(entryBlock, Goto.class);
+        assertEquals(3, gotos.size());
+        for (Goto goto_ : gotos) {
+            assertEquals(Set.of(), goto_.getOutboundArgumentNames());
+            assertSame(gotos.get(0).getResumeTarget(), goto_.getResumeTarget());
+        }
+        assertNull(gotos.get(0).getResumeTarget().getBlockParameter(Slot.result()));
+    }
+
+    @Test
+    public void testReceiverStaticType() {
+        MethodElement caller = defineMethod(base, "narrowed", ClassFile.ACC_STATIC);
+        BasicBlock entryBlock = build(caller, 3, a.getClassType().getReference(), List.of(a, b), true, (bbb, receiver) -> {
+            bbb.call(bbb.lookupVirtualMethod(receiver, run), receiver, List.of());
+            bbb.return_();
+        });
+
+        // only the classes which are compatible with the static type of the receiver are guarded
+        List<If> guards = findNodes(entryBlock, If.class);
+        assertEquals(1, guards.size());
+        assertEquals(a.getClassType(), guardedType(guards.get(0)));
+    }
+
+    @Test
+    public void testGuardedTailCall() {
+        MethodElement caller = defineMethod(base, "guardedTail", ClassFile.ACC_STATIC);
+        BasicBlock entryBlock = build(caller, 3, List.of(a, b), true, (bbb, receiver) -> bbb.tailCall(bbb.lookupVirtualMethod(receiver, run), receiver, List.of()));
+
+        List<If> guards = findNodes(entryBlock, If.class);
+        assertEquals(2, guards.size());
+        List<TailCall> calls = findNodes(entryBlock, TailCall.class);
+        assertEquals(3, calls.size());
+        assertEquals(List.of(a.getMethod(0), b.getMethod(0)), calls.subList(0, 2).stream().map(call -> assertInstanceOf(ExecutableLiteral.class, call.getTarget()).getExecutable()).toList());
+        // each guarded call terminates its own block, so there is nothing to merge
+        assertSame(guards.get(0).getTrueBranch(), calls.get(0).getTerminatedBlock());
+        assertSame(guards.get(1).getTrueBranch(), calls.get(1).getTerminatedBlock());
+        assertEquals(run, assertInstanceOf(VirtualMethodLookup.class, calls.get(2).getTarget()).getMethod());
+        assertSame(guards.get(1).getFalseBranch(), calls.get(2).getTerminatedBlock());
+    }
+
+    @Test
+    public void testGuardedCallNoReturn() {
+        MethodElement caller = defineMethod(base, "guardedNoReturn", ClassFile.ACC_STATIC);
+        BasicBlock entryBlock = build(caller, 3, List.of(a), true, (bbb, receiver) -> bbb.callNoReturn(bbb.lookupVirtualMethod(receiver, run), receiver, List.of()));
+
+        List<If> guards = findNodes(entryBlock, If.class);
+        assertEquals(1, guards.size());
+        List<CallNoReturn> calls = findNodes(entryBlock, CallNoReturn.class);
+        assertEquals(2, calls.size());
+        assertEquals(a.getMethod(0), assertInstanceOf(ExecutableLiteral.class, calls.get(0).getTarget()).getExecutable());
+        assertSame(guards.get(0).getTrueBranch(), calls.get(0).getTerminatedBlock());
+        assertEquals(run, assertInstanceOf(VirtualMethodLookup.class, calls.get(1).getTarget()).getMethod());
+        assertSame(guards.get(0).getFalseBranch(), calls.get(1).getTerminatedBlock());
+    }
+
+    @Test
+    public void testGuardedInvokeNoReturn() {
+        MethodElement caller = defineMethod(base, "guardedInvokeNoReturn", ClassFile.ACC_STATIC);
+        BlockLabel catchLabel = new BlockLabel();
+        BasicBlock entryBlock = build(caller, 3, List.of(a), true, (bbb, receiver) -> {
+            bbb.invokeNoReturn(bbb.lookupVirtualMethod(receiver, run), receiver, List.of(), catchLabel, Map.of());
+            bbb.begin(catchLabel);
+            bbb.return_();
+        });
+
+        List<InvokeNoReturn> calls = findNodes(entryBlock, InvokeNoReturn.class);
+        assertEquals(2, calls.size());
+        assertEquals(a.getMethod(0), assertInstanceOf(ExecutableLiteral.class, calls.get(0).getTarget()).getExecutable());
+        assertEquals(run, assertInstanceOf(VirtualMethodLookup.class, calls.get(1).getTarget()).getMethod());
+        // both calls share the exception handler
+        assertSame(calls.get(0).getCatchBlock(), calls.get(1).getCatchBlock());
+    }
+
+    @Test
+    public void testInvokeNotGuarded() {
+        MethodElement caller = defineMethod(base, "invoke", ClassFile.ACC_STATIC);
+        BlockLabel catchLabel = new BlockLabel();
+        BlockLabel resumeLabel = new BlockLabel();
+        BasicBlock entryBlock = build(caller, 3, List.of(a), true, (bbb, receiver) -> {
+            bbb.invoke(bbb.lookupVirtualMethod(receiver, run), receiver, List.of(), catchLabel, resumeLabel, Map.of());
+            bbb.begin(catchLabel);
+            bbb.return_();
+            bbb.begin(resumeLabel);
+            bbb.return_();
+        });
+
+        assertEquals(List.of(), findNodes(entryBlock, If.class));
+        List<Invoke> calls = findNodes(entryBlock, Invoke.class);
+        assertEquals(1, calls.size());
+        assertInstanceOf(VirtualMethodLookup.class, calls.get(0).getTarget());
+    }
+
+    @Test
+    public void testTooManyClasses() {
+        MethodElement caller = defineMethod(base, "tooMany", ClassFile.ACC_STATIC);
+        BasicBlock entryBlock = buildCall(caller, 3, List.of(a, b, c, d), true);
+
+        assertEquals(List.of(), findNodes(entryBlock, If.class));
+        List<Call> calls = findNodes(entryBlock, Call.class);
+        assertEquals(1, calls.size());
+        assertInstanceOf(VirtualMethodLookup.class, calls.get(0).getTarget());
+    }
+
+    @Test
+    public void testGuardsDisabled() {
+        MethodElement caller = defineMethod(base, "disabled", ClassFile.ACC_STATIC);
+        BasicBlock entryBlock = buildCall(caller, 3, List.of(a), false);
+
+        assertEquals(List.of(), findNodes(entryBlock, If.class));
+        assertEquals(1, findNodes(entryBlock, Call.class).size());
+    }
+
+    @Test
+    public void testNoGuardOfGuardedSite() {
+        MethodElement caller = defineMethod(base, "again", ClassFile.ACC_STATIC);
+        assertEquals(1, findNodes(buildCall(caller, 3, List.of(a), true), If.class).size());
+        ctxt.cyclePhaseAttachments();
+        // the fallback call of the previous phase's guard has the same element and bytecode index
+        assertEquals(List.of(), findNodes(buildCall(caller, 3, List.of(a), true), If.class));
+        // another call site of the same method is still guarded
+        assertEquals(1, findNodes(buildCall(caller, 4, List.of(a), true), If.class).size());
+        ctxt.cyclePhaseAttachments();
+        // the site is remembered as guarded from phase to phase
+        assertEquals(List.of(), findNodes(buildCall(caller, 3, List.of(a), true), If.class));
+    }
+
+    private static BasicBlock buildCall(MethodElement caller, int bci, List<LoadedTypeDefinition> receiverClasses, boolean guards) {
+        return build(caller, bci, receiverClasses, guards, (bbb, receiver) -> {
+            bbb.call(bbb.lookupVirtualMethod(receiver, run), receiver, List.of());
+            bbb.return_();
+        });
+    }
+
+    /**
+     * Build a method which passes its parameter to the given call site emitter, which must terminate the method's
+     * blocks.
+     */
+    private static BasicBlock build(MethodElement caller, int bci, List<LoadedTypeDefinition> receiverClasses, boolean guards, BiConsumer<BasicBlockBuilder, BlockParameter> callSite) {
+        return build(caller, bci, base.getClassType().getReference(), receiverClasses, guards, callSite);
+    }
+
+    /**
+     * Build a method which passes its parameter of the given type to the given call site emitter, which must
+     * terminate the method's blocks.  Of the given receiver classes, only those which are subclasses of the type that
+     * the receiver classes are requested for are used.
+     */
+    private static BasicBlock build(MethodElement caller, int bci, ReferenceType receiverType, List<LoadedTypeDefinition> receiverClasses, boolean guards, BiConsumer<BasicBlockBuilder, BlockParameter> callSite) {
+        BasicBlockBuilder simple = newBuilder(caller);
+        BasicBlockBuilder bbb;
+        if (guards) {
+            bbb = new DevirtualizingBasicBlockBuilder(simple, true) {
+                @Override
+                void visitReceiverClasses(LoadedTypeDefinition type, Consumer<LoadedTypeDefinition> function) {
+                    receiverClasses.stream().filter(cls -> cls.getObjectType().isSubtypeOf(type.getObjectType())).forEach(function);
+                }
+
+                @Override
+                Value loadReceiverTypeId(Value reference) {
+                    return simple.load(simple.instanceFieldOf(simple.decodeReference(reference), typeIdField));
+                }
+            };
+        } else {
+            bbb = new DevirtualizingBasicBlockBuilder(BasicBlockBuilder.FactoryContext.EMPTY, simple);
+        }
+        bbb.setFirstBuilder(bbb);
+        BlockLabel entry = new BlockLabel();
+        bbb.begin(entry);
+        BlockParameter receiver = bbb.addParam(entry, Slot.funcParam(0), receiverType, false);
+        bbb.setBytecodeIndex(bci);
+        callSite.accept(bbb, receiver);
+        return finish(simple);
+    }
+
+    private static ValueType guardedType(If guard) {
+        IsEq isEq = assertInstanceOf(IsEq.class, guard.getCondition());
+        return assertInstanceOf(TypeIdLiteral.class, isEq.getRightInput()).getValue();
+    }
+}
@@ -0,0 +1,52 @@
+package org.qbicc.plugin.dispatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.test.AbstractGraphTestCase;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+
+/**
+ * Tests of the interface colors computed for the colored itable dictionaries of {@link DispatchTables}.
+ */
+public class TestDispatchTables extends AbstractGraphTestCase {
+
+    @Test
+    public void testITableColors() {
+        LoadedTypeDefinition[] interfaces = new LoadedTypeDefinition[6];
+        for (int i = 0; i < interfaces.length; i ++) {
+            interfaces[i] = defineClass("colors/I" + i, null).load();
+        }
+        Map<LoadedTypeDefinition, List<LoadedTypeDefinition>> implemented = new LinkedHashMap<>();
+        // I0, I1 and I2 are pairwise implemented together, so they need three colors
+        implemented.put(defineClass("colors/A", null).load(), List.of(interfaces[0], interfaces[1]));
+        implemented.put(defineClass("colors/B", null).load(), List.of(interfaces[1], interfaces[2]));
+        implemented.put(defineClass("colors/C", null).load(), List.of(interfaces[0], interfaces[2], interfaces[3]));
+        // ...while I4 and I5 are never implemented with each other
+        implemented.put(defineClass("colors/D", null).load(), List.of(interfaces[4]));
+        implemented.put(defineClass("colors/E", null).load(), List.of(interfaces[5], interfaces[3]));
+
+        Map<LoadedTypeDefinition, Integer> colors = DispatchTables.colorInterfaces(implemented);
+        assertEquals(Set.of(interfaces), colors.keySet());
+        // no class has two interfaces of the same color, or else one of them would overwrite the other in its dictionary
+        implemented.forEach((cls, list) -> {
+            Set<Integer> seen = new HashSet<>();
+            for (LoadedTypeDefinition i : list) {
+                assertTrue(seen.add(colors.get(i)), () -> cls.getInternalName() + " has two interfaces colored " + colors.get(i));
+            }
+        });
+        assertEquals(Set.of(0, 1, 2), Set.copyOf(colors.values()));
+        assertEquals(0, colors.get(interfaces[4]));
+    }
+
+    @Test
+    public void testNoInterfaces() {
+        assertEquals(Map.of(), DispatchTables.colorInterfaces(Map.of()));
+    }
+}
@@ -82,6 +82,12 @@ public final class GcCommon {
             // hard-coded to pointer alignment for now
             return lf.literalOf(ts.getPointerAlignment());
         });
+
+        intrinsics.registerIntrinsic(heapDesc, "getConfiguredHeapAddressLimit", emptyToLong, (builder, targetPtr, arguments) -> {
+            // references which are narrower than pointers can only address the bottom of the address space
+            int refBits = ts.getReferenceSize() * ts.getByteBits();
+            return lf.literalOf(ts.getReferenceSize() < ts.getPointerSize() ? 1L << refBits : 0L);
+        });
     }
 
     private static void registerGcIntrinsics(final CompilationContext ctxt) {
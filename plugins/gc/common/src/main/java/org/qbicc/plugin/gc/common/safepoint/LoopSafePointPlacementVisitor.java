@@ -0,0 +1,185 @@
+package org.qbicc.plugin.gc.common.safepoint;
+
+import java.util.Set;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.Add;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BlockParameter;
+import org.qbicc.graph.Comp;
+import org.qbicc.graph.Goto;
+import org.qbicc.graph.If;
+import org.qbicc.graph.Invoke;
+import org.qbicc.graph.IsGe;
+import org.qbicc.graph.IsGt;
+import org.qbicc.graph.IsLe;
+import org.qbicc.graph.IsLt;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.Switch;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.graph.schedule.DominatorTree;
+import org.qbicc.type.SignedIntegerType;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.FunctionElement;
+
+/**
+ * A copier which places a safepoint poll on every loop back edge, so that a thread running a loop reaches a
+ * safepoint even if the loop body makes no calls.
+ * <p>
+ * Counted loops whose trip count is known to be small finish in a bounded time, so their back edges are not polled.
+ * Such a loop has an induction variable which starts at a constant, is only incremented by positive constants, and is
+ * compared to a constant bound in the loop header.
+ */
+public class LoopSafePointPlacementVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock> {
+    /**
+     * The largest trip count of a counted loop which is not polled.
+     */
+    private static final long SMALL_TRIP_COUNT = 1024;
+
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock> delegate;
+    private DominatorTree dominatorTree;
+
+    public LoopSafePointPlacementVisitor(final CompilationContext ctxt, final NodeVisitor<Node.Copier, Value, Node, BasicBlock> delegate) {
+        this.delegate = delegate;
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    @Override
+    public BasicBlock visit(final Node.Copier param, final Goto node) {
+        placePoll(param, node);
+        return getDelegateTerminatorVisitor().visit(param, node);
+    }
+
+    @Override
+    public BasicBlock visit(final Node.Copier param, final If node) {
+        placePoll(param, node);
+        return getDelegateTerminatorVisitor().visit(param, node);
+    }
+
+    @Override
+    public BasicBlock visit(final Node.Copier param, final Switch node) {
+        placePoll(param, node);
+        return getDelegateTerminatorVisitor().visit(param, node);
+    }
+
+    @Override
+    public BasicBlock visit(final Node.Copier param, final Invoke node) {
+        placePoll(param, node);
+        return getDelegateTerminatorVisitor().visit(param, node);
+    }
+
+    private void placePoll(Node.Copier param, Terminator node) {
+        ExecutableElement element = param.getBlockBuilder().getRootElement();
+        if (element instanceof FunctionElement || element.hasAllModifiersOf(ClassFile.I_ACC_NO_SAFEPOINTS)) {
+            return;
+        }
+        BasicBlock block = node.getTerminatedBlock();
+        DominatorTree tree = dominatorTree;
+        if (tree == null) {
+            tree = dominatorTree = new DominatorTree(param.getEntryBlock());
+        }
+        int cnt = node.getSuccessorCount();
+        for (int i = 0; i < cnt; i ++) {
+            BasicBlock header = node.getSuccessor(i);
+            if (tree.dominates(header, block) && ! isSmallCountedLoop(header, tree.getNaturalLoop(header))) {
+                // back edge
+                param.copyNode(node.getDependency());
+                param.getBlockBuilder().safePoint();
+                return;
+            }
+        }
+    }
+
+    private static boolean isSmallCountedLoop(BasicBlock header, Set<BasicBlock> loop) {
+        if (! (header.getTerminator() instanceof If iff)) {
+            return false;
+        }
+        boolean stayOnTrue = loop.contains(iff.getTrueBranch());
+        if (stayOnTrue == loop.contains(iff.getFalseBranch())) {
+            return false;
+        }
+        // normalize the condition for staying in the loop to `var < bound` or `var <= bound`
+        Value condition = iff.getCondition();
+        boolean holds = stayOnTrue;
+        while (condition instanceof Comp comp) {
+            condition = comp.getInput();
+            holds = ! holds;
+        }
+        Value var, bound;
+        boolean strict;
+        if (condition instanceof IsLt c) {
+            var = holds ? c.getLeftInput() : c.getRightInput();
+            bound = holds ? c.getRightInput() : c.getLeftInput();
+            strict = holds;
+        } else if (condition instanceof IsLe c) {
+            var = holds ? c.getLeftInput() : c.getRightInput();
+            bound = holds ? c.getRightInput() : c.getLeftInput();
+            strict = ! holds;
+        } else if (condition instanceof IsGt c) {
+            var = holds ? c.getRightInput() : c.getLeftInput();
+            bound = holds ? c.getLeftInput() : c.getRightInput();
+            strict = holds;
+        } else if (condition instanceof IsGe c) {
+            var = holds ? c.getRightInput() : c.getLeftInput();
+            bound = holds ? c.getLeftInput() : c.getRightInput();
+            strict = ! holds;
+        } else {
+            return false;
+        }
+        if (! (var instanceof BlockParameter bp && bp.getPinnedBlock() == header && bp.getType() instanceof SignedIntegerType type && type.getMinBits() <= 32 && bound instanceof IntegerLiteral limit)) {
+            // when the variable is on the wrong side, the loop counts down, which is not recognized
+            return false;
+        }
+        long start = Long.MAX_VALUE;
+        long step = Long.MAX_VALUE;
+        for (BasicBlock incoming : header.getIncoming()) {
+            if (! incoming.isReachable()) {
+                continue;
+            }
+            Terminator t = incoming.getTerminator();
+            if (t.isImplicitOutboundArgument(bp.getSlot(), header)) {
+                return false;
+            }
+            Value value = t.getOutboundArgument(bp.getSlot());
+            if (loop.contains(incoming)) {
+                long increment = getIncrement(value, bp);
+                if (increment <= 0) {
+                    return false;
+                }
+                step = Math.min(step, increment);
+            } else if (value instanceof IntegerLiteral il) {
+                start = Math.min(start, il.longValue());
+            } else {
+                return false;
+            }
+        }
+        // the values are all 32 bits or smaller, so these cannot overflow
+        if (start == Long.MAX_VALUE || step == Long.MAX_VALUE || limit.longValue() + step > type.getMaxValue() + (strict ? 1 : 0)) {
+            // the last increment might wrap around
+            return false;
+        }
+        long range = limit.longValue() - start + (strict ? 0 : 1);
+        return range / step <= SMALL_TRIP_COUNT;
+    }
+
+    /**
+     * Get the constant which is added to the variable by the given value, or {@code 0} if it is not {@code var + c}.
+     */
+    private static long getIncrement(Value value, BlockParameter var) {
+        if (value instanceof Add add) {
+            if (add.getLeftInput() == var && add.getRightInput() instanceof IntegerLiteral il) {
+                return il.longValue();
+            } else if (add.getRightInput() == var && add.getLeftInput() instanceof IntegerLiteral il) {
+                return il.longValue();
+            }
+        }
+        return 0;
+    }
+}
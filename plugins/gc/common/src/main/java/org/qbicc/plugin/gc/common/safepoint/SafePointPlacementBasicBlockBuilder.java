@@ -1,8 +1,15 @@
 package org.qbicc.plugin.gc.common.safepoint;
 
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.qbicc.graph.BasicBlock;
 import org.qbicc.graph.BasicBlockBuilder;
 import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.InvocationNode;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.Terminator;
 import org.qbicc.graph.Value;
 import org.qbicc.type.definition.classfile.ClassFile;
 import org.qbicc.type.definition.element.ExecutableElement;
@@ -23,6 +30,64 @@ public final class SafePointPlacementBasicBlockBuilder extends DelegatingBasicBl
         return currentElement instanceof FunctionElement || noSafePoints ? delegate : new SafePointPlacementBasicBlockBuilder(delegate);
     }
 
+    /**
+     * Create the builder if needed, omitting it for methods whose previous body has no calls and no loops.
+     * Such a method finishes in a bounded time, and its caller polls on return or in its loops (see
+     * {@link LoopSafePointPlacementVisitor}), so polling in the method itself is not necessary.
+     *
+     * @param ctxt the factory context (must not be {@code null})
+     * @param delegate the delegate builder (must not be {@code null})
+     * @return the builder (not {@code null})
+     */
+    public static BasicBlockBuilder createIfNeededExceptLeaves(FactoryContext ctxt, BasicBlockBuilder delegate) {
+        final ExecutableElement currentElement = delegate.getCurrentElement();
+        if (currentElement.hasMethodBody() && isLoopFreeLeaf(currentElement.getMethodBody().getEntryBlock())) {
+            return delegate;
+        }
+        return createIfNeeded(ctxt, delegate);
+    }
+
+    private static boolean isLoopFreeLeaf(BasicBlock entryBlock) {
+        // count the incoming edges of each reachable block
+        Map<BasicBlock, Integer> inDegrees = new HashMap<>();
+        ArrayDeque<BasicBlock> queue = new ArrayDeque<>();
+        inDegrees.put(entryBlock, Integer.valueOf(0));
+        queue.add(entryBlock);
+        BasicBlock block;
+        while ((block = queue.poll()) != null) {
+            for (Node node : block.getInstructions()) {
+                if (node instanceof InvocationNode) {
+                    return false;
+                }
+            }
+            Terminator t = block.getTerminator();
+            int cnt = t.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                BasicBlock successor = t.getSuccessor(i);
+                if (inDegrees.merge(successor, Integer.valueOf(1), Integer::sum).intValue() == 1 && successor != entryBlock) {
+                    queue.add(successor);
+                }
+            }
+        }
+        // the graph is acyclic if and only if every reachable block can be sorted topologically
+        int sorted = 0;
+        if (inDegrees.get(entryBlock).intValue() == 0) {
+            queue.add(entryBlock);
+        }
+        while ((block = queue.poll()) != null) {
+            sorted ++;
+            Terminator t = block.getTerminator();
+            int cnt = t.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                BasicBlock successor = t.getSuccessor(i);
+                if (inDegrees.merge(successor, Integer.valueOf(-1), Integer::sum).intValue() == 0) {
+                    queue.add(successor);
+                }
+            }
+        }
+        return sorted == inDegrees.size();
+    }
+
     @Override
     public BasicBlock return_(Value value) {
         safePoint();
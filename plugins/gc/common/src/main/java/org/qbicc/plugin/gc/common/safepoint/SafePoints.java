@@ -1,13 +1,29 @@
 package org.qbicc.plugin.gc.common.safepoint;
 
+import static org.qbicc.graph.atomic.AccessModes.GlobalAcquire;
+
 import java.util.List;
+import java.util.Map;
 
+import org.qbicc.context.AttachmentKey;
 import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
 import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockEarlyTermination;
+import org.qbicc.graph.BlockLabel;
 import org.qbicc.graph.DelegatingBasicBlockBuilder;
 import org.qbicc.graph.Node;
+import org.qbicc.graph.Slot;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.type.IntegerType;
+import org.qbicc.type.StructType;
 import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.definition.element.FunctionElement;
 import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.definition.element.StaticFieldElement;
 
 /**
  *
@@ -15,6 +31,13 @@ import org.qbicc.type.definition.element.MethodElement;
 public final class SafePoints {
     private static final String THREAD_INT_NAME = "java/lang/Thread";
 
+    /**
+     * The name of the constant of {@code Thread} which holds the bit of the {@code state} member of
+     * {@code Thread$thread_native} that is set while a safepoint is requested of the thread.
+     */
+    private static final String STATE_SAFEPOINT_REQUEST_NAME = "STATE_SAFEPOINT_REQUEST";
+    private static final AttachmentKey<Integer> STATE_SAFEPOINT_REQUEST_KEY = new AttachmentKey<>();
+
     private SafePoints() {}
 
     /**
@@ -36,4 +59,81 @@ public final class SafePoints {
             }
         };
     }
+
+    /**
+     * Create the basic block builder for the selected strategy, testing the safepoint request state of the current
+     * thread inline so that {@code Thread.pollSafePoint} is only called when a safepoint was requested.
+     * Functions, which have no current thread parameter, always call the poll method, as do all methods if the thread
+     * state is too narrow to hold the request bit.  The request bit is taken from the {@code STATE_SAFEPOINT_REQUEST}
+     * constant of {@code Thread}; if the class library has no such constant, an error is reported.
+     *
+     * @param fc the factory context (must not be {@code null})
+     * @param delegate the delegate basic block builder (must not be {@code null})
+     * @return the basic block builder (not {@code null})
+     */
+    public static BasicBlockBuilder createInlineBasicBlockBuilder(BasicBlockBuilder.FactoryContext fc, BasicBlockBuilder delegate) {
+        final ClassContext bcc = delegate.getContext().getBootstrapClassContext();
+        final StructType threadNativeType = (StructType) bcc.resolveTypeFromClassName("java/lang", "Thread$thread_native");
+        if (delegate.getRootElement() instanceof FunctionElement || ! threadNativeType.hasMember("state")) {
+            return createBasicBlockBuilder(fc, delegate);
+        }
+        final StructType.Member stateMember = threadNativeType.getMember("state");
+        if (! (stateMember.getType() instanceof IntegerType stateType) || stateType.getMinBits() < Integer.SIZE) {
+            return createBasicBlockBuilder(fc, delegate);
+        }
+        final int requestMask = getSafePointRequestMask(delegate.getContext());
+        if (requestMask == 0) {
+            return createBasicBlockBuilder(fc, delegate);
+        }
+        final DefinedTypeDefinition dt = bcc.findDefinedType(THREAD_INT_NAME);
+        return new DelegatingBasicBlockBuilder(delegate) {
+
+            @Override
+            public Node safePoint() {
+                final MethodElement pollSafePoint = dt.load().requireSingleMethod("pollSafePoint");
+                final LiteralFactory lf = getLiteralFactory();
+                final BlockLabel poll = new BlockLabel();
+                final BlockLabel resume = new BlockLabel();
+                Value state = load(memberOf(getParam(getEntryLabel(), Slot.thread()), stateMember), GlobalAcquire);
+                Value requested = and(state, lf.literalOf(stateType, Integer.toUnsignedLong(requestMask)));
+                if_(isNe(requested, lf.literalOf(stateType, 0)), poll, resume, Map.of());
+                try {
+                    begin(poll);
+                    getFirstBuilder().call(lf.literalOf(pollSafePoint), List.of());
+                    goto_(resume, Map.of());
+                } catch (BlockEarlyTermination ignored) {
+                    // continue
+                }
+                begin(resume);
+                return nop();
+            }
+        };
+    }
+
+    /**
+     * Get the mask of the safepoint request bit of the thread state, as defined by the class library.  An error is
+     * reported once if it is not defined.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the mask, or 0 if it is not defined
+     */
+    private static int getSafePointRequestMask(CompilationContext ctxt) {
+        Integer mask = ctxt.getAttachment(STATE_SAFEPOINT_REQUEST_KEY);
+        if (mask == null) {
+            final DefinedTypeDefinition dt = ctxt.getBootstrapClassContext().findDefinedType(THREAD_INT_NAME);
+            final FieldElement field = dt == null ? null : dt.load().findField(STATE_SAFEPOINT_REQUEST_NAME);
+            int value = 0;
+            if (field instanceof StaticFieldElement sfe && sfe.isReallyFinal() && sfe.getInitialValue() instanceof IntegerLiteral il && Integer.bitCount(il.intValue()) == 1) {
+                value = il.intValue();
+            }
+            mask = Integer.valueOf(value);
+            Integer appearing = ctxt.putAttachmentIfAbsent(STATE_SAFEPOINT_REQUEST_KEY, mask);
+            if (appearing != null) {
+                mask = appearing;
+            } else if (value == 0) {
+                ctxt.error("Inline safepoint polls require a single-bit static final int %s.%s constant in the class library", THREAD_INT_NAME.replace('/', '.'), STATE_SAFEPOINT_REQUEST_NAME);
+            }
+        }
+        return mask.intValue();
+    }
 }
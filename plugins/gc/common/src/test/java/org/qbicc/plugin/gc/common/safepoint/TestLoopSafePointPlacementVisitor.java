@@ -0,0 +1,84 @@
+package org.qbicc.plugin.gc.common.safepoint;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.BlockParameter;
+import org.qbicc.graph.SafePoint;
+import org.qbicc.graph.Slot;
+import org.qbicc.graph.Value;
+import org.qbicc.test.AbstractGraphTestCase;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Tests of the loops whose back edges are polled by {@link LoopSafePointPlacementVisitor}.
+ */
+public class TestLoopSafePointPlacementVisitor extends AbstractGraphTestCase {
+    private static DefinedTypeDefinition def;
+
+    @BeforeAll
+    static void defineClasses() {
+        def = defineClass("safepoint/Loops", null);
+    }
+
+    @Test
+    public void testSmallCountedLoop() {
+        // for (int i = 0; i < 100; i ++)
+        assertEquals(0, countPolls("small", 0, 100, 1, BasicBlockBuilder::isLt));
+        // for (int i = 0; i <= 1024; i += 2), as `! (1024 < i)`
+        assertEquals(0, countPolls("smallLe", 0, 1024, 2, (bbb, i, bound) -> bbb.complement(bbb.isLt(bound, i))));
+    }
+
+    @Test
+    public void testLargeCountedLoop() {
+        // for (int i = 0; i < 100000; i ++)
+        assertEquals(1, countPolls("large", 0, 100000, 1, BasicBlockBuilder::isLt));
+    }
+
+    @Test
+    public void testLoopNearOverflow() {
+        // for (int i = MAX_VALUE - 10; i < MAX_VALUE - 1; i += 4) takes i from MAX_VALUE - 2 to MIN_VALUE + 1
+        assertEquals(1, countPolls("wraps", Integer.MAX_VALUE - 10, Integer.MAX_VALUE - 1, 4, BasicBlockBuilder::isLt));
+        // for (int i = MAX_VALUE - 5; i <= MAX_VALUE; i ++) never ends
+        assertEquals(1, countPolls("endless", Integer.MAX_VALUE - 5, Integer.MAX_VALUE, 1, BasicBlockBuilder::isLe));
+    }
+
+    @Test
+    public void testCountDownLoop() {
+        // for (int i = 100; i > 0; i --)
+        assertEquals(1, countPolls("down", 100, 0, -1, BasicBlockBuilder::isGt));
+    }
+
+    private static int countPolls(String name, int start, int bound, int step, Condition condition) {
+        MethodElement method = defineMethod(def, name, ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(method);
+        BlockLabel header = new BlockLabel();
+        BlockLabel body = new BlockLabel();
+        BlockLabel exit = new BlockLabel();
+        bbb.begin(new BlockLabel());
+        bbb.goto_(header, Slot.temp(0), lf.literalOf(start));
+        bbb.begin(header);
+        BlockParameter i = bbb.addParam(header, Slot.temp(0), ts.getSignedInteger32Type());
+        bbb.if_(condition.apply(bbb, i, lf.literalOf(bound)), body, exit, Map.of());
+        bbb.begin(body);
+        bbb.goto_(header, Slot.temp(0), bbb.add(i, lf.literalOf(step)));
+        bbb.begin(exit);
+        bbb.return_();
+        BasicBlock entryBlock = finish(bbb);
+
+        BasicBlock copy = copy(entryBlock, LoopSafePointPlacementVisitor::new);
+        return findNodes(copy, SafePoint.class).size();
+    }
+
+    interface Condition {
+        Value apply(BasicBlockBuilder bbb, Value var, Value bound);
+    }
+}
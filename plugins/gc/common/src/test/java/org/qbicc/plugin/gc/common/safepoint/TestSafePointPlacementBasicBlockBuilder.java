@@ -0,0 +1,95 @@
+package org.qbicc.plugin.gc.common.safepoint;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.BlockParameter;
+import org.qbicc.graph.Slot;
+import org.qbicc.test.AbstractGraphTestCase;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Tests of the methods which are found to need no safepoint polls by {@link SafePointPlacementBasicBlockBuilder}.
+ */
+public class TestSafePointPlacementBasicBlockBuilder extends AbstractGraphTestCase {
+    private static DefinedTypeDefinition def;
+
+    @BeforeAll
+    static void defineClasses() {
+        def = defineClass("safepoint/Leaves", null);
+    }
+
+    @Test
+    public void testLoopFreeLeaf() {
+        MethodElement method = defineMethod(def, "leaf", ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(method);
+        BlockLabel entry = new BlockLabel();
+        BlockLabel left = new BlockLabel();
+        BlockLabel right = new BlockLabel();
+        BlockLabel join = new BlockLabel();
+        bbb.begin(entry);
+        BlockParameter flag = bbb.addParam(entry, Slot.funcParam(0), ts.getBooleanType());
+        bbb.if_(flag, left, right, Map.of());
+        bbb.begin(left);
+        bbb.goto_(join, Map.of());
+        bbb.begin(right);
+        bbb.goto_(join, Map.of());
+        bbb.begin(join);
+        bbb.return_();
+        finish(bbb);
+
+        // the blocks join again, but there is no cycle
+        BasicBlockBuilder delegate = newBuilder(method);
+        assertSame(delegate, SafePointPlacementBasicBlockBuilder.createIfNeededExceptLeaves(BasicBlockBuilder.FactoryContext.EMPTY, delegate));
+    }
+
+    @Test
+    public void testLoop() {
+        MethodElement method = defineMethod(def, "loop", ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(method);
+        BlockLabel entry = new BlockLabel();
+        BlockLabel header = new BlockLabel();
+        BlockLabel exit = new BlockLabel();
+        bbb.begin(entry);
+        BlockParameter flag = bbb.addParam(entry, Slot.funcParam(0), ts.getBooleanType());
+        bbb.goto_(header, Map.of());
+        bbb.begin(header);
+        bbb.if_(flag, header, exit, Map.of());
+        bbb.begin(exit);
+        bbb.return_();
+        finish(bbb);
+
+        assertPolled(method);
+    }
+
+    @Test
+    public void testCall() {
+        MethodElement callee = defineMethod(def, "callee", ClassFile.ACC_STATIC);
+        MethodElement method = defineMethod(def, "caller", ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(method);
+        bbb.begin(new BlockLabel());
+        bbb.call(lf.literalOf(callee), List.of());
+        bbb.return_();
+        finish(bbb);
+
+        assertPolled(method);
+    }
+
+    @Test
+    public void testNoPreviousBody() {
+        assertPolled(defineMethod(def, "new", ClassFile.ACC_STATIC));
+    }
+
+    private static void assertPolled(MethodElement method) {
+        BasicBlockBuilder delegate = newBuilder(method);
+        assertInstanceOf(SafePointPlacementBasicBlockBuilder.class, SafePointPlacementBasicBlockBuilder.createIfNeededExceptLeaves(BasicBlockBuilder.FactoryContext.EMPTY, delegate));
+    }
+}
@@ -4,22 +4,37 @@ import org.qbicc.context.AttachmentKey;
 import org.qbicc.context.CompilationContext;
 import org.qbicc.type.ClassObjectType;
 import org.qbicc.context.ClassContext;
+import org.qbicc.plugin.threadlocal.ThreadLocals;
 import org.qbicc.type.definition.DefinedTypeDefinition;
 import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.definition.element.InstanceFieldElement;
 import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.definition.element.StaticFieldElement;
 
 /**
  *
  */
 public final class NoGc {
-    private final CompilationContext ctxt;
     private final MethodElement allocateMethod;
+    private final MethodElement localAllocateMethod;
     private final MethodElement copyMethod;
     private final MethodElement zeroMethod;
+    private final InstanceFieldElement tlabTopField;
+    private final InstanceFieldElement tlabEndField;
     private final ClassObjectType stackObjectType;
 
-    private NoGc(final CompilationContext ctxt) {
-        this.ctxt = ctxt;
+    NoGc(final MethodElement allocateMethod, final MethodElement localAllocateMethod, final MethodElement copyMethod, final MethodElement zeroMethod, final InstanceFieldElement tlabTopField, final InstanceFieldElement tlabEndField, final ClassObjectType stackObjectType) {
+        this.allocateMethod = allocateMethod;
+        this.localAllocateMethod = localAllocateMethod;
+        this.copyMethod = copyMethod;
+        this.zeroMethod = zeroMethod;
+        this.tlabTopField = tlabTopField;
+        this.tlabEndField = tlabEndField;
+        this.stackObjectType = stackObjectType;
+    }
+
+    private static NoGc load(final CompilationContext ctxt) {
         ClassContext classContext = ctxt.getBootstrapClassContext();
         DefinedTypeDefinition defined = classContext.findDefinedType("org/qbicc/runtime/gc/nogc/NoGcHelpers");
         if (defined == null) {
@@ -30,23 +45,46 @@ public final class NoGc {
         if (index == -1) {
             throw methodMissing();
         }
-        allocateMethod = loaded.getMethod(index);
+        MethodElement allocateMethod = loaded.getMethod(index);
+        index = loaded.findMethodIndex(e -> e.getName().equals("allocateLocal"));
+        if (index == -1) {
+            throw methodMissing();
+        }
+        MethodElement localAllocateMethod = loaded.getMethod(index);
         index = loaded.findMethodIndex(e -> e.getName().equals("copy"));
         if (index == -1) {
             throw methodMissing();
         }
-        copyMethod = loaded.getMethod(index);
+        MethodElement copyMethod = loaded.getMethod(index);
         index = loaded.findMethodIndex(e -> e.getName().equals("clear"));
         if (index == -1) {
             throw methodMissing();
         }
-        zeroMethod = loaded.getMethod(index);
+        MethodElement zeroMethod = loaded.getMethod(index);
+        InstanceFieldElement tlabTopField = findThreadLocalField(ctxt, loaded, "tlabTop");
+        InstanceFieldElement tlabEndField = findThreadLocalField(ctxt, loaded, "tlabEnd");
         defined = classContext.findDefinedType("org/qbicc/runtime/StackObject");
         if (defined == null) {
             throw runtimeMissing();
         }
         loaded = defined.load();
-        stackObjectType = loaded.getClassType();
+        return new NoGc(allocateMethod, localAllocateMethod, copyMethod, zeroMethod, tlabTopField, tlabEndField, loaded.getClassType());
+    }
+
+    private static InstanceFieldElement findThreadLocalField(CompilationContext ctxt, LoadedTypeDefinition loaded, String name) {
+        FieldElement field = loaded.findField(name);
+        if (! (field instanceof StaticFieldElement sfe)) {
+            throw fieldMissing();
+        }
+        InstanceFieldElement threadLocalField = ThreadLocals.get(ctxt).getThreadLocalField(sfe);
+        if (threadLocalField == null) {
+            throw fieldMissing();
+        }
+        return threadLocalField;
+    }
+
+    private static IllegalStateException fieldMissing() {
+        return new IllegalStateException("Required thread-local field is missing from the NoGC helpers");
     }
 
     private static IllegalStateException methodMissing() {
@@ -59,14 +97,41 @@ public final class NoGc {
 
     private static final AttachmentKey<NoGc> KEY = new AttachmentKey<>();
 
+    /**
+     * Get the NoGC support, loading the helpers runtime class if needed.  The first call must happen before the VM
+     * is created, so that the thread-local allocation buffer fields are injected into {@code Thread} before its
+     * instance layout is computed.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the NoGC support (not {@code null})
+     */
     public static NoGc get(CompilationContext ctxt) {
-        return ctxt.computeAttachmentIfAbsent(KEY, () -> new NoGc(ctxt));
+        NoGc noGc = ctxt.getAttachment(KEY);
+        if (noGc == null) {
+            // loading the helpers may define attachments, so it must not happen while computing one
+            noGc = load(ctxt);
+            NoGc appearing = ctxt.putAttachmentIfAbsent(KEY, noGc);
+            if (appearing != null) {
+                noGc = appearing;
+            }
+        }
+        return noGc;
     }
 
     public MethodElement getAllocateMethod() {
         return allocateMethod;
     }
 
+    /**
+     * Get the method which allocates from the current thread's allocation buffer, refilling it if needed.  This
+     * method may only be called when there is a current thread object.
+     *
+     * @return the method (not {@code null})
+     */
+    public MethodElement getLocalAllocateMethod() {
+        return localAllocateMethod;
+    }
+
     public MethodElement getCopyMethod() {
         return copyMethod;
     }
@@ -75,6 +140,24 @@ public final class NoGc {
         return zeroMethod;
     }
 
+    /**
+     * Get the field of {@code Thread} which holds the address of the next free byte of the thread's allocation buffer.
+     *
+     * @return the field (not {@code null})
+     */
+    public InstanceFieldElement getTlabTopField() {
+        return tlabTopField;
+    }
+
+    /**
+     * Get the field of {@code Thread} which holds the address of the end of the thread's allocation buffer.
+     *
+     * @return the field (not {@code null})
+     */
+    public InstanceFieldElement getTlabEndField() {
+        return tlabEndField;
+    }
+
     public ClassObjectType getStackObjectType() {
         return stackObjectType;
     }
@@ -1,10 +1,15 @@
 package org.qbicc.plugin.gc.nogc;
 
+import static org.qbicc.graph.atomic.AccessModes.SingleUnshared;
+
 import java.util.List;
+import java.util.Map;
 
 import org.qbicc.context.CompilationContext;
 import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
 import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.Slot;
 import org.qbicc.graph.Value;
 import org.qbicc.graph.literal.IntegerLiteral;
 import org.qbicc.graph.literal.LiteralFactory;
@@ -16,9 +21,13 @@ import org.qbicc.plugin.layout.LayoutInfo;
 import org.qbicc.type.ClassObjectType;
 import org.qbicc.type.StructType;
 import org.qbicc.type.IntegerType;
+import org.qbicc.type.NullableType;
 import org.qbicc.type.PrimitiveArrayObjectType;
 import org.qbicc.type.ReferenceArrayObjectType;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.TypeSystem;
 import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.FunctionElement;
 import org.qbicc.type.definition.element.MethodElement;
 
 /**
@@ -26,18 +35,36 @@ import org.qbicc.type.definition.element.MethodElement;
  */
 public class NoGcBasicBlockBuilder extends DelegatingBasicBlockBuilder {
     private final CompilationContext ctxt;
-    private final CoreClasses coreClasses;
+    private final boolean localAllocation;
 
     public NoGcBasicBlockBuilder(final FactoryContext fc, final BasicBlockBuilder delegate) {
+        this(delegate, false);
+    }
+
+    NoGcBasicBlockBuilder(final BasicBlockBuilder delegate, final boolean localAllocation) {
         super(delegate);
-        CompilationContext ctxt = getContext();
-        this.ctxt = ctxt;
-        this.coreClasses = CoreClasses.get(ctxt);
+        this.ctxt = getContext();
+        this.localAllocation = localAllocation;
+    }
+
+    /**
+     * Create a builder which allocates from the current thread's allocation buffer with an inline fast path.
+     *
+     * @param fc the factory context (must not be {@code null})
+     * @param delegate the delegate basic block builder (must not be {@code null})
+     * @return the basic block builder (not {@code null})
+     */
+    public static BasicBlockBuilder createWithLocalAllocation(final FactoryContext fc, final BasicBlockBuilder delegate) {
+        return new NoGcBasicBlockBuilder(delegate, true);
+    }
+
+    NoGc getNoGc() {
+        return NoGc.get(ctxt);
     }
 
     @Override
     public Value new_(final ClassObjectType type, final Value typeId, final Value size, final Value align) {
-        NoGc noGc = NoGc.get(ctxt);
+        NoGc noGc = getNoGc();
         LiteralFactory lf = ctxt.getLiteralFactory();
         Value refVal = null;
         if (typeId instanceof TypeIdLiteral tl && tl.getValue() instanceof ClassObjectType cot) {
@@ -48,8 +75,7 @@ public class NoGcBasicBlockBuilder extends DelegatingBasicBlockBuilder {
             }
         }
         if (refVal == null) {
-            MethodElement method = noGc.getAllocateMethod();
-            refVal = notNull(bitCast(call(lf.literalOf(method), List.of(size, align)), type.getReference()));
+            refVal = notNull(bitCast(allocate(size, align), type.getReference()));
         }
 
         // zero initialize the allocated storage
@@ -62,7 +88,7 @@ public class NoGcBasicBlockBuilder extends DelegatingBasicBlockBuilder {
 
     @Override
     public Value newArray(final PrimitiveArrayObjectType arrayType, Value size) {
-        LoadedTypeDefinition ltd = coreClasses.getArrayContentField(arrayType).getEnclosingType().load();
+        LoadedTypeDefinition ltd = CoreClasses.get(ctxt).getArrayContentField(arrayType).getEnclosingType().load();
         StructType structType = Layout.get(ctxt).getInstanceLayoutInfo(ltd).getStructType();
         Value allocatedRef = allocateArray(structType, size, arrayType.getElementType().getSize());
         Value oop = bitCast(allocatedRef, arrayType.getReference());
@@ -73,7 +99,7 @@ public class NoGcBasicBlockBuilder extends DelegatingBasicBlockBuilder {
     @Override
     public Value newReferenceArray(final ReferenceArrayObjectType arrayType, Value elemTypeId, Value dimensions, Value size) {
         Layout layout = Layout.get(ctxt);
-        LayoutInfo info = layout.getInstanceLayoutInfo(coreClasses.getRefArrayContentField().getEnclosingType());
+        LayoutInfo info = layout.getInstanceLayoutInfo(CoreClasses.get(ctxt).getRefArrayContentField().getEnclosingType());
         StructType structType = info.getStructType();
         Value allocatedRef = allocateArray(structType, size, ctxt.getTypeSystem().getReferenceSize());
         Value oop = bitCast(allocatedRef, arrayType.getReference());
@@ -82,7 +108,7 @@ public class NoGcBasicBlockBuilder extends DelegatingBasicBlockBuilder {
     }
 
     private Value allocateArray(StructType structType, Value size, long elementSize) {
-        NoGc noGc = NoGc.get(ctxt);
+        NoGc noGc = getNoGc();
         LiteralFactory lf = ctxt.getLiteralFactory();
         IntegerLiteral align = lf.literalOf(structType.getAlign());
         IntegerLiteral baseSize = lf.literalOf(structType.getSize());
@@ -95,11 +121,56 @@ public class NoGcBasicBlockBuilder extends DelegatingBasicBlockBuilder {
         Value realSize = add(baseSize, elementShift == 0 ? size : shl(size, lf.literalOf((IntegerType)size.getType(), elementShift)));
 
         // Allocate and zero-initialize the storage
-        MethodElement method1 = noGc.getAllocateMethod();
-        Value ptrVal = notNull(call(lf.literalOf(method1), List.of(realSize, align)));
+        Value ptrVal = notNull(allocate(realSize, align));
         MethodElement method = noGc.getZeroMethod();
         call(lf.literalOf(method), List.of(ptrVal, realSize));
 
         return ptrVal;
     }
+
+    /**
+     * Allocate storage.  With local allocation, the storage comes from the current thread's allocation buffer: the
+     * bump-pointer fast path is emitted inline, and when the buffer is exhausted, the helper refills it.  Allocations
+     * made while no thread object is bound (for example, allocating the thread object itself) and allocations in
+     * functions go directly to the shared heap, as do all allocations without local allocation.
+     */
+    Value allocate(Value size, Value align) {
+        NoGc noGc = getNoGc();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        TypeSystem ts = ctxt.getTypeSystem();
+        MethodElement sharedMethod = noGc.getAllocateMethod();
+        if (! localAllocation || getCurrentElement() instanceof FunctionElement) {
+            return call(lf.literalOf(sharedMethod), List.of(size, align));
+        }
+        ReferenceType refType = (ReferenceType) sharedMethod.getType().getReturnType();
+        // must match Heap.getConfiguredObjectAlignment
+        long objAlignMask = ts.getPointerAlignment() - 1;
+        IntegerType sizeType = (IntegerType) size.getType();
+        Value alignedSize = and(add(size, lf.literalOf(sizeType, objAlignMask)), lf.literalOf(sizeType, ~objAlignMask));
+
+        BlockLabel hasThread = new BlockLabel();
+        BlockLabel fast = new BlockLabel();
+        BlockLabel refill = new BlockLabel();
+        BlockLabel shared = new BlockLabel();
+        BlockLabel resume = new BlockLabel();
+        Value threadRef = load(currentThread(), SingleUnshared);
+        if_(isEq(threadRef, lf.nullLiteralOfType((NullableType) threadRef.getType())), shared, hasThread, Map.of());
+        begin(hasThread);
+        Value thread = decodeReference(threadRef);
+        Value topPtr = instanceFieldOf(thread, noGc.getTlabTopField());
+        Value top = load(topPtr, SingleUnshared);
+        Value newTop = add(top, alignedSize);
+        Value end = load(instanceFieldOf(thread, noGc.getTlabEndField()), SingleUnshared);
+        if_(isLe(newTop, end), fast, refill, Map.of());
+        begin(fast);
+        store(topPtr, newTop, SingleUnshared);
+        Value addr = ts.getPointerSize() < 8 ? truncate(top, ts.getSignedInteger32Type()) : top;
+        goto_(resume, Slot.temp(0), encodeReference(bitCast(addr, ts.getVoidType().getPointer()), refType));
+        begin(refill);
+        goto_(resume, Slot.temp(0), call(lf.literalOf(noGc.getLocalAllocateMethod()), List.of(size, align)));
+        begin(shared);
+        goto_(resume, Slot.temp(0), call(lf.literalOf(sharedMethod), List.of(size, align)));
+        begin(resume);
+        return addParam(resume, Slot.temp(0), refType, false);
+    }
 }
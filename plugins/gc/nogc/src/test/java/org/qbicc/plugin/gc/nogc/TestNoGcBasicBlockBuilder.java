@@ -0,0 +1,159 @@
+package org.qbicc.plugin.gc.nogc;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.Add;
+import org.qbicc.graph.And;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.BlockParameter;
+import org.qbicc.graph.Call;
+import org.qbicc.graph.If;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.IsEq;
+import org.qbicc.graph.IsLe;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.Slot;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.ExecutableLiteral;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.graph.literal.NullLiteral;
+import org.qbicc.test.AbstractGraphTestCase;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.InstanceFieldElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+
+/**
+ * Tests of the thread-local allocation buffer fast path emitted by {@link NoGcBasicBlockBuilder}.
+ */
+public class TestNoGcBasicBlockBuilder extends AbstractGraphTestCase {
+    private static DefinedTypeDefinition helpers;
+    private static MethodDescriptor allocateDescriptor;
+    private static MethodElement allocate;
+    private static MethodElement allocateLocal;
+    private static InstanceFieldElement tlabTop;
+    private static InstanceFieldElement tlabEnd;
+    private static NoGc noGc;
+
+    @BeforeAll
+    static void defineClasses() {
+        bootClassContext.defineClass("nogc/Obj", defineClass("nogc/Obj", null));
+        // a stand-in for the thread class with the injected allocation buffer fields, so that no class library is needed
+        LoadedTypeDefinition thread = defineClass("java/lang/Thread", null, List.of(), BaseTypeDescriptor.J, "tlabTop", "tlabEnd").load();
+        bootClassContext.defineClass("java/lang/Thread", thread);
+        tlabTop = (InstanceFieldElement) thread.getField(0);
+        tlabEnd = (InstanceFieldElement) thread.getField(1);
+        helpers = defineClass("nogc/Helpers", null);
+        allocateDescriptor = MethodDescriptor.synthesize(bootClassContext, ClassTypeDescriptor.synthesize(bootClassContext, "nogc/Obj"), List.of(BaseTypeDescriptor.J, BaseTypeDescriptor.J));
+        allocate = defineMethod(helpers, "allocate", ClassFile.ACC_STATIC, allocateDescriptor);
+        allocateLocal = defineMethod(helpers, "allocateLocal", ClassFile.ACC_STATIC, allocateDescriptor);
+        noGc = new NoGc(allocate, allocateLocal, null, null, tlabTop, tlabEnd, null);
+    }
+
+    @Test
+    public void testFastPath() {
+        BasicBlock entryBlock = buildAllocation("fast", true);
+
+        List<If> guards = findNodes(entryBlock, If.class);
+        assertEquals(2, guards.size());
+        IsLe isLe = assertInstanceOf(IsLe.class, guards.get(1).getCondition());
+        assertEquals(tlabEnd, fieldOf(isLe.getRightInput()));
+        // the fast path bumps the top of the buffer, without calling out
+        BasicBlock fast = guards.get(1).getTrueBranch();
+        List<Store> stores = findNodes(entryBlock, Store.class);
+        assertEquals(1, stores.size());
+        Store store = stores.get(0);
+        assertSame(fast, store.getScheduledBlock());
+        assertEquals(tlabTop, assertInstanceOf(InstanceFieldOf.class, store.getPointer()).getVariableElement());
+        assertSame(isLe.getLeftInput(), store.getValue());
+        Add newTop = assertInstanceOf(Add.class, store.getValue());
+        assertEquals(tlabTop, fieldOf(newTop.getLeftInput()));
+        assertEquals(List.of(), callsIn(entryBlock, fast));
+    }
+
+    @Test
+    public void testAlignment() {
+        BasicBlock entryBlock = buildAllocation("aligned", true);
+
+        Store store = findNodes(entryBlock, Store.class).get(0);
+        // the size is rounded up to the object alignment before the buffer is bumped
+        And alignedSize = assertInstanceOf(And.class, assertInstanceOf(Add.class, store.getValue()).getRightInput());
+        long mask = ts.getPointerAlignment() - 1;
+        assertEquals(~mask, assertInstanceOf(IntegerLiteral.class, alignedSize.getRightInput()).longValue());
+        Add roundUp = assertInstanceOf(Add.class, alignedSize.getLeftInput());
+        assertInstanceOf(BlockParameter.class, roundUp.getLeftInput());
+        assertEquals(mask, assertInstanceOf(IntegerLiteral.class, roundUp.getRightInput()).longValue());
+    }
+
+    @Test
+    public void testRefill() {
+        BasicBlock entryBlock = buildAllocation("refill", true);
+
+        // an exhausted buffer is refilled by the helper, which is given the unaligned size
+        BasicBlock refill = findNodes(entryBlock, If.class).get(1).getFalseBranch();
+        List<Call> calls = callsIn(entryBlock, refill);
+        assertEquals(1, calls.size());
+        assertEquals(allocateLocal, assertInstanceOf(ExecutableLiteral.class, calls.get(0).getTarget()).getExecutable());
+        assertInstanceOf(BlockParameter.class, calls.get(0).getArguments().get(0));
+    }
+
+    @Test
+    public void testNullCurrentThread() {
+        BasicBlock entryBlock = buildAllocation("noThread", true);
+
+        // without a current thread, there is no buffer, so the shared heap is used
+        If guard = findNodes(entryBlock, If.class).get(0);
+        IsEq isEq = assertInstanceOf(IsEq.class, guard.getCondition());
+        assertInstanceOf(NullLiteral.class, isEq.getRightInput());
+        List<Call> calls = callsIn(entryBlock, guard.getTrueBranch());
+        assertEquals(1, calls.size());
+        assertEquals(allocate, assertInstanceOf(ExecutableLiteral.class, calls.get(0).getTarget()).getExecutable());
+    }
+
+    @Test
+    public void testLocalAllocationDisabled() {
+        BasicBlock entryBlock = buildAllocation("shared", false);
+
+        assertEquals(List.of(), findNodes(entryBlock, If.class));
+        List<Call> calls = findNodes(entryBlock, Call.class);
+        assertEquals(1, calls.size());
+        assertEquals(allocate, assertInstanceOf(ExecutableLiteral.class, calls.get(0).getTarget()).getExecutable());
+    }
+
+    private static BasicBlock buildAllocation(String name, boolean localAllocation) {
+        MethodElement caller = defineMethod(helpers, name, ClassFile.ACC_STATIC, allocateDescriptor);
+        BasicBlockBuilder simple = newBuilder(caller);
+        NoGcBasicBlockBuilder bbb = new NoGcBasicBlockBuilder(simple, localAllocation) {
+            @Override
+            NoGc getNoGc() {
+                return noGc;
+            }
+        };
+        bbb.setFirstBuilder(bbb);
+        BlockLabel entry = new BlockLabel();
+        bbb.begin(entry);
+        BlockParameter size = bbb.addParam(entry, Slot.funcParam(0), ts.getSignedInteger64Type(), false);
+        BlockParameter align = bbb.addParam(entry, Slot.funcParam(1), ts.getSignedInteger64Type(), false);
+        bbb.return_(bbb.allocate(size, align));
+        return finish(simple);
+    }
+
+    private static List<Call> callsIn(BasicBlock entryBlock, BasicBlock block) {
+        return findNodes(entryBlock, Call.class).stream().filter(call -> call.getScheduledBlock() == block).toList();
+    }
+
+    private static InstanceFieldElement fieldOf(Value loaded) {
+        return assertInstanceOf(InstanceFieldOf.class, assertInstanceOf(Load.class, loaded).getPointer()).getVariableElement();
+    }
+}
@@ -406,8 +406,13 @@ public final class CoreIntrinsics {
             //  1. We should not directly call a NoGc method here.
             //  2. We are overwriting the object header fields initialized by new when doing the copy
             //     (to make sure we copy any instance fields that have been assigned to use the padding bytes in the basic object header).
+            //  3. We restore the header of the copy afterwards, so that it does not inherit the lock word of the source.
+            Value dstHeader = builder.instanceFieldOf(builder.decodeReference(dst), coreClasses.getObjectHeaderField());
+            Value header = builder.load(dstHeader, SinglePlain);
             MethodElement method = NoGc.get(ctxt).getCopyMethod();
-            return builder.call(builder.getLiteralFactory().literalOf(method), List.of(dst, src, size));
+            Value result = builder.call(builder.getLiteralFactory().literalOf(method), List.of(dst, src, size));
+            builder.store(dstHeader, header, SinglePlain);
+            return result;
         };
         intrinsics.registerIntrinsic(Phase.LOWER, ciDesc, "copyInstanceFields", copyDesc, copy);
     }
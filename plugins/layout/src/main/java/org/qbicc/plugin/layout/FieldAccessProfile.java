@@ -0,0 +1,127 @@
+package org.qbicc.plugin.layout;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.type.definition.element.FieldElement;
+
+/**
+ * The access frequencies of instance fields, used to order the fields of instance layouts.
+ * <p>
+ * A profile is a text file with one line per field, consisting of the internal name of the declaring class, the field
+ * name, the read weight and the write weight.  Each access is weighted by the depth of the loops that contain it, and
+ * stores of the field's default value are not counted, so a field with two zero weights is never read and is never
+ * written with any other value.  Lines starting with {@code #} are ignored.
+ * <p>
+ * Such fields are placed after the others rather than removed, because the build-time interpreter may still access
+ * them, and the layouts it uses are the layouts of the image.
+ */
+public final class FieldAccessProfile {
+    private static final AttachmentKey<FieldAccessProfile> KEY = new AttachmentKey<>();
+
+    private final Map<String, Weights> weights;
+
+    FieldAccessProfile(final Map<String, Weights> weights) {
+        this.weights = weights;
+    }
+
+    /**
+     * Get the installed profile.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the profile, or {@code null} if no profile was installed
+     */
+    public static FieldAccessProfile get(CompilationContext ctxt) {
+        return ctxt.getAttachment(KEY);
+    }
+
+    /**
+     * Read a profile and install it, so that instance layouts computed from now on are ordered by it.  This must
+     * happen before the first instance layout is computed, which is before the interpreter VM is created.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @param path the profile file (must not be {@code null})
+     */
+    public static void install(CompilationContext ctxt, Path path) {
+        Map<String, Weights> weights = new TreeMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber ++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                try {
+                    if (parts.length != 4) {
+                        throw new NumberFormatException();
+                    }
+                    weights.put(key(parts[0], parts[1]), new Weights(Long.parseLong(parts[2]), Long.parseLong(parts[3])));
+                } catch (NumberFormatException e) {
+                    ctxt.error("Invalid field access profile entry at %s:%d", path, Integer.valueOf(lineNumber));
+                }
+            }
+        } catch (IOException e) {
+            ctxt.error("Failed to read field access profile %s: %s", path, e);
+            return;
+        }
+        ctxt.putAttachment(KEY, new FieldAccessProfile(weights));
+    }
+
+    void write(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("# class field read-weight write-weight");
+            writer.newLine();
+            for (Map.Entry<String, Weights> entry : weights.entrySet()) {
+                Weights w = entry.getValue();
+                writer.write(entry.getKey());
+                writer.write(' ');
+                writer.write(Long.toString(w.reads()));
+                writer.write(' ');
+                writer.write(Long.toString(w.writes()));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Get the order in which the fields of a type are placed.  Fields which are read come first, the most frequently
+     * accessed first; fields which are never read or which are not in the profile come last.  Equally weighted fields
+     * keep their relative order.
+     *
+     * @return the field comparator (not {@code null})
+     */
+    Comparator<FieldElement> getFieldOrder() {
+        return Comparator.comparing((FieldElement field) -> Boolean.valueOf(getWeights(field).reads() == 0))
+            .thenComparing(Comparator.comparingLong((FieldElement field) -> getWeights(field).total()).reversed());
+    }
+
+    private Weights getWeights(FieldElement field) {
+        return weights.getOrDefault(key(field.getEnclosingType().getInternalName(), field.getName()), Weights.NONE);
+    }
+
+    static String key(String className, String fieldName) {
+        return className + ' ' + fieldName;
+    }
+
+    record Weights(long reads, long writes) {
+        static final Weights NONE = new Weights(0, 0);
+
+        long total() {
+            long total = reads + writes;
+            return total < 0 ? Long.MAX_VALUE : total;
+        }
+    }
+}
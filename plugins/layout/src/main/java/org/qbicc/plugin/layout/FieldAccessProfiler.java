@@ -0,0 +1,153 @@
+package org.qbicc.plugin.layout;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.jboss.logging.Logger;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.facts.Facts;
+import org.qbicc.facts.core.ExecutableReachabilityFacts;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.Slot;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.graph.schedule.DominatorTree;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.InstanceFieldElement;
+
+/**
+ * A static profiler which weighs the instance field accesses of every reachable method body and writes the weights
+ * to {@code field-access-profile.txt} in the output directory, for a later build to lay out its objects with.
+ * <p>
+ * Every access counts once, times eight for every loop that contains it.  Loads are reads, stores of any value but
+ * the default value are writes, and any other use of a field's address counts as both.
+ */
+public final class FieldAccessProfiler {
+    private static final Logger log = Logger.getLogger("org.qbicc.plugin.layout.profile");
+
+    /**
+     * The loop depth beyond which accesses are not weighted more heavily.
+     */
+    private static final int MAX_LOOP_DEPTH = 6;
+
+    private final Map<String, long[]> weights = new TreeMap<>();
+
+    FieldAccessProfiler() {}
+
+    /**
+     * Profile the method bodies of the previous phase and write the profile.  This should be called as a pre-hook of
+     * the {@code LOWER} phase, before any method body is copied.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    public static void writeProfile(CompilationContext ctxt) {
+        FieldAccessProfiler profiler = new FieldAccessProfiler();
+        Facts.get(ctxt).visitPreviousFacts(ExecutableReachabilityFacts.IS_INVOKED, element -> {
+            if (element.hasMethodBody()) {
+                profiler.scan(element);
+            }
+        });
+        Path path = ctxt.getOutputDirectory().resolve("field-access-profile.txt");
+        try {
+            profiler.getProfile().write(path);
+        } catch (IOException e) {
+            ctxt.warning("Failed to write field access profile to %s: %s", path, e);
+        }
+    }
+
+    /**
+     * Get the profile of the method bodies scanned so far.
+     *
+     * @return the profile (not {@code null})
+     */
+    FieldAccessProfile getProfile() {
+        Map<String, FieldAccessProfile.Weights> profile = new TreeMap<>();
+        int unread = 0;
+        for (Map.Entry<String, long[]> entry : weights.entrySet()) {
+            long[] w = entry.getValue();
+            profile.put(entry.getKey(), new FieldAccessProfile.Weights(w[0], w[1]));
+            if (w[0] == 0 && w[1] == 0) {
+                unread ++;
+                log.debugf("Field %s is never read and is only written with its default value", entry.getKey());
+            }
+        }
+        log.debugf("Profiled %d accessed instance fields, of which %d are never read and only written with their default value", Integer.valueOf(profile.size()), Integer.valueOf(unread));
+        return new FieldAccessProfile(profile);
+    }
+
+    void scan(ExecutableElement element) {
+        BasicBlock entryBlock = element.getMethodBody().getEntryBlock();
+        DominatorTree tree = new DominatorTree(entryBlock);
+        Set<BasicBlock> blocks = new LinkedHashSet<>();
+        ArrayDeque<BasicBlock> queue = new ArrayDeque<>();
+        queue.add(entryBlock);
+        BasicBlock block;
+        while ((block = queue.poll()) != null) {
+            if (blocks.add(block)) {
+                Terminator t = block.getTerminator();
+                int cnt = t.getSuccessorCount();
+                for (int i = 0; i < cnt; i ++) {
+                    queue.add(t.getSuccessor(i));
+                }
+            }
+        }
+        Map<BasicBlock, Integer> loopDepths = new HashMap<>();
+        for (BasicBlock header : blocks) {
+            for (BasicBlock loopBlock : tree.getNaturalLoop(header)) {
+                loopDepths.merge(loopBlock, Integer.valueOf(1), Integer::sum);
+            }
+        }
+        for (BasicBlock b : blocks) {
+            int depth = loopDepths.getOrDefault(b, Integer.valueOf(0)).intValue();
+            long weight = 1L << 3 * Math.min(depth, MAX_LOOP_DEPTH);
+            for (Node node : b.getInstructions()) {
+                if (node instanceof Load load && load.getPointer() instanceof InstanceFieldOf ifo) {
+                    record(ifo.getVariableElement(), weight, 0);
+                } else if (node instanceof Store store && store.getPointer() instanceof InstanceFieldOf ifo) {
+                    boolean isDefault = store.getValue() instanceof Literal lit && lit.isZero();
+                    record(ifo.getVariableElement(), 0, isDefault ? 0 : weight);
+                    recordEscape(store.getValue(), weight);
+                } else {
+                    int cnt = node.getValueDependencyCount();
+                    for (int i = 0; i < cnt; i ++) {
+                        recordEscape(node.getValueDependency(i), weight);
+                    }
+                    if (node instanceof Terminator t) {
+                        for (Slot slot : t.getOutboundArgumentNames()) {
+                            recordEscape(t.getOutboundArgument(slot), weight);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void recordEscape(Value value, long weight) {
+        if (value instanceof InstanceFieldOf ifo) {
+            // the field may be read or written through this address
+            record(ifo.getVariableElement(), weight, weight);
+        }
+    }
+
+    private void record(InstanceFieldElement field, long reads, long writes) {
+        long[] w = weights.computeIfAbsent(FieldAccessProfile.key(field.getEnclosingType().getInternalName(), field.getName()), k -> new long[2]);
+        w[0] = saturatedAdd(w[0], reads);
+        w[1] = saturatedAdd(w[1], writes);
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+}
@@ -1,5 +1,6 @@
 package org.qbicc.plugin.layout;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.BitSet;
@@ -117,10 +118,19 @@ public final class Layout {
         }
         int cnt = validated.getFieldCount();
         Map<FieldElement, StructType.Member> fieldToMember = superLayout == null ? new HashMap<>(cnt) : new HashMap<>(superLayout.getFieldsMap());
-        FieldElement trailingArray = null;
+        List<FieldElement> fields = new ArrayList<>(cnt);
         for (int i = 0; i < cnt; i ++) {
-            // todo: skip unused fields?
-            FieldElement field = validated.getField(i);
+            fields.add(validated.getField(i));
+        }
+        FieldAccessProfile profile = FieldAccessProfile.get(ctxt);
+        if (profile != null && superClass != null) {
+            // place the hot fields first, next to the object header; the header itself keeps its declared order
+            fields.sort(profile.getFieldOrder());
+        }
+        FieldElement trailingArray = null;
+        for (FieldElement field : fields) {
+            // unused fields are kept (but placed last by a profile): the layout is fixed when the VM is created,
+            // before reachability is known, and is shared by the interpreter, the heap serializer and reflection
             if (field.isStatic()) {
                 continue;
             }
@@ -0,0 +1,102 @@
+package org.qbicc.plugin.layout;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.BlockParameter;
+import org.qbicc.graph.Slot;
+import org.qbicc.graph.Value;
+import org.qbicc.test.AbstractGraphTestCase;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.InstanceFieldElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Tests of the instance layouts ordered by a {@link FieldAccessProfile} written by the {@link FieldAccessProfiler}.
+ */
+public class TestFieldAccessProfile extends AbstractGraphTestCase {
+
+    @Test
+    public void testProfiledLayout(@TempDir Path dir) throws IOException {
+        // a stand-in for java.lang.Object, whose header fields are never reordered
+        DefinedTypeDefinition base = defineClass("profile/Base", null, "header", "lock");
+        LoadedTypeDefinition unprofiled = defineClass("profile/Unprofiled", base, "a", "b", "c", "d").load();
+        LoadedTypeDefinition hot = defineClass("profile/Hot", base, "a", "b", "c", "d").load();
+        InstanceFieldElement a = (InstanceFieldElement) hot.getField(0);
+        InstanceFieldElement b = (InstanceFieldElement) hot.getField(1);
+        InstanceFieldElement c = (InstanceFieldElement) hot.getField(2);
+        InstanceFieldElement d = (InstanceFieldElement) hot.getField(3);
+
+        MethodElement method = defineMethod(base, "run", ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(method);
+        BlockLabel entry = new BlockLabel();
+        BlockLabel header = new BlockLabel();
+        BlockLabel body = new BlockLabel();
+        BlockLabel exit = new BlockLabel();
+        bbb.begin(entry);
+        BlockParameter object = bbb.addParam(entry, Slot.funcParam(0), hot.getClassType().getReference(), false);
+        BlockParameter again = bbb.addParam(entry, Slot.funcParam(1), ts.getBooleanType());
+        Value decoded = bbb.decodeReference(object);
+        bbb.load(bbb.instanceFieldOf(decoded, a));
+        bbb.goto_(header, Map.of());
+        bbb.begin(header);
+        bbb.if_(again, body, exit, Map.of());
+        // c is read in a loop, so it is hotter than a
+        bbb.begin(body);
+        bbb.load(bbb.instanceFieldOf(decoded, c));
+        bbb.goto_(header, Map.of());
+        // b is only written with its default value, and d is written but never read
+        bbb.begin(exit);
+        bbb.store(bbb.instanceFieldOf(decoded, b), lf.literalOf(0));
+        bbb.store(bbb.instanceFieldOf(decoded, d), lf.literalOf(5));
+        bbb.return_();
+        finish(bbb);
+
+        FieldAccessProfiler profiler = new FieldAccessProfiler();
+        profiler.scan(method);
+        Path path = dir.resolve("field-access-profile.txt");
+        profiler.getProfile().write(path);
+        assertEquals(List.of(
+            "# class field read-weight write-weight",
+            "profile/Hot a 1 0",
+            "profile/Hot b 0 0",
+            "profile/Hot c 8 0",
+            "profile/Hot d 0 1"
+        ), Files.readAllLines(path));
+
+        Layout layout = Layout.get(ctxt);
+        // without a profile, the fields are laid out in declaration order
+        assertEquals(List.of("header", "lock", "a", "b", "c", "d"), fieldOrder(layout.getInstanceLayoutInfo(unprofiled)));
+        FieldAccessProfile.install(ctxt, path);
+        assertNotNull(FieldAccessProfile.get(ctxt));
+        // read fields first, hottest first, then the fields which are never read
+        assertEquals(List.of("header", "lock", "c", "a", "d", "b"), fieldOrder(layout.getInstanceLayoutInfo(hot)));
+    }
+
+    @Test
+    public void testInvalidProfile(@TempDir Path dir) throws IOException {
+        Path path = dir.resolve("invalid.txt");
+        Files.write(path, List.of("# comment", "profile/Hot a one 0"));
+        int errors = ctxt.errors();
+        FieldAccessProfile.install(ctxt, path);
+        assertEquals(errors + 1, ctxt.errors());
+    }
+
+    private static List<String> fieldOrder(LayoutInfo info) {
+        return info.getFieldsMap().entrySet().stream()
+            .sorted(Map.Entry.comparingByValue((m1, m2) -> Integer.compare(m1.getOffset(), m2.getOffset())))
+            .map(e -> e.getKey().getName())
+            .toList();
+    }
+}
@@ -1,7 +1,10 @@
 package org.qbicc.plugin.llvm;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -20,6 +23,8 @@ import org.qbicc.object.ProgramModule;
 import org.qbicc.plugin.linker.Linker;
 import org.qbicc.tool.llvm.LlcInvoker;
 import org.qbicc.tool.llvm.LlvmToolChain;
+import org.qbicc.tool.llvm.OptInvoker;
+import org.qbicc.tool.llvm.OptPass;
 import org.qbicc.tool.llvm.OutputFormat;
 import org.qbicc.tool.llvm.RelocationModel;
 import org.qbicc.type.definition.LoadedTypeDefinition;
@@ -29,8 +34,11 @@ public class LLVMCompilerImpl implements LLVMCompiler {
     private final boolean emitIr;
     private final boolean emitAssembly;
     private final LlcInvoker llcInvoker;
+    private final OptInvoker optInvoker;
     private final CCompilerInvoker ccInvoker;
     private final boolean compileOutput;
+    private final LLVMConfiguration config;
+    private final LLVMObjectCache objectCache;
 
     public LLVMCompilerImpl(final CompilationContext ctxt, final LLVMConfiguration config, final LLVMModuleGenerator generator) {
         useCcForIr = config.isWasm();
@@ -38,6 +46,7 @@ public class LLVMCompilerImpl implements LLVMCompiler {
         emitAssembly = config.isEmitAssembly() && ! useCcForIr;
         if (useCcForIr) {
             llcInvoker = null;
+            optInvoker = null;
         } else {
             llcInvoker = createLlcInvoker(ctxt, config);
             if (llcInvoker != null) {
@@ -47,6 +56,7 @@ public class LLVMCompilerImpl implements LLVMCompiler {
                     llcInvoker.setOutputFormat(OutputFormat.OBJ);
                 }
             }
+            optInvoker = config.isOptEnabled() ? createOptInvoker(ctxt, config) : null;
         }
         ccInvoker = createCCompilerInvoker(ctxt);
         if (ccInvoker != null) {
@@ -57,18 +67,33 @@ public class LLVMCompilerImpl implements LLVMCompiler {
             }
         }
         this.compileOutput = config.isCompileOutput();
+        this.config = config;
+        // assembly output and C compiler input are not cached
+        objectCache = emitAssembly || useCcForIr ? null : LLVMObjectCache.get(ctxt, config);
     }
 
     @Override
     public void compileModule(final CompilationContext ctxt, LoadedTypeDefinition typeDefinition, LLVMModuleGenerator moduleGenerator) {
+        compileUnit(ctxt, List.of(ctxt.getOrAddProgramModule(typeDefinition)), moduleGenerator);
+    }
+
+    /**
+     * Compile the given program modules as a single LLVM module.  The output files are named for the type of the
+     * first program module.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @param programModules the program modules of the unit (must not be {@code null} or empty)
+     * @param moduleGenerator the module generator (must not be {@code null})
+     */
+    public void compileUnit(final CompilationContext ctxt, List<ProgramModule> programModules, LLVMModuleGenerator moduleGenerator) {
+        final LoadedTypeDefinition typeDefinition = programModules.get(0).getTypeDefinition().load();
         final Path directory = ctxt.getOutputDirectory(typeDefinition);
         final Path objectFile = ctxt.getOutputFile(typeDefinition, ctxt.getPlatform().getObjectType().objectSuffix());
         final Path irFile = ctxt.getOutputFile(typeDefinition, "ll");
         final Path asmFile = ctxt.getOutputFile(typeDefinition, "s");
-        final ProgramModule programModule = ctxt.getOrAddProgramModule(typeDefinition);
-        final InputSource generatorSource = InputSource.from(writer -> {
+        InputSource generatorSource = InputSource.from(writer -> {
             try (final BufferedWriter bw = new BufferedWriter(writer)) {
-                moduleGenerator.processProgramModule(programModule, bw, irFile);
+                moduleGenerator.processProgramModules(programModules, bw, irFile);
             }
         }, StandardCharsets.UTF_8);
         if (! compileOutput) {
@@ -86,6 +111,32 @@ public class LLVMCompilerImpl implements LLVMCompiler {
             ctxt.error(Location.builder().setType(typeDefinition).build(), "Failed to create directory %s: %s", directory, e.toString());
             return;
         }
+        String cacheKey = null;
+        if (objectCache != null) {
+            // the module text is needed up front to compute the cache key
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            try (final BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8))) {
+                moduleGenerator.processProgramModules(programModules, bw, irFile);
+            } catch (IOException e) {
+                ctxt.error(Location.builder().setType(typeDefinition).build(), "Failed to generate LLVM IR: %s", e.toString());
+                return;
+            }
+            final byte[] moduleText = os.toByteArray();
+            generatorSource = InputSource.from(() -> new ByteArrayInputStream(moduleText));
+            cacheKey = objectCache.keyOf(moduleText, llcInvoker, optInvoker, config);
+            if (objectCache.fetch(cacheKey, objectFile)) {
+                if (emitIr) {
+                    try {
+                        Files.write(irFile, moduleText);
+                    } catch (IOException e) {
+                        ctxt.error(Location.builder().setSourceFilePath(irFile.toString()).build(), "Error writing LLVM IR file: %s", e.toString());
+                        return;
+                    }
+                }
+                Linker.get(ctxt).addObjectFilePath(typeDefinition, objectFile);
+                return;
+            }
+        }
         if (emitIr) {
             try {
                 generatorSource.transferTo(OutputDestination.of(irFile));
@@ -116,6 +167,11 @@ public class LLVMCompilerImpl implements LLVMCompiler {
         try {
             if (useCcForIr) {
                 ccInvoker.invoke();
+            } else if (optInvoker != null) {
+                // pipe the optimized module straight into llc
+                optInvoker.setSource(llcInvoker.getSource());
+                optInvoker.setDestination(llcInvoker.invokerAsDestination());
+                optInvoker.invoke();
             } else {
                 llcInvoker.invoke();
             }
@@ -126,6 +182,9 @@ public class LLVMCompilerImpl implements LLVMCompiler {
             }
             return;
         }
+        if (cacheKey != null) {
+            objectCache.store(cacheKey, objectFile);
+        }
         if (emitAssembly && ! useCcForIr) {
             // now compile the assembly
             ccInvoker.setSource(InputSource.from(asmFile));
@@ -165,4 +224,23 @@ public class LLVMCompilerImpl implements LLVMCompiler {
         llcInvoker.setOpaquePointers(config.isOpaquePointers());
         return llcInvoker;
     }
+
+    private static OptInvoker createOptInvoker(CompilationContext context, LLVMConfiguration config) {
+        LlvmToolChain llvmToolChain = context.getAttachment(Driver.LLVM_TOOL_KEY);
+        if (llvmToolChain == null) {
+            // already reported
+            return null;
+        }
+        OptInvoker optInvoker = llvmToolChain.newOptInvoker();
+        optInvoker.setMessageHandler(ToolMessageHandler.reporting(context));
+        OptPass optLevel = config.getOptLevel();
+        if (optLevel != null) {
+            optInvoker.addOptimizationPass(optLevel);
+        }
+        for (String passName : config.getOptPasses()) {
+            optInvoker.addOptimizationPass(passName);
+        }
+        optInvoker.setOpaquePointers(config.isOpaquePointers());
+        return optInvoker;
+    }
 }
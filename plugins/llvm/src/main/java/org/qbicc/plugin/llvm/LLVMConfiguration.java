@@ -1,10 +1,12 @@
 package org.qbicc.plugin.llvm;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
 import io.smallrye.common.constraint.Assert;
 import org.qbicc.machine.arch.Platform;
+import org.qbicc.tool.llvm.OptPass;
 
 /**
  * Configuration of the LLVM plugin used by classes within the plugin.
@@ -20,6 +22,11 @@ public final class LLVMConfiguration {
     private final boolean opaquePointers;
     private final List<String> llcOptions;
     private final ReferenceStrategy referenceStrategy;
+    private final Path objectCacheDirectory;
+    private final long objectCacheMaxSize;
+    private final int moduleUnits;
+    private final OptPass optLevel;
+    private final List<String> optPasses;
 
     LLVMConfiguration(Builder builder) {
         platform = Assert.checkNotNullParam("builder.platform", builder.platform);
@@ -37,6 +44,16 @@ public final class LLVMConfiguration {
         compileOutput = builder.compileOutput;
         opaquePointers = builder.opaquePointers;
         referenceStrategy = builder.referenceStrategy;
+        objectCacheDirectory = builder.objectCacheDirectory;
+        objectCacheMaxSize = builder.objectCacheMaxSize;
+        moduleUnits = builder.moduleUnits;
+        optLevel = builder.optLevel;
+        List<String> builderOptPasses = builder.optPasses;
+        if (builderOptPasses == null) {
+            optPasses = List.of();
+        } else {
+            optPasses = List.copyOf(builderOptPasses);
+        }
     }
 
     public Platform getPlatform() {
@@ -83,6 +100,61 @@ public final class LLVMConfiguration {
         return referenceStrategy;
     }
 
+    /**
+     * Get the directory of the persistent object file cache.
+     *
+     * @return the cache directory, or {@code null} if object files should not be cached
+     */
+    public Path getObjectCacheDirectory() {
+        return objectCacheDirectory;
+    }
+
+    /**
+     * Get the maximum total size of the persistent object file cache, in bytes.
+     *
+     * @return the maximum cache size
+     */
+    public long getObjectCacheMaxSize() {
+        return objectCacheMaxSize;
+    }
+
+    /**
+     * Get the number of units that the program modules are partitioned into, each of which is compiled as a single
+     * LLVM module.
+     *
+     * @return the number of units, or 0 to compile each program module separately
+     */
+    public int getModuleUnits() {
+        return moduleUnits;
+    }
+
+    /**
+     * Get the {@code opt} optimization level preset to run on each module before {@code llc}.
+     *
+     * @return the optimization level, or {@code null} if no preset was selected
+     */
+    public OptPass getOptLevel() {
+        return optLevel;
+    }
+
+    /**
+     * Get the additional {@code opt} passes to run on each module before {@code llc}, after the preset (if any).
+     *
+     * @return the list of LLVM pass names (not {@code null})
+     */
+    public List<String> getOptPasses() {
+        return optPasses;
+    }
+
+    /**
+     * Determine whether each module is run through {@code opt} before {@code llc}.
+     *
+     * @return {@code true} if {@code opt} is used
+     */
+    public boolean isOptEnabled() {
+        return optLevel != null || ! optPasses.isEmpty();
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -98,6 +170,12 @@ public final class LLVMConfiguration {
         private boolean opaquePointers;
         private List<String> llcOptions;
         private ReferenceStrategy referenceStrategy = ReferenceStrategy.POINTER_AS1;
+        private Path objectCacheDirectory;
+        // 1 GB is the default cache size
+        private long objectCacheMaxSize = 1L << 30;
+        private int moduleUnits;
+        private OptPass optLevel;
+        private List<String> optPasses;
 
         Builder() {}
 
@@ -206,6 +284,65 @@ public final class LLVMConfiguration {
             return this;
         }
 
+        public Path getObjectCacheDirectory() {
+            return objectCacheDirectory;
+        }
+
+        public Builder setObjectCacheDirectory(Path objectCacheDirectory) {
+            this.objectCacheDirectory = objectCacheDirectory;
+            return this;
+        }
+
+        public long getObjectCacheMaxSize() {
+            return objectCacheMaxSize;
+        }
+
+        public Builder setObjectCacheMaxSize(long objectCacheMaxSize) {
+            Assert.checkMinimumParameter("objectCacheMaxSize", 0L, objectCacheMaxSize);
+            this.objectCacheMaxSize = objectCacheMaxSize;
+            return this;
+        }
+
+        public int getModuleUnits() {
+            return moduleUnits;
+        }
+
+        public Builder setModuleUnits(int moduleUnits) {
+            Assert.checkMinimumParameter("moduleUnits", 0, moduleUnits);
+            this.moduleUnits = moduleUnits;
+            return this;
+        }
+
+        public OptPass getOptLevel() {
+            return optLevel;
+        }
+
+        public Builder setOptLevel(OptPass optLevel) {
+            if (optLevel != null && ! optLevel.isLevel()) {
+                throw new IllegalArgumentException("Pass " + optLevel + " is not an optimization level");
+            }
+            this.optLevel = optLevel;
+            return this;
+        }
+
+        public Builder addOptPass(String passName) {
+            Assert.checkNotNullParam("passName", passName);
+            if (optPasses == null) {
+                optPasses = new ArrayList<>();
+            }
+            optPasses.add(passName);
+            return this;
+        }
+
+        public Builder addOptPasses(List<String> passNames) {
+            Assert.checkNotNullParam("passNames", passNames);
+            if (optPasses == null) {
+                optPasses = new ArrayList<>();
+            }
+            optPasses.addAll(passNames);
+            return this;
+        }
+
         public LLVMConfiguration build() {
             return new LLVMConfiguration(this);
         }
@@ -18,5 +18,10 @@ public class LLVMDefaultModuleCompileStage implements Consumer<CompilationContex
         DefinedTypeDefinition defaultTypeDefinition = context.getDefaultTypeDefinition();
         final LLVMCompilerImpl compiler = new LLVMCompilerImpl(context, config, generator);
         compiler.compileModule(context, defaultTypeDefinition.load(), new LLVMModuleGenerator(context, config));
+        // this is the last module to be compiled
+        LLVMObjectCache objectCache = LLVMObjectCache.get(context, config);
+        if (objectCache != null) {
+            objectCache.evict();
+        }
     }
 }
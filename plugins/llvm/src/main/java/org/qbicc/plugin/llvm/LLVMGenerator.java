@@ -22,18 +22,25 @@ public class LLVMGenerator implements Consumer<CompilationContext>, ValueVisitor
     public void accept(final CompilationContext compilationContext) {
         LLVMModuleGenerator generator = new LLVMModuleGenerator(compilationContext, config);
         List<ProgramModule> allProgramModules = compilationContext.getAllProgramModules();
-        Iterator<ProgramModule> iterator = allProgramModules.iterator();
+        List<List<ProgramModule>> units;
+        int moduleUnits = config.getModuleUnits();
+        if (moduleUnits > 0 && moduleUnits < allProgramModules.size()) {
+            units = new LLVMModulePartitioner(compilationContext).partition(allProgramModules, moduleUnits);
+        } else {
+            units = allProgramModules.stream().map(List::of).toList();
+        }
+        Iterator<List<ProgramModule>> iterator = units.iterator();
         compilationContext.runParallelTask(ctxt -> {
             final LLVMCompilerImpl compiler = new LLVMCompilerImpl(ctxt, config, generator);
             for (;;) {
-                ProgramModule programModule;
+                List<ProgramModule> unit;
                 synchronized (iterator) {
                     if (! iterator.hasNext()) {
                         return;
                     }
-                    programModule = iterator.next();
+                    unit = iterator.next();
                 }
-                compiler.compileModule(ctxt, programModule.getTypeDefinition().load(), generator);
+                compiler.compileUnit(ctxt, unit, generator);
             }
         });
     }
@@ -7,6 +7,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.qbicc.context.AttachmentKey;
 import org.qbicc.context.CompilationContext;
 import org.qbicc.graph.InvocationNode;
+import org.qbicc.object.Function;
 import org.qbicc.type.definition.LoadedTypeDefinition;
 
 public final class LLVMInfo {
@@ -14,6 +15,7 @@ public final class LLVMInfo {
 
     private final CompilationContext ctxt;
     private final Map<LoadedTypeDefinition, List<InvocationNode>> statePointIds = new ConcurrentHashMap<>();
+    private final Map<LoadedTypeDefinition, List<Function>> unitFunctions = new ConcurrentHashMap<>();
 
     private LLVMInfo(CompilationContext ctxt) {
         this.ctxt = ctxt;
@@ -40,4 +42,23 @@ public final class LLVMInfo {
             throw new IllegalStateException("State point IDs set twice");
         }
     }
+
+    /**
+     * Get a function of the object file which was produced for the given type by its index.  If the object file
+     * contains several program modules, the index spans the functions of all of them.
+     *
+     * @param def the type definition which leads the object file (must not be {@code null})
+     * @param fnIndex the function index
+     * @return the function (not {@code null})
+     */
+    public Function getFunction(LoadedTypeDefinition def, int fnIndex) {
+        List<Function> functions = unitFunctions.get(def);
+        return functions == null ? ctxt.getOrAddProgramModule(def).getFunction(fnIndex) : functions.get(fnIndex);
+    }
+
+    public void setUnitFunctions(LoadedTypeDefinition def, List<Function> functions) {
+        if (unitFunctions.putIfAbsent(def, List.copyOf(functions)) != null) {
+            throw new IllegalStateException("Unit functions set twice");
+        }
+    }
 }
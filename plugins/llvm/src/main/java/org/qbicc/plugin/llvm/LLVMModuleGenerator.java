@@ -3,8 +3,13 @@ package org.qbicc.plugin.llvm;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import io.smallrye.common.constraint.Assert;
 import org.qbicc.context.CompilationContext;
@@ -70,6 +75,23 @@ final class LLVMModuleGenerator {
     }
 
     public void processProgramModule(final ProgramModule programModule, BufferedWriter writer, Path irFile) {
+        processProgramModules(List.of(programModule), writer, irFile);
+    }
+
+    /**
+     * Emit a single LLVM module which contains all of the given program modules.  The first program module leads
+     * the unit: the debug compile unit and the state point IDs of the whole unit are associated with it.  Symbols
+     * defined within the unit are not declared, and local symbols whose names clash with another symbol of the unit
+     * are renamed.
+     *
+     * @param programModules the program modules of the unit (must not be {@code null} or empty)
+     * @param writer the writer to receive the module text (must not be {@code null})
+     * @param irFile the IR file name, used as the module source file name (must not be {@code null})
+     */
+    public void processProgramModules(final List<ProgramModule> programModules, BufferedWriter writer, Path irFile) {
+        Assert.checkNotEmptyParam("programModules", programModules);
+        final ProgramModule leadModule = programModules.get(0);
+        final boolean merged = programModules.size() > 1;
         final Module module = Module.newModule();
         TypeSystem ts = context.getTypeSystem();
         module.dataLayout()
@@ -87,7 +109,7 @@ final class LLVMModuleGenerator {
             ;
         module.sourceFileName(irFile.toString());
         final LLVMModuleNodeVisitor moduleVisitor = new LLVMModuleNodeVisitor(this, module, context, config);
-        final LLVMModuleDebugInfo debugInfo = new LLVMModuleDebugInfo(programModule, module, context);
+        final LLVMModuleDebugInfo debugInfo = new LLVMModuleDebugInfo(leadModule, module, context);
 
         if (picLevel != 0) {
             module.addFlag(ModuleFlagBehavior.Max, "PIC Level", Types.i32, Values.intConstant(picLevel));
@@ -96,7 +118,6 @@ final class LLVMModuleGenerator {
         if (pieLevel != 0) {
             module.addFlag(ModuleFlagBehavior.Max, "PIE Level", Types.i32, Values.intConstant(pieLevel));
         }
-        final Platform platform = context.getPlatform();
 
         // declare debug function here
         org.qbicc.machine.llvm.Function decl = module.declare("llvm.dbg.value");
@@ -104,14 +125,106 @@ final class LLVMModuleGenerator {
         decl.param(Types.metadata).param(Types.metadata).param(Types.metadata);
 
         // declare global ctors and dtors
-        processXtors(programModule.constructors(), "llvm.global_ctors", module, moduleVisitor);
-        processXtors(programModule.destructors(), "llvm.global_dtors", module, moduleVisitor);
+        if (merged) {
+            List<GlobalXtor> ctors = new ArrayList<>();
+            List<GlobalXtor> dtors = new ArrayList<>();
+            for (ProgramModule programModule : programModules) {
+                ctors.addAll(programModule.constructors());
+                dtors.addAll(programModule.destructors());
+            }
+            processXtors(ctors, "llvm.global_ctors", module, moduleVisitor);
+            processXtors(dtors, "llvm.global_dtors", module, moduleVisitor);
+        } else {
+            processXtors(leadModule.constructors(), "llvm.global_ctors", module, moduleVisitor);
+            processXtors(leadModule.destructors(), "llvm.global_dtors", module, moduleVisitor);
+        }
+
+        final Set<String> definedNames = merged ? assignNames(programModules, moduleVisitor) : Set.of();
+        final Map<String, Declaration> declared = new HashMap<>();
+        for (ProgramModule programModule : programModules) {
+            processDeclarations(programModule, merged, definedNames, declared, module, moduleVisitor);
+        }
+        for (ProgramModule programModule : programModules) {
+            processDefinitions(programModule, module, moduleVisitor, debugInfo);
+        }
+        final List<InvocationNode> statePointIds = moduleVisitor.getStatePointIds();
+        LLVMInfo.get(context).setStatePointIds(leadModule.getTypeDefinition().load(), statePointIds);
+        if (merged) {
+            List<Function> functions = new ArrayList<>();
+            for (ProgramModule programModule : programModules) {
+                functions.addAll(programModule.functions());
+            }
+            LLVMInfo.get(context).setUnitFunctions(leadModule.getTypeDefinition().load(), functions);
+        }
+        try {
+            module.writeTo(writer);
+        } catch (IOException e) {
+            context.error(Location.builder().setClassInternalName(leadModule.getTypeDefinition().getInternalName()).build(), "Failed to emit LLVM output: %s", e.toString());
+        }
+    }
 
+    private Set<String> assignNames(final List<ProgramModule> programModules, LLVMModuleNodeVisitor moduleVisitor) {
+        final Set<String> definedNames = new HashSet<>();
+        // global symbols keep their names
+        for (ProgramModule programModule : programModules) {
+            for (ModuleSection section : programModule.sections()) {
+                for (SectionObject item : section.contents()) {
+                    if (! isLocal(item.getLinkage())) {
+                        definedNames.add(item.getName());
+                    }
+                }
+            }
+        }
+        final Set<String> usedNames = new HashSet<>(definedNames);
+        for (ProgramModule programModule : programModules) {
+            for (Declaration item : programModule.declarations()) {
+                usedNames.add(item.getName());
+            }
+        }
+        // local symbols get a unique suffix if they clash with any other symbol of the unit
+        final Map<SectionObject, String> locals = new LinkedHashMap<>();
+        for (ProgramModule programModule : programModules) {
+            for (ModuleSection section : programModule.sections()) {
+                for (SectionObject item : section.contents()) {
+                    if (isLocal(item.getLinkage())) {
+                        locals.put(item, item.getName());
+                    }
+                }
+            }
+        }
+        LLVMModulePartitioner.renameLocals(usedNames, locals).forEach((item, newName) -> {
+            moduleVisitor.renamedObjects.put(item, newName);
+            moduleVisitor.renamedObjects.put(item.getDeclaration(), newName);
+        });
+        return definedNames;
+    }
+
+    private static boolean isLocal(org.qbicc.object.Linkage linkage) {
+        return linkage == org.qbicc.object.Linkage.PRIVATE || linkage == org.qbicc.object.Linkage.INTERNAL;
+    }
+
+    private void processDeclarations(final ProgramModule programModule, final boolean merged, final Set<String> definedNames, final Map<String, Declaration> declared, final Module module, final LLVMModuleNodeVisitor moduleVisitor) {
         for (Declaration item : programModule.declarations()) {
             String name = item.getName();
+            if (merged) {
+                if (definedNames.contains(name)) {
+                    // defined elsewhere in this unit
+                    continue;
+                }
+                Declaration existing = declared.putIfAbsent(name, item);
+                if (existing != null) {
+                    // already declared elsewhere in this unit, which is only correct if both agree
+                    if (! existing.getValueType().equals(item.getValueType())) {
+                        context.error(Location.builder().setClassInternalName(programModule.getTypeDefinition().getInternalName()).build(),
+                            "Conflicting declarations of %s in one compilation unit: %s (from %s) and %s",
+                            name, existing.getValueType(), existing.getProgramModule().getTypeDefinition().getInternalName(), item.getValueType());
+                    }
+                    continue;
+                }
+            }
             Linkage linkage = map(item.getLinkage());
             if (item instanceof FunctionDeclaration fn) {
-                decl = module.declare(name).linkage(linkage);
+                org.qbicc.machine.llvm.Function decl = module.declare(name).linkage(linkage);
                 FunctionType fnType = fn.getValueType();
                 decl.returns(moduleVisitor.map(fnType.getReturnType()));
                 int cnt = fnType.getParameterCount();
@@ -135,11 +248,15 @@ final class LLVMModuleGenerator {
                 obj.asGlobal(item.getName());
             }
         }
+    }
+
+    private void processDefinitions(final ProgramModule programModule, final Module module, final LLVMModuleNodeVisitor moduleVisitor, final LLVMModuleDebugInfo debugInfo) {
+        final Platform platform = context.getPlatform();
         for (ModuleSection section : programModule.sections()) {
             String sectionName = section.getName();
             final Segment segment = section.getSection().getSegment();
             for (SectionObject item : section.contents()) {
-                String name = item.getName();
+                String name = moduleVisitor.renamedObjects.getOrDefault(item, item.getName());
                 Linkage linkage = map(item.getLinkage());
                 if (item instanceof Function fn) {
                     ExecutableElement element = fn.getOriginalElement();
@@ -213,19 +330,12 @@ final class LLVMModuleGenerator {
                     if (element != null) {
                         obj.meta("dbg", debugInfo.getDebugInfoForGlobal(data, element));
                     }
-                    obj.asGlobal(data.getName());
+                    obj.asGlobal(name);
                 } else {
                     throw new IllegalStateException();
                 }
             }
         }
-        final List<InvocationNode> statePointIds = moduleVisitor.getStatePointIds();
-        LLVMInfo.get(context).setStatePointIds(programModule.getTypeDefinition().load(), statePointIds);
-        try {
-            module.writeTo(writer);
-        } catch (IOException e) {
-            context.error(Location.builder().setClassInternalName(programModule.getTypeDefinition().getInternalName()).build(), "Failed to emit LLVM output: %s", e.toString());
-        }
     }
 
     private void processXtors(final List<GlobalXtor> xtors, final String xtorName, Module module, LLVMModuleNodeVisitor moduleVisitor) {
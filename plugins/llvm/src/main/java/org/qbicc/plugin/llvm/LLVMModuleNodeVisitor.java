@@ -47,6 +47,7 @@ import org.qbicc.machine.llvm.Struct;
 import org.qbicc.machine.llvm.Types;
 import org.qbicc.machine.llvm.Values;
 import org.qbicc.machine.llvm.impl.LLVM;
+import org.qbicc.object.ProgramObject;
 import org.qbicc.plugin.coreclasses.CoreClasses;
 import org.qbicc.type.ArrayObjectType;
 import org.qbicc.type.ArrayType;
@@ -92,6 +93,8 @@ final class LLVMModuleNodeVisitor implements LiteralVisitor<Void, LLValue> {
     final Map<String, LLValue> resultDeclsByName = new HashMap<>();
     final Map<ValueType, LLValue> resultDeclTypes = new HashMap<>();
     final List<InvocationNode> statePointIds = new ArrayList<>();
+    // local symbols which were renamed to avoid a clash when several program modules share one LLVM module
+    final Map<ProgramObject, String> renamedObjects = new HashMap<>();
     final LLValue refType;
     final LLValue relocateDeclType;
     LLValue relocateDecl;
@@ -108,6 +111,7 @@ final class LLVMModuleNodeVisitor implements LiteralVisitor<Void, LLValue> {
         this.refType = module.identifiedType("ref").type(switch (config.getReferenceStrategy()) {
             case POINTER -> opaquePointers ? ptr : i8_ptr;
             case POINTER_AS1 -> opaquePointers ? ptr_as1 : i8_ptr_as1;
+            case COMPRESSED -> i32;
         }).asTypeRef();
         relocateDeclType = function(refType, List.of(token, i32, i32), false);
     }
@@ -269,6 +273,9 @@ final class LLVMModuleNodeVisitor implements LiteralVisitor<Void, LLValue> {
         LLValue toType = map(outputType);
         if (fromType.equals(toType)) {
             return input;
+        } else if (config.getReferenceStrategy() == ReferenceStrategy.COMPRESSED && (inputType instanceof ReferenceType || outputType instanceof ReferenceType)) {
+            // compressed references are plain integers
+            return Values.bitcastConstant(input, fromType, toType);
         } else if (inputType instanceof IntegerType && outputType instanceof NullableType) {
             return Values.inttoptrConstant(input, fromType, toType);
         } else if (inputType instanceof NullableType && outputType instanceof IntegerType) {
@@ -287,6 +294,7 @@ final class LLVMModuleNodeVisitor implements LiteralVisitor<Void, LLValue> {
         return switch (config.getReferenceStrategy()) {
             case POINTER -> input;
             case POINTER_AS1 -> Values.addrspacecastConstant(input, fromType, toType);
+            case COMPRESSED -> Values.ptrtointConstant(input, fromType, toType);
         };
     }
 
@@ -349,6 +357,9 @@ final class LLVMModuleNodeVisitor implements LiteralVisitor<Void, LLValue> {
     }
 
     public LLValue visit(final Void param, final NullLiteral node) {
+        if (node.getType() instanceof ReferenceType && config.getReferenceStrategy() == ReferenceStrategy.COMPRESSED) {
+            return ZERO;
+        }
         return NULL;
     }
 
@@ -371,7 +382,8 @@ final class LLVMModuleNodeVisitor implements LiteralVisitor<Void, LLValue> {
 
     public LLValue visit(final Void param, final ProgramObjectLiteral node) {
         // todo: auto-declare goes here
-        return Values.global(node.getProgramObject().getName());
+        final ProgramObject programObject = node.getProgramObject();
+        return Values.global(renamedObjects.getOrDefault(programObject, programObject.getName()));
     }
 
     public LLValue visit(Void unused, ShortArrayLiteral literal) {
@@ -0,0 +1,241 @@
+package org.qbicc.plugin.llvm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.smallrye.common.constraint.Assert;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.facts.Facts;
+import org.qbicc.facts.core.ExecutableReachabilityFacts;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.Terminator;
+import org.qbicc.object.Data;
+import org.qbicc.object.Declaration;
+import org.qbicc.object.Function;
+import org.qbicc.object.Linkage;
+import org.qbicc.object.ModuleSection;
+import org.qbicc.object.ProgramModule;
+import org.qbicc.object.SectionObject;
+import org.qbicc.type.definition.MethodBody;
+
+/**
+ * A partitioner which clusters program modules into a fixed number of balanced compilation units, each of which is
+ * emitted as a single LLVM module.
+ * <p>
+ * The size of each program module is estimated from the number of scheduled instructions in its reachable functions
+ * plus a small cost for each data object.  The affinity between two program modules is the number of symbols which
+ * one of them declares and the other defines; this approximates the number of cross-module call sites which become
+ * intra-module calls (and thus inlining candidates) when both modules are placed in the same unit.
+ * <p>
+ * Modules are placed largest-first.  Each module goes to the unit with which it has the greatest affinity among those
+ * units which still have room for it, or to the least loaded unit if no such unit exists.
+ */
+final class LLVMModulePartitioner {
+    // allow units to exceed the average size by a little, so that affinity has some room to act
+    private static final int SLACK_PERCENT = 10;
+    private static final long DATA_COST = 4;
+
+    private final CompilationContext ctxt;
+
+    LLVMModulePartitioner(CompilationContext ctxt) {
+        this.ctxt = ctxt;
+    }
+
+    /**
+     * Partition the given program modules into at most the given number of units.  The units are returned in
+     * descending order of estimated size, so that the largest units can be started first.
+     *
+     * @param modules the program modules to partition (must not be {@code null})
+     * @param unitCount the maximum number of units (must be at least 1)
+     * @return the list of units, each of which is a non-empty list of program modules (not {@code null})
+     */
+    List<List<ProgramModule>> partition(List<ProgramModule> modules, int unitCount) {
+        Assert.checkNotNullParam("modules", modules);
+        Assert.checkMinimumParameter("unitCount", 1, unitCount);
+        int cnt = modules.size();
+        long[] sizes = new long[cnt];
+        Map<String, Integer> definers = new HashMap<>();
+        for (int i = 0; i < cnt; i ++) {
+            ProgramModule module = modules.get(i);
+            long size = 1;
+            for (ModuleSection section : module.sections()) {
+                for (SectionObject item : section.contents()) {
+                    if (item instanceof Function fn) {
+                        size += sizeOf(fn);
+                    } else if (item instanceof Data) {
+                        size += DATA_COST;
+                    }
+                    if (item.getLinkage() != Linkage.PRIVATE && item.getLinkage() != Linkage.INTERNAL) {
+                        definers.put(item.getName(), Integer.valueOf(i));
+                    }
+                }
+            }
+            sizes[i] = size;
+        }
+        // affinity[i] maps each other module index to the number of shared symbols
+        List<Map<Integer, Integer>> affinity = new ArrayList<>(cnt);
+        for (int i = 0; i < cnt; i ++) {
+            affinity.add(new HashMap<>());
+        }
+        for (int i = 0; i < cnt; i ++) {
+            for (Declaration decl : modules.get(i).declarations()) {
+                Integer definer = definers.get(decl.getName());
+                if (definer != null && definer.intValue() != i) {
+                    affinity.get(i).merge(definer, Integer.valueOf(1), Integer::sum);
+                    affinity.get(definer.intValue()).merge(Integer.valueOf(i), Integer.valueOf(1), Integer::sum);
+                }
+            }
+        }
+        String[] names = new String[cnt];
+        for (int i = 0; i < cnt; i ++) {
+            names[i] = modules.get(i).getTypeDefinition().getInternalName();
+        }
+        List<List<ProgramModule>> result = new ArrayList<>();
+        for (List<Integer> unit : place(sizes, affinity, names, unitCount)) {
+            List<ProgramModule> unitModules = new ArrayList<>(unit.size());
+            for (Integer i : unit) {
+                unitModules.add(modules.get(i.intValue()));
+            }
+            result.add(List.copyOf(unitModules));
+        }
+        return result;
+    }
+
+    /**
+     * Place items into at most the given number of units.
+     *
+     * @param sizes the estimated size of each item (must not be {@code null})
+     * @param affinity the affinity of each item to each other item by index (must not be {@code null})
+     * @param names the name of each item, used to break ties (must not be {@code null})
+     * @param unitCount the maximum number of units (must be at least 1)
+     * @return the non-empty units in descending order of size, each of which is a list of item indices in placement order
+     */
+    static List<List<Integer>> place(long[] sizes, List<Map<Integer, Integer>> affinity, String[] names, int unitCount) {
+        int cnt = sizes.length;
+        long total = 0;
+        for (long size : sizes) {
+            total += size;
+        }
+        unitCount = Math.min(unitCount, cnt);
+        if (unitCount == 0) {
+            return List.of();
+        }
+        long capacity = total / unitCount + total / unitCount * SLACK_PERCENT / 100 + 1;
+        Integer[] order = new Integer[cnt];
+        for (int i = 0; i < cnt; i ++) {
+            order[i] = Integer.valueOf(i);
+        }
+        // largest first; break ties by name for a stable result
+        Arrays.sort(order, Comparator.<Integer>comparingLong(i -> sizes[i.intValue()]).reversed()
+            .thenComparing(i -> names[i.intValue()]));
+        int[] unitOf = new int[cnt];
+        long[] unitSizes = new long[unitCount];
+        List<List<Integer>> units = new ArrayList<>(unitCount);
+        for (int u = 0; u < unitCount; u ++) {
+            units.add(new ArrayList<>());
+        }
+        long[] gain = new long[unitCount];
+        for (Integer boxed : order) {
+            int i = boxed.intValue();
+            Arrays.fill(gain, 0);
+            for (Map.Entry<Integer, Integer> entry : affinity.get(i).entrySet()) {
+                int other = entry.getKey().intValue();
+                if (unitOf[other] > 0) {
+                    // already placed
+                    gain[unitOf[other] - 1] += entry.getValue().intValue();
+                }
+            }
+            int best = -1;
+            int lightest = 0;
+            for (int u = 0; u < unitCount; u ++) {
+                if (unitSizes[u] < unitSizes[lightest]) {
+                    lightest = u;
+                }
+                if (gain[u] > 0 && unitSizes[u] + sizes[i] <= capacity && (best == -1 || gain[u] > gain[best])) {
+                    best = u;
+                }
+            }
+            if (best == -1) {
+                best = lightest;
+            }
+            unitOf[i] = best + 1;
+            unitSizes[best] += sizes[i];
+            units.get(best).add(boxed);
+        }
+        Integer[] unitOrder = new Integer[unitCount];
+        for (int u = 0; u < unitCount; u ++) {
+            unitOrder[u] = Integer.valueOf(u);
+        }
+        Arrays.sort(unitOrder, Comparator.<Integer>comparingLong(u -> unitSizes[u.intValue()]).reversed());
+        List<List<Integer>> result = new ArrayList<>(unitCount);
+        for (Integer u : unitOrder) {
+            List<Integer> unit = units.get(u.intValue());
+            if (! unit.isEmpty()) {
+                result.add(List.copyOf(unit));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Choose new names for the local symbols of a unit whose names clash with another symbol of the unit.  A clashing
+     * symbol is given the first free name formed by appending {@code .1}, {@code .2} and so on to its name.
+     *
+     * @param usedNames the names of the global symbols of the unit, to which every chosen name is added (must not be {@code null})
+     * @param locals the local symbols of the unit and their names, in a stable order (must not be {@code null})
+     * @param <T> the symbol type
+     * @return the new names of the renamed symbols (not {@code null})
+     */
+    static <T> Map<T, String> renameLocals(Set<String> usedNames, Map<T, String> locals) {
+        Map<T, String> renamed = new HashMap<>();
+        for (Map.Entry<T, String> entry : locals.entrySet()) {
+            String name = entry.getValue();
+            if (! usedNames.add(name)) {
+                int idx = 1;
+                String newName;
+                do {
+                    newName = name + "." + idx++;
+                } while (! usedNames.add(newName));
+                renamed.put(entry.getKey(), newName);
+            }
+        }
+        return renamed;
+    }
+
+    private long sizeOf(Function fn) {
+        if (! Facts.get(ctxt).hadFact(fn.getOriginalElement(), ExecutableReachabilityFacts.IS_INVOKED)) {
+            // not emitted
+            return 0;
+        }
+        MethodBody body = fn.getBody();
+        if (body == null) {
+            return 0;
+        }
+        long size = 0;
+        Set<BasicBlock> visited = new HashSet<>();
+        ArrayDeque<BasicBlock> work = new ArrayDeque<>();
+        BasicBlock entryBlock = body.getEntryBlock();
+        visited.add(entryBlock);
+        work.add(entryBlock);
+        BasicBlock block;
+        while ((block = work.poll()) != null) {
+            size += block.getInstructions().size();
+            Terminator terminator = block.getTerminator();
+            int cnt = terminator.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                BasicBlock successor = terminator.getSuccessor(i);
+                if (visited.add(successor)) {
+                    work.add(successor);
+                }
+            }
+        }
+        return size;
+    }
+}
@@ -792,6 +792,7 @@ final class LLVMNodeVisitor implements NodeVisitor<Set<Value>, LLValue, Instruct
                 // casts from integer to ref type come from register loads
                 return switch (moduleVisitor.config.getReferenceStrategy()) {
                     case POINTER, POINTER_AS1 -> builder.inttoptr(inputType, llvmInput, outputType).setLValue(map(node));
+                    case COMPRESSED -> builder.bitcast(inputType, llvmInput, outputType).setLValue(map(node));
                 };
             } else if (javaOutputType instanceof PointerType) {
                 return builder.inttoptr(inputType, llvmInput, outputType).setLValue(map(node));
@@ -802,6 +803,7 @@ final class LLVMNodeVisitor implements NodeVisitor<Set<Value>, LLValue, Instruct
             // casts from ref type to integer come from register stores
             return switch (moduleVisitor.config.getReferenceStrategy()) {
                 case POINTER, POINTER_AS1 -> builder.ptrtoint(inputType, llvmInput, outputType).setLValue(map(node));
+                case COMPRESSED -> builder.bitcast(inputType, llvmInput, outputType).setLValue(map(node));
             };
         }
         return builder.bitcast(inputType, llvmInput, outputType).setLValue(map(node));
@@ -812,6 +814,7 @@ final class LLVMNodeVisitor implements NodeVisitor<Set<Value>, LLValue, Instruct
         return switch (moduleVisitor.config.getReferenceStrategy()) {
             case POINTER -> null;
             case POINTER_AS1 -> builder.addrspacecast(map(input.getType()), map(input), map(node.getType())).setLValue(map(node));
+            case COMPRESSED -> builder.inttoptr(map(input.getType()), map(input), map(node.getType())).setLValue(map(node));
         };
     }
 
@@ -820,6 +823,7 @@ final class LLVMNodeVisitor implements NodeVisitor<Set<Value>, LLValue, Instruct
         return switch (moduleVisitor.config.getReferenceStrategy()) {
             case POINTER -> null;
             case POINTER_AS1 -> builder.addrspacecast(map(node.getInputType()), map(input), map(node.getType())).setLValue(map(node));
+            case COMPRESSED -> builder.ptrtoint(map(node.getInputType()), map(input), map(node.getType())).setLValue(map(node));
         };
     }
 
@@ -0,0 +1,213 @@
+package org.qbicc.plugin.llvm;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.jboss.logging.Logger;
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.machine.arch.Platform;
+import org.qbicc.plugin.metrics.CountMetric;
+import org.qbicc.plugin.metrics.MemorySizeMetric;
+import org.qbicc.plugin.metrics.Metrics;
+import org.qbicc.tool.llvm.LlcInvoker;
+import org.qbicc.tool.llvm.OptInvoker;
+
+/**
+ * A persistent, content-addressed cache of object files produced by {@code llc}.  Each entry is keyed by a digest
+ * of the module text together with everything else which affects the output of {@code opt} and {@code llc}: the tool
+ * version, the target, the optimization passes, and all of the code generation options.  The cache is bounded in
+ * size; when it grows too large, the least recently used entries are evicted.
+ */
+final class LLVMObjectCache {
+    private static final Logger log = Logger.getLogger("org.qbicc.plugin.llvm.cache");
+    private static final AttachmentKey<LLVMObjectCache> KEY = new AttachmentKey<>();
+    private static final String SUFFIX = ".o";
+
+    private final Path directory;
+    private final long maxSize;
+    private final CountMetric hits;
+    private final CountMetric misses;
+    private final CountMetric evictions;
+    private final MemorySizeMetric reusedBytes;
+
+    LLVMObjectCache(CompilationContext ctxt, Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        CountMetric root = Metrics.get(ctxt).getOrCreateRootCountMetric("llvm object cache");
+        hits = root.getOrAddChild("hits");
+        misses = root.getOrAddChild("misses");
+        evictions = root.getOrAddChild("evictions");
+        reusedBytes = Metrics.get(ctxt).getOrCreateRootMemorySizeMetric("llvm object cache reused");
+    }
+
+    /**
+     * Get the object cache for the given configuration.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @param config the LLVM configuration (must not be {@code null})
+     * @return the object cache, or {@code null} if no cache is configured
+     */
+    static LLVMObjectCache get(CompilationContext ctxt, LLVMConfiguration config) {
+        Path directory = config.getObjectCacheDirectory();
+        if (directory == null) {
+            return null;
+        }
+        return ctxt.computeAttachmentIfAbsent(KEY, () -> new LLVMObjectCache(ctxt, directory, config.getObjectCacheMaxSize()));
+    }
+
+    /**
+     * Compute the cache key for a module which is compiled by the given {@code llc} invoker.
+     *
+     * @param moduleText the module text (must not be {@code null})
+     * @param llcInvoker the configured {@code llc} invoker (must not be {@code null})
+     * @param optInvoker the configured {@code opt} invoker, or {@code null} if {@code opt} is not used
+     * @param config the LLVM configuration (must not be {@code null})
+     * @return the cache key (not {@code null})
+     */
+    String keyOf(byte[] moduleText, LlcInvoker llcInvoker, OptInvoker optInvoker, LLVMConfiguration config) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        Platform platform = llcInvoker.getTool().getPlatform();
+        StringBuilder b = new StringBuilder();
+        b.append(llcInvoker.getTool().getVersion()).append('\0');
+        b.append(platform.getCpu()).append('-').append(platform.getOs()).append('-').append(platform.getAbi()).append('\0');
+        b.append(llcInvoker.getOptimizationLevel()).append('\0');
+        b.append(llcInvoker.getOutputFormat()).append('\0');
+        b.append(llcInvoker.getRelocationModel()).append('\0');
+        b.append(config.isOpaquePointers()).append('\0');
+        if (optInvoker != null) {
+            for (String pass : optInvoker.getOptimizationPasses()) {
+                b.append("opt:").append(pass).append('\0');
+            }
+        }
+        for (String option : config.getLlcOptions()) {
+            b.append(option).append('\0');
+        }
+        digest.update(b.toString().getBytes(StandardCharsets.UTF_8));
+        digest.update(moduleText);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Copy the cached object file for the given key to the given path, if it is present.
+     *
+     * @param key the cache key (must not be {@code null})
+     * @param objectFile the destination object file path (must not be {@code null})
+     * @return {@code true} if the entry was found and copied, or {@code false} if it is not present in the cache
+     */
+    boolean fetch(String key, Path objectFile) {
+        Path entry = pathOf(key);
+        try {
+            // copy, because later stages modify the object file in place
+            Files.copy(entry, objectFile, StandardCopyOption.REPLACE_EXISTING);
+            // mark as recently used
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            misses.add(1);
+            return false;
+        } catch (IOException e) {
+            log.debugf(e, "Failed to reuse cached object file %s", entry);
+            misses.add(1);
+            return false;
+        }
+        hits.add(1);
+        try {
+            reusedBytes.add(Files.size(objectFile));
+        } catch (IOException ignored) {
+            // just statistics
+        }
+        return true;
+    }
+
+    /**
+     * Store a newly compiled object file into the cache.  Failures are logged but otherwise ignored.
+     *
+     * @param key the cache key (must not be {@code null})
+     * @param objectFile the object file to store (must not be {@code null})
+     */
+    void store(String key, Path objectFile) {
+        Path entry = pathOf(key);
+        try {
+            Path parent = entry.getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, key, ".tmp");
+            try {
+                Files.copy(objectFile, temp, StandardCopyOption.REPLACE_EXISTING);
+                try {
+                    Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            log.debugf(e, "Failed to store object file %s in the cache", objectFile);
+        }
+    }
+
+    /**
+     * Evict the least recently used entries until the cache fits within its maximum size.
+     */
+    void evict() {
+        if (! Files.isDirectory(directory)) {
+            return;
+        }
+        record Entry(Path path, long size, FileTime lastModified) {}
+        List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        try (Stream<Path> stream = Files.walk(directory, 2)) {
+            for (Path path : (Iterable<Path>) stream::iterator) {
+                if (path.getFileName().toString().endsWith(SUFFIX)) {
+                    BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attrs.isRegularFile()) {
+                        entries.add(new Entry(path, attrs.size(), attrs.lastModifiedTime()));
+                        total += attrs.size();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.debugf(e, "Failed to scan object cache directory %s", directory);
+            return;
+        }
+        if (total <= maxSize) {
+            return;
+        }
+        entries.sort(Comparator.comparing(Entry::lastModified));
+        for (Entry entry : entries) {
+            if (total <= maxSize) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(entry.path());
+                total -= entry.size();
+                evictions.add(1);
+            } catch (IOException e) {
+                log.debugf(e, "Failed to evict cached object file %s", entry.path());
+            }
+        }
+    }
+
+    private Path pathOf(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key.substring(2) + SUFFIX);
+    }
+}
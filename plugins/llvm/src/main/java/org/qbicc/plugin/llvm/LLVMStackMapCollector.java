@@ -98,7 +98,7 @@ public final class LLVMStackMapCollector {
                             public void startFunction(long fnIndex, long address, long stackSize, long recordCount) {
                                 // todo: Replace the `address` argument with a Literal which represents the relocation with offset;
                                 // the address is actually a relocation... but we can cheat and just grab the function itself by index
-                                functionAddress = ctxt.getOrAddProgramModule(typeDefinition).getFunction((int) fnIndex);
+                                functionAddress = info.getFunction(typeDefinition, (int) fnIndex);
                                 this.stackSize = stackSize;
                             }
 
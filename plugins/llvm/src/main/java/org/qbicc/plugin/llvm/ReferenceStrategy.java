@@ -12,5 +12,10 @@ public enum ReferenceStrategy {
      * References are pointers in address space number 1.
      */
     POINTER_AS1,
+    /**
+     * References are 32-bit integers which hold the address of the object.  All objects must be located in the
+     * low 4 GiB of the address space, so this strategy requires a position-dependent executable.
+     */
+    COMPRESSED,
     ;
 }
@@ -0,0 +1,96 @@
+package org.qbicc.plugin.llvm;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.BlockParameter;
+import org.qbicc.graph.Slot;
+import org.qbicc.graph.Value;
+import org.qbicc.machine.arch.Platform;
+import org.qbicc.machine.llvm.FunctionDefinition;
+import org.qbicc.machine.llvm.Module;
+import org.qbicc.object.Function;
+import org.qbicc.object.ProgramModule;
+import org.qbicc.test.AbstractGraphTestCase;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.FunctionType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.MethodBody;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Tests of the lowering of reference encoding and decoding when references are compressed to 32-bit integers.
+ */
+public class TestCompressedReferences extends AbstractGraphTestCase {
+    private static DefinedTypeDefinition def;
+    private static ClassObjectType objectType;
+
+    @BeforeAll
+    static void defineClasses() {
+        def = defineClass("refs/Compressed", null);
+        objectType = def.load().getClassType();
+    }
+
+    @Test
+    public void testEncode() throws IOException {
+        String ir = lower("encode", ts.getFunctionType(objectType.getReference(), List.of(objectType.getPointer())), (bbb, param) -> bbb.encodeReference(param, objectType.getReference()));
+
+        assertTrue(ir.contains("%ref = type i32"), ir);
+        assertTrue(ir.contains("ptrtoint ptr %p0 to %ref"), ir);
+    }
+
+    @Test
+    public void testDecode() throws IOException {
+        String ir = lower("decode", ts.getFunctionType(objectType.getPointer(), List.of(objectType.getReference())), (bbb, param) -> bbb.decodeReference(param, objectType.getPointer()));
+
+        assertTrue(ir.contains("%ref = type i32"), ir);
+        assertTrue(ir.contains("inttoptr %ref %p0 to ptr"), ir);
+    }
+
+    /**
+     * Build a function which returns the conversion of its single parameter, and lower it to LLVM IR text with
+     * compressed references.
+     */
+    private static String lower(String name, FunctionType functionType, BiFunction<BasicBlockBuilder, BlockParameter, Value> conversion) throws IOException {
+        MethodElement element = defineMethod(def, name, ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(element);
+        BlockLabel entry = new BlockLabel();
+        bbb.begin(entry);
+        BlockParameter param = bbb.addParam(entry, Slot.funcParam(0), functionType.getParameterType(0), false);
+        bbb.return_(conversion.apply(bbb, param));
+        bbb.finish();
+        BasicBlock entryBlock = bbb.getFirstBlock();
+
+        ProgramModule programModule = ctxt.getOrAddProgramModule(def);
+        Function function = programModule.inSection(ctxt.getImplicitSection()).addFunction(element, "refs_" + name, functionType);
+        function.replaceBody(MethodBody.of(entryBlock, List.of(Slot.funcParam(0))));
+
+        LLVMConfiguration config = LLVMConfiguration.builder()
+            .setPlatform(Platform.HOST_PLATFORM)
+            .setOpaquePointers(true)
+            .setStatepointEnabled(false)
+            .setReferenceStrategy(ReferenceStrategy.COMPRESSED)
+            .build();
+        Module module = Module.newModule();
+        LLVMModuleNodeVisitor moduleVisitor = new LLVMModuleNodeVisitor(new LLVMModuleGenerator(ctxt, config), module, ctxt, config);
+        LLVMModuleDebugInfo debugInfo = new LLVMModuleDebugInfo(programModule, module, ctxt);
+        FunctionDefinition definition = module.define(function.getName());
+        new LLVMNodeVisitor(ctxt, module, debugInfo, debugInfo.createThunkSubprogram(function).asRef(), moduleVisitor, function, definition).execute();
+        StringWriter writer = new StringWriter();
+        try (BufferedWriter bw = new BufferedWriter(writer)) {
+            module.writeTo(bw);
+        }
+        return writer.toString();
+    }
+}
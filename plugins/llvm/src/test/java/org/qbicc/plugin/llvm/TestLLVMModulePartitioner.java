@@ -0,0 +1,119 @@
+package org.qbicc.plugin.llvm;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the placement and symbol renaming of the LLVM module partitioner.
+ */
+public class TestLLVMModulePartitioner {
+
+    @Test
+    public void testBalancing() {
+        long[] sizes = { 50, 40, 30, 20, 10, 10, 10, 10 };
+        List<List<Integer>> units = LLVMModulePartitioner.place(sizes, noAffinity(sizes.length), names(sizes.length), 3);
+        assertEquals(3, units.size());
+        assertAllPlacedOnce(units, sizes.length);
+        for (List<Integer> unit : units) {
+            assertEquals(60, sizeOf(unit, sizes), "Unbalanced unit " + unit);
+        }
+        // the largest items lead their units
+        assertEquals(List.of(Integer.valueOf(0), Integer.valueOf(5)), units.get(0));
+    }
+
+    @Test
+    public void testAffinity() {
+        long[] sizes = { 10, 10, 10, 10 };
+        List<Map<Integer, Integer>> affinity = noAffinity(sizes.length);
+        link(affinity, 0, 2, 5);
+        link(affinity, 1, 3, 5);
+        List<List<Integer>> units = LLVMModulePartitioner.place(sizes, affinity, names(sizes.length), 2);
+        assertEquals(List.of(List.of(Integer.valueOf(0), Integer.valueOf(2)), List.of(Integer.valueOf(1), Integer.valueOf(3))), units);
+    }
+
+    @Test
+    public void testCapacityLimitsAffinity() {
+        long[] sizes = { 10, 10, 10, 10 };
+        List<Map<Integer, Integer>> affinity = noAffinity(sizes.length);
+        // every item prefers the first one, but the first unit only has room for two
+        link(affinity, 0, 1, 3);
+        link(affinity, 0, 2, 2);
+        link(affinity, 0, 3, 1);
+        List<List<Integer>> units = LLVMModulePartitioner.place(sizes, affinity, names(sizes.length), 2);
+        assertEquals(2, units.size());
+        assertAllPlacedOnce(units, sizes.length);
+        assertEquals(List.of(Integer.valueOf(0), Integer.valueOf(1)), units.get(0));
+        assertEquals(20, sizeOf(units.get(1), sizes));
+    }
+
+    @Test
+    public void testMoreUnitsThanItems() {
+        long[] sizes = { 7, 3 };
+        List<List<Integer>> units = LLVMModulePartitioner.place(sizes, noAffinity(sizes.length), names(sizes.length), 5);
+        assertEquals(List.of(List.of(Integer.valueOf(0)), List.of(Integer.valueOf(1))), units);
+        assertEquals(List.of(), LLVMModulePartitioner.place(new long[0], List.of(), new String[0], 5));
+    }
+
+    @Test
+    public void testRenameLocals() {
+        Set<String> usedNames = new HashSet<>(Set.of("a", "b"));
+        Map<String, String> locals = new LinkedHashMap<>();
+        locals.put("x", "a");
+        locals.put("y", "c");
+        locals.put("z", "c");
+        locals.put("w", "a.1");
+        Map<String, String> renamed = LLVMModulePartitioner.renameLocals(usedNames, locals);
+        // the first local named "c" keeps its name, and a chosen name is never reused
+        assertEquals(Map.of("x", "a.1", "z", "c.1", "w", "a.1.1"), renamed);
+        assertEquals(Set.of("a", "b", "a.1", "c", "c.1", "a.1.1"), usedNames);
+    }
+
+    private static void assertAllPlacedOnce(List<List<Integer>> units, int cnt) {
+        List<Integer> all = new ArrayList<>();
+        units.forEach(all::addAll);
+        all.sort(null);
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < cnt; i ++) {
+            expected.add(Integer.valueOf(i));
+        }
+        assertEquals(expected, all);
+    }
+
+    private static long sizeOf(List<Integer> unit, long[] sizes) {
+        long size = 0;
+        for (Integer i : unit) {
+            size += sizes[i.intValue()];
+        }
+        return size;
+    }
+
+    private static void link(List<Map<Integer, Integer>> affinity, int a, int b, int count) {
+        affinity.get(a).put(Integer.valueOf(b), Integer.valueOf(count));
+        affinity.get(b).put(Integer.valueOf(a), Integer.valueOf(count));
+    }
+
+    private static List<Map<Integer, Integer>> noAffinity(int cnt) {
+        List<Map<Integer, Integer>> affinity = new ArrayList<>(cnt);
+        for (int i = 0; i < cnt; i ++) {
+            affinity.add(new HashMap<>());
+        }
+        return affinity;
+    }
+
+    private static String[] names(int cnt) {
+        String[] names = new String[cnt];
+        for (int i = 0; i < cnt; i ++) {
+            names[i] = "m" + i;
+        }
+        return names;
+    }
+}
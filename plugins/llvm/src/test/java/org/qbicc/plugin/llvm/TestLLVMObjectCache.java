@@ -0,0 +1,124 @@
+package org.qbicc.plugin.llvm;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.qbicc.test.Stubs.stub;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.qbicc.machine.arch.Platform;
+import org.qbicc.test.AbstractGraphTestCase;
+import org.qbicc.tool.llvm.LlcInvoker;
+import org.qbicc.tool.llvm.LlcOptLevel;
+import org.qbicc.tool.llvm.LlvmToolChain;
+import org.qbicc.tool.llvm.OptInvoker;
+import org.qbicc.tool.llvm.OutputFormat;
+import org.qbicc.tool.llvm.RelocationModel;
+
+/**
+ * Tests of the persistent {@code llc} object file cache.
+ */
+public class TestLLVMObjectCache extends AbstractGraphTestCase {
+    private static final byte[] MODULE = "define void @f() {\n  ret void\n}\n".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path temp;
+
+    @Test
+    public void testKeyOf() {
+        LLVMObjectCache cache = newCache(Long.MAX_VALUE);
+        LLVMConfiguration config = newConfig().build();
+        String key = cache.keyOf(MODULE, llc("16.0.0", LlcOptLevel.O2), null, config);
+        assertEquals(64, key.length());
+        assertTrue(key.chars().allMatch(c -> Character.digit(c, 16) >= 0));
+        // the key is stable
+        assertEquals(key, cache.keyOf(MODULE.clone(), llc("16.0.0", LlcOptLevel.O2), null, config));
+        // and covers the module text, the tool version, the code generation options and the opt passes
+        assertNotEquals(key, cache.keyOf("define void @g() {\n  ret void\n}\n".getBytes(StandardCharsets.UTF_8), llc("16.0.0", LlcOptLevel.O2), null, config));
+        assertNotEquals(key, cache.keyOf(MODULE, llc("17.0.0", LlcOptLevel.O2), null, config));
+        assertNotEquals(key, cache.keyOf(MODULE, llc("16.0.0", LlcOptLevel.O1), null, config));
+        assertNotEquals(key, cache.keyOf(MODULE, llc("16.0.0", LlcOptLevel.O2), null, newConfig().addLlcOption("--frame-pointer=all").build()));
+        assertNotEquals(key, cache.keyOf(MODULE, llc("16.0.0", LlcOptLevel.O2), opt(List.of("mem2reg")), config));
+        assertNotEquals(cache.keyOf(MODULE, llc("16.0.0", LlcOptLevel.O2), opt(List.of("mem2reg")), config), cache.keyOf(MODULE, llc("16.0.0", LlcOptLevel.O2), opt(List.of("instcombine")), config));
+    }
+
+    @Test
+    public void testStoreAndFetch() throws IOException {
+        LLVMObjectCache cache = newCache(Long.MAX_VALUE);
+        String key = "0123456789abcdef";
+        Path objectFile = write(temp.resolve("in.o"), "object");
+        assertFalse(cache.fetch(key, temp.resolve("missing.o")));
+        assertFalse(Files.exists(temp.resolve("missing.o")));
+        cache.store(key, objectFile);
+        // the entry is a copy, so later changes to the object file do not affect it
+        Files.writeString(objectFile, "modified");
+        Path out = temp.resolve("out.o");
+        assertTrue(cache.fetch(key, out));
+        assertEquals("object", Files.readString(out));
+        // likewise the fetched file is a copy of the entry
+        Files.writeString(out, "linked");
+        Path again = temp.resolve("again.o");
+        assertTrue(cache.fetch(key, again));
+        assertEquals("object", Files.readString(again));
+        // a fetch replaces an existing file
+        assertTrue(cache.fetch(key, objectFile));
+        assertEquals("object", Files.readString(objectFile));
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws IOException {
+        LLVMObjectCache cache = newCache(250);
+        Path objectFile = write(temp.resolve("in.o"), "x".repeat(100));
+        String[] keys = { "aa0001", "bb0002", "cc0003" };
+        for (String key : keys) {
+            cache.store(key, objectFile);
+        }
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < keys.length; i ++) {
+            Files.setLastModifiedTime(entryOf(keys[i]), FileTime.fromMillis(now - 100_000 + i * 10_000));
+        }
+        // using the oldest entry makes it the most recently used
+        assertTrue(cache.fetch(keys[0], temp.resolve("out.o")));
+        cache.evict();
+        assertTrue(Files.exists(entryOf(keys[0])));
+        assertFalse(Files.exists(entryOf(keys[1])));
+        assertTrue(Files.exists(entryOf(keys[2])));
+        // a cache within its bounds is left alone
+        cache.evict();
+        assertTrue(Files.exists(entryOf(keys[0])));
+        assertTrue(Files.exists(entryOf(keys[2])));
+    }
+
+    private Path entryOf(String key) {
+        return temp.resolve("cache").resolve(key.substring(0, 2)).resolve(key.substring(2) + ".o");
+    }
+
+    private static Path write(Path path, String content) throws IOException {
+        Files.writeString(path, content);
+        return path;
+    }
+
+    private LLVMObjectCache newCache(long maxSize) {
+        return new LLVMObjectCache(ctxt, temp.resolve("cache"), maxSize);
+    }
+
+    private static LLVMConfiguration.Builder newConfig() {
+        return LLVMConfiguration.builder().setPlatform(Platform.HOST_PLATFORM);
+    }
+
+    private static LlcInvoker llc(String version, LlcOptLevel optLevel) {
+        LlvmToolChain tool = stub(LlvmToolChain.class, Map.of("getVersion", version, "getPlatform", Platform.HOST_PLATFORM));
+        return stub(LlcInvoker.class, Map.of("getTool", tool, "getOptimizationLevel", optLevel, "getOutputFormat", OutputFormat.OBJ, "getRelocationModel", RelocationModel.Pic));
+    }
+
+    private static OptInvoker opt(List<String> passes) {
+        return stub(OptInvoker.class, Map.of("getOptimizationPasses", passes));
+    }
+}
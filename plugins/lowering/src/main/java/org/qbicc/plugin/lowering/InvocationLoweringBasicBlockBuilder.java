@@ -45,6 +45,7 @@ import org.qbicc.type.SignedIntegerType;
 import org.qbicc.type.TypeSystem;
 import org.qbicc.type.TypeIdType;
 import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.LoadedTypeDefinition;
 import org.qbicc.type.definition.classfile.ClassFile;
 import org.qbicc.type.definition.element.ExecutableElement;
 import org.qbicc.type.definition.element.FunctionElement;
@@ -244,14 +245,16 @@ public class InvocationLoweringBasicBlockBuilder extends DelegatingBasicBlockBui
         return fb.load(memberOf(bitCast(vtable, info.getType().getPointer()), info.getType().getMember(index)));
     }
 
-    // Current implementation strategy is "searched itables" in the terminology of [Alpern et al 2001].
+    // Default implementation strategy is "searched itables" in the terminology of [Alpern et al 2001].
+    // With colored itables, the dictionary is indexed by the color of the interface instead.
     @Override
     public Value lookupInterfaceMethod(Value reference, InstanceMethodElement target) {
         final BasicBlockBuilder fb = getFirstBuilder();
         LiteralFactory lf = getLiteralFactory();
         DispatchTables dt = DispatchTables.get(ctxt);
         DispatchTables.ITableInfo info = dt.getITableInfo(target.getEnclosingType().load());
-        if (info == null) {
+        int color = info == null || ! dt.isColoredITables() ? 0 : dt.getITableColor(info.getInterface());
+        if (info == null || color == -1) {
             // No realized invocation targets are possible for this method!
             return lf.nullLiteralOfType(target.getType().getPointer());
         }
@@ -266,6 +269,12 @@ public class InvocationLoweringBasicBlockBuilder extends DelegatingBasicBlockBui
         Value typeId = fb.load(instanceFieldOf(fb.decodeReference(reference), CoreClasses.get(ctxt).getObjectTypeIdField()));
         Value itableDict = fb.load(elementOf(lf.literalOf(rootITables), typeId));
 
+        if (dt.isColoredITables()) {
+            MethodElement method = RuntimeMethodFinder.get(ctxt).getMethod("raiseIncompatibleClassChangeError");
+            Value itable = fb.bitCast(loadColoredITable(this, itableDict, dt.getItableDictType(), color, info.getInterface(), method), info.getType().getPointer());
+            return fb.load(memberOf(itable, info.getType().getMember(dt.getITableIndex(target))));
+        }
+
         // Search loop to find the itableDictEntry with the typeId of the target interface.
         // If we hit the sentinel (typeid 0), then there was an IncompatibleClassChangeError
         BlockLabel failLabel = new BlockLabel();
@@ -297,6 +306,38 @@ public class InvocationLoweringBasicBlockBuilder extends DelegatingBasicBlockBui
         return fb.load(memberOf(itable, info.getType().getMember(dt.getITableIndex(target))));
     }
 
+    /**
+     * Load the itable of the given interface from the colored itable dictionary of a class.  The entry of the color
+     * of the interface must be for the interface itself, else the class does not implement it and an
+     * {@code IncompatibleClassChangeError} is raised instead.  Entries of colors which are not used by the class
+     * have a type ID of zero, which is never the type ID of an interface.
+     *
+     * @param bbb the block builder to emit the check into (must not be {@code null})
+     * @param itableDict the colored itable dictionary of the receiver class (must not be {@code null})
+     * @param itableDictType the type of a dictionary entry (must not be {@code null})
+     * @param color the color of the interface
+     * @param iface the interface (must not be {@code null})
+     * @param raiseICCE the method which raises the error (must not be {@code null})
+     * @return the untyped pointer to the itable of the interface
+     */
+    static Value loadColoredITable(BasicBlockBuilder bbb, Value itableDict, StructType itableDictType, int color, LoadedTypeDefinition iface, MethodElement raiseICCE) {
+        final BasicBlockBuilder fb = bbb.getFirstBuilder();
+        LiteralFactory lf = bbb.getLiteralFactory();
+        Value entry = fb.elementOf(itableDict, lf.literalOf(color));
+        Value entryTypeId = fb.load(fb.memberOf(entry, itableDictType.getMember("typeId")));
+        BlockLabel failLabel = new BlockLabel();
+        BlockLabel matched = new BlockLabel();
+        bbb.if_(bbb.isEq(entryTypeId, lf.literalOf(iface.getTypeId())), matched, failLabel, Map.of());
+        try {
+            bbb.begin(failLabel);
+            bbb.callNoReturn(lf.literalOf(raiseICCE), List.of());
+        } catch (BlockEarlyTermination ignored) {
+            // ignore; continue to generate matched block
+        }
+        bbb.begin(matched);
+        return fb.load(fb.memberOf(entry, itableDictType.getMember("itable")));
+    }
+
     private BasicBlock raiseLinkError(MethodElement target) {
         // Perform the transformation done by ObjectLiteralSerializingVisitor.visit(StringLiteral) because this BBB runs during LOWER
         VmString vString = ctxt.getVm().intern(target.getEnclosingType().getInternalName().replace("/", ".")+"."+target.getName());
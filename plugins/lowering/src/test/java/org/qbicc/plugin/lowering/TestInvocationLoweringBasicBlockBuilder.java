@@ -0,0 +1,74 @@
+package org.qbicc.plugin.lowering;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.BlockParameter;
+import org.qbicc.graph.CallNoReturn;
+import org.qbicc.graph.ElementOf;
+import org.qbicc.graph.If;
+import org.qbicc.graph.IsEq;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.MemberOf;
+import org.qbicc.graph.Slot;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.ExecutableLiteral;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.test.AbstractGraphTestCase;
+import org.qbicc.type.StructType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Tests of the interface method lookup emitted by {@link InvocationLoweringBasicBlockBuilder}.
+ */
+public class TestInvocationLoweringBasicBlockBuilder extends AbstractGraphTestCase {
+
+    @Test
+    public void testColoredITableICCE() {
+        LoadedTypeDefinition iface = defineClass("lowering/Iface", null).load();
+        iface.assignTypeId(7);
+        DefinedTypeDefinition def = defineClass("lowering/Code", null);
+        MethodElement raiseICCE = defineMethod(def, "raiseIncompatibleClassChangeError", ClassFile.ACC_STATIC);
+        MethodElement method = defineMethod(def, "lookup", ClassFile.ACC_STATIC);
+        // same layout as the dictionary entries of DispatchTables
+        StructType.Member itableMember = ts.getStructTypeMember("itable", ts.getVoidType().getPointer(), 0, ts.getPointerAlignment());
+        StructType.Member typeIdMember = ts.getStructTypeMember("typeId", ts.getTypeIdLiteralType(), ts.getPointerSize(), ts.getTypeIdAlignment());
+        StructType itableDictType = ts.getStructType(StructType.Tag.STRUCT, "qbicc_itable_dict_entry", ts.getPointerSize() + ts.getTypeIdSize(),
+            ts.getPointerAlignment(), () -> List.of(itableMember, typeIdMember));
+
+        BasicBlockBuilder bbb = newBuilder(method);
+        BlockLabel entry = new BlockLabel();
+        bbb.begin(entry);
+        BlockParameter itableDict = bbb.addParam(entry, Slot.funcParam(0), ts.getArrayType(itableDictType, 0).getPointer());
+        Value itable = InvocationLoweringBasicBlockBuilder.loadColoredITable(bbb, itableDict, itableDictType, 3, iface, raiseICCE);
+        bbb.return_();
+        BasicBlock entryBlock = finish(bbb);
+
+        // the entry of the color of the interface is checked for the type ID of the interface...
+        If check = assertInstanceOf(If.class, entryBlock.getTerminator());
+        IsEq isEq = assertInstanceOf(IsEq.class, check.getCondition());
+        MemberOf typeId = assertInstanceOf(MemberOf.class, assertInstanceOf(Load.class, isEq.getLeftInput()).getPointer());
+        assertSame(typeIdMember, typeId.getMember());
+        ElementOf element = assertInstanceOf(ElementOf.class, typeId.getStructurePointer());
+        assertSame(itableDict, element.getArrayPointer());
+        assertEquals(3, assertInstanceOf(IntegerLiteral.class, element.getIndex()).intValue());
+        assertEquals(7, assertInstanceOf(IntegerLiteral.class, isEq.getRightInput()).intValue());
+        // ...and any other entry, including the zero entry of an unused color, raises the error
+        CallNoReturn raise = assertInstanceOf(CallNoReturn.class, check.getFalseBranch().getTerminator());
+        assertSame(raiseICCE, assertInstanceOf(ExecutableLiteral.class, raise.getTarget()).getExecutable());
+        // the itable of the matching entry is used
+        Load load = assertInstanceOf(Load.class, itable);
+        assertSame(check.getTrueBranch(), load.getScheduledBlock());
+        MemberOf itableOf = assertInstanceOf(MemberOf.class, load.getPointer());
+        assertSame(itableMember, itableOf.getMember());
+        assertSame(element, itableOf.getStructurePointer());
+    }
+}
@@ -0,0 +1,230 @@
+package org.qbicc.plugin.objectmonitor;
+
+import static org.qbicc.graph.CmpAndSwap.Strength.STRONG;
+import static org.qbicc.graph.atomic.AccessModes.GlobalAcquire;
+import static org.qbicc.graph.atomic.AccessModes.GlobalRelease;
+
+import java.util.List;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.CmpAndSwap;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.coreclasses.HeaderBits;
+import org.qbicc.plugin.intrinsics.Intrinsics;
+import org.qbicc.plugin.patcher.Patcher;
+import org.qbicc.plugin.threadlocal.ThreadLocals;
+import org.qbicc.type.SignedIntegerType;
+import org.qbicc.type.StructType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.UnsignedIntegerType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.definition.element.InstanceFieldElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.definition.element.StaticFieldElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+
+/**
+ * Thin lock support for object monitors.
+ * <p>
+ * The lock word occupies {@link #LOCK_WORD_BITS} bits of the object header.  From low to high, it contains an
+ * "inflated" bit, a "contended" bit, a {@link #COUNT_BITS}-bit recursion count, and the {@link #OWNER_BITS}-bit thin
+ * lock ID of the owning thread.  The layout must match the one in {@code org.qbicc.runtime.main.ThinLock}.
+ * <p>
+ * Thin locks are only used if {@linkplain #enableThinLocks enabled}.  Otherwise, the runtime class is never loaded,
+ * {@code Object} is not patched, and every monitor operation calls the monitor methods of {@code Object}.
+ */
+public final class ObjectMonitor {
+    static final int COUNT_BITS = 5;
+    static final int OWNER_BITS = 16;
+    static final int OWNER_SHIFT = 2 + COUNT_BITS;
+    static final int LOCK_WORD_BITS = OWNER_SHIFT + OWNER_BITS;
+
+    private static final HeaderBits.Key LOCK_WORD = new HeaderBits.Key(LOCK_WORD_BITS);
+    private static final AttachmentKey<ObjectMonitor> KEY = new AttachmentKey<>();
+    private static final AttachmentKey<Boolean> THIN_LOCKS_KEY = new AttachmentKey<>();
+
+    private final MethodElement monitorEnterMethod;
+    private final MethodElement monitorExitMethod;
+    private final InstanceFieldElement lockIdField;
+
+    private ObjectMonitor(final CompilationContext ctxt) {
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+        DefinedTypeDefinition defined = classContext.findDefinedType("org/qbicc/runtime/main/ThinLock");
+        if (defined == null) {
+            throw runtimeMissing();
+        }
+        LoadedTypeDefinition loaded = defined.load();
+        int index = loaded.findSingleMethodIndex(e -> e.nameEquals("monitorEnter"));
+        if (index == -1) {
+            throw methodMissing();
+        }
+        monitorEnterMethod = loaded.getMethod(index);
+        index = loaded.findSingleMethodIndex(e -> e.nameEquals("monitorExit"));
+        if (index == -1) {
+            throw methodMissing();
+        }
+        monitorExitMethod = loaded.getMethod(index);
+        FieldElement field = loaded.findField("lockId");
+        if (! (field instanceof StaticFieldElement sfe)) {
+            throw fieldMissing();
+        }
+        lockIdField = ThreadLocals.get(ctxt).getThreadLocalField(sfe);
+        if (lockIdField == null) {
+            throw fieldMissing();
+        }
+    }
+
+    /**
+     * Get the thin lock support, loading the thin lock runtime class if needed.  Thin locks must be enabled.  The
+     * first call must happen before the VM is created, so that the thin lock ID field is injected into {@code Thread}
+     * before its instance layout is computed.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the thin lock support (not {@code null})
+     */
+    public static ObjectMonitor get(CompilationContext ctxt) {
+        ObjectMonitor objectMonitor = ctxt.getAttachment(KEY);
+        if (objectMonitor == null) {
+            if (! isThinLocking(ctxt)) {
+                throw new IllegalStateException("Thin locks are not enabled");
+            }
+            // loading the runtime class may define attachments, so it must not happen while computing one
+            objectMonitor = new ObjectMonitor(ctxt);
+            ObjectMonitor appearing = ctxt.putAttachmentIfAbsent(KEY, objectMonitor);
+            if (appearing != null) {
+                objectMonitor = appearing;
+            }
+        }
+        return objectMonitor;
+    }
+
+    /**
+     * Enable thin locks, reserving the lock word in the object header and routing the monitor methods of
+     * {@code Object} through the thin lock runtime.  This must be done before the header type is established and
+     * before {@code Object} is defined.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    public static void enableThinLocks(CompilationContext ctxt) {
+        HeaderBits.get(ctxt).getHeaderBits(LOCK_WORD);
+        ctxt.putAttachment(THIN_LOCKS_KEY, Boolean.TRUE);
+        Patcher.addPatchClass(ctxt.getBootstrapClassContext(), "org.qbicc.runtime.main.ObjectAccess");
+    }
+
+    /**
+     * Determine whether monitor operations use thin locks.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return {@code true} if thin locks are enabled, or {@code false} if every operation uses the object's monitor
+     */
+    public static boolean isThinLocking(CompilationContext ctxt) {
+        return ctxt.getAttachmentOrDefault(THIN_LOCKS_KEY, Boolean.FALSE).booleanValue();
+    }
+
+    /**
+     * Get the bit position of the lock word within the object header.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the bit position
+     */
+    static int getLockWordShift(CompilationContext ctxt) {
+        return HeaderBits.get(ctxt).getHeaderBits(LOCK_WORD);
+    }
+
+    public static void registerIntrinsics(CompilationContext ctxt) {
+        if (! isThinLocking(ctxt)) {
+            // the runtime class is never used
+            return;
+        }
+        Intrinsics intrinsics = Intrinsics.get(ctxt);
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+        LiteralFactory lf = classContext.getLiteralFactory();
+        TypeSystem ts = classContext.getTypeSystem();
+
+        ClassTypeDescriptor thinLockDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/main/ThinLock");
+        ClassTypeDescriptor objDesc = ClassTypeDescriptor.synthesize(classContext, "java/lang/Object");
+
+        MethodDescriptor emptyToInt = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.I, List.of());
+        MethodDescriptor objToLong = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.J, List.of(objDesc));
+        MethodDescriptor objLongLongToBool = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.Z, List.of(objDesc, BaseTypeDescriptor.J, BaseTypeDescriptor.J));
+
+        HeaderBits headerBits = HeaderBits.get(ctxt);
+        InstanceFieldElement headerField = CoreClasses.get(ctxt).getObjectHeaderField();
+        int shift = headerBits.getHeaderBits(LOCK_WORD);
+
+        intrinsics.registerIntrinsic(thinLockDesc, "getLockWordShift", emptyToInt, (builder, targetPtr, arguments) -> lf.literalOf(shift));
+
+        intrinsics.registerIntrinsic(thinLockDesc, "getHeader", objToLong, (builder, targetPtr, arguments) -> {
+            Value header = builder.load(builder.instanceFieldOf(builder.decodeReference(arguments.get(0)), headerField), GlobalAcquire);
+            return toLong(builder, ts, header);
+        });
+
+        intrinsics.registerIntrinsic(thinLockDesc, "compareAndSetHeader", objLongLongToBool, (builder, targetPtr, arguments) -> {
+            UnsignedIntegerType headerType = headerBits.getHeaderType();
+            Value hfPtr = builder.instanceFieldOf(builder.decodeReference(arguments.get(0)), headerField);
+            Value expect = fromLong(builder, headerType, arguments.get(1));
+            Value update = fromLong(builder, headerType, arguments.get(2));
+            Value result = builder.cmpAndSwap(hfPtr, expect, update, GlobalAcquire, GlobalRelease, STRONG);
+            StructType resultType = CmpAndSwap.getResultType(ctxt, headerType);
+            return builder.extractMember(result, resultType.getMember(1));
+        });
+    }
+
+    private static Value toLong(BasicBlockBuilder builder, TypeSystem ts, Value header) {
+        SignedIntegerType s64 = ts.getSignedInteger64Type();
+        UnsignedIntegerType headerType = (UnsignedIntegerType) header.getType();
+        return headerType.getMinBits() < 64 ? builder.extend(header, s64) : builder.bitCast(header, s64);
+    }
+
+    private static Value fromLong(BasicBlockBuilder builder, UnsignedIntegerType headerType, Value value) {
+        return headerType.getMinBits() < 64 ? builder.truncate(value, headerType) : builder.bitCast(value, headerType);
+    }
+
+    /**
+     * Get the method which enters an object monitor when the inline fast path fails.
+     *
+     * @return the method (not {@code null})
+     */
+    public MethodElement getMonitorEnterMethod() {
+        return monitorEnterMethod;
+    }
+
+    /**
+     * Get the method which exits an object monitor when the inline fast path fails.
+     *
+     * @return the method (not {@code null})
+     */
+    public MethodElement getMonitorExitMethod() {
+        return monitorExitMethod;
+    }
+
+    /**
+     * Get the field of {@code Thread} which holds the thread's thin lock ID, or zero if it has none.
+     *
+     * @return the field (not {@code null})
+     */
+    public InstanceFieldElement getLockIdField() {
+        return lockIdField;
+    }
+
+    private static IllegalStateException fieldMissing() {
+        return new IllegalStateException("Required thread-local field is missing from the thin lock runtime");
+    }
+
+    private static IllegalStateException methodMissing() {
+        return new IllegalStateException("Required method is missing from the thin lock runtime");
+    }
+
+    private static IllegalStateException runtimeMissing() {
+        return new IllegalStateException("The thin lock runtime class is not present in the bootstrap class path");
+    }
+}
@@ -1,25 +1,58 @@
 package org.qbicc.plugin.objectmonitor;
 
+import static org.qbicc.graph.CmpAndSwap.Strength.STRONG;
+import static org.qbicc.graph.atomic.AccessModes.GlobalAcquire;
+import static org.qbicc.graph.atomic.AccessModes.GlobalRelease;
+import static org.qbicc.graph.atomic.AccessModes.SingleOpaque;
+import static org.qbicc.graph.atomic.AccessModes.SingleUnshared;
+
 import java.util.List;
+import java.util.Map;
 
+import org.qbicc.context.CompilationContext;
 import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.CmpAndSwap;
 import org.qbicc.graph.DelegatingBasicBlockBuilder;
 import org.qbicc.graph.Node;
 import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.coreclasses.HeaderBits;
+import org.qbicc.type.IntegerType;
+import org.qbicc.type.NullableType;
+import org.qbicc.type.StructType;
+import org.qbicc.type.UnsignedIntegerType;
 import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.FunctionElement;
 import org.qbicc.type.definition.element.MethodElement;
 
 /**
  * A graph factory which generates calls to runtime helpers for object monitor
  * bytecodes: monitorenter and monitorexit
+ * <p>
+ * With thin locks, the uncontended cases are emitted inline: entering an unlocked object sets the current thread's
+ * thin lock ID into the lock word of the object header, and exiting an object entered once by the current thread
+ * clears it again.  All other cases (recursion, contention, inflated monitors, or no current thread or thin lock ID)
+ * call the thin lock runtime.
  */
 public class ObjectMonitorBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    private final CompilationContext ctxt;
+    private final ObjectMonitor objectMonitor;
     private final MethodElement monitorEnterMethod;
     private final MethodElement monitorExitMethod;
 
     public ObjectMonitorBasicBlockBuilder(FactoryContext fc, BasicBlockBuilder delegate) {
         super(delegate);
-        LoadedTypeDefinition jlo = getContext().getBootstrapClassContext().findDefinedType("java/lang/Object").load();
+        ctxt = getContext();
+        if (ObjectMonitor.isThinLocking(ctxt)) {
+            objectMonitor = ObjectMonitor.get(ctxt);
+            monitorEnterMethod = null;
+            monitorExitMethod = null;
+            return;
+        }
+        objectMonitor = null;
+        LoadedTypeDefinition jlo = ctxt.getBootstrapClassContext().findDefinedType("java/lang/Object").load();
         int idx = jlo.findSingleMethodIndex(me -> me.nameEquals("monitorEnter"));
         if (idx == -1) {
             throw new IllegalStateException();
@@ -34,11 +67,80 @@ public class ObjectMonitorBasicBlockBuilder extends DelegatingBasicBlockBuilder
 
     public Node monitorEnter(final Value object) {
         BasicBlockBuilder fb = getFirstBuilder();
-        return fb.call(getLiteralFactory().literalOf(monitorEnterMethod), object, List.of());
+        LiteralFactory lf = getLiteralFactory();
+        if (objectMonitor == null) {
+            return fb.call(lf.literalOf(monitorEnterMethod), object, List.of());
+        }
+        if (getCurrentElement() instanceof FunctionElement) {
+            return fb.call(lf.literalOf(objectMonitor.getMonitorEnterMethod()), List.of(object));
+        }
+        UnsignedIntegerType headerType = HeaderBits.get(ctxt).getHeaderType();
+        BlockLabel hasId = new BlockLabel();
+        BlockLabel slow = new BlockLabel();
+        BlockLabel resume = new BlockLabel();
+        Value id = loadLockId(fb, slow);
+        fb.if_(fb.isEq(id, lf.literalOf((IntegerType) id.getType(), 0)), slow, hasId, Map.of());
+        fb.begin(hasId);
+        Value hfPtr = fb.instanceFieldOf(fb.decodeReference(object), CoreClasses.get(ctxt).getObjectHeaderField());
+        Value header = fb.load(hfPtr, SingleOpaque);
+        // the expected value has an empty lock word, but keeps the other bits of the header
+        Value expect = fb.and(header, lf.literalOf(headerType, ~lockWordMask()));
+        Value owner = fb.shl(fb.extend(id, headerType), lf.literalOf(headerType, ObjectMonitor.OWNER_SHIFT + ObjectMonitor.getLockWordShift(ctxt)));
+        Value result = fb.cmpAndSwap(hfPtr, expect, fb.or(expect, owner), GlobalAcquire, SingleOpaque, STRONG);
+        StructType resultType = CmpAndSwap.getResultType(ctxt, headerType);
+        fb.if_(fb.extractMember(result, resultType.getMember(1)), resume, slow, Map.of());
+        fb.begin(slow);
+        fb.call(lf.literalOf(objectMonitor.getMonitorEnterMethod()), List.of(object));
+        fb.goto_(resume, Map.of());
+        return fb.begin(resume);
     }
 
     public Node monitorExit(final Value object) {
         BasicBlockBuilder fb = getFirstBuilder();
-        return fb.call(getLiteralFactory().literalOf(monitorExitMethod), object, List.of());
+        LiteralFactory lf = getLiteralFactory();
+        if (objectMonitor == null) {
+            return fb.call(lf.literalOf(monitorExitMethod), object, List.of());
+        }
+        if (getCurrentElement() instanceof FunctionElement) {
+            return fb.call(lf.literalOf(objectMonitor.getMonitorExitMethod()), List.of(object));
+        }
+        UnsignedIntegerType headerType = HeaderBits.get(ctxt).getHeaderType();
+        BlockLabel hasId = new BlockLabel();
+        BlockLabel owned = new BlockLabel();
+        BlockLabel slow = new BlockLabel();
+        BlockLabel resume = new BlockLabel();
+        Value id = loadLockId(fb, slow);
+        fb.if_(fb.isEq(id, lf.literalOf((IntegerType) id.getType(), 0)), slow, hasId, Map.of());
+        fb.begin(hasId);
+        Value hfPtr = fb.instanceFieldOf(fb.decodeReference(object), CoreClasses.get(ctxt).getObjectHeaderField());
+        Value header = fb.load(hfPtr, SingleOpaque);
+        long mask = lockWordMask();
+        // a lock word holding only our ID means we entered exactly once, nobody is waiting, and the monitor is not inflated
+        Value owner = fb.shl(fb.extend(id, headerType), lf.literalOf(headerType, ObjectMonitor.OWNER_SHIFT + ObjectMonitor.getLockWordShift(ctxt)));
+        fb.if_(fb.isEq(fb.and(header, lf.literalOf(headerType, mask)), owner), owned, slow, Map.of());
+        fb.begin(owned);
+        Value result = fb.cmpAndSwap(hfPtr, header, fb.and(header, lf.literalOf(headerType, ~mask)), SingleOpaque, GlobalRelease, STRONG);
+        StructType resultType = CmpAndSwap.getResultType(ctxt, headerType);
+        fb.if_(fb.extractMember(result, resultType.getMember(1)), resume, slow, Map.of());
+        fb.begin(slow);
+        fb.call(lf.literalOf(objectMonitor.getMonitorExitMethod()), List.of(object));
+        fb.goto_(resume, Map.of());
+        return fb.begin(resume);
+    }
+
+    /**
+     * Load the thin lock ID of the current thread, branching to the slow path if there is no current thread.
+     */
+    private Value loadLockId(BasicBlockBuilder fb, BlockLabel slow) {
+        LiteralFactory lf = getLiteralFactory();
+        BlockLabel hasThread = new BlockLabel();
+        Value threadRef = fb.load(fb.currentThread(), SingleUnshared);
+        fb.if_(fb.isEq(threadRef, lf.nullLiteralOfType((NullableType) threadRef.getType())), slow, hasThread, Map.of());
+        fb.begin(hasThread);
+        return fb.load(fb.instanceFieldOf(fb.decodeReference(threadRef), objectMonitor.getLockIdField()), SingleUnshared);
+    }
+
+    private long lockWordMask() {
+        return ((1L << ObjectMonitor.LOCK_WORD_BITS) - 1) << ObjectMonitor.getLockWordShift(ctxt);
     }
 }
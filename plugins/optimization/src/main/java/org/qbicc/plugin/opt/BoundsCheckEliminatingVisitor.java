@@ -0,0 +1,198 @@
+package org.qbicc.plugin.opt;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jboss.logging.Logger;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.Add;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BlockParameter;
+import org.qbicc.graph.Comp;
+import org.qbicc.graph.DecodeReference;
+import org.qbicc.graph.If;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.IsGe;
+import org.qbicc.graph.IsGt;
+import org.qbicc.graph.IsLe;
+import org.qbicc.graph.IsLt;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.coreclasses.RuntimeMethodFinder;
+import org.qbicc.type.SignedIntegerType;
+import org.qbicc.type.definition.element.InstanceFieldElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * A copier which removes array bounds checks that are implied by the conditions of dominating branches.
+ * <p>
+ * The two halves of a bounds check ({@code index < 0} and {@code index >= length}) are removed independently.  The
+ * upper bound is proven by a dominating branch which established {@code index < length} for the same array, such as
+ * the condition of a counted loop or an earlier check of the same index.  The lower bound is proven by a dominating
+ * branch, or by induction for loop variables which start at a non-negative value and are only incremented by one
+ * under a dominating {@code <} condition, which also rules out overflow.
+ */
+public class BoundsCheckEliminatingVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock> {
+    private static final Logger log = Logger.getLogger("org.qbicc.plugin.opt.bce");
+
+    private final CompilationContext ctxt;
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock> delegate;
+    private final DominatingFacts facts = new DominatingFacts(log, "bounds check");
+    private InstanceFieldElement lengthField;
+    private MethodElement raiseMethod;
+
+    public BoundsCheckEliminatingVisitor(final CompilationContext ctxt, final NodeVisitor<Node.Copier, Value, Node, BasicBlock> delegate) {
+        this(ctxt, delegate, null, null);
+    }
+
+    BoundsCheckEliminatingVisitor(final CompilationContext ctxt, final NodeVisitor<Node.Copier, Value, Node, BasicBlock> delegate, final InstanceFieldElement lengthField, final MethodElement raiseMethod) {
+        this.ctxt = ctxt;
+        this.delegate = delegate;
+        this.lengthField = lengthField;
+        this.raiseMethod = raiseMethod;
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    @Override
+    public BasicBlock visit(final Node.Copier param, final If node) {
+        BasicBlock copy = facts.removeCheck(param, node, this::isBoundsFailure, Relation::of, this::isImplied);
+        return copy != null ? copy : getDelegateTerminatorVisitor().visit(param, node);
+    }
+
+    private boolean isBoundsFailure(BasicBlock block) {
+        if (raiseMethod == null) {
+            raiseMethod = RuntimeMethodFinder.get(ctxt).getMethod("raiseArrayIndexOutOfBoundsException");
+        }
+        return DominatingFacts.isRaise(block, raiseMethod);
+    }
+
+    private boolean isImplied(Relation checked, BasicBlock block) {
+        if (checked.strict && getArrayOfLength(checked.upper) != null) {
+            // index < length
+            return hasLessThan(checked.lower, checked.upper, block);
+        } else if (checked.lower instanceof IntegerLiteral il && il.longValue() <= (checked.strict ? -1 : 0)) {
+            // index >= 0 (or a weaker lower bound)
+            return isNonNegative(checked.upper, block, new HashSet<>());
+        }
+        return false;
+    }
+
+    /**
+     * Determine whether a dominating branch established {@code lower < upper} on entry to the given block.
+     */
+    private boolean hasLessThan(Value lower, Value upper, BasicBlock block) {
+        return facts.holdsOnEntry(block, Relation::of, fact -> fact.strict && isSame(fact.lower, lower) && isSame(fact.upper, upper));
+    }
+
+    private boolean isNonNegative(Value original, BasicBlock block, Set<BlockParameter> assumed) {
+        Value value = DominatingFacts.resolve(original);
+        if (value instanceof IntegerLiteral il) {
+            return il.getType() instanceof SignedIntegerType && il.longValue() >= 0;
+        }
+        if (getArrayOfLength(value) != null) {
+            return true;
+        }
+        if (facts.holdsOnEntry(block, Relation::of, fact -> isSame(fact.upper, value) && fact.lower instanceof IntegerLiteral il && il.longValue() >= (fact.strict ? -1 : 0))) {
+            return true;
+        }
+        if (value instanceof BlockParameter bp && ! bp.getPinnedBlock().getIncoming().isEmpty()) {
+            if (! assumed.add(bp)) {
+                // induction hypothesis
+                return true;
+            }
+            BasicBlock pinnedBlock = bp.getPinnedBlock();
+            for (BasicBlock incoming : pinnedBlock.getIncoming()) {
+                if (! incoming.isReachable()) {
+                    continue;
+                }
+                Terminator t = incoming.getTerminator();
+                if (t.isImplicitOutboundArgument(bp.getSlot(), pinnedBlock)
+                    || ! isNonNegative(t.getOutboundArgument(bp.getSlot()), incoming, assumed)
+                    && ! isBoundedIncrement(t.getOutboundArgument(bp.getSlot()), incoming, assumed)) {
+                    // the hypothesis does not hold, so nothing may be derived from it
+                    assumed.remove(bp);
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Determine whether the value is {@code x + 1} for some non-negative {@code x} which is known to be less than some
+     * other value, so that the increment cannot overflow.
+     */
+    private boolean isBoundedIncrement(Value value, BasicBlock block, Set<BlockParameter> assumed) {
+        if (value instanceof Add add) {
+            Value base = isOne(add.getRightInput()) ? add.getLeftInput() : isOne(add.getLeftInput()) ? add.getRightInput() : null;
+            return base != null && isNonNegative(base, block, assumed) && facts.holdsOnEntry(block, Relation::of, fact -> fact.strict && isSame(fact.lower, base));
+        }
+        return false;
+    }
+
+    private static boolean isOne(Value value) {
+        return value instanceof IntegerLiteral il && il.longValue() == 1;
+    }
+
+    private boolean isSame(Value a, Value b) {
+        a = DominatingFacts.resolve(a);
+        b = DominatingFacts.resolve(b);
+        if (a == b || a instanceof IntegerLiteral la && b instanceof IntegerLiteral lb && la.equals(lb)) {
+            return true;
+        }
+        // array lengths are immutable, so any two loads of the length of the same array are equal
+        Value arrayA = getArrayOfLength(a);
+        return arrayA != null && arrayA == getArrayOfLength(b);
+    }
+
+    private Value getArrayOfLength(Value value) {
+        if (value instanceof Load load && load.getPointer() instanceof InstanceFieldOf ifo && ifo.getInstance() instanceof DecodeReference dr) {
+            if (lengthField == null) {
+                lengthField = CoreClasses.get(ctxt).getArrayLengthField();
+            }
+            if (ifo.getVariableElement() == lengthField) {
+                return DominatingFacts.resolve(dr.getInput());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A signed integer relation {@code lower < upper} (if strict) or {@code lower <= upper} (if not).
+     */
+    record Relation(Value lower, boolean strict, Value upper) {
+        static Relation of(Value condition, boolean holds) {
+            if (condition instanceof Comp comp) {
+                return of(comp.getInput(), ! holds);
+            }
+            if (condition instanceof IsLt c && isSigned(c.getLeftInput())) {
+                return holds ? new Relation(c.getLeftInput(), true, c.getRightInput()) : new Relation(c.getRightInput(), false, c.getLeftInput());
+            } else if (condition instanceof IsLe c && isSigned(c.getLeftInput())) {
+                return holds ? new Relation(c.getLeftInput(), false, c.getRightInput()) : new Relation(c.getRightInput(), true, c.getLeftInput());
+            } else if (condition instanceof IsGt c && isSigned(c.getLeftInput())) {
+                return holds ? new Relation(c.getRightInput(), true, c.getLeftInput()) : new Relation(c.getLeftInput(), false, c.getRightInput());
+            } else if (condition instanceof IsGe c && isSigned(c.getLeftInput())) {
+                return holds ? new Relation(c.getRightInput(), false, c.getLeftInput()) : new Relation(c.getLeftInput(), true, c.getRightInput());
+            }
+            return null;
+        }
+
+        private static boolean isSigned(Value value) {
+            return value.getType() instanceof SignedIntegerType;
+        }
+
+        @Override
+        public String toString() {
+            return lower + (strict ? " < " : " <= ") + upper;
+        }
+    }
+}
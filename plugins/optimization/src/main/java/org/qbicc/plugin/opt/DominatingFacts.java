@@ -0,0 +1,178 @@
+package org.qbicc.plugin.opt;
+
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+import org.jboss.logging.Logger;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BitCast;
+import org.qbicc.graph.BlockParameter;
+import org.qbicc.graph.CallNoReturn;
+import org.qbicc.graph.CheckCast;
+import org.qbicc.graph.If;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NotNull;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.ExecutableLiteral;
+import org.qbicc.graph.schedule.DominatorTree;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * The facts established by the branches which dominate a block of the graph being copied, which are shared by the
+ * copiers that remove redundant run time checks and loads.
+ * <p>
+ * A fact holds on entry to a block whose only predecessor ends in an {@code If}, and on entry to every block which is
+ * dominated by such a block.
+ */
+final class DominatingFacts {
+    private final Logger log;
+    private final String kind;
+    private DominatorTree dominatorTree;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param log the logger of removed checks
+     * @param kind the kind of check, for logging
+     */
+    DominatingFacts(final Logger log, final String kind) {
+        this.log = log;
+        this.kind = kind;
+    }
+
+    /**
+     * Get the dominator tree of the original graph, computing it on first use.
+     *
+     * @param param the copier
+     * @return the dominator tree
+     */
+    DominatorTree getDominatorTree(Node.Copier param) {
+        DominatorTree tree = dominatorTree;
+        if (tree == null) {
+            tree = dominatorTree = new DominatorTree(param.getEntryBlock());
+        }
+        return tree;
+    }
+
+    /**
+     * Copy a run time check, replacing it with a jump to its successful branch if the checked fact is implied.  A
+     * run time check is an {@code If} for which exactly one branch is a failure.
+     *
+     * @param param the copier
+     * @param node the branch to copy
+     * @param isFailure the predicate which determines whether a branch is a failure
+     * @param facts the function giving the fact which is checked
+     * @param isImplied the predicate which determines whether the checked fact holds on entry to the given block
+     * @param <F> the fact type
+     * @return the copied block, or {@code null} if the branch is not a removable check and must be copied as usual
+     */
+    <F> BasicBlock removeCheck(Node.Copier param, If node, Predicate<BasicBlock> isFailure, FactFunction<F> facts, BiPredicate<F, BasicBlock> isImplied) {
+        BasicBlock trueBranch = node.getTrueBranch();
+        BasicBlock falseBranch = node.getFalseBranch();
+        BasicBlock safe;
+        if (isFailure.test(trueBranch)) {
+            safe = falseBranch;
+        } else if (isFailure.test(falseBranch)) {
+            safe = trueBranch;
+        } else {
+            return null;
+        }
+        F checked = facts.of(node.getCondition(), safe == trueBranch);
+        if (checked == null) {
+            return null;
+        }
+        getDominatorTree(param);
+        if (! isImplied.test(checked, node.getTerminatedBlock())) {
+            return null;
+        }
+        log.debugf("Removed %s of %s in %s at bci %d", kind, checked, node.getElement(), Integer.valueOf(node.getBytecodeIndex()));
+        param.copyNode(node.getDependency());
+        return param.getBlockBuilder().goto_(param.copyBlock(safe), param.copyArguments(node));
+    }
+
+    /**
+     * Determine whether a fact which matches the given predicate holds on entry to the given block.  The dominator
+     * tree must already have been computed.
+     *
+     * @param block the block
+     * @param facts the function giving the fact established by a branch
+     * @param predicate the predicate to match
+     * @param <F> the fact type
+     * @return {@code true} if a matching fact holds, or {@code false} if none is known to hold
+     */
+    <F> boolean holdsOnEntry(BasicBlock block, FactFunction<F> facts, Predicate<? super F> predicate) {
+        for (BasicBlock current = block; current != null; current = dominatorTree.getImmediateDominator(current)) {
+            Set<BasicBlock> incoming = current.getIncoming();
+            if (incoming.size() == 1) {
+                BasicBlock pred = incoming.iterator().next();
+                if (pred.isReachable() && pred.getTerminator() instanceof If iff && iff.getTrueBranch() != iff.getFalseBranch()) {
+                    F fact = facts.of(iff.getCondition(), iff.getTrueBranch() == current);
+                    if (fact != null && predicate.test(fact)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determine whether the given block raises an exception by calling the given method.
+     *
+     * @param block the block
+     * @param raiseMethod the method which raises the exception
+     * @return {@code true} if the block calls the method without returning, or {@code false} otherwise
+     */
+    static boolean isRaise(BasicBlock block, MethodElement raiseMethod) {
+        return block.getTerminator() instanceof CallNoReturn cnr && cnr.getTarget() instanceof ExecutableLiteral el && el.getExecutable() == raiseMethod;
+    }
+
+    /**
+     * Get the underlying value, looking through non-{@code null} constraints, reference casts, and block parameters
+     * which always receive the same value.
+     *
+     * @param value the value
+     * @return the underlying value
+     */
+    static Value resolve(Value value) {
+        for (;;) {
+            if (value instanceof NotNull nn) {
+                value = nn.getInput();
+            } else if (value instanceof CheckCast cc) {
+                value = cc.getInput();
+            } else if (value instanceof BitCast bc && bc.getInput().getType() instanceof ReferenceType) {
+                value = bc.getInput();
+            } else if (value instanceof BlockParameter bp) {
+                Set<Value> possibleValues = bp.getPossibleValues();
+                if (possibleValues.size() != 1) {
+                    return value;
+                }
+                Value only = possibleValues.iterator().next();
+                if (only == bp) {
+                    return value;
+                }
+                value = only;
+            } else {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * A function giving the fact which holds when a branch condition has the given outcome.
+     *
+     * @param <F> the fact type
+     */
+    interface FactFunction<F> {
+        /**
+         * Get the fact.
+         *
+         * @param condition the branch condition
+         * @param holds {@code true} if the condition is true, or {@code false} if it is false
+         * @return the fact, or {@code null} if none is known
+         */
+        F of(Value condition, boolean holds);
+    }
+}
@@ -0,0 +1,182 @@
+package org.qbicc.plugin.opt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.logging.Logger;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.DecodeReference;
+import org.qbicc.graph.Goto;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.Unschedulable;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.graph.schedule.DominatorTree;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.definition.element.InstanceFieldElement;
+
+/**
+ * A copier which performs global value numbering and loop-invariant code motion on loads of immutable object header
+ * fields, such as array lengths and type IDs.
+ * <p>
+ * Pure values are already numbered by the block builder and placed outside of loops by the scheduler, but loads are
+ * ordered and stay where they were emitted.  Since these fields never change once an object is allocated, a load of
+ * one is replaced by an earlier load of the same field of the same object in a dominating block, and loads in a loop
+ * whose object is known to be non-{@code null} before the loop are emitted once at the end of the block that enters
+ * the loop.  Loads through a reference which was cast to a narrower type are not moved out of the loop, since the
+ * type test which guards the cast may be in the loop.
+ */
+public class ImmutableLoadOptimizingVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock> {
+    private static final Logger log = Logger.getLogger("org.qbicc.plugin.opt.gvn");
+
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock> delegate;
+    private final Set<InstanceFieldElement> immutableFields;
+    private final Map<Key, List<Available>> available = new HashMap<>();
+    private DominatorTree dominatorTree;
+
+    public ImmutableLoadOptimizingVisitor(final CompilationContext ctxt, final NodeVisitor<Node.Copier, Value, Node, BasicBlock> delegate) {
+        this(delegate, getImmutableFields(CoreClasses.get(ctxt)));
+    }
+
+    ImmutableLoadOptimizingVisitor(final NodeVisitor<Node.Copier, Value, Node, BasicBlock> delegate, final Set<InstanceFieldElement> immutableFields) {
+        this.delegate = delegate;
+        this.immutableFields = immutableFields;
+    }
+
+    private static Set<InstanceFieldElement> getImmutableFields(CoreClasses coreClasses) {
+        return Set.of(
+            coreClasses.getObjectTypeIdField(),
+            coreClasses.getArrayLengthField(),
+            coreClasses.getRefArrayElementTypeIdField(),
+            coreClasses.getRefArrayDimensionsField(),
+            coreClasses.getClassTypeIdField(),
+            coreClasses.getClassDimensionField()
+        );
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    @Override
+    public Value visit(final Node.Copier param, final Load node) {
+        Key key = getKey(node);
+        if (key == null) {
+            return getDelegateValueVisitor().visit(param, node);
+        }
+        BasicBlock block = node.getScheduledBlock();
+        Value existing = findAvailable(param, key, block);
+        if (existing != null) {
+            param.copyNode(node.getDependency());
+            log.debugf("Reused load of %s in %s at bci %d", key.field, node.getElement(), Integer.valueOf(node.getBytecodeIndex()));
+            return existing;
+        }
+        Value copy = getDelegateValueVisitor().visit(param, node);
+        available.computeIfAbsent(key, k -> new ArrayList<>()).add(new Available(block, copy));
+        return copy;
+    }
+
+    @Override
+    public BasicBlock visit(final Node.Copier param, final Goto node) {
+        BasicBlock block = node.getTerminatedBlock();
+        BasicBlock header = node.getResumeTarget();
+        DominatorTree tree = getDominatorTree(param);
+        Set<BasicBlock> loop = tree.getNaturalLoop(header);
+        if (! loop.isEmpty() && ! loop.contains(block) && tree.dominates(block, header)) {
+            // this block is the only way into the loop
+            param.copyNode(node.getDependency());
+            hoistLoads(param, block, loop);
+        }
+        return getDelegateTerminatorVisitor().visit(param, node);
+    }
+
+    private void hoistLoads(Node.Copier param, BasicBlock preheader, Set<BasicBlock> loop) {
+        for (BasicBlock loopBlock : loop) {
+            for (Node node : loopBlock.getInstructions()) {
+                if (node instanceof Load load) {
+                    Key key = getKey(load);
+                    if (key != null && isAvailableBefore(key.object, preheader) && ! isNarrowed(key.object) && findAvailable(param, key, preheader) == null) {
+                        // the object is non-null, exists before the loop and has the field, so the load may be executed speculatively
+                        Value copy = param.getBlockBuilder().load(param.copyValue(load.getPointer()), load.getAccessMode());
+                        available.computeIfAbsent(key, k -> new ArrayList<>()).add(new Available(preheader, copy));
+                        log.debugf("Hoisted load of %s out of loop in %s at bci %d", key.field, load.getElement(), Integer.valueOf(load.getBytecodeIndex()));
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isAvailableBefore(Value object, BasicBlock block) {
+        if (object.isNullable()) {
+            return false;
+        }
+        if (object instanceof Literal || object instanceof Unschedulable) {
+            return true;
+        }
+        BasicBlock scheduled = object.getScheduledBlock();
+        return scheduled != null && dominatorTree.dominates(scheduled, block);
+    }
+
+    /**
+     * Determine whether the object is only known to have the field because of a cast, which may depend on a type test
+     * within the loop.
+     */
+    private static boolean isNarrowed(Value object) {
+        Value resolved = DominatingFacts.resolve(object);
+        return ! (resolved.getType() instanceof ReferenceType declared && object.getType() instanceof ReferenceType cast && declared.instanceOf(cast.getUpperBound()));
+    }
+
+    private Value findAvailable(Node.Copier param, Key key, BasicBlock block) {
+        List<Available> list = available.get(key);
+        if (list != null) {
+            DominatorTree tree = getDominatorTree(param);
+            for (Available candidate : list) {
+                if (tree.dominates(candidate.block, block)) {
+                    return candidate.copy;
+                }
+            }
+        }
+        return null;
+    }
+
+    private DominatorTree getDominatorTree(Node.Copier param) {
+        DominatorTree tree = dominatorTree;
+        if (tree == null) {
+            tree = dominatorTree = new DominatorTree(param.getEntryBlock());
+        }
+        return tree;
+    }
+
+    private Key getKey(Load load) {
+        if (load.getPointer() instanceof InstanceFieldOf ifo && immutableFields.contains(ifo.getVariableElement()) && ifo.getInstance() instanceof DecodeReference dr) {
+            return new Key(dr.getInput(), DominatingFacts.resolve(dr.getInput()), ifo.getVariableElement());
+        }
+        return null;
+    }
+
+    /**
+     * The identity of an immutable load.  The object is the reference as it appears in the load, which is used to
+     * decide whether the load may be hoisted; only the resolved object and the field take part in equality.
+     */
+    record Key(Value object, Value resolved, InstanceFieldElement field) {
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key other && resolved == other.resolved && field == other.field;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(resolved) * 19 + field.hashCode();
+        }
+    }
+
+    record Available(BasicBlock block, Value copy) {}
+}
@@ -0,0 +1,37 @@
+package org.qbicc.plugin.opt;
+
+import org.jboss.logging.Logger;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.InitCheck;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.Value;
+
+/**
+ * A copier which removes run time initialization checks that were found to be redundant by the {@link InitCheckPlan}.
+ */
+public class InitCheckEliminatingVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock> {
+    private static final Logger log = Logger.getLogger("org.qbicc.plugin.opt.initcheck");
+
+    private final InitCheckPlan plan;
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock> delegate;
+
+    public InitCheckEliminatingVisitor(final CompilationContext ctxt, final NodeVisitor<Node.Copier, Value, Node, BasicBlock> delegate) {
+        this.plan = InitCheckPlan.get(ctxt);
+        this.delegate = delegate;
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    @Override
+    public Node visit(final Node.Copier param, final InitCheck node) {
+        if (plan != null && plan.isRedundant(node)) {
+            log.debugf("Removed initialization check of %s in %s at bci %d", node.getInitializerElement(), node.getElement(), Integer.valueOf(node.getBytecodeIndex()));
+            return param.copyNode(node.getDependency());
+        }
+        return getDelegateActionVisitor().visit(param, node);
+    }
+}
@@ -0,0 +1,355 @@
+package org.qbicc.plugin.opt;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.logging.Logger;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.context.PhaseAttachmentKey;
+import org.qbicc.facts.Facts;
+import org.qbicc.facts.core.ExecutableReachabilityFacts;
+import org.qbicc.graph.AbstractMethodLookup;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.Call;
+import org.qbicc.graph.InitCheck;
+import org.qbicc.graph.InvocationNode;
+import org.qbicc.graph.Invoke;
+import org.qbicc.graph.InvokeNoReturn;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.Return;
+import org.qbicc.graph.Slot;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.ArrayLiteral;
+import org.qbicc.graph.literal.ExecutableLiteral;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.plugin.reachability.ReachabilityRoots;
+import org.qbicc.type.definition.element.ConstructorElement;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.InitializerElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * A whole-program plan of redundant run time initialization checks, computed before each {@code ANALYZE} iteration
+ * from the method bodies of the previous one.
+ * <p>
+ * For every point of every method, the plan finds the initializers which have certainly been run (or are running on
+ * the current thread) because a check for them was executed on every path to that point.  Facts flow forward through
+ * each method body, out of callees whose every normal return is preceded by a check, and into methods whose every
+ * call site is a known direct call which is preceded by a check.  The last rule carries the checks performed by the
+ * program startup code into the user {@code main} method and everything it alone calls.  An initializer is always
+ * considered to be run within its own body, since checking it there returns immediately.
+ * <p>
+ * Methods which may be called in ways which are not visible in the previous method bodies (entry points, roots,
+ * dispatched methods, and methods whose address is taken) do not receive facts from their callers.
+ */
+public final class InitCheckPlan {
+    private static final Logger log = Logger.getLogger("org.qbicc.plugin.opt.initcheck");
+    private static final PhaseAttachmentKey<InitCheckPlan> KEY = new PhaseAttachmentKey<>();
+
+    private final Set<InitCheck> redundant;
+
+    private InitCheckPlan(Set<InitCheck> redundant) {
+        this.redundant = redundant;
+    }
+
+    /**
+     * Get the plan for the current phase, if one was computed.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the plan, or {@code null} if there is none
+     */
+    public static InitCheckPlan get(CompilationContext ctxt) {
+        return ctxt.getAttachment(KEY);
+    }
+
+    /**
+     * Determine whether the given check is redundant.
+     *
+     * @param check the original check (must not be {@code null})
+     * @return {@code true} if the initializer was certainly run before the check, or {@code false} otherwise
+     */
+    public boolean isRedundant(InitCheck check) {
+        return redundant.contains(check);
+    }
+
+    /**
+     * Compute the plan for the current phase.  This should be called as a pre-hook of the {@code ANALYZE} phase, before
+     * any method body is copied.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    public static void compute(CompilationContext ctxt) {
+        List<ExecutableElement> invoked = new ArrayList<>();
+        Facts.get(ctxt).visitPreviousFacts(ExecutableReachabilityFacts.IS_INVOKED, invoked::add);
+        Set<ExecutableElement> openCallers = new HashSet<>();
+        ctxt.getEntryPoints().forEach(openCallers::add);
+        openCallers.addAll(ReachabilityRoots.get(ctxt).getMethodRoots());
+        InitCheckPlan plan = compute(invoked, openCallers);
+        ctxt.putAttachment(KEY, plan);
+        log.debugf("Found %d redundant initialization checks in %d methods", Integer.valueOf(plan.redundant.size()), Integer.valueOf(invoked.size()));
+    }
+
+    /**
+     * Compute the plan for the given methods.
+     *
+     * @param invoked the invoked methods
+     * @param openCallers the methods which may have callers that are not among the invoked methods (modified)
+     * @return the plan
+     */
+    static InitCheckPlan compute(Collection<? extends ExecutableElement> invoked, Set<ExecutableElement> openCallers) {
+        Map<ExecutableElement, MethodInfo> methods = new HashMap<>();
+        for (ExecutableElement element : invoked) {
+            if (element.hasMethodBody()) {
+                methods.put(element, new MethodInfo(element));
+            }
+        }
+        Map<ExecutableElement, List<MethodInfo>> callers = new HashMap<>();
+        for (MethodInfo info : methods.values()) {
+            info.scan(openCallers);
+            for (ExecutableElement callee : info.callees) {
+                callers.computeIfAbsent(callee, k -> new ArrayList<>()).add(info);
+            }
+        }
+        for (MethodInfo info : methods.values()) {
+            ExecutableElement element = info.element;
+            if (openCallers.contains(element) || ! (element instanceof ConstructorElement || element instanceof MethodElement me && (me.isStatic() || me.isPrivate())) || ! callers.containsKey(element)) {
+                // there may be callers we cannot see
+                info.open = true;
+                info.entryFacts = Set.of();
+            }
+        }
+
+        // iterate to the greatest fixed point
+        ArrayDeque<MethodInfo> queue = new ArrayDeque<>(methods.values());
+        Set<MethodInfo> queued = new HashSet<>(methods.values());
+        MethodInfo info;
+        while ((info = queue.poll()) != null) {
+            queued.remove(info);
+            Set<InitializerElement> oldExit = info.exitFacts;
+            info.solve(methods, null);
+            if (! equal(oldExit, info.exitFacts)) {
+                for (MethodInfo caller : callers.getOrDefault(info.element, List.of())) {
+                    if (queued.add(caller)) {
+                        queue.add(caller);
+                    }
+                }
+            }
+            for (ExecutableElement callee : info.callees) {
+                MethodInfo calleeInfo = methods.get(callee);
+                if (calleeInfo == null || calleeInfo.open) {
+                    continue;
+                }
+                Set<InitializerElement> newEntry = null;
+                for (MethodInfo caller : callers.get(callee)) {
+                    // callers which were not solved yet have no site facts, which is the optimistic assumption
+                    newEntry = intersect(newEntry, caller.siteFacts.get(callee));
+                }
+                if (! equal(newEntry, calleeInfo.entryFacts)) {
+                    calleeInfo.entryFacts = newEntry;
+                    if (queued.add(calleeInfo)) {
+                        queue.add(calleeInfo);
+                    }
+                }
+            }
+        }
+
+        Set<InitCheck> redundant = new HashSet<>();
+        for (MethodInfo method : methods.values()) {
+            method.solve(methods, redundant);
+        }
+        return new InitCheckPlan(Set.copyOf(redundant));
+    }
+
+    // fact sets; null represents the set of all initializers
+
+    private static Set<InitializerElement> copy(Set<InitializerElement> set) {
+        return set == null ? null : new HashSet<>(set);
+    }
+
+    private static Set<InitializerElement> union(Set<InitializerElement> a, Set<InitializerElement> b) {
+        if (a == null || b == null) {
+            return null;
+        }
+        Set<InitializerElement> result = new HashSet<>(a);
+        result.addAll(b);
+        return result;
+    }
+
+    private static Set<InitializerElement> intersect(Set<InitializerElement> a, Set<InitializerElement> b) {
+        if (a == null) {
+            return copy(b);
+        } else if (b == null) {
+            return a;
+        }
+        a.retainAll(b);
+        return a;
+    }
+
+    private static boolean equal(Set<InitializerElement> a, Set<InitializerElement> b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    static final class MethodInfo {
+        final ExecutableElement element;
+        final List<BasicBlock> blocks = new ArrayList<>();
+        final Set<ExecutableElement> callees = new LinkedHashSet<>();
+        /**
+         * {@code true} if the method may have callers which are not known.
+         */
+        boolean open;
+        /**
+         * The facts on entry (for all callers).
+         */
+        Set<InitializerElement> entryFacts;
+        /**
+         * The facts on normal return.
+         */
+        Set<InitializerElement> exitFacts;
+        /**
+         * The facts at the call sites of each callee (the intersection, if there is more than one).
+         */
+        final Map<ExecutableElement, Set<InitializerElement>> siteFacts = new HashMap<>();
+
+        MethodInfo(ExecutableElement element) {
+            this.element = element;
+        }
+
+        void scan(Set<ExecutableElement> openCallers) {
+            BasicBlock entryBlock = element.getMethodBody().getEntryBlock();
+            Set<BasicBlock> visited = new HashSet<>();
+            ArrayDeque<BasicBlock> queue = new ArrayDeque<>();
+            queue.add(entryBlock);
+            visited.add(entryBlock);
+            BasicBlock block;
+            while ((block = queue.poll()) != null) {
+                blocks.add(block);
+                for (Node node : block.getInstructions()) {
+                    if (node instanceof InvocationNode inv) {
+                        if (inv.getTarget() instanceof ExecutableLiteral el) {
+                            callees.add(el.getExecutable());
+                        } else if (inv.getTarget() instanceof AbstractMethodLookup lookup) {
+                            openCallers.add(lookup.getMethod());
+                        }
+                        findAddressTaken(inv.getReceiver(), openCallers);
+                        for (Value argument : inv.getArguments()) {
+                            findAddressTaken(argument, openCallers);
+                        }
+                    } else {
+                        int cnt = node.getValueDependencyCount();
+                        for (int i = 0; i < cnt; i ++) {
+                            findAddressTaken(node.getValueDependency(i), openCallers);
+                        }
+                    }
+                    if (node instanceof Terminator t) {
+                        for (Slot slot : t.getOutboundArgumentNames()) {
+                            findAddressTaken(t.getOutboundArgument(slot), openCallers);
+                        }
+                    }
+                }
+                Terminator terminator = block.getTerminator();
+                int cnt = terminator.getSuccessorCount();
+                for (int i = 0; i < cnt; i ++) {
+                    BasicBlock successor = terminator.getSuccessor(i);
+                    if (visited.add(successor)) {
+                        queue.add(successor);
+                    }
+                }
+            }
+        }
+
+        private static void findAddressTaken(Value value, Set<ExecutableElement> openCallers) {
+            if (value instanceof ExecutableLiteral el) {
+                openCallers.add(el.getExecutable());
+            } else if (value instanceof ArrayLiteral al) {
+                for (Literal element : al.getValues()) {
+                    findAddressTaken(element, openCallers);
+                }
+            } else if (value instanceof Literal) {
+                // literals may contain the address of a method, for example as a member of a structure
+                int cnt = value.getValueDependencyCount();
+                for (int i = 0; i < cnt; i ++) {
+                    findAddressTaken(value.getValueDependency(i), openCallers);
+                }
+            }
+        }
+
+        /**
+         * Solve the facts of this method body, recording the exit facts and call site facts, and the redundant checks
+         * if a set is given.  Until they are solved, the facts of each block are optimistically assumed to be
+         * {@code null} (everything).
+         */
+        void solve(Map<ExecutableElement, MethodInfo> methods, Set<InitCheck> redundant) {
+            Set<InitializerElement> initial = copy(entryFacts);
+            if (element instanceof InitializerElement ie && initial != null) {
+                initial.add(ie);
+            }
+            Map<BasicBlock, Set<InitializerElement>> in = new HashMap<>();
+            Map<BasicBlock, Set<InitializerElement>> out = new HashMap<>();
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (BasicBlock block : blocks) {
+                    Set<InitializerElement> blockIn = block == blocks.get(0) ? copy(initial) : null;
+                    for (BasicBlock pred : block.getIncoming()) {
+                        if (! out.containsKey(pred)) {
+                            // not yet solved; optimistically assume everything
+                            continue;
+                        }
+                        Terminator t = pred.getTerminator();
+                        boolean exceptional = t instanceof Invoke inv && inv.getCatchBlock() == block
+                            || t instanceof InvokeNoReturn inr && inr.getCatchBlock() == block;
+                        // the checks in a block might be what threw the exception
+                        Set<InitializerElement> predFacts = exceptional ? in.get(pred) : out.get(pred);
+                        blockIn = intersect(blockIn, predFacts);
+                    }
+                    if (! in.containsKey(block) || ! equal(in.get(block), blockIn)) {
+                        in.put(block, blockIn);
+                        out.put(block, flow(block, blockIn, methods, false, null));
+                        changed = true;
+                    }
+                }
+            }
+            siteFacts.clear();
+            Set<InitializerElement> exit = null;
+            for (BasicBlock block : blocks) {
+                Set<InitializerElement> blockOut = flow(block, in.get(block), methods, true, redundant);
+                if (block.getTerminator() instanceof Return) {
+                    exit = intersect(exit, blockOut);
+                }
+            }
+            exitFacts = exit;
+        }
+
+        private Set<InitializerElement> flow(BasicBlock block, Set<InitializerElement> facts, Map<ExecutableElement, MethodInfo> methods, boolean record, Set<InitCheck> redundant) {
+            facts = copy(facts);
+            for (Node node : block.getInstructions()) {
+                if (node instanceof InitCheck check) {
+                    if (redundant != null && (facts == null || facts.contains(check.getInitializerElement()))) {
+                        redundant.add(check);
+                    }
+                    if (facts != null) {
+                        facts.add(check.getInitializerElement());
+                    }
+                } else if (node instanceof InvocationNode inv && inv.getTarget() instanceof ExecutableLiteral el) {
+                    ExecutableElement callee = el.getExecutable();
+                    if (record) {
+                        siteFacts.put(callee, intersect(siteFacts.get(callee), facts));
+                    }
+                    if (node instanceof Call) {
+                        MethodInfo calleeInfo = methods.get(callee);
+                        facts = union(facts, calleeInfo == null ? Set.of() : calleeInfo.exitFacts);
+                    }
+                }
+            }
+            return facts;
+        }
+    }
+}
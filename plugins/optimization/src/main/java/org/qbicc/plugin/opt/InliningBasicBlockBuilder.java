@@ -61,7 +61,8 @@ import org.qbicc.type.definition.classfile.ClassFile;
 import org.qbicc.type.definition.element.ExecutableElement;
 
 /**
- * The inliner.  Every method call is speculatively inlined unless it is specifically annotated otherwise.
+ * The inliner.  Every method call is speculatively inlined unless it is specifically annotated otherwise, or unless
+ * the {@link InliningPlan} for the current phase decides against it.
  */
 public class InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder {
     private final CompilationContext ctxt;
@@ -159,19 +160,23 @@ public class InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder {
     private ExecutableElement getInlinedElement(final Value target) {
         if (target instanceof ExecutableLiteral el) {
             ExecutableElement element = el.getExecutable();
-            if (element != null && element.hasNoModifiersOf(ClassFile.I_ACC_NEVER_INLINE)) {
+            if (element != null && element.hasNoModifiersOf(ClassFile.I_ACC_NEVER_INLINE) && getPlannedDecision(element) != InliningPlan.Decision.NEVER) {
                 return element;
             }
         }
         return null;
     }
 
+    private InliningPlan.Decision getPlannedDecision(ExecutableElement element) {
+        InliningPlan plan = InliningPlan.get(ctxt);
+        return plan == null ? null : plan.getDecision(getCurrentElement(), getBytecodeIndex(), element);
+    }
+
     private BasicBlock doInline(Value receiver, ExecutableElement element, List<Value> arguments, BlockLabel catchLabel, Function<Value, BasicBlock> onReturn, Map<Slot, Value> targetArguments) {
         MethodBody body = element.getPreviousMethodBody();
         if (body != null) {
             float savedCost = this.cost;
-            // todo: force alwaysInline to true if this is the only possible invocation of the method
-            boolean alwaysInline = element.hasAllModifiersOf(ClassFile.I_ACC_ALWAYS_INLINE);
+            boolean alwaysInline = element.hasAllModifiersOf(ClassFile.I_ACC_ALWAYS_INLINE) || getPlannedDecision(element) == InliningPlan.Decision.ALWAYS;
             BlockLabel inlined = new BlockLabel();
             try {
                 begin(inlined, bbb -> {
@@ -0,0 +1,332 @@
+package org.qbicc.plugin.opt;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.logging.Logger;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.context.PhaseAttachmentKey;
+import org.qbicc.graph.AbstractMethodLookup;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BlockEntry;
+import org.qbicc.graph.InvocationNode;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.ExecutableLiteral;
+import org.qbicc.plugin.reachability.ReachabilityRoots;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.ExecutableElement;
+
+/**
+ * A whole-program inlining plan, computed before each {@code ANALYZE} iteration from the method bodies of the
+ * previous one.
+ * <p>
+ * The plan walks the call graph from the entry points and reachability roots, and decides each direct call site
+ * bottom-up, so that the size of a callee includes the callees which will in turn be inlined into it.  Call sites in
+ * loops get a larger size limit, and a method with a single call site in the whole program is inlined whenever it is
+ * not too large, since doing so does not grow the program.  A method which is also the target of a dispatched call, or
+ * which is an entry point or reachability root, may be called from elsewhere, so it never counts as having a single
+ * call site.  Call sites which are not covered by the plan (for example
+ * because they were created by devirtualization during the current iteration) are left to the inliner's own cost
+ * heuristic.
+ * <p>
+ * Sizes are measured on the bodies built by the previous {@code ANALYZE} iteration, not on the callee as it will be
+ * after the local optimizations of the current one, so a callee which only becomes small in this iteration is inlined
+ * by the plan of the next iteration at the earliest.
+ * <p>
+ * Only the call sites of each method's own body are planned and counted.  A call site which was copied into another
+ * method by an earlier inlining keeps the element and bytecode index of the original site, so the inliner finds the
+ * decision of the original site for it.
+ * <p>
+ * Methods are decided in the order in which the walk from the (sorted) roots discovers them, so that the call site
+ * which is left out of a recursive cycle is the same from build to build.
+ * <p>
+ * The decisions of the last iteration are written to {@code inlining-report.txt} in the output directory.
+ */
+public final class InliningPlan {
+    private static final Logger log = Logger.getLogger("org.qbicc.plugin.opt.inlining");
+    private static final PhaseAttachmentKey<InliningPlan> KEY = new PhaseAttachmentKey<>();
+
+    /**
+     * The maximum size of a callee which is inlined outside of loops.
+     */
+    static final int BASE_LIMIT = 30;
+    /**
+     * The maximum number of loop levels for which the size limit is doubled.
+     */
+    static final int MAX_LOOP_BOOST = 2;
+    /**
+     * The maximum size of a callee which is inlined at the only call site of the program.
+     */
+    static final int SINGLE_CALLER_LIMIT = 200;
+
+    private final Map<CallSite, Decision> decisions;
+
+    private InliningPlan(Map<CallSite, Decision> decisions) {
+        this.decisions = decisions;
+    }
+
+    /**
+     * Get the plan for the current phase, if one was computed.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the plan, or {@code null} if there is none
+     */
+    public static InliningPlan get(CompilationContext ctxt) {
+        return ctxt.getAttachment(KEY);
+    }
+
+    /**
+     * Get the decision for a call site.
+     *
+     * @param caller the element containing the call (must not be {@code null})
+     * @param bci the bytecode index of the call
+     * @param callee the called element (must not be {@code null})
+     * @return the decision, or {@code null} if the call site is not covered by the plan
+     */
+    public Decision getDecision(ExecutableElement caller, int bci, ExecutableElement callee) {
+        return decisions.get(new CallSite(caller, bci, callee));
+    }
+
+    /**
+     * Compute the plan for the current phase.  This should be called as a pre-hook of the {@code ANALYZE} phase, before
+     * any method body is copied.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    public static void compute(CompilationContext ctxt) {
+        List<ExecutableElement> roots = new ArrayList<>();
+        ctxt.getEntryPoints().forEach(roots::add);
+        roots.addAll(ReachabilityRoots.get(ctxt).getMethodRoots());
+        // the roots are collected in sets
+        roots.sort(Comparator.comparing(ExecutableElement::toString));
+        List<String> report = new ArrayList<>();
+        ctxt.putAttachment(KEY, compute(roots, report));
+        writeReport(ctxt, report);
+    }
+
+    static InliningPlan compute(Collection<? extends ExecutableElement> roots, List<String> report) {
+        Map<ExecutableElement, MethodInfo> methods = new LinkedHashMap<>();
+        Map<ExecutableElement, Integer> callerCounts = new HashMap<>();
+        // callees which may be called by sites that are not counted
+        Set<ExecutableElement> uncountedCallers = new HashSet<>(roots);
+        ArrayDeque<ExecutableElement> queue = new ArrayDeque<>(roots);
+        ExecutableElement element;
+        while ((element = queue.poll()) != null) {
+            if (methods.containsKey(element) || ! element.hasMethodBody()) {
+                continue;
+            }
+            MethodInfo info = scan(element, element.getMethodBody().getEntryBlock());
+            methods.put(element, info);
+            for (Site site : info.sites) {
+                callerCounts.merge(site.callee, Integer.valueOf(1), Integer::sum);
+                queue.add(site.callee);
+            }
+            queue.addAll(info.otherCallees);
+            uncountedCallers.addAll(info.dispatchedCallees);
+        }
+
+        Map<CallSite, Decision> decisions = new HashMap<>();
+        decide(methods, callerCounts, uncountedCallers, decisions, report);
+        return new InliningPlan(Map.copyOf(decisions));
+    }
+
+    private static MethodInfo scan(ExecutableElement element, BasicBlock entryBlock) {
+        MethodInfo info = new MethodInfo();
+        Set<BasicBlock> visited = new HashSet<>();
+        ArrayDeque<BasicBlock> queue = new ArrayDeque<>();
+        queue.add(entryBlock);
+        visited.add(entryBlock);
+        BasicBlock block;
+        while ((block = queue.poll()) != null) {
+            for (Node node : block.getInstructions()) {
+                if (! (node instanceof BlockEntry)) {
+                    info.size ++;
+                }
+                if (node instanceof InvocationNode inv) {
+                    Value target = inv.getTarget();
+                    if (target instanceof ExecutableLiteral el) {
+                        if (node.getElement().equals(element)) {
+                            info.sites.add(new Site(node.getBytecodeIndex(), el.getExecutable(), block.getLoops().size()));
+                        } else {
+                            // copied from an inlined body; planned with the body it came from
+                            info.otherCallees.add(el.getExecutable());
+                        }
+                    } else if (target instanceof AbstractMethodLookup lookup) {
+                        info.otherCallees.add(lookup.getMethod());
+                        info.dispatchedCallees.add(lookup.getMethod());
+                    }
+                }
+            }
+            Terminator terminator = block.getTerminator();
+            int cnt = terminator.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                BasicBlock successor = terminator.getSuccessor(i);
+                if (visited.add(successor)) {
+                    queue.add(successor);
+                }
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Decide the call sites of every method, deciding those of each callee before those of its callers, so that the
+     * size of a callee includes the call sites which will in turn be inlined into it.  Call chains may be deep, so
+     * the methods being decided are kept on an explicit stack.
+     */
+    private static void decide(Map<ExecutableElement, MethodInfo> methods, Map<ExecutableElement, Integer> callerCounts, Set<ExecutableElement> uncountedCallers, Map<CallSite, Decision> decisions, List<String> report) {
+        Map<ExecutableElement, Integer> effectiveSizes = new HashMap<>();
+        Set<ExecutableElement> inProgress = new HashSet<>();
+        ArrayDeque<Pending> stack = new ArrayDeque<>();
+        for (Map.Entry<ExecutableElement, MethodInfo> entry : methods.entrySet()) {
+            if (effectiveSizes.containsKey(entry.getKey())) {
+                continue;
+            }
+            stack.push(new Pending(entry.getKey(), entry.getValue()));
+            inProgress.add(entry.getKey());
+            Pending pending;
+            while ((pending = stack.peek()) != null) {
+                if (pending.next == pending.info.sites.size()) {
+                    stack.pop();
+                    inProgress.remove(pending.element);
+                    effectiveSizes.put(pending.element, Integer.valueOf(pending.size));
+                    continue;
+                }
+                Site site = pending.info.sites.get(pending.next);
+                ExecutableElement callee = site.callee;
+                MethodInfo calleeInfo = methods.get(callee);
+                Integer knownSize = effectiveSizes.get(callee);
+                if (knownSize == null && calleeInfo != null && ! inProgress.contains(callee) && callee.hasNoModifiersOf(ClassFile.I_ACC_NEVER_INLINE)) {
+                    // decide the callee first, then come back to this site
+                    stack.push(new Pending(callee, calleeInfo));
+                    inProgress.add(callee);
+                    continue;
+                }
+                pending.next ++;
+                Decision decision;
+                String reason;
+                int calleeSize = -1;
+                int callers = callerCounts.getOrDefault(callee, Integer.valueOf(0)).intValue();
+                if (callee.hasAllModifiersOf(ClassFile.I_ACC_NEVER_INLINE)) {
+                    decision = Decision.NEVER;
+                    reason = "never-inline";
+                } else if (calleeInfo == null) {
+                    decision = Decision.NEVER;
+                    reason = "no body";
+                } else if (inProgress.contains(callee)) {
+                    decision = Decision.NEVER;
+                    reason = "recursive";
+                } else {
+                    calleeSize = knownSize.intValue();
+                    if (callee.hasAllModifiersOf(ClassFile.I_ACC_ALWAYS_INLINE)) {
+                        decision = Decision.ALWAYS;
+                        reason = "always-inline";
+                    } else if (callers == 1 && ! uncountedCallers.contains(callee) && calleeSize <= SINGLE_CALLER_LIMIT) {
+                        decision = Decision.ALWAYS;
+                        reason = "single caller";
+                    } else if (calleeSize <= BASE_LIMIT << Math.min(site.loopDepth, MAX_LOOP_BOOST)) {
+                        decision = Decision.INLINE;
+                        reason = "small";
+                    } else {
+                        decision = Decision.NEVER;
+                        reason = "too large";
+                    }
+                }
+                if (decision != Decision.NEVER) {
+                    // the call itself is replaced by the callee body
+                    pending.size = saturatedAdd(pending.size, calleeSize - 1);
+                }
+                decisions.put(new CallSite(pending.element, site.bci, callee), decision);
+                report.add(String.format("%s @%d -> %s: %s (%s; size %d, loop depth %d, call sites %d)", pending.element, Integer.valueOf(site.bci), callee, decision, reason, Integer.valueOf(calleeSize), Integer.valueOf(site.loopDepth), Integer.valueOf(callers)));
+            }
+        }
+    }
+
+    private static int saturatedAdd(int a, int b) {
+        long sum = (long) a + b;
+        return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) sum;
+    }
+
+    private static void writeReport(CompilationContext ctxt, List<String> report) {
+        report.sort(null);
+        Path path = ctxt.getOutputDirectory().resolve("inlining-report.txt");
+        try {
+            Files.createDirectories(path.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                for (String line : report) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+        } catch (IOException e) {
+            ctxt.warning("Failed to write inlining report to %s: %s", path, e);
+        }
+        log.debugf("Planned inlining of %d call sites", Long.valueOf(report.size()));
+    }
+
+    /**
+     * An inlining decision for a call site.
+     */
+    public enum Decision {
+        /**
+         * Inline the call site regardless of the inliner's cost budget.
+         */
+        ALWAYS,
+        /**
+         * Inline the call site if it fits in the inliner's cost budget.
+         */
+        INLINE,
+        /**
+         * Do not inline the call site.
+         */
+        NEVER,
+    }
+
+    record CallSite(ExecutableElement caller, int bci, ExecutableElement callee) {}
+
+    record Site(int bci, ExecutableElement callee, int loopDepth) {}
+
+    static final class MethodInfo {
+        int size;
+        final List<Site> sites = new ArrayList<>();
+        /**
+         * The callees which are reached by call sites that are not planned.
+         */
+        final List<ExecutableElement> otherCallees = new ArrayList<>();
+        /**
+         * The methods which are the target of a dispatched call.
+         */
+        final List<ExecutableElement> dispatchedCallees = new ArrayList<>();
+    }
+
+    /**
+     * A method whose call sites are being decided.
+     */
+    static final class Pending {
+        final ExecutableElement element;
+        final MethodInfo info;
+        int next;
+        int size;
+
+        Pending(ExecutableElement element, MethodInfo info) {
+            this.element = element;
+            this.info = info;
+            this.size = info.size;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.qbicc.plugin.opt;
+
+import org.jboss.logging.Logger;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.AbstractBooleanCompare;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BlockParameter;
+import org.qbicc.graph.Comp;
+import org.qbicc.graph.If;
+import org.qbicc.graph.InstanceOf;
+import org.qbicc.graph.IsEq;
+import org.qbicc.graph.IsNe;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.NullLiteral;
+import org.qbicc.plugin.coreclasses.RuntimeMethodFinder;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * A copier which removes null checks whose value is already known to be non-{@code null}.
+ * <p>
+ * A value is known to be non-{@code null} if it is not nullable (for example because it was produced by an
+ * allocation, or all of the values flowing into a block parameter are non-{@code null}), or if a dominating branch
+ * established it, such as an earlier null check or {@code instanceof} test of the same value.  Casts and block
+ * parameters which always receive the same value are looked through, so a check of a local variable is also removed
+ * when the same variable was checked before on every path.
+ */
+public class NullCheckEliminatingVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock> {
+    private static final Logger log = Logger.getLogger("org.qbicc.plugin.opt.nullcheck");
+
+    private final CompilationContext ctxt;
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock> delegate;
+    private final DominatingFacts facts = new DominatingFacts(log, "null check");
+    private MethodElement raiseMethod;
+
+    public NullCheckEliminatingVisitor(final CompilationContext ctxt, final NodeVisitor<Node.Copier, Value, Node, BasicBlock> delegate) {
+        this(ctxt, delegate, null);
+    }
+
+    NullCheckEliminatingVisitor(final CompilationContext ctxt, final NodeVisitor<Node.Copier, Value, Node, BasicBlock> delegate, final MethodElement raiseMethod) {
+        this.ctxt = ctxt;
+        this.delegate = delegate;
+        this.raiseMethod = raiseMethod;
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    @Override
+    public BasicBlock visit(final Node.Copier param, final If node) {
+        BasicBlock copy = facts.removeCheck(param, node, this::isNullFailure, NullCheckEliminatingVisitor::getNonNullValue, this::isNonNull);
+        return copy != null ? copy : getDelegateTerminatorVisitor().visit(param, node);
+    }
+
+    private boolean isNullFailure(BasicBlock block) {
+        if (raiseMethod == null) {
+            raiseMethod = RuntimeMethodFinder.get(ctxt).getMethod("raiseNullPointerException");
+        }
+        return DominatingFacts.isRaise(block, raiseMethod);
+    }
+
+    private boolean isNonNull(Value checked, BasicBlock block) {
+        if (! checked.isNullable()) {
+            return true;
+        }
+        Value value = DominatingFacts.resolve(checked);
+        if (! value.isNullable() || value instanceof BlockParameter bp && ! bp.possibleValuesAreNullable()) {
+            return true;
+        }
+        return facts.holdsOnEntry(block, NullCheckEliminatingVisitor::getNonNullValue, fact -> DominatingFacts.resolve(fact) == value);
+    }
+
+    /**
+     * Get the value which is known to be non-{@code null} when the given condition has the given outcome.
+     */
+    private static Value getNonNullValue(Value condition, boolean holds) {
+        if (condition instanceof Comp comp) {
+            return getNonNullValue(comp.getInput(), ! holds);
+        }
+        if ((condition instanceof IsEq && ! holds || condition instanceof IsNe && holds) && condition instanceof AbstractBooleanCompare cmp) {
+            Value left = cmp.getLeftInput();
+            Value right = cmp.getRightInput();
+            if (right instanceof NullLiteral) {
+                return left;
+            } else if (left instanceof NullLiteral) {
+                return right;
+            }
+        } else if (condition instanceof InstanceOf io && holds) {
+            return io.getInstance();
+        }
+        return null;
+    }
+}
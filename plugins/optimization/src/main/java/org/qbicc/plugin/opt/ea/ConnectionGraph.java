@@ -15,6 +15,8 @@ import org.qbicc.graph.BlockParameter;
 import org.qbicc.graph.Call;
 import org.qbicc.graph.InstanceFieldOf;
 import org.qbicc.graph.New;
+import org.qbicc.graph.NewArray;
+import org.qbicc.graph.NewReferenceArray;
 import org.qbicc.graph.Node;
 import org.qbicc.graph.Value;
 import org.qbicc.type.definition.element.ExecutableElement;
@@ -50,10 +52,11 @@ final class ConnectionGraph {
     private final Map<Node, Value> pointsToEdges = new HashMap<>(); // solid (P) edges
 
     /**
-     * Track fields associated with incoming parameter values.
-     * This is necessary to propagate escape value information from fields within a method to the caller.
+     * Track fields associated with incoming parameter values and with objects allocated within the method.
+     * This is necessary to propagate escape value information from fields within a method to the caller,
+     * and from an allocated object to the objects stored into its fields.
      */
-    private final Map<BlockParameter, Collection<InstanceFieldOf>> fieldEdges = new HashMap<>(); // solid (F) edges
+    private final Map<Value, Collection<InstanceFieldOf>> fieldEdges = new HashMap<>(); // solid (F) edges
 
     /**
      * Tracks escape value of graph nodes.
@@ -80,15 +83,20 @@ final class ConnectionGraph {
             '}';
     }
 
-    void addPointsToEdge(Node from, Value to) {
-        addPointsToEdgeIfAbsent(from, to);
+    /**
+     * Adds a points-to edge, unless the node already points to another one.
+     *
+     * @return {@code true} if the edge was added, or {@code false} if the node already had one
+     */
+    boolean addPointsToEdge(Node from, Value to) {
+        return addPointsToEdgeIfAbsent(from, to) || pointsToEdges.get(from) == to;
     }
 
     Value getPointsToEdge(Node from) {
         return pointsToEdges.get(from);
     }
 
-    void addFieldEdge(BlockParameter node, InstanceFieldOf instanceField) {
+    void addFieldEdge(Value node, InstanceFieldOf instanceField) {
         addFieldEdgeIfAbsent(node, instanceField);
     }
 
@@ -97,8 +105,8 @@ final class ConnectionGraph {
      * If the node is not found, an empty collection is returned.
      */
     Collection<InstanceFieldOf> getFieldEdges(Node node) {
-        if (node instanceof BlockParameter pv && pv.isEntryParameter()) {
-            final Collection<InstanceFieldOf> found = this.fieldEdges.get(pv);
+        if (node instanceof BlockParameter pv && pv.isEntryParameter() || isAllocation(node)) {
+            final Collection<InstanceFieldOf> found = this.fieldEdges.get(node);
             return found == null ? Collections.emptyList() : found;
         }
 
@@ -117,10 +125,17 @@ final class ConnectionGraph {
         setEscapeValue(node, EscapeValue.GLOBAL_ESCAPE);
     }
 
-    void setNewEscapeValue(New new_, EscapeValue escapeValue) {
+    void setNewEscapeValue(Value new_, EscapeValue escapeValue) {
         setEscapeValue(new_, escapeValue);
     }
 
+    /**
+     * Returns whether the given node allocates a new object or array, whose escape value is tracked.
+     */
+    static boolean isAllocation(Node node) {
+        return node instanceof New || node instanceof NewArray || node instanceof NewReferenceArray;
+    }
+
     boolean addParameter(BlockParameter param) {
         return parameters.addIfAbsent(param);
     }
@@ -276,7 +291,7 @@ final class ConnectionGraph {
         final List<Value> possibleNewValues = this.escapeValues.entrySet().stream()
             .filter(entry -> entry.getKey() instanceof BlockParameter && entry.getValue().isArgEscape())
             .flatMap(entry -> ((BlockParameter) entry.getKey()).getPossibleValues().stream())
-            .filter(value -> value instanceof New && getEscapeValue(value).isMoreThanArgEscape())
+            .filter(value -> isAllocation(value) && getEscapeValue(value).isMoreThanArgEscape())
             .toList();
 
         // Separate computing from filtering since it modifies the collection itself
@@ -284,7 +299,7 @@ final class ConnectionGraph {
     }
 
     /**
-     * Validate the escape state value of New nodes in the connection graph.
+     * Validate the escape state value of New nodes (including array allocations) in the connection graph.
      * If New nodes exist that are not amongst the supported ones,
      * their escape state value must be pessimistically set to global escape.
      *
@@ -295,10 +310,10 @@ final class ConnectionGraph {
      *
      * This method assumes that only no escape, or argument escape, verified New nodes are passed in.
      */
-    void validateNewNodes(List<New> supported) {
+    void validateNewNodes(List<Value> supported) {
         final List<Node> unsupportedNewNodes = this.escapeValues.entrySet().stream()
             // Find all non-global escape nodes in the connection graph
-            .filter(e -> e.getKey() instanceof New && e.getValue().notGlobalEscape())
+            .filter(e -> isAllocation(e.getKey()) && e.getValue().notGlobalEscape())
             // Find those that are not verified
             .filter(e -> !supported.contains(e.getKey()))
             .map(Map.Entry::getKey)
@@ -314,7 +329,7 @@ final class ConnectionGraph {
         return result;
     }
 
-    private boolean addFieldEdgeIfAbsent(BlockParameter from, InstanceFieldOf to) {
+    private boolean addFieldEdgeIfAbsent(Value from, InstanceFieldOf to) {
         return fieldEdges
             .computeIfAbsent(from, obj -> new ArrayList<>())
             .add(to);
@@ -19,6 +19,7 @@ import org.qbicc.graph.BlockParameter;
 import org.qbicc.graph.Call;
 import org.qbicc.graph.CheckCast;
 import org.qbicc.graph.DecodeReference;
+import org.qbicc.graph.ElementOf;
 import org.qbicc.graph.Extend;
 import org.qbicc.graph.Goto;
 import org.qbicc.graph.If;
@@ -31,7 +32,11 @@ import org.qbicc.graph.IsLe;
 import org.qbicc.graph.IsLt;
 import org.qbicc.graph.IsNe;
 import org.qbicc.graph.Load;
+import org.qbicc.graph.MonitorEnter;
+import org.qbicc.graph.MonitorExit;
 import org.qbicc.graph.New;
+import org.qbicc.graph.NewArray;
+import org.qbicc.graph.NewReferenceArray;
 import org.qbicc.graph.Node;
 import org.qbicc.graph.NodeVisitor;
 import org.qbicc.graph.NotNull;
@@ -45,6 +50,7 @@ import org.qbicc.graph.Throw;
 import org.qbicc.graph.Truncate;
 import org.qbicc.graph.Value;
 import org.qbicc.graph.Return;
+import org.qbicc.graph.literal.IntegerLiteral;
 import org.qbicc.graph.literal.Literal;
 import org.qbicc.graph.literal.StaticFieldLiteral;
 import org.qbicc.type.BooleanType;
@@ -58,6 +64,11 @@ import org.qbicc.type.definition.element.ElementVisitor;
 import org.qbicc.type.definition.element.ExecutableElement;
 
 public class EscapeAnalysisIntraMethodAnalysis implements ElementVisitor<CompilationContext, Void> {
+    /**
+     * The maximum constant length of an array allocation which is considered for stack allocation.
+     * Longer arrays, or arrays of variable length, are treated as escaping globally.
+     */
+    static final int MAX_ARRAY_LENGTH = 64;
 
     public Void visitUnknown(CompilationContext param, BasicElement basicElement) {
         if (basicElement instanceof ExecutableElement element) {
@@ -95,15 +106,33 @@ public class EscapeAnalysisIntraMethodAnalysis implements ElementVisitor<Compila
             return null;
         }
 
+        @Override
+        public Void visit(AnalysisContext param, NewArray node) {
+            if (visitKnown(param, node)) {
+                param.connectionGraph.setNewEscapeValue(node, arrayEscapeValue(node.getSize()));
+            }
+
+            return null;
+        }
+
+        @Override
+        public Void visit(AnalysisContext param, NewReferenceArray node) {
+            if (visitKnown(param, node)) {
+                param.connectionGraph.setNewEscapeValue(node, arrayEscapeValue(node.getSize()));
+            }
+
+            return null;
+        }
+
         @Override
         public Void visit(AnalysisContext param, Store node) {
             if (visitKnown(param, node)) {
                 final Value pointer = node.getPointer();
                 final Value value = node.getValue();
 
-                if (pointer instanceof InstanceFieldOf fieldOf && fieldOf.getInstance() instanceof DecodeReference dr) {
+                if (pointer instanceof InstanceFieldOf fieldOf && fieldOf.getInstance() instanceof DecodeReference dr && ConnectionGraph.isAllocation(value)) {
                     Value ref = dr.getInput();
-                    if (value instanceof New && ref instanceof BlockParameter bp && bp.isEntryParameter()) {
+                    if (ref instanceof BlockParameter bp && bp.isEntryParameter()) {
                         if (bp.getSlot() == Slot.this_()) {
                             // this.f = new T();
                             param.connectionGraph.setArgEscape(value);
@@ -111,10 +140,20 @@ public class EscapeAnalysisIntraMethodAnalysis implements ElementVisitor<Compila
                             // p.f = new T();
                             // Object that `p` points to was created outside this method (e.g. `p` is a formal parameter)
                             // Set link from object in caller's context, via field, to the new value.
-                            param.connectionGraph.addFieldEdge(bp, fieldOf);
-                            param.connectionGraph.addPointsToEdge(fieldOf, value);
+                            addFieldEdge(param, bp, fieldOf, value);
                         }
+                    } else if (ref instanceof New && !(value instanceof NewArray || value instanceof NewReferenceArray)) {
+                        // o.f = new T(); where `o` is allocated in this method
+                        // The new value escapes as far as `o` does, which is only known at method exit.
+                        addFieldEdge(param, ref, fieldOf, value);
+                    } else {
+                        // o.f = new T(); where `o` might be reachable from anywhere, e.g. it was loaded from a static field
+                        // Arrays stored into other objects are not tracked either.
+                        param.connectionGraph.setGlobalEscape(value);
                     }
+                } else if (pointer instanceof ElementOf && ConnectionGraph.isAllocation(value)) {
+                    // a[i] = new T(); the array might be reachable from anywhere
+                    param.connectionGraph.setGlobalEscape(value);
                 } else if (pointer instanceof StaticFieldLiteral) {
                     param.connectionGraph.setGlobalEscape(pointer);
                     if (value instanceof NotNull nn) {
@@ -128,6 +167,14 @@ public class EscapeAnalysisIntraMethodAnalysis implements ElementVisitor<Compila
             return null;
         }
 
+        private void addFieldEdge(AnalysisContext param, Value object, InstanceFieldOf fieldOf, Value value) {
+            param.connectionGraph.addFieldEdge(object, fieldOf);
+            if (!param.connectionGraph.addPointsToEdge(fieldOf, value)) {
+                // the field already points to another object, and each node only points to one
+                param.connectionGraph.setGlobalEscape(value);
+            }
+        }
+
         @Override
         public Void visit(AnalysisContext param, Call node) {
             if (visitKnown(param, node)) {
@@ -141,7 +188,7 @@ public class EscapeAnalysisIntraMethodAnalysis implements ElementVisitor<Compila
         public Void visit(AnalysisContext param, Return node) {
             if (visitKnown(param, node)) {
                 final Value value = node.getReturnValue();
-                if (value instanceof New || value instanceof BlockParameter) {
+                if (ConnectionGraph.isAllocation(value) || value instanceof BlockParameter) {
                     param.connectionGraph.setArgEscape(value);
                 } else if (value instanceof Call call && !isPrimitive(call.getType())) {
                     for (Value argument : call.getArguments()) {
@@ -206,6 +253,19 @@ public class EscapeAnalysisIntraMethodAnalysis implements ElementVisitor<Compila
             return null;
         }
 
+        @Override
+        public Void visit(AnalysisContext param, MonitorEnter node) {
+            // locking an object does not let it escape
+            visitKnown(param, node);
+            return null;
+        }
+
+        @Override
+        public Void visit(AnalysisContext param, MonitorExit node) {
+            visitKnown(param, node);
+            return null;
+        }
+
         @Override
         public Void visit(AnalysisContext param, Load node) {
             visitKnown(param, node);
@@ -248,12 +308,25 @@ public class EscapeAnalysisIntraMethodAnalysis implements ElementVisitor<Compila
             return null;
         }
 
+        @Override
+        public Void visit(AnalysisContext param, DecodeReference node) {
+            // fields are accessed through the decoded reference; stores of the reference itself are handled by Store
+            visitKnown(param, node);
+            return null;
+        }
+
         @Override
         public Void visit(AnalysisContext param, InstanceFieldOf node) {
             visitKnown(param, node);
             return null;
         }
 
+        @Override
+        public Void visit(AnalysisContext param, ElementOf node) {
+            visitKnown(param, node);
+            return null;
+        }
+
         @Override
         public Void visit(AnalysisContext param, Truncate node) {
             visitKnown(param, node);
@@ -314,6 +387,14 @@ public class EscapeAnalysisIntraMethodAnalysis implements ElementVisitor<Compila
             return EscapeValue.NO_ESCAPE;
         }
 
+        private EscapeValue arrayEscapeValue(Value size) {
+            if (size instanceof IntegerLiteral il && il.longValue() >= 0 && il.longValue() <= MAX_ARRAY_LENGTH) {
+                return EscapeValue.NO_ESCAPE;
+            }
+
+            return EscapeValue.GLOBAL_ESCAPE;
+        }
+
         @Override
         public Void visitUnknown(AnalysisContext param, Action node) {
             visitUnknown(param, (Node) node);
@@ -455,10 +536,10 @@ public class EscapeAnalysisIntraMethodAnalysis implements ElementVisitor<Compila
             // Incoming values for phi nodes can only be calculated upon finish.
             connectionGraph.resolveReturnedPhiValues();
 
-            final List<New> notGlobalEscapeNewNodes = this.supported.entrySet().stream()
-                .filter(e -> e.getKey() instanceof New && e.getValue())
+            final List<Value> notGlobalEscapeNewNodes = this.supported.entrySet().stream()
+                .filter(e -> ConnectionGraph.isAllocation(e.getKey()) && e.getValue())
                 .filter(e -> connectionGraph.getEscapeValue(e.getKey()).notGlobalEscape())
-                .map(e -> (New) e.getKey())
+                .map(e -> (Value) e.getKey())
                 .toList();
 
             connectionGraph.validateNewNodes(notGlobalEscapeNewNodes);
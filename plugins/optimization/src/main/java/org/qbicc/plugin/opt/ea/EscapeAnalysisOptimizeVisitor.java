@@ -1,6 +1,11 @@
 package org.qbicc.plugin.opt.ea;
 
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.qbicc.context.ClassContext;
 import org.qbicc.context.CompilationContext;
@@ -8,17 +13,31 @@ import org.qbicc.graph.BasicBlock;
 import org.qbicc.graph.BasicBlockBuilder;
 import org.qbicc.graph.BlockEntry;
 import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.DecodeReference;
+import org.qbicc.graph.ElementOf;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.MonitorEnter;
+import org.qbicc.graph.MonitorExit;
 import org.qbicc.graph.New;
+import org.qbicc.graph.NewArray;
+import org.qbicc.graph.NewReferenceArray;
 import org.qbicc.graph.Node;
 import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.NotNull;
 import org.qbicc.graph.OrderedNode;
+import org.qbicc.graph.Slot;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.Terminator;
 import org.qbicc.graph.Value;
 import org.qbicc.graph.literal.IntegerLiteral;
 import org.qbicc.graph.literal.LiteralFactory;
 import org.qbicc.plugin.coreclasses.BasicHeaderInitializer;
+import org.qbicc.plugin.coreclasses.CoreClasses;
 import org.qbicc.plugin.layout.Layout;
 import org.qbicc.plugin.layout.LayoutInfo;
 import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.ReferenceType;
 import org.qbicc.type.StructType;
 import org.qbicc.type.definition.DefinedTypeDefinition;
 import org.qbicc.type.definition.LoadedTypeDefinition;
@@ -28,24 +47,46 @@ public final class EscapeAnalysisOptimizeVisitor implements NodeVisitor.Delegati
     private final CompilationContext ctxt;
     private final NodeVisitor<Node.Copier, Value, Node, BasicBlock> delegate;
     private final EscapeAnalysisState escapeAnalysisState;
-    private final MethodElement zeroMethod;
+    private final Set<MonitorEnter> coarsenedEnters = new HashSet<>();
+    private final Map<Value, Map<Object, Value>> scalarReplaced = new HashMap<>();
+    private Set<Value> scalarCandidates;
+    private CoreClasses coreClasses;
+    private MethodElement zeroMethod;
 
     public EscapeAnalysisOptimizeVisitor(final CompilationContext ctxt, final NodeVisitor<Node.Copier, Value, Node, BasicBlock> delegate) {
+        this(ctxt, delegate, EscapeAnalysisState.getPrevious(ctxt));
+    }
+
+    EscapeAnalysisOptimizeVisitor(final CompilationContext ctxt, final NodeVisitor<Node.Copier, Value, Node, BasicBlock> delegate, final EscapeAnalysisState escapeAnalysisState) {
         this.ctxt = ctxt;
         this.delegate = delegate;
-        this.escapeAnalysisState = EscapeAnalysisState.getPrevious(ctxt);
+        this.escapeAnalysisState = escapeAnalysisState;
+    }
 
-        ClassContext classContext = ctxt.getBootstrapClassContext();
-        DefinedTypeDefinition defined = classContext.findDefinedType("org/qbicc/runtime/gc/nogc/NoGcHelpers");
-        if (defined == null) {
-            throw runtimeMissing();
+    private CoreClasses getCoreClasses() {
+        CoreClasses coreClasses = this.coreClasses;
+        if (coreClasses == null) {
+            coreClasses = this.coreClasses = CoreClasses.get(ctxt);
         }
-        LoadedTypeDefinition loaded = defined.load();
-        int index = loaded.findMethodIndex(e -> e.getName().equals("clear"));
-        if (index == -1) {
-            throw methodMissing();
+        return coreClasses;
+    }
+
+    private MethodElement getZeroMethod() {
+        MethodElement zeroMethod = this.zeroMethod;
+        if (zeroMethod == null) {
+            ClassContext classContext = ctxt.getBootstrapClassContext();
+            DefinedTypeDefinition defined = classContext.findDefinedType("org/qbicc/runtime/gc/nogc/NoGcHelpers");
+            if (defined == null) {
+                throw runtimeMissing();
+            }
+            LoadedTypeDefinition loaded = defined.load();
+            int index = loaded.findMethodIndex(e -> e.getName().equals("clear"));
+            if (index == -1) {
+                throw methodMissing();
+            }
+            zeroMethod = this.zeroMethod = loaded.getMethod(index);
         }
-        zeroMethod = loaded.getMethod(index);
+        return zeroMethod;
     }
 
     private static IllegalStateException runtimeMissing() {
@@ -63,6 +104,11 @@ public final class EscapeAnalysisOptimizeVisitor implements NodeVisitor.Delegati
     @Override
     public Value visit(Node.Copier param, New original) {
         final BasicBlockBuilder bbb = param.getBlockBuilder();
+        if (isScalarReplace(original, param)) {
+            // The allocation disappears entirely; its fields are tracked as values while the block is copied
+            scalarReplace(param, original);
+            return ctxt.getLiteralFactory().nullLiteralOfType(original.getType());
+        }
         if (isStackAllocate(original, bbb)) {
             // Copy dependency so that stack allocation can be scheduled in the right place
             param.copyNode(original.getDependency());
@@ -72,7 +118,264 @@ public final class EscapeAnalysisOptimizeVisitor implements NodeVisitor.Delegati
         return NodeVisitor.Delegating.super.visit(param, original);
     }
 
-    private boolean isStackAllocate(New new_, BasicBlockBuilder bbb) {
+    @Override
+    public Value visit(Node.Copier param, NewArray original) {
+        final BasicBlockBuilder bbb = param.getBlockBuilder();
+        if (isScalarReplace(original, param)) {
+            // The elements are tracked as values while the block is copied, like the fields of an object
+            scalarReplace(param, original);
+            return ctxt.getLiteralFactory().nullLiteralOfType(original.getType());
+        }
+        if (isStackAllocate(original, bbb) && getConstantLength(original) >= 0) {
+            final LoadedTypeDefinition arrayDef = getCoreClasses().getArrayContentField(original.getArrayType()).getEnclosingType().load();
+            param.copyNode(original.getDependency());
+            final Value size = param.copyValue(original.getSize());
+            final Value oop = stackAllocateArray(original, arrayDef, original.getElementType().getSize(), bbb);
+            BasicHeaderInitializer.initializeArrayHeader(ctxt, bbb, bbb.decodeReference(oop), ctxt.getLiteralFactory().literalOfType(arrayDef.getClassType()), size);
+            return oop;
+        }
+
+        return NodeVisitor.Delegating.super.visit(param, original);
+    }
+
+    @Override
+    public Value visit(Node.Copier param, NewReferenceArray original) {
+        final BasicBlockBuilder bbb = param.getBlockBuilder();
+        if (isScalarReplace(original, param)) {
+            scalarReplace(param, original);
+            return ctxt.getLiteralFactory().nullLiteralOfType(original.getType());
+        }
+        if (isStackAllocate(original, bbb) && getConstantLength(original) >= 0) {
+            final LoadedTypeDefinition arrayDef = getCoreClasses().getRefArrayContentField().getEnclosingType().load();
+            param.copyNode(original.getDependency());
+            final Value size = param.copyValue(original.getSize());
+            final Value elemTypeId = param.copyValue(original.getElemTypeId());
+            final Value dimensions = param.copyValue(original.getDimensions());
+            final Value oop = stackAllocateArray(original, arrayDef, ctxt.getTypeSystem().getReferenceSize(), bbb);
+            BasicHeaderInitializer.initializeRefArrayHeader(ctxt, bbb, bbb.decodeReference(oop), elemTypeId, dimensions, size);
+            return oop;
+        }
+
+        return NodeVisitor.Delegating.super.visit(param, original);
+    }
+
+    @Override
+    public Value visit(Node.Copier param, DecodeReference original) {
+        param.copyValue(original.getInput());
+        if (scalarReplaced.containsKey(original.getInput())) {
+            return ctxt.getLiteralFactory().zeroInitializerLiteralOfType(original.getType());
+        }
+
+        return NodeVisitor.Delegating.super.visit(param, original);
+    }
+
+    @Override
+    public Value visit(Node.Copier param, InstanceFieldOf original) {
+        if (getScalarReplacedFields(original) != null) {
+            return ctxt.getLiteralFactory().zeroInitializerLiteralOfType(original.getType());
+        }
+
+        return NodeVisitor.Delegating.super.visit(param, original);
+    }
+
+    @Override
+    public Value visit(Node.Copier param, ElementOf original) {
+        if (getScalarReplacedFields(original) != null) {
+            return ctxt.getLiteralFactory().zeroInitializerLiteralOfType(original.getType());
+        }
+
+        return NodeVisitor.Delegating.super.visit(param, original);
+    }
+
+    @Override
+    public Value visit(Node.Copier param, Load original) {
+        final Map<Object, Value> fields = getScalarReplacedFields(original.getPointer());
+        if (fields != null) {
+            param.copyNode(original.getDependency());
+            final Value value = fields.get(getScalarKey(original.getPointer()));
+            // A field or element which was not yet stored still holds its zero initial value
+            return value != null ? value : ctxt.getLiteralFactory().zeroInitializerLiteralOfType(original.getType());
+        }
+
+        return NodeVisitor.Delegating.super.visit(param, original);
+    }
+
+    @Override
+    public Node visit(Node.Copier param, Store original) {
+        final Map<Object, Value> fields = getScalarReplacedFields(original.getPointer());
+        if (fields != null) {
+            final Node dependency = param.copyNode(original.getDependency());
+            fields.put(getScalarKey(original.getPointer()), param.copyValue(original.getValue()));
+            return dependency;
+        }
+
+        return NodeVisitor.Delegating.super.visit(param, original);
+    }
+
+    @Override
+    public Node visit(Node.Copier param, MonitorEnter original) {
+        if (coarsenedEnters.contains(original) || isThreadLocal(original.getInstance(), param.getBlockBuilder())) {
+            // Drop the monitor enter, keeping its place in the dependency chain
+            return param.copyNode(original.getDependency());
+        }
+
+        return NodeVisitor.Delegating.super.visit(param, original);
+    }
+
+    @Override
+    public Node visit(Node.Copier param, MonitorExit original) {
+        if (isThreadLocal(original.getInstance(), param.getBlockBuilder())) {
+            return param.copyNode(original.getDependency());
+        }
+        final MonitorEnter reenter = findReenter(original);
+        if (reenter != null) {
+            // Coarsen the adjacent lock regions by dropping both this exit and the following enter
+            coarsenedEnters.add(reenter);
+            return param.copyNode(original.getDependency());
+        }
+
+        return NodeVisitor.Delegating.super.visit(param, original);
+    }
+
+    /**
+     * Find a monitor enter on the same object which directly follows the given monitor exit,
+     * with no other ordered operation in between.
+     */
+    private MonitorEnter findReenter(MonitorExit exit) {
+        final BasicBlock block = exit.getScheduledBlock();
+        if (block != null) {
+            for (Node node : block.getInstructions()) {
+                if (node instanceof MonitorEnter me && me.getDependency() == exit
+                    && unwrapNotNull(me.getInstance()) == unwrapNotNull(exit.getInstance())) {
+                    return me;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean isThreadLocal(Value instance, BasicBlockBuilder bbb) {
+        final Value allocation = unwrapNotNull(instance);
+        return ConnectionGraph.isAllocation(allocation)
+            && escapeAnalysisState.isNotEscapingMethod(allocation, bbb.getCurrentElement());
+    }
+
+    private static long getConstantLength(Value array) {
+        final Value size = array instanceof NewArray na ? na.getSize() : array instanceof NewReferenceArray nra ? nra.getSize() : null;
+        return size instanceof IntegerLiteral il ? il.longValue() : -1;
+    }
+
+    private void scalarReplace(Node.Copier param, Value allocation) {
+        param.copyNode(((OrderedNode) allocation).getDependency());
+        scalarReplaced.put(allocation, new HashMap<>());
+    }
+
+    private Map<Object, Value> getScalarReplacedFields(Value pointer) {
+        final Value allocation = getAllocation(pointer);
+        return allocation == null ? null : scalarReplaced.get(allocation);
+    }
+
+    /**
+     * Get the key of the scalar value at the given pointer: the field, or the constant index of the element.
+     */
+    private static Object getScalarKey(Value pointer) {
+        if (pointer instanceof ElementOf eo) {
+            return Long.valueOf(((IntegerLiteral) eo.getIndex()).longValue());
+        }
+        return ((InstanceFieldOf) pointer).getVariableElement();
+    }
+
+    private boolean isScalarReplace(Value allocation, Node.Copier param) {
+        if (scalarCandidates == null) {
+            scalarCandidates = findScalarCandidates(param.getEntryBlock());
+        }
+        return scalarCandidates.contains(allocation)
+            && escapeAnalysisState.isNotEscapingMethod(allocation, param.getBlockBuilder().getCurrentElement());
+    }
+
+    /**
+     * Find the allocations which can be replaced by scalar values. Such an allocation is only used
+     * to load and store its fields, or its elements at constant indexes, within its own block, so
+     * that the values can be tracked while the block is copied, and are never needed in another
+     * block. Monitor operations are also allowed, since they are elided for objects that do not escape.
+     */
+    private static Set<Value> findScalarCandidates(BasicBlock entryBlock) {
+        final Set<Value> candidates = new HashSet<>();
+        final Set<Value> rejected = new HashSet<>();
+        final Set<BasicBlock> visited = new HashSet<>();
+        final ArrayDeque<BasicBlock> queue = new ArrayDeque<>();
+        queue.add(entryBlock);
+        visited.add(entryBlock);
+        BasicBlock block;
+        while ((block = queue.poll()) != null) {
+            for (Node node : block.getInstructions()) {
+                if (ConnectionGraph.isAllocation(node)) {
+                    candidates.add((Value) node);
+                }
+                final int cnt = node.getValueDependencyCount();
+                for (int i = 0; i < cnt; i ++) {
+                    final Value value = node.getValueDependency(i);
+                    final Value base = getAllocation(value);
+                    if (base != null && ! isScalarUse(node, value, base)) {
+                        rejected.add(base);
+                    }
+                }
+            }
+            final Terminator terminator = block.getTerminator();
+            for (Slot slot : terminator.getOutboundArgumentNames()) {
+                // values passed to another block are never scalar
+                final Value base = getAllocation(terminator.getOutboundArgument(slot));
+                if (base != null) {
+                    rejected.add(base);
+                }
+            }
+            final int cnt = terminator.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                final BasicBlock successor = terminator.getSuccessor(i);
+                if (visited.add(successor)) {
+                    queue.add(successor);
+                }
+            }
+        }
+        candidates.removeAll(rejected);
+        return candidates;
+    }
+
+    private static Value getAllocation(Value value) {
+        if (ConnectionGraph.isAllocation(value)) {
+            return value;
+        } else if (value instanceof DecodeReference dr && ConnectionGraph.isAllocation(dr.getInput())) {
+            return dr.getInput();
+        } else if (value instanceof InstanceFieldOf fieldOf && fieldOf.getInstance() instanceof DecodeReference dr) {
+            return getAllocation(dr);
+        } else if (value instanceof ElementOf eo && eo.getArrayPointer() instanceof DecodeReference dr) {
+            return getAllocation(dr);
+        }
+        return null;
+    }
+
+    private static boolean isScalarUse(Node user, Value used, Value base) {
+        if (user.getScheduledBlock() != base.getScheduledBlock()) {
+            return false;
+        } else if (used == base) {
+            return user instanceof DecodeReference || user instanceof MonitorEnter || user instanceof MonitorExit;
+        } else if (used instanceof DecodeReference && base instanceof New) {
+            return user instanceof InstanceFieldOf;
+        } else if (used instanceof DecodeReference) {
+            // only elements at constant indexes within the constant length are tracked; the array header is not
+            return user instanceof ElementOf eo && eo.getArrayPointer() == used
+                && eo.getIndex() instanceof IntegerLiteral index && index.longValue() >= 0
+                && index.longValue() < getConstantLength(base);
+        } else {
+            return user instanceof Load || user instanceof Store store && store.getPointer() == used && store.getValue() != used;
+        }
+    }
+
+    private static Value unwrapNotNull(Value value) {
+        return value instanceof NotNull nn ? unwrapNotNull(nn.getInput()) : value;
+    }
+
+    private boolean isStackAllocate(Value new_, BasicBlockBuilder bbb) {
         return escapeAnalysisState.isNotEscapingMethod(new_, bbb.getCurrentElement())
             && notInLoop(new_);
     }
@@ -109,7 +412,21 @@ public final class EscapeAnalysisOptimizeVisitor implements NodeVisitor.Delegati
         return oop;
     }
 
+    private Value stackAllocateArray(Value array, LoadedTypeDefinition arrayDef, long elementSize, BasicBlockBuilder bbb) {
+        // Copied and adjusted from NoGcBasicBlockBuilder
+        StructType structType = Layout.get(ctxt).getInstanceLayoutInfo(arrayDef).getStructType();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        IntegerLiteral align = lf.literalOf(structType.getAlign());
+        long realSize = structType.getSize() + getConstantLength(array) * elementSize;
+
+        Value ptrVal = bbb.stackAllocate(ctxt.getTypeSystem().getUnsignedInteger8Type(), lf.literalOf(realSize), align);
+        Value oop = bbb.encodeReference(ptrVal, (ReferenceType) array.getType());
+        // zero initialize the array header and elements
+        bbb.call(lf.literalOf(getZeroMethod()), List.of(oop, lf.literalOf(realSize)));
+        return oop;
+    }
+
     private void initializeObjectFieldsToZero(final LayoutInfo info, final LiteralFactory lf, final Value oop, final BasicBlockBuilder bbb) {
-        bbb.call(lf.literalOf(zeroMethod), List.of(oop, lf.literalOf(info.getStructType().getSize())));
+        bbb.call(lf.literalOf(getZeroMethod()), List.of(oop, lf.literalOf(info.getStructType().getSize())));
     }
 }
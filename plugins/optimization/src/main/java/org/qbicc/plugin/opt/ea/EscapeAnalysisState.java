@@ -10,7 +10,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.qbicc.context.CompilationContext;
 import org.qbicc.context.PhaseAttachmentKey;
 import org.qbicc.graph.Call;
-import org.qbicc.graph.New;
+import org.qbicc.graph.Value;
 import org.qbicc.type.definition.element.ExecutableElement;
 
 final class EscapeAnalysisState {
@@ -45,7 +45,7 @@ final class EscapeAnalysisState {
         callGraph.computeIfAbsent(from, k -> new ArrayList<>()).add(to);
     }
 
-    boolean isNotEscapingMethod(New new_, ExecutableElement element) {
+    boolean isNotEscapingMethod(Value new_, ExecutableElement element) {
         final ConnectionGraph connectionGraph = connectionGraphs.get(element);
         return connectionGraph != null && connectionGraph.getEscapeValue(new_).isNoEscape();
     }
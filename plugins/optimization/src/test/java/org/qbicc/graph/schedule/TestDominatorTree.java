@@ -0,0 +1,59 @@
+package org.qbicc.graph.schedule;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.BlockParameter;
+import org.qbicc.graph.Slot;
+import org.qbicc.test.AbstractGraphTestCase;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+
+/**
+ * Tests of the {@link DominatorTree}.
+ */
+public class TestDominatorTree extends AbstractGraphTestCase {
+
+    @Test
+    public void testNaturalLoopWithTwoBackEdges() {
+        DefinedTypeDefinition def = defineClass("dom/Loops", null);
+        BasicBlockBuilder bbb = newBuilder(defineMethod(def, "run", ClassFile.ACC_STATIC));
+        BlockLabel entry = new BlockLabel();
+        BlockLabel header = new BlockLabel();
+        BlockLabel body = new BlockLabel();
+        BlockLabel latch1 = new BlockLabel();
+        BlockLabel latch2 = new BlockLabel();
+        BlockLabel exit = new BlockLabel();
+        bbb.begin(entry);
+        BlockParameter cond = bbb.addParam(entry, Slot.funcParam(0), bbb.getTypeSystem().getBooleanType());
+        bbb.goto_(header, Map.of());
+        bbb.begin(header);
+        bbb.if_(cond, body, exit, Map.of());
+        bbb.begin(body);
+        bbb.if_(cond, latch1, latch2, Map.of());
+        // both latches jump back to the header
+        bbb.begin(latch1);
+        bbb.goto_(header, Map.of());
+        bbb.begin(latch2);
+        bbb.goto_(header, Map.of());
+        bbb.begin(exit);
+        bbb.return_(cond);
+        bbb.finish();
+
+        DominatorTree tree = new DominatorTree(bbb.getFirstBlock());
+        BasicBlock headerBlock = BlockLabel.getTargetOf(header);
+        assertEquals(Set.of(headerBlock, BlockLabel.getTargetOf(body), BlockLabel.getTargetOf(latch1), BlockLabel.getTargetOf(latch2)), tree.getNaturalLoop(headerBlock));
+        assertEquals(BlockLabel.getTargetOf(entry), tree.getImmediateDominator(headerBlock));
+        assertTrue(tree.dominates(headerBlock, BlockLabel.getTargetOf(latch2)));
+        assertFalse(tree.dominates(BlockLabel.getTargetOf(latch1), headerBlock));
+        // blocks which are not loop headers have no natural loop
+        assertEquals(Set.of(), tree.getNaturalLoop(BlockLabel.getTargetOf(body)));
+        assertEquals(Set.of(), tree.getNaturalLoop(BlockLabel.getTargetOf(exit)));
+    }
+}
@@ -0,0 +1,90 @@
+package org.qbicc.plugin.opt;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.BlockParameter;
+import org.qbicc.graph.CallNoReturn;
+import org.qbicc.graph.If;
+import org.qbicc.graph.IsLt;
+import org.qbicc.graph.Slot;
+import org.qbicc.graph.Value;
+import org.qbicc.test.AbstractGraphTestCase;
+import org.qbicc.type.SignedIntegerType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.InstanceFieldElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Tests of the bounds checks removed by {@link BoundsCheckEliminatingVisitor}.
+ */
+public class TestBoundsCheckEliminatingVisitor extends AbstractGraphTestCase {
+
+    @Test
+    public void testCountedLoop() {
+        // a stand-in for the array header, so that no class library is needed
+        DefinedTypeDefinition def = defineClass("bce/Array", null, "length");
+        InstanceFieldElement lengthField = (InstanceFieldElement) def.load().getField(0);
+        MethodElement raise = defineMethod(def, "raise", ClassFile.ACC_STATIC);
+        MethodElement method = defineMethod(def, "run", ClassFile.ACC_STATIC);
+        SignedIntegerType s32 = ts.getSignedInteger32Type();
+        BasicBlockBuilder bbb = newBuilder(method);
+        BlockLabel entry = new BlockLabel();
+        BlockLabel header = new BlockLabel();
+        BlockLabel body = new BlockLabel();
+        BlockLabel lowerOk = new BlockLabel();
+        BlockLabel upperOk = new BlockLabel();
+        BlockLabel otherOk = new BlockLabel();
+        BlockLabel fail = new BlockLabel();
+        BlockLabel exit = new BlockLabel();
+        bbb.begin(entry);
+        BlockParameter array = bbb.addParam(entry, Slot.funcParam(0), def.load().getClassType().getReference(), false);
+        BlockParameter other = bbb.addParam(entry, Slot.funcParam(1), s32);
+        bbb.goto_(header, Slot.stack(0), lf.literalOf(0));
+        // for (int i = 0; i < a.length; i ++)
+        bbb.begin(header);
+        BlockParameter index = bbb.addParam(header, Slot.stack(0), s32);
+        bbb.if_(bbb.isLt(index, loadLength(bbb, array, lengthField)), body, exit, Map.of());
+        // a[i]: both halves are implied by the loop condition
+        bbb.begin(body);
+        Value length = loadLength(bbb, array, lengthField);
+        bbb.if_(bbb.isLt(index, lf.literalOf(0)), fail, lowerOk, Map.of());
+        bbb.begin(lowerOk);
+        bbb.if_(bbb.isLt(index, length), upperOk, fail, Map.of());
+        // a[j]: no dominating condition covers j
+        bbb.begin(upperOk);
+        bbb.if_(bbb.isLt(other, length), otherOk, fail, Map.of());
+        bbb.begin(otherOk);
+        bbb.goto_(header, Slot.stack(0), bbb.add(index, lf.literalOf(1)));
+        bbb.begin(fail);
+        bbb.callNoReturn(lf.literalOf(raise), List.of());
+        bbb.begin(exit);
+        bbb.return_();
+        BasicBlock entryBlock = finish(bbb);
+        assertEquals(4, findNodes(entryBlock, If.class).size());
+
+        BasicBlock copy = copy(entryBlock, (c, d) -> new BoundsCheckEliminatingVisitor(c, d, lengthField, raise));
+        List<If> checks = findNodes(copy, If.class).stream().filter(TestBoundsCheckEliminatingVisitor::isCheck).toList();
+        assertEquals(1, checks.size());
+        assertInstanceOf(IsLt.class, checks.get(0).getCondition());
+        BlockParameter checked = assertInstanceOf(BlockParameter.class, ((IsLt) checks.get(0).getCondition()).getLeftInput());
+        assertEquals(Slot.funcParam(1), checked.getSlot());
+        // the loop condition is not a check, and is kept
+        assertEquals(2, findNodes(copy, If.class).size());
+    }
+
+    private static Value loadLength(BasicBlockBuilder bbb, Value array, InstanceFieldElement lengthField) {
+        return bbb.load(bbb.instanceFieldOf(bbb.decodeReference(array), lengthField));
+    }
+
+    private static boolean isCheck(If node) {
+        return node.getTrueBranch().getTerminator() instanceof CallNoReturn || node.getFalseBranch().getTerminator() instanceof CallNoReturn;
+    }
+}
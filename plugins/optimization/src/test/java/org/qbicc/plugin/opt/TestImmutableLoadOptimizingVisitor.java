@@ -0,0 +1,71 @@
+package org.qbicc.plugin.opt;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.BlockParameter;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.Slot;
+import org.qbicc.graph.Value;
+import org.qbicc.test.AbstractGraphTestCase;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.InstanceFieldElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Tests of the loads moved out of loops by {@link ImmutableLoadOptimizingVisitor}.
+ */
+public class TestImmutableLoadOptimizingVisitor extends AbstractGraphTestCase {
+
+    @Test
+    public void testHoistOutOfLoop() {
+        // stand-ins for a header field of every object, and one of a subclass such as the array length
+        DefinedTypeDefinition base = defineClass("gvn/Base", null, "id");
+        DefinedTypeDefinition sub = defineClass("gvn/Sub", base, "size");
+        InstanceFieldElement idField = (InstanceFieldElement) base.load().getField(0);
+        InstanceFieldElement sizeField = (InstanceFieldElement) sub.load().getField(0);
+        ClassObjectType subType = sub.load().getClassType();
+        MethodElement method = defineMethod(base, "run", ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(method);
+        BlockLabel entry = new BlockLabel();
+        BlockLabel header = new BlockLabel();
+        BlockLabel body = new BlockLabel();
+        BlockLabel isSub = new BlockLabel();
+        BlockLabel exit = new BlockLabel();
+        bbb.begin(entry);
+        BlockParameter object = bbb.addParam(entry, Slot.funcParam(0), base.load().getClassType().getReference(), false);
+        BlockParameter again = bbb.addParam(entry, Slot.funcParam(1), ts.getBooleanType());
+        bbb.goto_(header, Map.of());
+        bbb.begin(header);
+        bbb.if_(again, body, exit, Map.of());
+        // every object has the field, so the load is hoisted
+        bbb.begin(body);
+        bbb.load(bbb.instanceFieldOf(bbb.decodeReference(object), idField));
+        bbb.if_(bbb.instanceOf(object, subType), isSub, header, Map.of());
+        // the field only exists after the type test in the loop, so the load stays in the loop
+        bbb.begin(isSub);
+        Value narrowed = bbb.notNull(bbb.bitCast(object, subType.getReference()));
+        bbb.load(bbb.instanceFieldOf(bbb.decodeReference(narrowed), sizeField));
+        bbb.goto_(header, Map.of());
+        bbb.begin(exit);
+        bbb.return_();
+        BasicBlock entryBlock = finish(bbb);
+
+        BasicBlock copy = copy(entryBlock, (c, d) -> new ImmutableLoadOptimizingVisitor(d, Set.of(idField, sizeField)));
+        List<Load> loads = findNodes(copy, Load.class);
+        assertEquals(2, loads.size());
+        List<Load> hoisted = loads.stream().filter(copy.getInstructions()::contains).toList();
+        assertEquals(1, hoisted.size());
+        assertEquals(idField, assertInstanceOf(InstanceFieldOf.class, hoisted.get(0).getPointer()).getVariableElement());
+    }
+}
@@ -0,0 +1,69 @@
+package org.qbicc.plugin.opt;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.InitCheck;
+import org.qbicc.test.AbstractGraphTestCase;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.InitializerElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Tests of the initialization checks found to be redundant by the {@link InitCheckPlan}.
+ */
+public class TestInitCheckPlan extends AbstractGraphTestCase {
+
+    @Test
+    public void testCheckedCallers() {
+        InitializerElement initializer = defineClass("initcheck/Target", null).load().getInitializer();
+        DefinedTypeDefinition def = defineClass("initcheck/Code", null);
+        MethodElement main = defineMethod(def, "main", ClassFile.ACC_STATIC);
+        MethodElement other = defineMethod(def, "other", ClassFile.ACC_STATIC);
+        MethodElement onlyChecked = defineMethod(def, "onlyChecked", ClassFile.ACC_STATIC);
+        MethodElement alsoUnchecked = defineMethod(def, "alsoUnchecked", ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC);
+        // main() checks before calling both methods...
+        BasicBlockBuilder bbb = newBuilder(main);
+        bbb.begin(new BlockLabel());
+        bbb.initCheck(initializer, lf.literalOf(0));
+        bbb.call(lf.literalOf(onlyChecked), List.of());
+        bbb.call(lf.literalOf(alsoUnchecked), List.of());
+        bbb.return_();
+        finish(bbb);
+        // ...but other() calls one of them without a check
+        bbb = newBuilder(other);
+        bbb.begin(new BlockLabel());
+        bbb.call(lf.literalOf(alsoUnchecked), List.of());
+        bbb.return_();
+        finish(bbb);
+        InitCheck checkOfOnlyChecked = defineCheckingMethod(onlyChecked, initializer);
+        InitCheck checkOfAlsoUnchecked = defineCheckingMethod(alsoUnchecked, initializer);
+
+        Set<ExecutableElement> openCallers = new HashSet<>(Set.of(main, other));
+        InitCheckPlan plan = InitCheckPlan.compute(List.of(main, other, onlyChecked, alsoUnchecked), openCallers);
+        assertTrue(plan.isRedundant(checkOfOnlyChecked));
+        assertFalse(plan.isRedundant(checkOfAlsoUnchecked));
+        // the check in main() itself is needed
+        assertFalse(plan.isRedundant(findNodes(main.getMethodBody().getEntryBlock(), InitCheck.class).get(0)));
+    }
+
+    private static InitCheck defineCheckingMethod(MethodElement method, InitializerElement initializer) {
+        BasicBlockBuilder bbb = newBuilder(method);
+        bbb.begin(new BlockLabel());
+        bbb.initCheck(initializer, lf.literalOf(0));
+        bbb.return_();
+        BasicBlock entryBlock = finish(bbb);
+        List<InitCheck> checks = findNodes(entryBlock, InitCheck.class);
+        assertEquals(1, checks.size());
+        return checks.get(0);
+    }
+}
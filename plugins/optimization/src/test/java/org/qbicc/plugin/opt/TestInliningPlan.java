@@ -0,0 +1,168 @@
+package org.qbicc.plugin.opt;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.BlockParameter;
+import org.qbicc.graph.Slot;
+import org.qbicc.test.AbstractGraphTestCase;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.InstanceMethodElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Tests of the call sites covered by the {@link InliningPlan}.
+ */
+public class TestInliningPlan extends AbstractGraphTestCase {
+
+    @Test
+    public void testCopiedCallSite() {
+        DefinedTypeDefinition def = defineClass("inlining/Copied", null);
+        MethodElement a = defineMethod(def, "a", ClassFile.ACC_STATIC);
+        MethodElement b = defineMethod(def, "b", ClassFile.ACC_STATIC);
+        MethodElement c = defineMethod(def, "c", ClassFile.ACC_STATIC);
+        // a() calls b(), and also contains a copy of the call to c() of an earlier inlining of b()
+        BasicBlockBuilder bbb = newBuilder(a);
+        bbb.begin(new BlockLabel());
+        call(bbb, a, 1, b);
+        call(bbb, b, 5, c);
+        bbb.return_();
+        finish(bbb);
+        bbb = newBuilder(b);
+        bbb.begin(new BlockLabel());
+        call(bbb, b, 5, c);
+        bbb.return_();
+        finish(bbb);
+        bbb = newBuilder(c);
+        bbb.begin(new BlockLabel());
+        bbb.return_();
+        finish(bbb);
+
+        List<String> report = new ArrayList<>();
+        InliningPlan plan = InliningPlan.compute(List.of(a), report);
+        // the copy is neither planned nor counted as a second call site of c()
+        assertEquals(2, report.size(), report::toString);
+        assertEquals(InliningPlan.Decision.ALWAYS, plan.getDecision(a, 1, b));
+        assertEquals(InliningPlan.Decision.ALWAYS, plan.getDecision(b, 5, c));
+        assertTrue(report.stream().anyMatch(line -> line.contains("-> " + c) && line.contains("single caller") && line.contains("call sites 1")), report::toString);
+    }
+
+    @Test
+    public void testDispatchedCallee() {
+        LoadedTypeDefinition def = defineClass("inlining/Dispatched", null, List.of("run")).load();
+        InstanceMethodElement run = (InstanceMethodElement) def.getMethod(0);
+        MethodElement a = defineMethod(def, "a", ClassFile.ACC_STATIC);
+        // a() calls run() directly once, and also through dispatch
+        BasicBlockBuilder bbb = newBuilder(a);
+        BlockLabel entry = new BlockLabel();
+        bbb.begin(entry);
+        BlockParameter receiver = bbb.addParam(entry, Slot.funcParam(0), def.getClassType().getReference(), false);
+        bbb.setBytecodeIndex(1);
+        bbb.call(lf.literalOf(run), receiver, List.of());
+        bbb.setBytecodeIndex(2);
+        bbb.call(bbb.lookupVirtualMethod(receiver, run), receiver, List.of());
+        bbb.return_();
+        finish(bbb);
+        bbb = newBuilder(run);
+        bbb.begin(new BlockLabel());
+        bbb.return_();
+        finish(bbb);
+
+        List<String> report = new ArrayList<>();
+        InliningPlan plan = InliningPlan.compute(List.of(a), report);
+        assertEquals(InliningPlan.Decision.INLINE, plan.getDecision(a, 1, run));
+        assertTrue(report.stream().anyMatch(line -> line.contains("-> " + run) && line.contains("small") && line.contains("call sites 1")), report::toString);
+    }
+
+    @Test
+    public void testRootCallee() {
+        DefinedTypeDefinition def = defineClass("inlining/Root", null);
+        MethodElement a = defineMethod(def, "a", ClassFile.ACC_STATIC);
+        MethodElement b = defineMethod(def, "b", ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(a);
+        bbb.begin(new BlockLabel());
+        call(bbb, a, 1, b);
+        bbb.return_();
+        finish(bbb);
+        bbb = newBuilder(b);
+        bbb.begin(new BlockLabel());
+        bbb.return_();
+        finish(bbb);
+
+        // b() is entered from outside of the program as well
+        assertEquals(InliningPlan.Decision.INLINE, InliningPlan.compute(List.of(a, b), new ArrayList<>()).getDecision(a, 1, b));
+        assertEquals(InliningPlan.Decision.ALWAYS, InliningPlan.compute(List.of(a), new ArrayList<>()).getDecision(a, 1, b));
+    }
+
+    @Test
+    public void testRecursiveCycle() {
+        DefinedTypeDefinition def = defineClass("inlining/Cycle", null);
+        List<MethodElement> cycle = new ArrayList<>();
+        for (int i = 0; i < 16; i ++) {
+            cycle.add(defineMethod(def, "m" + i, ClassFile.ACC_STATIC));
+        }
+        for (int i = 0; i < cycle.size(); i ++) {
+            BasicBlockBuilder bbb = newBuilder(cycle.get(i));
+            bbb.begin(new BlockLabel());
+            call(bbb, cycle.get(i), 0, cycle.get((i + 1) % cycle.size()));
+            bbb.return_();
+            finish(bbb);
+        }
+
+        // the cycle is cut at the call back into the first method discovered from the roots
+        for (int i = 0; i < 4; i ++) {
+            InliningPlan plan = InliningPlan.compute(List.of(cycle.get(3)), new ArrayList<>());
+            for (int j = 0; j < cycle.size(); j ++) {
+                MethodElement callee = cycle.get((j + 1) % cycle.size());
+                assertEquals(callee == cycle.get(3) ? InliningPlan.Decision.NEVER : InliningPlan.Decision.ALWAYS, plan.getDecision(cycle.get(j), 0, callee));
+            }
+        }
+    }
+
+    @Test
+    public void testDeepCallChain() {
+        DefinedTypeDefinition def = defineClass("inlining/Deep", null);
+        int depth = 20_000;
+        List<MethodElement> chain = new ArrayList<>();
+        for (int i = 0; i < depth; i ++) {
+            chain.add(defineMethod(def, "m" + i, ClassFile.ACC_STATIC));
+        }
+        for (int i = 0; i < depth; i ++) {
+            BasicBlockBuilder bbb = newBuilder(chain.get(i));
+            bbb.begin(new BlockLabel());
+            if (i + 1 < depth) {
+                call(bbb, chain.get(i), 0, chain.get(i + 1));
+            }
+            bbb.return_();
+            finish(bbb);
+        }
+
+        List<String> report = new ArrayList<>();
+        InliningPlan plan = InliningPlan.compute(List.of(chain.get(0)), report);
+        assertEquals(depth - 1, report.size());
+        // each inlined level adds one node, until the callee exceeds the single caller limit
+        assertEquals(InliningPlan.Decision.ALWAYS, plan.getDecision(chain.get(depth - 2), 0, chain.get(depth - 1)));
+        int first = depth - 1 - InliningPlan.SINGLE_CALLER_LIMIT;
+        assertEquals(InliningPlan.Decision.ALWAYS, plan.getDecision(chain.get(first), 0, chain.get(first + 1)));
+        assertEquals(InliningPlan.Decision.NEVER, plan.getDecision(chain.get(first - 1), 0, chain.get(first)));
+    }
+
+    private static void call(BasicBlockBuilder bbb, ExecutableElement caller, int bci, MethodElement callee) {
+        ExecutableElement oldElement = bbb.setCurrentElement(caller);
+        int oldBci = bbb.setBytecodeIndex(bci);
+        try {
+            bbb.call(lf.literalOf(callee), List.of());
+        } finally {
+            bbb.setCurrentElement(oldElement);
+            bbb.setBytecodeIndex(oldBci);
+        }
+    }
+}
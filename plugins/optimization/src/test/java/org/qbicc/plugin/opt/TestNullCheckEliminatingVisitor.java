@@ -0,0 +1,78 @@
+package org.qbicc.plugin.opt;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.BlockParameter;
+import org.qbicc.graph.CallNoReturn;
+import org.qbicc.graph.If;
+import org.qbicc.graph.IsEq;
+import org.qbicc.graph.Slot;
+import org.qbicc.test.AbstractGraphTestCase;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Tests of the null checks removed by {@link NullCheckEliminatingVisitor}.
+ */
+public class TestNullCheckEliminatingVisitor extends AbstractGraphTestCase {
+
+    @Test
+    public void testDominatingInstanceOf() {
+        DefinedTypeDefinition def = defineClass("nullcheck/Value", null);
+        ClassObjectType type = def.load().getClassType();
+        ReferenceType refType = type.getReference();
+        MethodElement raise = defineMethod(def, "raise", ClassFile.ACC_STATIC);
+        MethodElement method = defineMethod(def, "run", ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(method);
+        BlockLabel entry = new BlockLabel();
+        BlockLabel isInstance = new BlockLabel();
+        BlockLabel checkOther = new BlockLabel();
+        BlockLabel notInstance = new BlockLabel();
+        BlockLabel join = new BlockLabel();
+        BlockLabel fail = new BlockLabel();
+        BlockLabel exit = new BlockLabel();
+        bbb.begin(entry);
+        BlockParameter value = bbb.addParam(entry, Slot.funcParam(0), refType, true);
+        BlockParameter other = bbb.addParam(entry, Slot.funcParam(1), refType, true);
+        bbb.if_(bbb.instanceOf(value, type), isInstance, notInstance, Map.of());
+        // value is non-null wherever instanceof holds
+        bbb.begin(isInstance);
+        bbb.if_(bbb.isEq(value, lf.nullLiteralOfType(refType)), fail, checkOther, Map.of());
+        // other is checked on this path only...
+        bbb.begin(checkOther);
+        bbb.if_(bbb.isEq(other, lf.nullLiteralOfType(refType)), fail, join, Map.of());
+        bbb.begin(notInstance);
+        bbb.goto_(join, Map.of());
+        // ...so the check after the paths join does not dominate it
+        bbb.begin(join);
+        bbb.if_(bbb.isEq(other, lf.nullLiteralOfType(refType)), fail, exit, Map.of());
+        bbb.begin(fail);
+        bbb.callNoReturn(lf.literalOf(raise), List.of());
+        bbb.begin(exit);
+        bbb.return_();
+        BasicBlock entryBlock = finish(bbb);
+        assertEquals(3, findNodes(entryBlock, If.class).stream().filter(TestNullCheckEliminatingVisitor::isCheck).count());
+
+        BasicBlock copy = copy(entryBlock, (c, d) -> new NullCheckEliminatingVisitor(c, d, raise));
+        List<If> checks = findNodes(copy, If.class).stream().filter(TestNullCheckEliminatingVisitor::isCheck).toList();
+        assertEquals(2, checks.size());
+        for (If check : checks) {
+            IsEq isEq = assertInstanceOf(IsEq.class, check.getCondition());
+            assertEquals(Slot.funcParam(1), assertInstanceOf(BlockParameter.class, isEq.getLeftInput()).getSlot());
+        }
+    }
+
+    private static boolean isCheck(If node) {
+        return node.getTrueBranch().getTerminator() instanceof CallNoReturn || node.getFalseBranch().getTerminator() instanceof CallNoReturn;
+    }
+}
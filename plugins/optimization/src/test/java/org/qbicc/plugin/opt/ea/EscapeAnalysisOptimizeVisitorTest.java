@@ -0,0 +1,399 @@
+package org.qbicc.plugin.opt.ea;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.Add;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.BlockParameter;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.MonitorEnter;
+import org.qbicc.graph.MonitorExit;
+import org.qbicc.graph.New;
+import org.qbicc.graph.NewArray;
+import org.qbicc.graph.Return;
+import org.qbicc.graph.Slot;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.test.AbstractGraphTestCase;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.PrimitiveArrayObjectType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.InstanceFieldElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.definition.element.StaticFieldElement;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+
+/**
+ * Tests of the scalar replacement of objects and arrays, monitor elision and coarsening of
+ * {@link EscapeAnalysisOptimizeVisitor}.
+ */
+public class EscapeAnalysisOptimizeVisitorTest extends AbstractGraphTestCase {
+
+    @Test
+    public void testElideMonitorOfNonEscapingNew() {
+        DefinedTypeDefinition def = defineClass("ea/Elide", null);
+        ClassObjectType type = def.load().getClassType();
+        MethodElement method = defineMethod(def, "run", ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(method);
+        BlockLabel entry = new BlockLabel();
+        BlockLabel loop = new BlockLabel();
+        BlockLabel body = new BlockLabel();
+        BlockLabel exit = new BlockLabel();
+        bbb.begin(entry);
+        BlockParameter again = bbb.addParam(entry, Slot.funcParam(0), ts.getBooleanType(), false);
+        bbb.goto_(loop, Map.of());
+        // allocate in a loop, so that the objects are not moved to the stack
+        bbb.begin(loop);
+        Value local = bbb.new_(type, lf.literalOfType(type), lf.literalOf(16L), lf.literalOf(8L));
+        Value escaping = bbb.new_(type, lf.literalOfType(type), lf.literalOf(16L), lf.literalOf(8L));
+        bbb.monitorEnter(local);
+        bbb.monitorEnter(escaping);
+        bbb.goto_(body, Map.of());
+        bbb.begin(body);
+        bbb.monitorExit(escaping);
+        bbb.monitorExit(local);
+        bbb.if_(again, loop, exit, Map.of());
+        bbb.begin(exit);
+        bbb.return_();
+        BasicBlock entryBlock = finish(bbb);
+
+        ConnectionGraph graph = new ConnectionGraph(method);
+        graph.setNoEscape((New) local);
+        graph.setGlobalEscape((New) escaping);
+        EscapeAnalysisState state = new EscapeAnalysisState();
+        state.addMethod(method, graph);
+
+        BasicBlock copy = copy(entryBlock, (c, d) -> new EscapeAnalysisOptimizeVisitor(c, d, state));
+        List<New> allocations = findNodes(copy, New.class);
+        assertEquals(2, allocations.size());
+        List<MonitorEnter> enters = findNodes(copy, MonitorEnter.class);
+        List<MonitorExit> exits = findNodes(copy, MonitorExit.class);
+        // only the monitor of the escaping object remains
+        assertEquals(1, enters.size());
+        assertEquals(1, exits.size());
+        assertEquals(allocations.get(1), enters.get(0).getInstance());
+        assertEquals(allocations.get(1), exits.get(0).getInstance());
+    }
+
+    @Test
+    public void testAnalyzeAndElide() {
+        defineThreadClasses();
+        DefinedTypeDefinition def = defineClass("ea/Analyze", null, "value");
+        ClassObjectType type = def.load().getClassType();
+        InstanceFieldElement value = (InstanceFieldElement) def.load().getField(0);
+        MethodElement method = defineMethod(def, "run", ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(method);
+        BlockLabel entry = new BlockLabel();
+        BlockLabel loop = new BlockLabel();
+        BlockLabel exit = new BlockLabel();
+        bbb.begin(entry);
+        bbb.goto_(loop, Slot.stack(0), lf.literalOf(0));
+        bbb.begin(loop);
+        BlockParameter count = bbb.addParam(loop, Slot.stack(0), ts.getSignedInteger32Type());
+        Value local = bbb.new_(type, lf.literalOfType(type), lf.literalOf(16L), lf.literalOf(8L));
+        bbb.monitorEnter(local);
+        bbb.store(bbb.instanceFieldOf(bbb.decodeReference(local), value), count);
+        bbb.load(bbb.instanceFieldOf(bbb.decodeReference(local), value));
+        bbb.monitorExit(local);
+        Value returned = bbb.new_(type, lf.literalOfType(type), lf.literalOf(16L), lf.literalOf(8L));
+        bbb.monitorEnter(returned);
+        bbb.monitorExit(returned);
+        bbb.if_(bbb.isLt(count, lf.literalOf(10)), loop, exit, Map.of(Slot.stack(0), bbb.add(count, lf.literalOf(1))));
+        bbb.begin(exit);
+        bbb.return_(returned);
+        BasicBlock entryBlock = finish(bbb);
+
+        new EscapeAnalysisIntraMethodAnalysis().visitUnknown(ctxt, method);
+        EscapeAnalysisState state = EscapeAnalysisState.get(ctxt);
+        // locking the object or accessing its fields does not make it escape, but returning it does
+        assertTrue(state.isNotEscapingMethod((New) local, method));
+        assertFalse(state.isNotEscapingMethod((New) returned, method));
+
+        BasicBlock copy = copy(entryBlock, (c, d) -> new EscapeAnalysisOptimizeVisitor(c, d, state));
+        // the local object is only used within its block, so it is replaced entirely
+        List<New> allocations = findNodes(copy, New.class);
+        assertEquals(1, allocations.size());
+        List<MonitorEnter> enters = findNodes(copy, MonitorEnter.class);
+        List<MonitorExit> exits = findNodes(copy, MonitorExit.class);
+        assertEquals(1, enters.size());
+        assertEquals(1, exits.size());
+        assertEquals(allocations.get(0), enters.get(0).getInstance());
+        assertEquals(allocations.get(0), exits.get(0).getInstance());
+    }
+
+    @Test
+    public void testScalarReplace() {
+        DefinedTypeDefinition def = defineClass("ea/Scalar", null, "a", "b");
+        ClassObjectType type = def.load().getClassType();
+        InstanceFieldElement a = (InstanceFieldElement) def.load().getField(0);
+        InstanceFieldElement b = (InstanceFieldElement) def.load().getField(1);
+        MethodElement method = defineMethod(def, "run", ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(method);
+        bbb.begin(new BlockLabel());
+        Value local = bbb.new_(type, lf.literalOfType(type), lf.literalOf(16L), lf.literalOf(8L));
+        bbb.monitorEnter(local);
+        bbb.store(bbb.instanceFieldOf(bbb.decodeReference(local), a), lf.literalOf(7));
+        // b is never stored, so it still holds zero
+        Value sum = bbb.add(bbb.load(bbb.instanceFieldOf(bbb.decodeReference(local), a)), bbb.load(bbb.instanceFieldOf(bbb.decodeReference(local), b)));
+        bbb.monitorExit(local);
+        bbb.return_(sum);
+        BasicBlock entryBlock = finish(bbb);
+
+        ConnectionGraph graph = new ConnectionGraph(method);
+        graph.setNoEscape((New) local);
+        EscapeAnalysisState state = new EscapeAnalysisState();
+        state.addMethod(method, graph);
+
+        BasicBlock copy = copy(entryBlock, (c, d) -> new EscapeAnalysisOptimizeVisitor(c, d, state));
+        assertEquals(List.of(), findNodes(copy, New.class));
+        assertEquals(List.of(), findNodes(copy, Load.class));
+        assertEquals(List.of(), findNodes(copy, Store.class));
+        assertEquals(List.of(), findNodes(copy, MonitorEnter.class));
+        Add add = assertInstanceOf(Add.class, assertInstanceOf(Return.class, copy.getTerminator()).getReturnValue());
+        assertEquals(7, assertInstanceOf(IntegerLiteral.class, add.getLeftInput()).intValue());
+        assertEquals(0, assertInstanceOf(IntegerLiteral.class, add.getRightInput()).intValue());
+    }
+
+    @Test
+    public void testNoScalarReplaceAcrossBlocks() {
+        DefinedTypeDefinition def = defineClass("ea/NotScalar", null, "a");
+        ClassObjectType type = def.load().getClassType();
+        InstanceFieldElement a = (InstanceFieldElement) def.load().getField(0);
+        MethodElement method = defineMethod(def, "run", ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(method);
+        BlockLabel entry = new BlockLabel();
+        BlockLabel loop = new BlockLabel();
+        BlockLabel body = new BlockLabel();
+        BlockLabel exit = new BlockLabel();
+        bbb.begin(entry);
+        BlockParameter again = bbb.addParam(entry, Slot.funcParam(0), ts.getBooleanType(), false);
+        bbb.goto_(loop, Map.of());
+        // allocate in a loop, so that the object is not moved to the stack either
+        bbb.begin(loop);
+        Value local = bbb.new_(type, lf.literalOfType(type), lf.literalOf(16L), lf.literalOf(8L));
+        bbb.store(bbb.instanceFieldOf(bbb.decodeReference(local), a), lf.literalOf(7));
+        bbb.goto_(body, Map.of());
+        // the field is loaded in another block
+        bbb.begin(body);
+        bbb.load(bbb.instanceFieldOf(bbb.decodeReference(local), a));
+        bbb.if_(again, loop, exit, Map.of());
+        bbb.begin(exit);
+        bbb.return_();
+        BasicBlock entryBlock = finish(bbb);
+
+        ConnectionGraph graph = new ConnectionGraph(method);
+        graph.setNoEscape((New) local);
+        EscapeAnalysisState state = new EscapeAnalysisState();
+        state.addMethod(method, graph);
+
+        BasicBlock copy = copy(entryBlock, (c, d) -> new EscapeAnalysisOptimizeVisitor(c, d, state));
+        assertEquals(1, findNodes(copy, New.class).size());
+        assertEquals(1, findNodes(copy, Store.class).size());
+        assertEquals(1, findNodes(copy, Load.class).size());
+    }
+
+    @Test
+    public void testScalarReplaceArray() {
+        DefinedTypeDefinition def = defineClass("ea/ScalarArray", null);
+        PrimitiveArrayObjectType byteArray = ts.getSignedInteger8Type().getPrimitiveArrayObjectType();
+        MethodElement method = defineMethod(def, "run", ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(method);
+        bbb.begin(new BlockLabel());
+        Value local = bbb.newArray(byteArray, lf.literalOf(4));
+        bbb.store(bbb.elementOf(bbb.decodeReference(local), lf.literalOf(1)), lf.literalOf(ts.getSignedInteger8Type(), 5));
+        // element 3 is never stored, so it still holds zero
+        Value sum = bbb.add(bbb.load(bbb.elementOf(bbb.decodeReference(local), lf.literalOf(1))), bbb.load(bbb.elementOf(bbb.decodeReference(local), lf.literalOf(3))));
+        bbb.return_(sum);
+        BasicBlock entryBlock = finish(bbb);
+
+        ConnectionGraph graph = new ConnectionGraph(method);
+        graph.setNoEscape((NewArray) local);
+        EscapeAnalysisState state = new EscapeAnalysisState();
+        state.addMethod(method, graph);
+
+        BasicBlock copy = copy(entryBlock, (c, d) -> new EscapeAnalysisOptimizeVisitor(c, d, state));
+        assertEquals(List.of(), findNodes(copy, NewArray.class));
+        assertEquals(List.of(), findNodes(copy, Load.class));
+        assertEquals(List.of(), findNodes(copy, Store.class));
+        Add add = assertInstanceOf(Add.class, assertInstanceOf(Return.class, copy.getTerminator()).getReturnValue());
+        assertEquals(5, assertInstanceOf(IntegerLiteral.class, add.getLeftInput()).intValue());
+        assertEquals(0, assertInstanceOf(IntegerLiteral.class, add.getRightInput()).intValue());
+    }
+
+    @Test
+    public void testNoScalarReplaceArrayAtVariableIndex() {
+        DefinedTypeDefinition def = defineClass("ea/NotScalarArray", null);
+        PrimitiveArrayObjectType byteArray = ts.getSignedInteger8Type().getPrimitiveArrayObjectType();
+        MethodElement method = defineMethod(def, "run", ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(method);
+        BlockLabel entry = new BlockLabel();
+        BlockLabel loop = new BlockLabel();
+        BlockLabel exit = new BlockLabel();
+        bbb.begin(entry);
+        bbb.goto_(loop, Slot.stack(0), lf.literalOf(0));
+        // allocate in a loop, so that the array is not moved to the stack either
+        bbb.begin(loop);
+        BlockParameter index = bbb.addParam(loop, Slot.stack(0), ts.getSignedInteger32Type());
+        Value local = bbb.newArray(byteArray, lf.literalOf(4));
+        bbb.store(bbb.elementOf(bbb.decodeReference(local), index), lf.literalOf(ts.getSignedInteger8Type(), 5));
+        bbb.if_(bbb.isLt(index, lf.literalOf(3)), loop, exit, Map.of(Slot.stack(0), bbb.add(index, lf.literalOf(1))));
+        bbb.begin(exit);
+        bbb.return_();
+        BasicBlock entryBlock = finish(bbb);
+
+        ConnectionGraph graph = new ConnectionGraph(method);
+        graph.setNoEscape((NewArray) local);
+        EscapeAnalysisState state = new EscapeAnalysisState();
+        state.addMethod(method, graph);
+
+        BasicBlock copy = copy(entryBlock, (c, d) -> new EscapeAnalysisOptimizeVisitor(c, d, state));
+        assertEquals(1, findNodes(copy, NewArray.class).size());
+        assertEquals(1, findNodes(copy, Store.class).size());
+    }
+
+    @Test
+    public void testAnalyzeArrayLength() {
+        defineThreadClasses();
+        DefinedTypeDefinition def = defineClass("ea/AnalyzeArray", null);
+        PrimitiveArrayObjectType byteArray = ts.getSignedInteger8Type().getPrimitiveArrayObjectType();
+        MethodElement method = defineMethod(def, "run", ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(method);
+        bbb.begin(new BlockLabel());
+        Value small = bbb.newArray(byteArray, lf.literalOf(EscapeAnalysisIntraMethodAnalysis.MAX_ARRAY_LENGTH));
+        Value large = bbb.newArray(byteArray, lf.literalOf(EscapeAnalysisIntraMethodAnalysis.MAX_ARRAY_LENGTH + 1));
+        bbb.store(bbb.elementOf(bbb.decodeReference(small), lf.literalOf(0)), lf.literalOf(ts.getSignedInteger8Type(), 1));
+        bbb.store(bbb.elementOf(bbb.decodeReference(large), lf.literalOf(0)), lf.literalOf(ts.getSignedInteger8Type(), 1));
+        bbb.return_();
+        finish(bbb);
+
+        new EscapeAnalysisIntraMethodAnalysis().visitUnknown(ctxt, method);
+        EscapeAnalysisState state = EscapeAnalysisState.get(ctxt);
+        // only arrays of a small constant length are kept off the heap
+        assertTrue(state.isNotEscapingMethod(small, method));
+        assertFalse(state.isNotEscapingMethod(large, method));
+    }
+
+    @Test
+    public void testAnalyzeStoreIntoLoadedObject() {
+        defineThreadClasses();
+        ClassObjectType holder = defineHolderClass();
+        InstanceFieldElement f = (InstanceFieldElement) holder.getDefinition().load().getField(0);
+        StaticFieldElement holderField = defineStaticHolderField("ea/LoadedStatics");
+        MethodElement method = defineMethod(holder.getDefinition(), "storeIntoLoaded", ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(method);
+        bbb.begin(new BlockLabel());
+        // Holder x = STATIC; x.f = new Holder();
+        Value loaded = bbb.load(lf.literalOf(holderField));
+        Value stored = bbb.new_(holder, lf.literalOfType(holder), lf.literalOf(16L), lf.literalOf(8L));
+        bbb.store(bbb.instanceFieldOf(bbb.decodeReference(loaded), f), stored);
+        // Holder local = new Holder(); local.f = new Holder();
+        Value local = bbb.new_(holder, lf.literalOfType(holder), lf.literalOf(16L), lf.literalOf(8L));
+        Value contained = bbb.new_(holder, lf.literalOfType(holder), lf.literalOf(16L), lf.literalOf(8L));
+        bbb.store(bbb.instanceFieldOf(bbb.decodeReference(local), f), contained);
+        bbb.return_();
+        finish(bbb);
+
+        new EscapeAnalysisIntraMethodAnalysis().visitUnknown(ctxt, method);
+        EscapeAnalysisState state = EscapeAnalysisState.get(ctxt);
+        state.getConnectionGraph(method).updateAtMethodExit();
+        // the loaded object might be reachable from anywhere, but the local one is not
+        assertFalse(state.isNotEscapingMethod(stored, method));
+        assertTrue(state.isNotEscapingMethod(local, method));
+        assertTrue(state.isNotEscapingMethod(contained, method));
+    }
+
+    @Test
+    public void testAnalyzeStoreIntoEscapingObject() {
+        defineThreadClasses();
+        ClassObjectType holder = defineHolderClass();
+        InstanceFieldElement f = (InstanceFieldElement) holder.getDefinition().load().getField(0);
+        StaticFieldElement holderField = defineStaticHolderField("ea/EscapingStatics");
+        MethodElement method = defineMethod(holder.getDefinition(), "storeIntoEscaping", ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(method);
+        bbb.begin(new BlockLabel());
+        // Holder outer = new Holder(); outer.f = new Holder(); STATIC = outer;
+        Value outer = bbb.new_(holder, lf.literalOfType(holder), lf.literalOf(16L), lf.literalOf(8L));
+        Value inner = bbb.new_(holder, lf.literalOfType(holder), lf.literalOf(16L), lf.literalOf(8L));
+        bbb.store(bbb.instanceFieldOf(bbb.decodeReference(outer), f), inner);
+        bbb.store(lf.literalOf(holderField), outer);
+        bbb.return_();
+        finish(bbb);
+
+        new EscapeAnalysisIntraMethodAnalysis().visitUnknown(ctxt, method);
+        EscapeAnalysisState state = EscapeAnalysisState.get(ctxt);
+        // the stored object is only known to escape once the escape of its container is propagated at method exit
+        assertTrue(state.isNotEscapingMethod(inner, method));
+        state.getConnectionGraph(method).updateAtMethodExit();
+        assertFalse(state.isNotEscapingMethod(outer, method));
+        assertFalse(state.isNotEscapingMethod(inner, method));
+    }
+
+    @Test
+    public void testCoarsenExitAndEnter() {
+        DefinedTypeDefinition def = defineClass("ea/Coarsen", null);
+        ClassObjectType type = def.load().getClassType();
+        MethodElement method = defineMethod(def, "run", ClassFile.ACC_STATIC);
+        BasicBlockBuilder bbb = newBuilder(method);
+        BlockLabel entry = new BlockLabel();
+        bbb.begin(entry);
+        BlockParameter lock = bbb.addParam(entry, Slot.funcParam(0), type.getReference(), false);
+        BlockParameter other = bbb.addParam(entry, Slot.funcParam(1), type.getReference(), false);
+        bbb.monitorEnter(lock);
+        bbb.monitorExit(lock);
+        // directly re-entered: coarsened
+        bbb.monitorEnter(lock);
+        bbb.monitorExit(lock);
+        // re-entered on another object: kept
+        bbb.monitorEnter(other);
+        bbb.monitorExit(other);
+        bbb.return_();
+        BasicBlock entryBlock = finish(bbb);
+
+        EscapeAnalysisState state = new EscapeAnalysisState();
+        state.addMethod(method, new ConnectionGraph(method));
+
+        BasicBlock copy = copy(entryBlock, (c, d) -> new EscapeAnalysisOptimizeVisitor(c, d, state));
+        List<MonitorEnter> enters = findNodes(copy, MonitorEnter.class);
+        List<MonitorExit> exits = findNodes(copy, MonitorExit.class);
+        assertEquals(2, enters.size());
+        assertEquals(2, exits.size());
+        assertEquals(List.of(lock.getSlot(), other.getSlot()), enters.stream().map(MonitorEnter::getInstance).map(EscapeAnalysisOptimizeVisitorTest::slotOf).toList());
+        assertEquals(List.of(lock.getSlot(), other.getSlot()), exits.stream().map(MonitorExit::getInstance).map(EscapeAnalysisOptimizeVisitorTest::slotOf).toList());
+    }
+
+    private static void defineThreadClasses() {
+        // the analysis checks allocations against these classes; a class without a superclass would be the root
+        if (bootClassContext.findDefinedType("java/lang/Thread") == null) {
+            DefinedTypeDefinition root = defineClass("ea/Root", null);
+            bootClassContext.defineClass("java/lang/Thread", defineClass("java/lang/Thread", root));
+            bootClassContext.defineClass("java/lang/ThreadGroup", defineClass("java/lang/ThreadGroup", root));
+        }
+    }
+
+    private static ClassObjectType defineHolderClass() {
+        // a class with a single field which refers to another instance of the class
+        DefinedTypeDefinition holder = bootClassContext.findDefinedType("ea/Holder");
+        if (holder == null) {
+            holder = defineClass("ea/Holder", null, List.of(), ClassTypeDescriptor.synthesize(bootClassContext, "ea/Holder"), "f");
+            bootClassContext.defineClass("ea/Holder", holder);
+        }
+        return holder.load().getClassType();
+    }
+
+    private static StaticFieldElement defineStaticHolderField(String className) {
+        DefinedTypeDefinition def = defineClass(className, null, List.of(), ClassTypeDescriptor.synthesize(bootClassContext, "ea/Holder"), ClassFile.ACC_STATIC, "STATIC");
+        return (StaticFieldElement) def.load().getField(0);
+    }
+
+    private static Slot slotOf(Value value) {
+        return value instanceof BlockParameter bp ? bp.getSlot() : null;
+    }
+}
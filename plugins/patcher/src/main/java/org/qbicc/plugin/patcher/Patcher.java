@@ -108,6 +108,18 @@ public class Patcher {
         }
     }
 
+    /**
+     * Process a patch class which is not listed in any {@code qbicc-patch-info} resource, for patches which only apply
+     * to some builds.  The patches must be processed before the patched class is first defined.
+     *
+     * @param classContext the class context of the patch class and the patched class (must not be {@code null})
+     * @param className the binary name of the patch class (must not be {@code null})
+     */
+    public static void addPatchClass(ClassContext classContext, String className) {
+        Patcher patcher = get(classContext.getCompilationContext());
+        patcher.getOrAdd(classContext).processClass(classContext, className);
+    }
+
     public static DefinedTypeDefinition.Builder getTypeBuilder(ClassContext classContext, DefinedTypeDefinition.Builder delegate) {
         Patcher patcher = get(classContext.getCompilationContext());
         ClassContextPatchInfo contextInfo = patcher.get(classContext);
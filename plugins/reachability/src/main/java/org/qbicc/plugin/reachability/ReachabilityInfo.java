@@ -70,6 +70,9 @@ public class ReachabilityInfo {
     private final Map<LoadedTypeDefinition, Set<LoadedTypeDefinition>> classHierarchy = new ConcurrentHashMap<>();
     // Tracks reachable interfaces and their (direct) reachable implementors
     private final Map<LoadedTypeDefinition, Set<LoadedTypeDefinition>> interfaceHierarchy = new ConcurrentHashMap<>();
+    // The reachable class and interface hierarchies of the previous phase, for speculative optimizations
+    private volatile Map<LoadedTypeDefinition, Set<LoadedTypeDefinition>> previousClassHierarchy = Map.of();
+    private volatile Map<LoadedTypeDefinition, Set<LoadedTypeDefinition>> previousInterfaceHierarchy = Map.of();
 
     // Set of instance methods of reachable types that are dispatched to (need slots allocated in vtable/itable dispatching tables)
     private final Set<MethodElement> dispatchableMethods = ConcurrentHashMap.newKeySet();
@@ -102,6 +105,8 @@ public class ReachabilityInfo {
 
     public static void clear(CompilationContext ctxt) {
         ReachabilityInfo info = get(ctxt);
+        info.previousClassHierarchy = Map.copyOf(info.classHierarchy);
+        info.previousInterfaceHierarchy = Map.copyOf(info.interfaceHierarchy);
         info.classHierarchy.clear();
         info.interfaceHierarchy.clear();
         info.dispatchableMethods.clear();
@@ -241,6 +246,39 @@ public class ReachabilityInfo {
         }
     }
 
+    /**
+     * Visit the classes which were instantiated in the previous phase and which are subtypes of the given
+     * class or interface, including the class itself.  Unlike the other methods of this class, the result is
+     * complete for the previous phase even while the current phase is still discovering reachable types,
+     * but it may be missing classes which are instantiated for the first time in the current phase.
+     * Thus, it is only suitable for speculative optimizations.
+     *
+     * @param type the class or interface (must not be {@code null})
+     * @param function the function to call for each instantiated class
+     */
+    public void visitPreviouslyInstantiatedSubclasses(LoadedTypeDefinition type, Consumer<LoadedTypeDefinition> function) {
+        Set<LoadedTypeDefinition> toProcess = new HashSet<>();
+        collectPreviousSubtypes(type, toProcess);
+        Facts facts = Facts.get(ctxt);
+        for (LoadedTypeDefinition cls : toProcess) {
+            if (! cls.isInterface() && facts.hadFact(cls, TypeReachabilityFacts.IS_INSTANTIATED)) {
+                function.accept(cls);
+            }
+        }
+    }
+
+    private void collectPreviousSubtypes(LoadedTypeDefinition type, Set<LoadedTypeDefinition> toProcess) {
+        if (! toProcess.add(type)) {
+            return;
+        }
+        Set<LoadedTypeDefinition> children = type.isInterface() ? previousInterfaceHierarchy.get(type) : previousClassHierarchy.get(type);
+        if (children != null) {
+            for (LoadedTypeDefinition child : children) {
+                collectPreviousSubtypes(child, toProcess);
+            }
+        }
+    }
+
     public void visitReachableTypes(Consumer<LoadedTypeDefinition> function) {
         for (LoadedTypeDefinition t: classHierarchy.keySet()) {
             function.accept(t);
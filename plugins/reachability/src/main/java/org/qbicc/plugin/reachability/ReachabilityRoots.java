@@ -1,5 +1,6 @@
 package org.qbicc.plugin.reachability;
 
+import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -70,6 +71,12 @@ public class ReachabilityRoots {
         return added;
     }
 
+    public Set<ExecutableElement> getMethodRoots() {
+        Set<ExecutableElement> set = new HashSet<>(autoQueuedMethods);
+        set.addAll(reflectiveMethods);
+        return set;
+    }
+
     public boolean registerDispatchTableEntry(ExecutableElement e) {
         return dispatchTableMethods.add(e);
     }
@@ -1,5 +1,7 @@
 package org.qbicc.plugin.serialization;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -83,6 +85,7 @@ import static org.qbicc.graph.atomic.AccessModes.SinglePlain;
 
 public class BuildtimeHeap {
     private static final AttachmentKey<BuildtimeHeap> KEY = new AttachmentKey<>();
+    private static final AttachmentKey<Boolean> RAW_DATA_KEY = new AttachmentKey<>();
     private static final Logger slog = Logger.getLogger("org.qbicc.plugin.serialization.stats");
 
     private final CompilationContext ctxt;
@@ -96,6 +99,15 @@ public class BuildtimeHeap {
      * For interning VmObjects
      */
     private final IdentityHashMap<VmObject, DataDeclaration> vmObjects = new IdentityHashMap<>();
+    /**
+     * For sharing structurally identical {@code String} payload arrays, per section
+     */
+    private final SharedPayloads sharedPayloads = new SharedPayloads();
+    /**
+     * The declarations that the {@code value} field of a {@code String} refers to, by payload array; only consulted
+     * when serializing that field
+     */
+    private final IdentityHashMap<VmObject, DataDeclaration> stringPayloads = new IdentityHashMap<>();
     /**
      * For interning native memory
      */
@@ -135,12 +147,23 @@ public class BuildtimeHeap {
      */
     private final Map<FieldElement, GlobalVariableElement> staticFields = new ConcurrentHashMap<>();
 
+    /**
+     * If true, the contents of primitive arrays are emitted as raw byte images in target byte order
+     */
+    private final boolean rawData;
+    /**
+     * The {@code value} field of {@code java.lang.String}
+     */
+    private final FieldElement stringValueField;
+
     private int literalCounter = 0;
 
     private BuildtimeHeap(CompilationContext ctxt) {
         this.ctxt = ctxt;
         this.layout = Layout.get(ctxt);
         this.coreClasses = CoreClasses.get(ctxt);
+        this.rawData = ctxt.getAttachment(RAW_DATA_KEY) == Boolean.TRUE;
+        this.stringValueField = ctxt.getBootstrapClassContext().findDefinedType("java/lang/String").load().findField("value");
 
         Platform p = ctxt.getPlatform();
         refSection = Section.defineSection(ctxt, 0, "refs", Segment.DATA, Section.Flag.DATA_ONLY);
@@ -165,10 +188,25 @@ public class BuildtimeHeap {
         return heap;
     }
 
+    /**
+     * Emit the contents of primitive arrays in the initial heap as raw byte images rather than as lists of
+     * element literals.  A byte image is emitted as a single string constant, which is much cheaper for the
+     * backend to parse and compile than one constant per element, particularly for large {@code char[]},
+     * {@code int[]}, and {@code long[]} arrays.  Must be called before the heap is first accessed.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    public static void enableRawData(CompilationContext ctxt) {
+        ctxt.putAttachment(RAW_DATA_KEY, Boolean.TRUE);
+    }
+
     public static void reportStats(CompilationContext ctxt) {
         if (!slog.isDebugEnabled()) return;
         BuildtimeHeap heap = ctxt.getAttachment(KEY);
         slog.debugf("The initial heap contains %,d objects.", heap.vmObjects.size());
+        long payloadHeaderSize = heap.layout.getInstanceLayoutInfo(heap.coreClasses.getByteArrayContentField().getEnclosingType()).getStructType().getSize();
+        int sharedPayloadCount = heap.sharedPayloads.getSharedCount();
+        slog.debugf("Merged %,d duplicate String payload arrays, saving %,d bytes.", sharedPayloadCount, sharedPayloadCount * payloadHeaderSize + heap.sharedPayloads.getSharedBytes());
         HashMap<LoadedTypeDefinition, Integer> instanceCounts = new HashMap<>();
         for (VmObject obj : heap.vmObjects.keySet()) {
             LoadedTypeDefinition ltd = obj.getVmClass().getTypeDefinition();
@@ -388,12 +426,17 @@ public class BuildtimeHeap {
                 ctxt.warning("Requested VmObject not found in build time heap: " + value);
                 return lf.nullLiteralOfType(desiredType);
             }
-            DataDeclaration decl = from.declareData(objDecl);
-            if (desiredType instanceof ReferenceType rt) {
-                return lf.encodeReferenceLiteral(lf.literalOf(decl), rt);
-            } else {
-                return lf.bitcastLiteral(lf.literalOf(decl), desiredType);
-            }
+            return referToDeclaration(objDecl, desiredType, from);
+        }
+    }
+
+    private Literal referToDeclaration(DataDeclaration objDecl, NullableType desiredType, ProgramModule from) {
+        LiteralFactory lf  = ctxt.getLiteralFactory();
+        DataDeclaration decl = from.declareData(objDecl);
+        if (desiredType instanceof ReferenceType rt) {
+            return lf.encodeReferenceLiteral(lf.literalOf(decl), rt);
+        } else {
+            return lf.bitcastLiteral(lf.literalOf(decl), desiredType);
         }
     }
 
@@ -454,6 +497,34 @@ public class BuildtimeHeap {
         }
     }
 
+    /**
+     * Serialize the payload array of a {@code String}.  The payload of a {@code String} is never modified, locked, or
+     * compared by identity, and it is not reachable other than through the {@code String} itself, so payloads with
+     * identical contents can share a single serialized copy.  Payloads are only shared within a section, so that the
+     * interned string section never refers to objects in other sections.
+     * <p>
+     * The sharing is only visible to the {@code value} field of {@code String}s.  A duplicate payload which is also
+     * referred to from anywhere else is serialized as an object of its own for those other references.
+     *
+     * @return the declaration that the {@code value} field should refer to
+     */
+    private DataDeclaration serializeStringPayload(VmObject value, ModuleSection into) {
+        DataDeclaration decl = stringPayloads.get(value);
+        if (decl != null) {
+            return decl;
+        }
+        if (vmObjects.containsKey(value) || ! (value instanceof VmArray array) || ! (array.getArray() instanceof byte[] bytes)) {
+            serializeVmObject(value, into);
+            return vmObjects.get(value);
+        }
+        decl = sharedPayloads.getOrSerialize(into, bytes, () -> {
+            serializeVmObject(value, into);
+            return vmObjects.get(value);
+        });
+        stringPayloads.put(value, decl);
+        return decl;
+    }
+
     private boolean isRootClass(VmObject value) {
         return value instanceof VmClass vmClass && !(vmClass instanceof VmReferenceArrayClass) && vmClass.getTypeDefinition().getTypeId() != -1;
     }
@@ -474,7 +545,16 @@ public class BuildtimeHeap {
 
     private StructType arrayLiteralType(FieldElement contents, int length) {
         LoadedTypeDefinition ltd = contents.getEnclosingType().load();
-        String typeName = ltd.getInternalName() + "_" + length;
+        return arrayLiteralType(contents, ((ArrayType) contents.getType()).getElementType(), length, ltd.getInternalName() + "_" + length);
+    }
+
+    private StructType rawArrayLiteralType(FieldElement contents, int byteLength) {
+        LoadedTypeDefinition ltd = contents.getEnclosingType().load();
+        return arrayLiteralType(contents, ctxt.getTypeSystem().getSignedInteger8Type(), byteLength, ltd.getInternalName() + "_raw_" + byteLength);
+    }
+
+    private StructType arrayLiteralType(FieldElement contents, ValueType elementType, int length, String typeName) {
+        LoadedTypeDefinition ltd = contents.getEnclosingType().load();
         StructType sizedArrayType = arrayTypes.get(typeName);
         Layout layout = Layout.get(ctxt);
         if (sizedArrayType == null) {
@@ -483,7 +563,7 @@ public class BuildtimeHeap {
             StructType arrayCT = objLayout.getStructType();
 
             StructType.Member contentMem = objLayout.getMember(contents);
-            ArrayType sizedContentMem = ts.getArrayType(((ArrayType) contents.getType()).getElementType(), length);
+            ArrayType sizedContentMem = ts.getArrayType(elementType, length);
             StructType.Member realContentMem = ts.getStructTypeMember(contentMem.getName(), sizedContentMem, contentMem.getOffset(), contentMem.getAlign());
 
             Supplier<List<StructType.Member>> thunk = () -> {
@@ -615,8 +695,13 @@ public class BuildtimeHeap {
                 if (contents == null) {
                     memberMap.put(om, lf.zeroInitializerLiteralOfType(om.getType()));
                 } else {
-                    serializeVmObject(contents, into == classSection ? objectSection : into);
-                    memberMap.put(om, referToSerializedVmObject(contents, rt, into.getProgramModule()));
+                    if (f.equals(stringValueField)) {
+                        DataDeclaration decl = serializeStringPayload(contents, into == classSection ? objectSection : into);
+                        memberMap.put(om, referToDeclaration(decl, rt, into.getProgramModule()));
+                    } else {
+                        serializeVmObject(contents, into == classSection ? objectSection : into);
+                        memberMap.put(om, referToSerializedVmObject(contents, rt, into.getProgramModule()));
+                    }
                 }
             } else if (im.getType() instanceof PointerType pt) {
                 Pointer pointer = memory.loadPointer(im.getOffset(), SinglePlain);
@@ -694,13 +779,19 @@ public class BuildtimeHeap {
 
         Memory memory = value.getMemory();
         int length = memory.load32(objLayout.getMember(coreClasses.getArrayLengthField()).getOffset(), SinglePlain);
-        StructType literalCT = arrayLiteralType(contentsField, length);
+        StructType literalCT;
 
         Literal arrayContentsLiteral;
-        if (contentsField.equals(coreClasses.getByteArrayContentField())) {
+        byte[] rawContents = rawData ? rawContentsOf(value.getArray(), length, ctxt.getTypeSystem().getEndianness()) : null;
+        if (rawContents != null) {
+            literalCT = rawArrayLiteralType(contentsField, rawContents.length);
+            arrayContentsLiteral = lf.literalOf(ctxt.getTypeSystem().getArrayType(ctxt.getTypeSystem().getSignedInteger8Type(), rawContents.length), rawContents);
+        } else if (contentsField.equals(coreClasses.getByteArrayContentField())) {
+            literalCT = arrayLiteralType(contentsField, length);
             byte[] contents = (byte[]) value.getArray();
             arrayContentsLiteral = lf.literalOf(ctxt.getTypeSystem().getArrayType(at.getElementType(), length), contents);
         } else {
+            literalCT = arrayLiteralType(contentsField, length);
             List<Literal> elements = new ArrayList<>(length);
             if (contentsField.equals(coreClasses.getBooleanArrayContentField())) {
                 boolean[] contents = (boolean[]) value.getArray();
@@ -753,6 +844,50 @@ public class BuildtimeHeap {
         return arrayData.getDeclaration();
     }
 
+    /**
+     * Get the image of the contents of a primitive array in target memory, in the given byte order.  {@code byte[]}
+     * contents are already emitted as a byte string, so they have no separate raw image.
+     *
+     * @param array the array contents (must not be {@code null})
+     * @param length the number of elements to include
+     * @param order the target byte order (must not be {@code null})
+     * @return the raw image, or {@code null} if {@code array} is a {@code byte[]}
+     */
+    static byte[] rawContentsOf(Object array, int length, ByteOrder order) {
+        if (array instanceof byte[]) {
+            return null;
+        }
+        if (array instanceof boolean[] contents) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) (contents[i] ? 1 : 0);
+            }
+            return bytes;
+        }
+        ByteBuffer buf;
+        if (array instanceof short[] contents) {
+            buf = ByteBuffer.allocate(length * Short.BYTES).order(order);
+            buf.asShortBuffer().put(contents, 0, length);
+        } else if (array instanceof char[] contents) {
+            buf = ByteBuffer.allocate(length * Character.BYTES).order(order);
+            buf.asCharBuffer().put(contents, 0, length);
+        } else if (array instanceof int[] contents) {
+            buf = ByteBuffer.allocate(length * Integer.BYTES).order(order);
+            buf.asIntBuffer().put(contents, 0, length);
+        } else if (array instanceof long[] contents) {
+            buf = ByteBuffer.allocate(length * Long.BYTES).order(order);
+            buf.asLongBuffer().put(contents, 0, length);
+        } else if (array instanceof float[] contents) {
+            buf = ByteBuffer.allocate(length * Float.BYTES).order(order);
+            buf.asFloatBuffer().put(contents, 0, length);
+        } else {
+            double[] contents = (double[]) array;
+            buf = ByteBuffer.allocate(length * Double.BYTES).order(order);
+            buf.asDoubleBuffer().put(contents, 0, length);
+        }
+        return buf.array();
+    }
+
     private DataDeclaration serializeNativeMemory(GlobalVariableElement globalVariable, byte[] bytes, ModuleSection into) {
         DataDeclaration existing = nativeMemory.get(globalVariable);
         if (existing != null) {
@@ -0,0 +1,61 @@
+package org.qbicc.plugin.serialization;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+import org.qbicc.object.DataDeclaration;
+import org.qbicc.object.ModuleSection;
+
+/**
+ * The serialized payload arrays of {@code String}s in the initial heap, shared by contents within each section.
+ * The coder of a {@code String} is not part of its payload, but the same characters have different payload bytes
+ * in each coder, so only payloads which are byte-for-byte equal are shared.
+ */
+final class SharedPayloads {
+    private final HashMap<Key, DataDeclaration> declarations = new HashMap<>();
+    private int sharedCount;
+    private long sharedBytes;
+
+    /**
+     * Get the declaration of the payload with the given contents in the given section.  The first payload with
+     * these contents in the section is serialized by the given serializer; every later one shares its declaration.
+     *
+     * @param section the section of the payload (must not be {@code null})
+     * @param contents the payload contents, which must not be modified afterwards (must not be {@code null})
+     * @param serializer the serializer of the first such payload (must not be {@code null})
+     * @return the declaration of the shared payload (not {@code null})
+     */
+    DataDeclaration getOrSerialize(ModuleSection section, byte[] contents, Supplier<DataDeclaration> serializer) {
+        Key key = new Key(section, ByteBuffer.wrap(contents));
+        DataDeclaration decl = declarations.get(key);
+        if (decl == null) {
+            decl = serializer.get();
+            declarations.put(key, decl);
+        } else {
+            sharedCount++;
+            sharedBytes += contents.length;
+        }
+        return decl;
+    }
+
+    /**
+     * Get the number of payloads which share an earlier payload's declaration.
+     *
+     * @return the number of shared payloads
+     */
+    int getSharedCount() {
+        return sharedCount;
+    }
+
+    /**
+     * Get the total length of the contents of the payloads which share an earlier payload's declaration.
+     *
+     * @return the number of content bytes not serialized
+     */
+    long getSharedBytes() {
+        return sharedBytes;
+    }
+
+    private record Key(ModuleSection section, ByteBuffer contents) {}
+}
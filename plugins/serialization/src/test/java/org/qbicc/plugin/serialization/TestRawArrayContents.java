@@ -0,0 +1,89 @@
+package org.qbicc.plugin.serialization;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteOrder;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the raw images of primitive array contents emitted by {@code --opt-heap-byte-strings}, against an image built
+ * element by element.
+ */
+public class TestRawArrayContents {
+    private static final ByteOrder[] ORDERS = { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN };
+
+    @Test
+    public void testShortAndCharArrays() {
+        short[] shorts = { 1, -2, 0x1234, Short.MIN_VALUE };
+        char[] chars = { 'a', '\u00e9', '\u20ac', '\uffff' };
+        for (ByteOrder order : ORDERS) {
+            assertArrayEquals(image(order, 2, shorts[0], shorts[1], shorts[2], shorts[3]), BuildtimeHeap.rawContentsOf(shorts, shorts.length, order), order.toString());
+            assertArrayEquals(image(order, 2, chars[0], chars[1], chars[2], chars[3]), BuildtimeHeap.rawContentsOf(chars, chars.length, order), order.toString());
+        }
+    }
+
+    @Test
+    public void testIntAndFloatArrays() {
+        int[] ints = { 0, -1, 0x12345678, Integer.MIN_VALUE };
+        float[] floats = { 0.0f, -1.5f, Float.NaN, Float.MAX_VALUE };
+        for (ByteOrder order : ORDERS) {
+            assertArrayEquals(image(order, 4, ints[0], ints[1], ints[2], ints[3]), BuildtimeHeap.rawContentsOf(ints, ints.length, order), order.toString());
+            long[] bits = new long[floats.length];
+            for (int i = 0; i < floats.length; i ++) {
+                bits[i] = Float.floatToRawIntBits(floats[i]);
+            }
+            assertArrayEquals(image(order, 4, bits), BuildtimeHeap.rawContentsOf(floats, floats.length, order), order.toString());
+        }
+    }
+
+    @Test
+    public void testLongAndDoubleArrays() {
+        long[] longs = { 0L, -1L, 0x0123456789abcdefL, Long.MIN_VALUE };
+        double[] doubles = { 0.0, -1.5, Double.MIN_VALUE, Double.NEGATIVE_INFINITY };
+        for (ByteOrder order : ORDERS) {
+            assertArrayEquals(image(order, 8, longs), BuildtimeHeap.rawContentsOf(longs, longs.length, order), order.toString());
+            long[] bits = new long[doubles.length];
+            for (int i = 0; i < doubles.length; i ++) {
+                bits[i] = Double.doubleToRawLongBits(doubles[i]);
+            }
+            assertArrayEquals(image(order, 8, bits), BuildtimeHeap.rawContentsOf(doubles, doubles.length, order), order.toString());
+        }
+    }
+
+    @Test
+    public void testBooleanArray() {
+        boolean[] booleans = { true, false, false, true };
+        for (ByteOrder order : ORDERS) {
+            assertArrayEquals(new byte[] { 1, 0, 0, 1 }, BuildtimeHeap.rawContentsOf(booleans, booleans.length, order));
+        }
+    }
+
+    @Test
+    public void testLengthLimitsImage() {
+        int[] ints = { 1, 2, 3, 4 };
+        assertArrayEquals(image(ByteOrder.LITTLE_ENDIAN, 4, 1, 2), BuildtimeHeap.rawContentsOf(ints, 2, ByteOrder.LITTLE_ENDIAN));
+        assertArrayEquals(new byte[0], BuildtimeHeap.rawContentsOf(new long[0], 0, ByteOrder.BIG_ENDIAN));
+    }
+
+    @Test
+    public void testByteArrayHasNoRawImage() {
+        // byte[] contents are emitted as a byte string either way
+        assertNull(BuildtimeHeap.rawContentsOf(new byte[] { 1, 2, 3 }, 3, ByteOrder.LITTLE_ENDIAN));
+        assertNull(BuildtimeHeap.rawContentsOf(new byte[] { 1, 2, 3 }, 3, ByteOrder.BIG_ENDIAN));
+    }
+
+    /**
+     * Build the memory image of the given elements one at a time, each stored in the given number of bytes.
+     */
+    private static byte[] image(ByteOrder order, int size, long... elements) {
+        byte[] bytes = new byte[elements.length * size];
+        for (int i = 0; i < elements.length; i ++) {
+            for (int j = 0; j < size; j ++) {
+                int shift = order == ByteOrder.LITTLE_ENDIAN ? j * 8 : (size - 1 - j) * 8;
+                bytes[i * size + j] = (byte) (elements[i] >>> shift);
+            }
+        }
+        return bytes;
+    }
+}
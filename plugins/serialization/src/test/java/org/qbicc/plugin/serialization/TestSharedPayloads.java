@@ -0,0 +1,88 @@
+package org.qbicc.plugin.serialization;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.object.DataDeclaration;
+import org.qbicc.object.ModuleSection;
+import org.qbicc.object.ProgramModule;
+import org.qbicc.object.Section;
+import org.qbicc.object.Segment;
+import org.qbicc.test.AbstractGraphTestCase;
+
+/**
+ * Tests of the sharing of {@code String} payload arrays in the initial heap.
+ */
+public class TestSharedPayloads extends AbstractGraphTestCase {
+
+    @Test
+    public void testEqualPayloadsShareOneDeclaration() {
+        ModuleSection section = sectionNamed("payloads-equal");
+        SharedPayloads payloads = new SharedPayloads();
+        AtomicInteger serialized = new AtomicInteger();
+        DataDeclaration first = payloads.getOrSerialize(section, latin1("hello"), serializer(section, serialized, 5));
+        // a distinct array with the same contents
+        DataDeclaration second = payloads.getOrSerialize(section, latin1("hello"), serializer(section, serialized, 5));
+        assertSame(first, second);
+        assertEquals(1, serialized.get());
+        assertEquals(1, payloads.getSharedCount());
+        assertEquals(5, payloads.getSharedBytes());
+    }
+
+    @Test
+    public void testDifferentContentsAreNotShared() {
+        ModuleSection section = sectionNamed("payloads-contents");
+        SharedPayloads payloads = new SharedPayloads();
+        AtomicInteger serialized = new AtomicInteger();
+        DataDeclaration hello = payloads.getOrSerialize(section, latin1("hello"), serializer(section, serialized, 5));
+        DataDeclaration world = payloads.getOrSerialize(section, latin1("world"), serializer(section, serialized, 5));
+        DataDeclaration prefix = payloads.getOrSerialize(section, latin1("hell"), serializer(section, serialized, 4));
+        assertNotSame(hello, world);
+        assertNotSame(hello, prefix);
+        assertEquals(3, serialized.get());
+        assertEquals(0, payloads.getSharedCount());
+    }
+
+    @Test
+    public void testDifferentCodersAreNotShared() {
+        ModuleSection section = sectionNamed("payloads-coder");
+        SharedPayloads payloads = new SharedPayloads();
+        AtomicInteger serialized = new AtomicInteger();
+        // the same text as a LATIN1 and as a UTF16 payload
+        DataDeclaration latin1 = payloads.getOrSerialize(section, latin1("hi"), serializer(section, serialized, 2));
+        DataDeclaration utf16 = payloads.getOrSerialize(section, "hi".getBytes(StandardCharsets.UTF_16LE), serializer(section, serialized, 4));
+        assertNotSame(latin1, utf16);
+        assertEquals(2, serialized.get());
+        assertSame(utf16, payloads.getOrSerialize(section, "hi".getBytes(StandardCharsets.UTF_16LE), serializer(section, serialized, 4)));
+        assertEquals(2, serialized.get());
+    }
+
+    @Test
+    public void testPayloadsAreNotSharedAcrossSections() {
+        ModuleSection strings = sectionNamed("payloads-strings");
+        ModuleSection objects = sectionNamed("payloads-objects");
+        SharedPayloads payloads = new SharedPayloads();
+        AtomicInteger serialized = new AtomicInteger();
+        DataDeclaration inStrings = payloads.getOrSerialize(strings, latin1("hello"), serializer(strings, serialized, 5));
+        DataDeclaration inObjects = payloads.getOrSerialize(objects, latin1("hello"), serializer(objects, serialized, 5));
+        assertNotSame(inStrings, inObjects);
+        assertEquals(2, serialized.get());
+    }
+
+    private static ModuleSection sectionNamed(String name) {
+        ProgramModule module = ctxt.getOrAddProgramModule(defineClass("payloads/" + name, null));
+        return module.inSection(Section.defineSection(ctxt, 4, name, Segment.DATA, Section.Flag.DATA_ONLY));
+    }
+
+    private static Supplier<DataDeclaration> serializer(ModuleSection section, AtomicInteger serialized, int length) {
+        return () -> section.getProgramModule().declareData(null, section.getSection().getName() + "_" + serialized.getAndIncrement(), ts.getArrayType(ts.getSignedInteger8Type(), length));
+    }
+
+    private static byte[] latin1(String str) {
+        return str.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -80,6 +80,15 @@ public final class Heap {
      */
     public static native int getConfiguredObjectAlignment();
 
+    /**
+     * Get the constant, build-time-configured upper limit of heap addresses, in bytes.  When references are narrower
+     * than pointers, every object must be located below this address; otherwise, the value is zero and the heap may
+     * be located anywhere.
+     *
+     * @return the configured heap address limit, or zero if there is none
+     */
+    public static native long getConfiguredHeapAddressLimit();
+
     /**
      * An OOME that can always be safely thrown without allocating anything on the heap.
      */
@@ -357,7 +366,14 @@ public final class Heap {
         if (Build.Target.isWasm()) {
              heap = malloc(word(1073741824));
         } else {
-            heap = mmap(zero(),
+            long addressLimit = getConfiguredHeapAddressLimit();
+            if (addressLimit != 0 && maxHeap + heapAlignment >= addressLimit) {
+                errorMsgTemplate = utf8z("Maximum heap size (-Xmx) is too large for the reference address limit\n").cast();
+                return false;
+            }
+            // narrow references need the whole heap below the limit; hint for a spot above the image which leaves room for it
+            void_ptr hint = addressLimit == 0 ? zero() : word(Math.min(addressLimit >> 2, addressLimit - maxHeap - heapAlignment) & ~(heapAlignment - 1));
+            heap = mmap(hint,
                 word(maxHeap + heapAlignment),
                 PROT_NONE,
                 wordOr(MAP_ANON, MAP_PRIVATE),
@@ -370,6 +386,11 @@ public final class Heap {
                 // failed
                 return false;
             }
+            if (addressLimit != 0 && heap.longValue() + maxHeap + heapAlignment > addressLimit) {
+                munmap(heap, word(maxHeap + heapAlignment));
+                errorMsgTemplate = utf8z("Failed to map initial heap below the reference address limit\n").cast();
+                return false;
+            }
             // align the heap
             long misalignment = heap.longValue() & (heapAlignment - 1);
             // release the extra address space at the start and the end
@@ -7,6 +7,7 @@ import static org.qbicc.runtime.stdc.String.*;
 import org.qbicc.runtime.AutoQueued;
 import org.qbicc.runtime.Hidden;
 import org.qbicc.runtime.NoSafePoint;
+import org.qbicc.runtime.ThreadScoped;
 import org.qbicc.runtime.gc.heap.Heap;
 
 /**
@@ -15,14 +16,79 @@ import org.qbicc.runtime.gc.heap.Heap;
 public final class NoGcHelpers {
     private NoGcHelpers() {}
 
+    /**
+     * The size of each thread-local allocation buffer.
+     */
+    private static final long TLAB_SIZE = 64 * 1024;
+
     // our allocation position
     private static long pos;
 
+    /**
+     * The address of the next free byte in this thread's allocation buffer.
+     */
+    @ThreadScoped
+    private static long tlabTop;
+    /**
+     * The address of the end of this thread's allocation buffer.
+     */
+    @ThreadScoped
+    private static long tlabEnd;
+
+    /**
+     * Allocate an object directly from the shared heap.
+     */
     @Hidden
     @AutoQueued
     @NoSafePoint
     public static Object allocate(long size, int align) {
         // todo: per-object alignment - should we allow it? perhaps not (ignore for now)
+        return ptrToRef(Heap.pointerToOffset(allocateShared(alignObjectSize(size))));
+    }
+
+    /**
+     * Allocate an object from the current thread's allocation buffer, refilling it from the shared heap if needed.
+     * The bump-pointer fast path is usually emitted inline at each allocation site, so this method is mainly reached
+     * when the buffer is exhausted.  There must be a current thread object.
+     */
+    @Hidden
+    @AutoQueued
+    @NoSafePoint
+    public static Object allocateLocal(long size, int align) {
+        long alignedSize = alignObjectSize(size);
+        long top = tlabTop;
+        if (top + alignedSize <= tlabEnd) {
+            tlabTop = top + alignedSize;
+            void_ptr ptr = word(top);
+            return ptrToRef(ptr);
+        }
+        if (alignedSize > TLAB_SIZE >> 2) {
+            // large objects bypass the allocation buffer so that it is not wasted
+            return ptrToRef(Heap.pointerToOffset(allocateShared(alignedSize)));
+        }
+        // retire the rest of the current buffer and start a new one
+        void_ptr base = Heap.pointerToOffset(allocateShared(TLAB_SIZE));
+        tlabTop = base.longValue() + alignedSize;
+        tlabEnd = base.longValue() + TLAB_SIZE;
+        return ptrToRef(base);
+    }
+
+    @Hidden
+    @NoSafePoint
+    private static long alignObjectSize(long size) {
+        long objAlignMask = Heap.getConfiguredObjectAlignment() - 1;
+        return size + objAlignMask & ~objAlignMask;
+    }
+
+    /**
+     * Allocate a block from the shared heap.
+     *
+     * @param size the block size, which must be a multiple of the object alignment
+     * @return the heap offset of the block
+     */
+    @Hidden
+    @NoSafePoint
+    private static long allocateShared(long size) {
         int64_t_ptr posPtr = addr_of(pos);
 
         long oldPos, newPos;
@@ -42,14 +108,8 @@ public final class NoGcHelpers {
                 }
             }
             newPos = oldPos + size;
-            int objAlign = Heap.getConfiguredObjectAlignment();
-            int objAlignMask = objAlign - 1;
-            long misalign = newPos & objAlignMask;
-            if (misalign != 0) {
-                newPos += objAlign - misalign;
-            }
             if (posPtr.compareAndSetRelease(word(oldPos), word(newPos))) {
-                return ptrToRef(Heap.pointerToOffset(oldPos));
+                return oldPos;
             }
             Thread.onSpinWait();
         }
@@ -17,6 +17,10 @@ public final class Monitor {
 
     private final ReentrantLock lock;
     private final Condition condition;
+    /**
+     * The condition that threads contending for a thin lock wait on until it is inflated.
+     */
+    private final Condition inflated;
 
     /**
      * Construct a new instance.
@@ -24,6 +28,7 @@ public final class Monitor {
     public Monitor() {
         lock = new ReentrantLock();
         condition = lock.newCondition();
+        inflated = lock.newCondition();
     }
 
     @Hidden
@@ -80,4 +85,22 @@ public final class Monitor {
     public void signalAll() throws IllegalMonitorStateException {
         condition.signalAll();
     }
+
+    /**
+     * Wait until the thin lock of this monitor's object is inflated.  The caller must hold this monitor, and holds it
+     * again on return.  Returns may be spurious.
+     */
+    @Hidden
+    void awaitInflation() {
+        inflated.awaitUninterruptibly();
+    }
+
+    /**
+     * Wake all threads waiting for the thin lock of this monitor's object to be inflated.  The caller must hold this
+     * monitor.
+     */
+    @Hidden
+    void signalInflation() {
+        inflated.signalAll();
+    }
 }
@@ -0,0 +1,36 @@
+package org.qbicc.runtime.main;
+
+import org.qbicc.runtime.Hidden;
+import org.qbicc.runtime.patcher.PatchClass;
+import org.qbicc.runtime.patcher.Replace;
+
+/**
+ * Routes the monitor operations of {@code Object} through the thin lock protocol.  This patch is only applied if thin
+ * locks are enabled in the build, so it is not listed in the patch info.
+ */
+@PatchClass(Object.class)
+final class ObjectAccess {
+    Monitor monitor;
+
+    @Hidden
+    @Replace
+    private void monitorEnter() {
+        ThinLock.monitorEnter(this);
+    }
+
+    @Hidden
+    @Replace
+    private void monitorExit() {
+        ThinLock.monitorExit(this);
+    }
+
+    @Replace
+    private boolean holdsLock() {
+        return ThinLock.holdsLock(this);
+    }
+
+    @Replace
+    private Monitor getMonitor() {
+        return ThinLock.getInflatedMonitor(this);
+    }
+}
@@ -0,0 +1,314 @@
+package org.qbicc.runtime.main;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
+
+import org.qbicc.runtime.AutoQueued;
+import org.qbicc.runtime.Hidden;
+import org.qbicc.runtime.NoReflect;
+import org.qbicc.runtime.ThreadScoped;
+
+/**
+ * The thin lock protocol for object monitors.
+ * <p>
+ * Every object header contains a lock word made up of an "inflated" bit, a "contended" bit, a recursion count, and
+ * the thin lock ID of the owning thread.  The lock word of an unlocked object is zero.  A thread locks an unlocked
+ * object by atomically storing its ID into the lock word; the compiler emits this fast path, and the matching unlock,
+ * inline at each monitor enter and exit, and only calls into this class if it fails.
+ * <p>
+ * The object's {@link Monitor} is used only once the lock word is inflated, which happens on contention, when the
+ * recursion count overflows, when {@code wait} or {@code notify} are called, or when the locking thread has no thin
+ * lock ID.  Once inflated, a lock word never returns to the thin state.
+ * <p>
+ * A thread which finds the thin lock held by another thread spins briefly.  If the lock is still held, it enters the
+ * monitor, sets the "contended" bit, and parks on the monitor until the lock is inflated.  The bit makes the owner's
+ * inline exit fail, and the exit slow path then inflates the lock while holding the monitor and wakes the parked
+ * threads, which acquire the monitor in turn.  Since the bit is only set while holding the monitor, and the owner
+ * must acquire the monitor to inflate, no wakeup is lost.
+ * <p>
+ * The layout of the lock word must match the one in the object monitor plugin.  This class is only used if thin locks
+ * are enabled in the build; otherwise {@code Object} is not patched to call it.
+ */
+public final class ThinLock {
+    private ThinLock() {}
+
+    private static final long INFLATED = 1L;
+    private static final long CONTENDED = 1L << 1;
+    private static final int COUNT_SHIFT = 2;
+    private static final int COUNT_BITS = 5;
+    private static final long COUNT_ONE = 1L << COUNT_SHIFT;
+    private static final long COUNT_MASK = ((1L << COUNT_BITS) - 1) << COUNT_SHIFT;
+    private static final int OWNER_SHIFT = COUNT_SHIFT + COUNT_BITS;
+    private static final int OWNER_BITS = 16;
+    private static final long OWNER_MASK = ((1L << OWNER_BITS) - 1) << OWNER_SHIFT;
+    private static final long LOCK_MASK = INFLATED | CONTENDED | COUNT_MASK | OWNER_MASK;
+    private static final int MAX_ID = (1 << OWNER_BITS) - 1;
+    private static final int SPIN_LIMIT = 100;
+
+    /**
+     * The thin lock ID of the current thread, or zero if none has been assigned.
+     */
+    @ThreadScoped
+    private static int lockId;
+
+    /**
+     * The next thin lock ID to assign.  IDs are never reused; once they are exhausted, threads lock objects by
+     * inflating them.
+     */
+    private static int nextLockId = 1;
+
+    /**
+     * Get the bit position of the lock word within the object header.
+     *
+     * @return the bit position
+     */
+    @Hidden
+    @NoReflect
+    static native int getLockWordShift();
+
+    /**
+     * Atomically read the whole header of the given object.
+     *
+     * @param obj the object (must not be {@code null})
+     * @return the object header, zero-extended
+     */
+    @Hidden
+    @NoReflect
+    static native long getHeader(Object obj);
+
+    /**
+     * Atomically compare and set the whole header of the given object.
+     *
+     * @param obj the object (must not be {@code null})
+     * @param expect the expected header value
+     * @param update the new header value
+     * @return {@code true} if the header was updated, or {@code false} if it did not have the expected value
+     */
+    @Hidden
+    @NoReflect
+    static native boolean compareAndSetHeader(Object obj, long expect, long update);
+
+    /**
+     * Enter the monitor of the given object.  This is called when the inline fast path fails.
+     *
+     * @param obj the object (must not be {@code null})
+     */
+    @Hidden
+    @AutoQueued
+    public static void monitorEnter(Object obj) {
+        int id = getOrAssignLockId();
+        int shift = getLockWordShift();
+        int spins = 0;
+        for (;;) {
+            long header = getHeader(obj);
+            long word = header >>> shift & LOCK_MASK;
+            if ((word & INFLATED) != 0) {
+                monitorOf(obj).enter();
+                return;
+            }
+            if (word == 0) {
+                if (id == 0) {
+                    // no ID: switch this object to its monitor from now on
+                    if (compareAndSetHeader(obj, header, header | INFLATED << shift)) {
+                        monitorOf(obj).enter();
+                        return;
+                    }
+                } else if (compareAndSetHeader(obj, header, header | (long) id << OWNER_SHIFT << shift)) {
+                    return;
+                }
+            } else if (id != 0 && (word & OWNER_MASK) == (long) id << OWNER_SHIFT) {
+                if ((word & COUNT_MASK) == COUNT_MASK) {
+                    // recursion count overflow
+                    inflate(obj).enter();
+                    return;
+                }
+                // only this thread changes the lock word, but other header bits may change concurrently
+                if (compareAndSetHeader(obj, header, header + (COUNT_ONE << shift))) {
+                    return;
+                }
+            } else if (++spins < SPIN_LIMIT) {
+                // another thread holds the thin lock; it may be released soon
+                Thread.onSpinWait();
+            } else {
+                enterContended(obj);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Enter the monitor of the given object, whose thin lock is held by another thread, by parking until the owner
+     * inflates the lock.
+     */
+    @Hidden
+    private static void enterContended(Object obj) {
+        int shift = getLockWordShift();
+        Monitor monitor = monitorOf(obj);
+        monitor.enter();
+        for (;;) {
+            long header = getHeader(obj);
+            long word = header >>> shift & LOCK_MASK;
+            if ((word & INFLATED) != 0) {
+                // inflated while we waited; we hold the monitor
+                return;
+            }
+            if (word == 0) {
+                // released before we parked; inflate it ourselves, holding the monitor
+                if (compareAndSetHeader(obj, header, header | INFLATED << shift)) {
+                    return;
+                }
+            } else if ((word & CONTENDED) != 0 || compareAndSetHeader(obj, header, header | CONTENDED << shift)) {
+                // the owner will inflate the lock and signal us on exit (or sooner)
+                monitor.awaitInflation();
+            }
+        }
+    }
+
+    /**
+     * Exit the monitor of the given object.  This is called when the inline fast path fails.
+     *
+     * @param obj the object (must not be {@code null})
+     * @throws IllegalMonitorStateException if the current thread does not hold the monitor
+     */
+    @Hidden
+    @AutoQueued
+    public static void monitorExit(Object obj) throws IllegalMonitorStateException {
+        int id = currentLockId();
+        int shift = getLockWordShift();
+        for (;;) {
+            long header = getHeader(obj);
+            long word = header >>> shift & LOCK_MASK;
+            if ((word & INFLATED) != 0) {
+                monitorOf(obj).exit();
+                return;
+            }
+            if (id == 0 || (word & OWNER_MASK) != (long) id << OWNER_SHIFT) {
+                throw new IllegalMonitorStateException();
+            }
+            if ((word & (CONTENDED | COUNT_MASK)) == CONTENDED) {
+                // other threads are parked on the monitor: release the lock by inflating it, and wake them
+                Monitor monitor = monitorOf(obj);
+                monitor.enter();
+                setInflated(obj, shift);
+                monitor.signalInflation();
+                monitor.exit();
+                return;
+            }
+            long update = (word & COUNT_MASK) == 0 ? header & ~(LOCK_MASK << shift) : header - (COUNT_ONE << shift);
+            if (compareAndSetHeader(obj, header, update)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Determine whether the current thread holds the monitor of the given object.
+     *
+     * @param obj the object (must not be {@code null})
+     * @return {@code true} if the current thread holds the monitor, or {@code false} otherwise
+     */
+    @Hidden
+    public static boolean holdsLock(Object obj) {
+        long word = getHeader(obj) >>> getLockWordShift() & LOCK_MASK;
+        if ((word & INFLATED) != 0) {
+            Monitor monitor = monitorOf(obj);
+            return monitor.isHeldByCurrentThread();
+        }
+        int id = currentLockId();
+        return id != 0 && (word & OWNER_MASK) == (long) id << OWNER_SHIFT;
+    }
+
+    /**
+     * Get the monitor of the given object for waiting or notification.  If the current thread holds the thin lock of
+     * the object, the lock is inflated first so that the monitor reflects the lock state.
+     *
+     * @param obj the object (must not be {@code null})
+     * @return the monitor (not {@code null})
+     */
+    @Hidden
+    public static Monitor getInflatedMonitor(Object obj) {
+        int id = currentLockId();
+        long word = getHeader(obj) >>> getLockWordShift() & LOCK_MASK;
+        if (id != 0 && (word & INFLATED) == 0 && (word & OWNER_MASK) == (long) id << OWNER_SHIFT) {
+            return inflate(obj);
+        }
+        // either already inflated, or not held by this thread (in which case the monitor rejects the operation)
+        return monitorOf(obj);
+    }
+
+    /**
+     * Inflate the thin lock held by the current thread.  The monitor is entered once for each level of recursion
+     * before the lock word is switched, so that no other thread can acquire the monitor in between.
+     */
+    @Hidden
+    private static Monitor inflate(Object obj) {
+        Monitor monitor = monitorOf(obj);
+        int shift = getLockWordShift();
+        long word = getHeader(obj) >>> shift & LOCK_MASK;
+        int count = (int) ((word & COUNT_MASK) >>> COUNT_SHIFT);
+        for (int i = 0; i <= count; i ++) {
+            monitor.enter();
+        }
+        setInflated(obj, shift);
+        // contending threads wake up and wait for the monitor instead
+        monitor.signalInflation();
+        return monitor;
+    }
+
+    /**
+     * Replace the lock word of the given object by the inflated lock word.  The current thread must hold the thin lock
+     * and the monitor; other threads may still set the "contended" bit or change other header bits concurrently.
+     */
+    @Hidden
+    private static void setInflated(Object obj, int shift) {
+        long header;
+        do {
+            header = getHeader(obj);
+        } while (! compareAndSetHeader(obj, header, header & ~(LOCK_MASK << shift) | INFLATED << shift));
+    }
+
+    @Hidden
+    private static Monitor monitorOf(Object obj) {
+        ObjectAccess access = (ObjectAccess) obj;
+        Monitor monitor = addr_of(refToPtr(access).sel().monitor).loadSingleAcquire();
+        if (monitor == null) {
+            monitor = new Monitor();
+            Monitor appearing = addr_of(refToPtr(access).sel().monitor).compareAndSwapRelease(null, monitor);
+            if (appearing != null) {
+                monitor = appearing;
+            }
+        }
+        return monitor;
+    }
+
+    /**
+     * Get the thin lock ID of the current thread, or zero if it has none or if there is no current thread.
+     */
+    @Hidden
+    private static int currentLockId() {
+        // the thread-scoped ID cannot be read without a current thread
+        return Thread.currentThread() == null ? 0 : lockId;
+    }
+
+    @Hidden
+    private static int getOrAssignLockId() {
+        if (Thread.currentThread() == null) {
+            return 0;
+        }
+        int id = lockId;
+        if (id != 0) {
+            return id;
+        }
+        int32_t_ptr nextPtr = addr_of(nextLockId);
+        int oldVal;
+        do {
+            oldVal = nextPtr.loadSingleAcquire().intValue();
+            if (oldVal > MAX_ID) {
+                // exhausted
+                return 0;
+            }
+        } while (! nextPtr.compareAndSet(word(oldVal), word(oldVal + 1)));
+        lockId = oldVal;
+        return oldVal;
+    }
+}
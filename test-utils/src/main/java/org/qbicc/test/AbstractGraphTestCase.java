@@ -0,0 +1,282 @@
+package org.qbicc.test;
+
+import static io.smallrye.common.constraint.Assert.unreachableCode;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.driver.BaseDiagnosticContext;
+import org.qbicc.driver.Driver;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.Slot;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.machine.arch.Platform;
+import org.qbicc.machine.object.ObjectFileProvider;
+import org.qbicc.machine.tool.CToolChain;
+import org.qbicc.tool.llvm.LlvmToolChain;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.MethodBody;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+import org.qbicc.type.descriptor.TypeDescriptor;
+import org.qbicc.type.generic.ClassSignature;
+import org.qbicc.type.generic.MethodSignature;
+import org.qbicc.type.generic.TypeSignature;
+
+/**
+ * A class which is usable as a base class for test cases which build and transform program graphs.  Unlike
+ * {@link AbstractCompilerTestCase}, no tool chain or class library is needed, so the graphs may only use the
+ * synthetic types defined by the test case itself.
+ */
+public abstract class AbstractGraphTestCase {
+    public static CompilationContext ctxt;
+    public static ClassContext bootClassContext;
+    public static TypeSystem ts;
+    public static LiteralFactory lf;
+    private static Driver driver;
+
+    @BeforeAll
+    protected static void setUp() {
+        final Driver.Builder builder = Driver.builder();
+        builder.setInitialContext(new BaseDiagnosticContext());
+        builder.setOutputDirectory(Path.of(System.getProperty("user.dir", "."), "target", "test-fwk"));
+        final Platform platform = Platform.HOST_PLATFORM;
+        builder.setTargetPlatform(platform);
+        Optional<ObjectFileProvider> ofp = ObjectFileProvider.findProvider(platform.getObjectType(), AbstractGraphTestCase.class.getClassLoader());
+        if (ofp.isEmpty()) {
+            fail("No object file provider found for " + platform);
+            throw unreachableCode();
+        }
+        builder.setObjectFileProvider(ofp.get());
+        // graphs are never compiled, so the tool chains are never used
+        builder.setToolChain(Stubs.unsupported(CToolChain.class));
+        builder.setLlvmToolChain(Stubs.unsupported(LlvmToolChain.class));
+        final TypeSystem ts = TypeSystem.builder().build();
+        builder.setTypeSystem(ts);
+        AbstractGraphTestCase.ts = ts;
+        builder.setVmFactory(CompilationContext::getVm);
+
+        final Driver driver = builder.build();
+        ctxt = driver.getCompilationContext();
+        bootClassContext = ctxt.getBootstrapClassContext();
+        lf = ctxt.getLiteralFactory();
+        AbstractGraphTestCase.driver = driver;
+    }
+
+    @AfterAll
+    protected static void cleanUp() {
+        // avoid leaking things
+        driver.close();
+    }
+
+    /**
+     * Define a class with {@code int} instance fields.  The class is not registered with the class context.
+     *
+     * @param name the internal name of the class
+     * @param superClass the superclass, or {@code null} for none
+     * @param fieldNames the names of the instance fields
+     * @return the defined class
+     */
+    protected static DefinedTypeDefinition defineClass(String name, DefinedTypeDefinition superClass, String... fieldNames) {
+        return defineClass(name, superClass, List.of(), fieldNames);
+    }
+
+    /**
+     * Define a class with public instance methods without parameters or return value, and {@code int} instance
+     * fields.  The methods have no bodies.  The class is not registered with the class context.
+     *
+     * @param name the internal name of the class
+     * @param superClass the superclass, or {@code null} for none
+     * @param methodNames the names of the instance methods
+     * @param fieldNames the names of the instance fields
+     * @return the defined class
+     */
+    protected static DefinedTypeDefinition defineClass(String name, DefinedTypeDefinition superClass, List<String> methodNames, String... fieldNames) {
+        return defineClass(name, superClass, methodNames, BaseTypeDescriptor.I, fieldNames);
+    }
+
+    /**
+     * Define a class with public instance methods without parameters or return value, and instance fields of the
+     * given type.  The methods have no bodies.  The class is not registered with the class context.
+     *
+     * @param name the internal name of the class
+     * @param superClass the superclass, or {@code null} for none
+     * @param methodNames the names of the instance methods
+     * @param fieldType the type of the instance fields
+     * @param fieldNames the names of the instance fields
+     * @return the defined class
+     */
+    protected static DefinedTypeDefinition defineClass(String name, DefinedTypeDefinition superClass, List<String> methodNames, TypeDescriptor fieldType, String... fieldNames) {
+        return defineClass(name, superClass, methodNames, fieldType, ClassFile.ACC_PRIVATE | ClassFile.ACC_FINAL, fieldNames);
+    }
+
+    /**
+     * Define a class with public instance methods without parameters or return value, and fields of the given type
+     * and modifiers.  The methods have no bodies.  The class is not registered with the class context.
+     *
+     * @param name the internal name of the class
+     * @param superClass the superclass, or {@code null} for none
+     * @param methodNames the names of the instance methods
+     * @param fieldType the type of the fields
+     * @param fieldModifiers the modifiers of the fields, e.g. {@link ClassFile#ACC_STATIC} for static fields
+     * @param fieldNames the names of the fields
+     * @return the defined class
+     */
+    protected static DefinedTypeDefinition defineClass(String name, DefinedTypeDefinition superClass, List<String> methodNames, TypeDescriptor fieldType, int fieldModifiers, String... fieldNames) {
+        DefinedTypeDefinition.Builder builder = DefinedTypeDefinition.Builder.basic();
+        builder.setContext(bootClassContext);
+        builder.setName(name);
+        builder.setSimpleName(name);
+        builder.setDescriptor(ClassTypeDescriptor.synthesize(bootClassContext, name));
+        builder.setSignature(ClassSignature.synthesize(bootClassContext, null, List.of()));
+        builder.setModifiers(ClassFile.ACC_SUPER | ClassFile.ACC_PUBLIC);
+        if (superClass == null) {
+            builder.setSuperClassName(null);
+        } else {
+            builder.setSuperClassName(superClass.getInternalName());
+            builder.setSuperClass(superClass);
+        }
+        builder.setInitializer((index, enclosing, b) -> {
+            b.setEnclosingType(enclosing);
+            return b.build();
+        }, 0);
+        for (int i = 0; i < fieldNames.length; i ++) {
+            builder.addField((index, enclosing, b) -> {
+                b.setEnclosingType(enclosing);
+                b.setSignature(TypeSignature.synthesize(bootClassContext, fieldType));
+                b.setModifiers(fieldModifiers);
+                return b.build();
+            }, i, fieldNames[i], fieldType);
+        }
+        for (int i = 0; i < methodNames.size(); i ++) {
+            builder.addMethod((index, enclosing, b) -> {
+                b.setEnclosingType(enclosing);
+                b.setSignature(MethodSignature.VOID_METHOD_SIGNATURE);
+                b.setModifiers(ClassFile.ACC_PUBLIC);
+                return b.build();
+            }, i, methodNames.get(i), MethodDescriptor.VOID_METHOD_DESCRIPTOR);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Define a method without parameters or return value.  Its body is given by the graph built for it.
+     *
+     * @param enclosing the enclosing class
+     * @param name the method name
+     * @param modifiers the method modifiers
+     * @return the method
+     */
+    protected static MethodElement defineMethod(DefinedTypeDefinition enclosing, String name, int modifiers) {
+        return defineMethod(enclosing, name, modifiers, MethodDescriptor.VOID_METHOD_DESCRIPTOR);
+    }
+
+    /**
+     * Define a method with the given descriptor.  Its body is given by the graph built for it, if any.  The
+     * classes named by the descriptor must be registered with the bootstrap class context.
+     *
+     * @param enclosing the enclosing class
+     * @param name the method name
+     * @param modifiers the method modifiers
+     * @param descriptor the method descriptor
+     * @return the method
+     */
+    protected static MethodElement defineMethod(DefinedTypeDefinition enclosing, String name, int modifiers, MethodDescriptor descriptor) {
+        MethodElement.Builder builder = MethodElement.builder(name, descriptor, 0);
+        builder.setEnclosingType(enclosing);
+        builder.setSignature(MethodSignature.synthesize(bootClassContext, descriptor));
+        builder.setModifiers(modifiers);
+        return builder.build();
+    }
+
+    /**
+     * Get a builder for the graph of the given element.
+     *
+     * @param element the element
+     * @return the builder, with no blocks begun yet
+     */
+    protected static BasicBlockBuilder newBuilder(ExecutableElement element) {
+        BasicBlockBuilder builder = BasicBlockBuilder.simpleBuilder(element);
+        builder.setFirstBuilder(builder);
+        return builder;
+    }
+
+    /**
+     * Finish and schedule a graph, and install it as the body of its element.
+     *
+     * @param builder the builder of the graph, whose last block was terminated
+     * @return the entry block of the graph
+     */
+    protected static BasicBlock finish(BasicBlockBuilder builder) {
+        builder.finish();
+        BasicBlock entryBlock = builder.getFirstBlock();
+        builder.getRootElement().replaceMethodBody(MethodBody.of(entryBlock, Slot.simpleArgList(0)));
+        return entryBlock;
+    }
+
+    /**
+     * Copy a finished graph through the given node visitor, and finish the copy.
+     *
+     * @param entryBlock the entry block of the original graph
+     * @param visitorFactory the visitor factory
+     * @return the entry block of the copy
+     */
+    protected static BasicBlock copy(BasicBlock entryBlock, BiFunction<CompilationContext, NodeVisitor<Node.Copier, Value, Node, BasicBlock>, NodeVisitor<Node.Copier, Value, Node, BasicBlock>> visitorFactory) {
+        BasicBlockBuilder builder = newBuilder(entryBlock.getTerminator().getElement());
+        Node.Copier.execute(entryBlock, builder, ctxt, visitorFactory);
+        return finish(builder);
+    }
+
+    /**
+     * Get the scheduled nodes of every block of a finished graph which are of the given kind.
+     *
+     * @param entryBlock the entry block of the graph
+     * @param kind the node class
+     * @return the nodes, in block order
+     */
+    protected static <N extends Node> List<N> findNodes(BasicBlock entryBlock, Class<N> kind) {
+        List<N> nodes = new ArrayList<>();
+        Set<BasicBlock> visited = new HashSet<>();
+        ArrayDeque<BasicBlock> queue = new ArrayDeque<>();
+        queue.add(entryBlock);
+        visited.add(entryBlock);
+        BasicBlock block;
+        while ((block = queue.poll()) != null) {
+            for (Node node : block.getInstructions()) {
+                if (kind.isInstance(node)) {
+                    nodes.add(kind.cast(node));
+                }
+            }
+            Terminator terminator = block.getTerminator();
+            int cnt = terminator.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                BasicBlock successor = terminator.getSuccessor(i);
+                if (visited.add(successor)) {
+                    queue.add(successor);
+                }
+            }
+        }
+        return nodes;
+    }
+}
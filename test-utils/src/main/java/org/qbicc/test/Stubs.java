@@ -0,0 +1,47 @@
+package org.qbicc.test;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+/**
+ * Stub implementations of interfaces, for the collaborators of a test which are not worth a real implementation.
+ */
+public final class Stubs {
+    private Stubs() {}
+
+    /**
+     * Get a stub of the given interface whose methods return fixed results by method name.  The methods of
+     * {@code Object} are implemented by identity, and every other method throws {@link UnsupportedOperationException}.
+     *
+     * @param type the interface to implement
+     * @param results the result of each implemented method, by method name
+     * @return the stub
+     * @param <T> the interface type
+     */
+    public static <T> T stub(Class<T> type, Map<String, ?> results) {
+        return type.cast(Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> switch (method.getName()) {
+            case "hashCode" -> Integer.valueOf(System.identityHashCode(proxy));
+            case "equals" -> Boolean.valueOf(proxy == args[0]);
+            case "toString" -> type.getSimpleName();
+            default -> {
+                Object result = results.get(method.getName());
+                if (result == null) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                yield result;
+            }
+        }));
+    }
+
+    /**
+     * Get a stub of the given interface whose methods (other than those of {@code Object}) all throw
+     * {@link UnsupportedOperationException}.
+     *
+     * @param type the interface to implement
+     * @return the stub
+     * @param <T> the interface type
+     */
+    public static <T> T unsupported(Class<T> type) {
+        return stub(type, Map.of());
+    }
+}